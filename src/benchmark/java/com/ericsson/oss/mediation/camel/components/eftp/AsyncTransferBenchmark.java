@@ -0,0 +1,175 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.*;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.SimpleRegistry;
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.Constants;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.SftpConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedSftpServer;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.LatencyProxy;
+
+/**
+ * Compares the throughput of collecting one file from each of a number of
+ * simulated network elements with a fixed number of route threads, when the
+ * route threads run the transfers themselves and when they hand them to the
+ * asynchronous transfer executor of the endpoint.
+ *
+ * <p>
+ * Every network element is the embedded SFTP server reached through a proxy
+ * injecting a round trip time, logged into with its own user name so that
+ * each has its own connection pool key.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncTransferBenchmark {
+
+    @Param({ "false", "true" })
+    private boolean asyncTransfer;
+
+    @Param({ "16" })
+    private int routeThreads;
+
+    @Param({ "256" })
+    private int networkElements;
+
+    @Param({ "40" })
+    private int roundTripMillis;
+
+    private EmbeddedSftpServer server;
+    private LatencyProxy proxy;
+    private DefaultCamelContext context;
+    private Producer producer;
+    private ExecutorService routeThreadPool;
+    private File file;
+
+    @Setup
+    public void setUp() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        file = File.createTempFile("eftp-async", ".xml");
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[64 * 1024]);
+        } finally {
+            out.close();
+        }
+
+        server = new EmbeddedSftpServer(EmbeddedSftpServer.findFreePort());
+        server.start();
+        proxy = new LatencyProxy(EmbeddedSftpServer.findFreePort(),
+                "localhost", server.getPort(), roundTripMillis / 2);
+        proxy.start();
+
+        final SimpleRegistry registry = new SimpleRegistry();
+        registry.put(Constants.SFTP_POOL, new SftpConnectionPool(1, 0, 20,
+                15000, 5000, 2000, 20));
+        final EventDrivenFtpComponent component = new EventDrivenFtpComponent();
+        component.setAsyncTransferPoolSize(networkElements);
+        context = new DefaultCamelContext(registry);
+        context.addComponent("eftp", component);
+        context.start();
+        producer = context.getEndpoint(
+                "eftp://benchmark?asyncTransfer=" + asyncTransfer)
+                .createProducer();
+        producer.start();
+        routeThreadPool = Executors.newFixedThreadPool(routeThreads);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        routeThreadPool.shutdownNow();
+        producer.stop();
+        context.stop();
+        proxy.stop();
+        server.stop();
+        file.delete();
+    }
+
+    /**
+     * Collects one file from every network element and waits until all
+     * exchanges are complete
+     */
+    @Benchmark
+    @OperationsPerInvocation(256)
+    public int collectFromAllNetworkElements() throws Exception {
+        final CountDownLatch done = new CountDownLatch(networkElements);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < networkElements; i++) {
+            final Exchange exchange = newExchange("ne" + i);
+            routeThreadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ((AsyncProcessor) producer).process(exchange,
+                            new AsyncCallback() {
+                                @Override
+                                public void done(final boolean doneSync) {
+                                    if (!consume(exchange)) {
+                                        failures.incrementAndGet();
+                                    }
+                                    done.countDown();
+                                }
+                            });
+                }
+            });
+        }
+        done.await();
+        return failures.get();
+    }
+
+    private Exchange newExchange(final String user) {
+        final Exchange exchange = producer.createExchange();
+        final Message in = exchange.getIn();
+        in.setHeader(EftpConstants.EFTP_SECURE_FTP, "true");
+        in.setHeader(EftpConstants.EFTP_TARGET_IP_ADDRESS, "localhost");
+        in.setHeader(EftpConstants.EFTP_TARGET_PORT,
+                String.valueOf(proxy.getListenPort()));
+        in.setHeader(EftpConstants.EFTP_TARGET_USERNAME, user);
+        in.setHeader(EftpConstants.EFTP_TARGET_PASSWORD, user);
+        in.setHeader(EftpConstants.EFTP_SOURCE_DIRECTORY, file.getParent());
+        in.setHeader(EftpConstants.EFTP_SOURCE_FILE, file.getName());
+        in.setHeader(EftpConstants.EFTP_DESTINATION_DIRECTORY, "/tmp");
+        in.setHeader(EftpConstants.EFTP_DESTINATION_FILE, file.getName());
+        return exchange;
+    }
+
+    /**
+     * Reads the body to the end, which returns the channel to the pool
+     */
+    private static boolean consume(final Exchange exchange) {
+        if (exchange.getException() != null) {
+            return false;
+        }
+        final byte[] buffer = new byte[8192];
+        try (InputStream body = exchange.getIn().getBody(InputStream.class)) {
+            while (body.read(buffer) != -1) {
+                // drain
+            }
+            return true;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Producer;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.SimpleRegistry;
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.farm.ImpairedLinkProxy;
+import com.ericsson.oss.mediation.camel.components.eftp.farm.NetworkElementProfile;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.Constants;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.SftpConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedSftpServer;
+
+/**
+ * Measures the retrieval of a PM XML file over SFTP uncompressed, with zlib
+ * compression of the SSH transport and compressed on the network element
+ * with gzip over an exec channel, through a link of limited bandwidth to the
+ * embedded sshd-core server.
+ *
+ * <p>
+ * The score is the time to retrieve the file. At the end of every iteration
+ * the CPU time of the process per file and the bytes which crossed the link
+ * per file are printed, which is the other side of the trade off. The server
+ * runs in the same process, so the CPU time is that of both ends; with
+ * remote compression the gzip process of the server is not included.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionTradeoffBenchmark {
+
+    @Param({ "none", "ssh", "remote" })
+    private String compression;
+
+    /**
+     * bytes per second of the link, 0 for the loopback interface
+     */
+    @Param({ "262144", "2097152", "0" })
+    private long bandwidth;
+
+    @Param({ "1048576" })
+    private int fileSize;
+
+    private EmbeddedSftpServer server;
+    private ImpairedLinkProxy proxy;
+    private ExecutorService executor;
+    private DefaultCamelContext context;
+    private Producer producer;
+    private File file;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    private long files;
+    private long cpuAtStart;
+    private long relayedAtStart;
+
+    @Setup
+    public void setUp() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        file = File.createTempFile("eftp-compression", ".xml");
+        final Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        try {
+            writePmFile(out, fileSize);
+        } finally {
+            out.close();
+        }
+
+        server = new EmbeddedSftpServer(EmbeddedSftpServer.findFreePort())
+                .withCompression().withCommandExecution();
+        server.start();
+        executor = Executors.newCachedThreadPool();
+        proxy = new ImpairedLinkProxy(0, "localhost", server.getPort(),
+                new NetworkElementProfile().withRoundTrip(20).withBandwidth(
+                        bandwidth), executor, 1);
+        proxy.start();
+
+        final SimpleRegistry registry = new SimpleRegistry();
+        registry.put(Constants.SFTP_POOL, new SftpConnectionPool(1, 0, 20,
+                15000, 5000, 2000, 20));
+        context = new DefaultCamelContext(registry);
+        context.start();
+        final EventDrivenFtpEndpoint endpoint = context.getEndpoint(
+                "eftp://benchmark", EventDrivenFtpEndpoint.class);
+        if ("ssh".equals(compression)) {
+            endpoint.setSshCompression("zlib@openssh.com,zlib,none");
+        } else if ("remote".equals(compression)) {
+            endpoint.setSftpRemoteCompression(true);
+        }
+        producer = endpoint.createProducer();
+        producer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        producer.stop();
+        context.stop();
+        proxy.stop();
+        server.stop();
+        executor.shutdownNow();
+        file.delete();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        files = 0;
+        cpuAtStart = processCpuTime();
+        relayedAtStart = proxy.getRelayedBytes();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        if (files > 0) {
+            System.out.printf("%n%s compression at %d B/s: %.1f ms CPU, "
+                    + "%d bytes on the link per file%n", compression,
+                    bandwidth, (processCpuTime() - cpuAtStart) / 1e6 / files,
+                    (proxy.getRelayedBytes() - relayedAtStart) / files);
+        }
+    }
+
+    @Benchmark
+    public long retrieveFile() throws Exception {
+        final Exchange exchange = producer.createExchange();
+        exchange.getIn().setHeader(EftpConstants.EFTP_SECURE_FTP, "true");
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_IP_ADDRESS,
+                "localhost");
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_PORT,
+                String.valueOf(proxy.getListenPort()));
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_USERNAME, "bench");
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_PASSWORD, "bench");
+        exchange.getIn().setHeader(EftpConstants.EFTP_SOURCE_DIRECTORY,
+                file.getParent());
+        exchange.getIn().setHeader(EftpConstants.EFTP_SOURCE_FILE,
+                file.getName());
+        exchange.getIn().setHeader(EftpConstants.EFTP_DESTINATION_DIRECTORY,
+                "/tmp");
+        exchange.getIn().setHeader(EftpConstants.EFTP_DESTINATION_FILE,
+                file.getName());
+        producer.process(exchange);
+
+        long total = 0;
+        try (InputStream body = exchange.getIn().getBody(InputStream.class)) {
+            int count;
+            while ((count = body.read(buffer)) != -1) {
+                total += count;
+            }
+        }
+        if (total != file.length()) {
+            throw new IllegalStateException("Read " + total + " of "
+                    + file.length() + " bytes");
+        }
+        files++;
+        return total;
+    }
+
+    private static long processCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory
+                .getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    /**
+     * Writes measurement values in the 3GPP XML format of PM files, which
+     * compresses about as well as real ones
+     */
+    private static void writePmFile(final Writer out, final int size)
+            throws IOException {
+        final Random random = new Random(1);
+        final StringBuilder xml = new StringBuilder(size + 256);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<measCollecFile><measData><measInfo>\n");
+        int cell = 0;
+        while (xml.length() < size) {
+            xml.append("<measValue measObjLdn=\"ManagedElement=1,")
+                    .append("ENodeBFunction=1,EUtranCellFDD=").append(cell++)
+                    .append("\">");
+            for (int r = 1; r <= 8; r++) {
+                xml.append("<r p=\"").append(r).append("\">")
+                        .append(random.nextInt(100000)).append("</r>");
+            }
+            xml.append("</measValue>\n");
+        }
+        xml.setLength(size);
+        out.write(xml.toString());
+    }
+
+}
@@ -0,0 +1,132 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.KeyedConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.jcraft.jsch.ChannelSftp;
+
+/**
+ * Compares the per exchange cost of processing an exchange with a delegating
+ * producer created, started and stopped for the exchange, which is what
+ * Camel does for a producer which is not a singleton, against processing it
+ * with the delegating producer cached for the lifetime of the endpoint. The
+ * pools lend no connection, so both measure the dispatch and the producer
+ * lifecycle rather than the network.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EftpDelegatingProducerBenchmark {
+
+    @Param({ "true", "false" })
+    private String secureFtp;
+
+    private DefaultCamelContext context;
+    private EventDrivenFtpEndpoint endpoint;
+    private EftpDelegatingProducer producer;
+    private Exchange exchange;
+
+    @Setup
+    public void setUp() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.OFF);
+
+        context = new DefaultCamelContext();
+        final EventDrivenFtpComponent component = new EventDrivenFtpComponent();
+        component.setCamelContext(context);
+        endpoint = new EventDrivenFtpEndpoint("eftp://benchmark", component);
+        endpoint.setFtpPool(new UnreachablePool<FTPClient>());
+        endpoint.setSftpPool(new UnreachablePool<ChannelSftp>());
+
+        producer = new EftpDelegatingProducer(endpoint);
+        producer.start();
+
+        exchange = new DefaultExchange(context);
+        exchange.getIn().setHeader(EftpConstants.EFTP_SECURE_FTP, secureFtp);
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_IP_ADDRESS,
+                "10.0.0.1");
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_PORT, "21");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        producer.stop();
+        context.stop();
+    }
+
+    @Benchmark
+    public void processWithProducerPerExchange(final Blackhole blackhole)
+            throws Exception {
+        final EftpDelegatingProducer perExchange = new EftpDelegatingProducer(
+                endpoint);
+        perExchange.start();
+        try {
+            process(perExchange, blackhole);
+        } finally {
+            perExchange.stop();
+        }
+    }
+
+    @Benchmark
+    public void processWithCachedProducer(final Blackhole blackhole) {
+        process(producer, blackhole);
+    }
+
+    private void process(final EftpDelegatingProducer delegating,
+            final Blackhole blackhole) {
+        try {
+            delegating.process(exchange);
+        } catch (final GenericEftpException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    /**
+     * A pool which fails every borrow straight away
+     */
+    private static final class UnreachablePool<C> implements
+            KeyedConnectionPool<C> {
+
+        private final Exception unreachable = new IllegalStateException(
+                "benchmark pool lends no connections");
+
+        @Override
+        public C borrowObject(final ConnectionConfig key) throws Exception {
+            throw unreachable;
+        }
+
+        @Override
+        public void returnObject(final ConnectionConfig key,
+                final C connection) {
+        }
+
+        @Override
+        public void invalidateObject(final ConnectionConfig key,
+                final C connection) {
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EftpUtilities;
+
+/**
+ * Measures the path helpers called for every exchange, for each combination
+ * of leading and trailing separators on the directory and file name.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EftpUtilitiesBenchmark {
+
+    @Param({ "/var/opt/ericsson/nms_umts_pms_seg/segment1/XML/SubNetwork=ONRM_ROOT_MO/MeContext=RNC01",
+            "/var/opt/ericsson/nms_umts_pms_seg/segment1/XML/SubNetwork=ONRM_ROOT_MO/MeContext=RNC01/" })
+    private String directory;
+
+    @Param({ "A20120927.1000+0100-1015+0100_SubNetwork=ONRM_ROOT_MO,MeContext=RNC01_statsfile.xml.gz",
+            "/A20120927.1000+0100-1015+0100_SubNetwork=ONRM_ROOT_MO,MeContext=RNC01_statsfile.xml.gz" })
+    private String file;
+
+    @Benchmark
+    public String normalizeSourceFilePath() {
+        return EftpUtilities.normalizeSourceFilePath(directory, file);
+    }
+
+    @Benchmark
+    public String createFilePathWithSeparator() {
+        return EftpUtilities.createFilePathWithSeparator(directory, file);
+    }
+
+}
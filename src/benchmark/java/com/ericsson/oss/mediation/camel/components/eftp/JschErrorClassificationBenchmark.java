@@ -0,0 +1,41 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the classification of the messages of the JSchExceptions thrown
+ * when borrowing an SFTP channel fails, from the first category matched to a
+ * message matching none.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JschErrorClassificationBenchmark {
+
+    @Param({ "java.net.ConnectException: Connection timed out",
+            "java.net.ConnectException: Connection refused", "Auth fail",
+            "Algorithm negotiation fail" })
+    private String message;
+
+    @Benchmark
+    public Object classifyJschError() {
+        return EventDrivenSftpProducer.classifyJschError(message);
+    }
+
+}
@@ -0,0 +1,98 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.*;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.SftpConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedSftpServer;
+import com.jcraft.jsch.ChannelSftp;
+
+/**
+ * Measures borrowing and returning an SFTP channel by many threads at once,
+ * as at a ROP boundary, from the camel-engine-jca-common pool and from the
+ * {@link LockFreeKeyedConnectionPool}, with all the threads on one hot
+ * network element or spread over many. The sessions to the embedded sshd-core
+ * server are opened during setup, so only the pool bookkeeping is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class KeyedPoolContentionBenchmark {
+
+    @Param({ "jca", "lockfree" })
+    private String pool;
+
+    @Param({ "1", "64" })
+    private int keys;
+
+    private EmbeddedSftpServer server;
+    private KeyedConnectionPool<ChannelSftp> connectionPool;
+    private ConnectionConfig[] connectionKeys;
+
+    @Setup
+    public void setUp() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        server = new EmbeddedSftpServer(EmbeddedSftpServer.findFreePort());
+        server.start();
+
+        if ("lockfree".equals(pool)) {
+            final LockFreeKeyedConnectionPool<ChannelSftp> lockFree = new LockFreeKeyedConnectionPool<ChannelSftp>(
+                    new SftpConnectionFactory(15000));
+            lockFree.setMaxPerKey(32);
+            lockFree.setMaxTotal(2048);
+            connectionPool = lockFree;
+        } else {
+            connectionPool = new JcaSftpConnectionPool(new SftpConnectionPool(
+                    1, 0, 20, 15000, 5000, 2000, 20));
+        }
+
+        connectionKeys = new ConnectionConfig[keys];
+        for (int i = 0; i < keys; i++) {
+            connectionKeys[i] = new ConnectionConfig("localhost",
+                    server.getPort(), "bench" + i, "bench", "true");
+            // open a session for each key up front
+            final ChannelSftp channel = connectionPool
+                    .borrowObject(connectionKeys[i]);
+            connectionPool.returnObject(connectionKeys[i], channel);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (connectionPool instanceof LockFreeKeyedConnectionPool) {
+            ((LockFreeKeyedConnectionPool<ChannelSftp>) connectionPool)
+                    .close();
+        }
+        server.stop();
+    }
+
+    @Benchmark
+    public ChannelSftp borrowAndReturn() throws Exception {
+        final ConnectionConfig key = connectionKeys[ThreadLocalRandom
+                .current().nextInt(keys)];
+        final ChannelSftp channel = connectionPool.borrowObject(key);
+        connectionPool.returnObject(key, channel);
+        return channel;
+    }
+}
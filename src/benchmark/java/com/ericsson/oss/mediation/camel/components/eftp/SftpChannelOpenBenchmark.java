@@ -0,0 +1,86 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.MultiplexedSftpConnectionFactory;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.SftpConnectionFactory;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedSftpServer;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.LatencyProxy;
+import com.jcraft.jsch.ChannelSftp;
+
+/**
+ * Measures the cost of a new pooled SFTP connection to the embedded sshd-core
+ * server, reached through a proxy injecting a round trip time: a session and
+ * a channel of its own, or a channel on a session already open to the same
+ * network element.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SftpChannelOpenBenchmark {
+
+    @Param({ "0", "40" })
+    private int roundTripMillis;
+
+    @Param({ "session", "multiplexed" })
+    private String factory;
+
+    private EmbeddedSftpServer server;
+    private LatencyProxy proxy;
+    private SftpConnectionFactory connectionFactory;
+    private ConnectionConfig key;
+    private ChannelSftp anchor;
+
+    @Setup
+    public void setUp() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        server = new EmbeddedSftpServer(EmbeddedSftpServer.findFreePort());
+        server.start();
+        proxy = new LatencyProxy(EmbeddedSftpServer.findFreePort(),
+                "localhost", server.getPort(), roundTripMillis / 2);
+        proxy.start();
+
+        connectionFactory = "multiplexed".equals(factory) ? new MultiplexedSftpConnectionFactory(
+                15000, 8) : new SftpConnectionFactory(15000);
+        key = new ConnectionConfig("localhost", proxy.getListenPort(),
+                "bench", "bench", "true");
+        // keeps the shared session open between invocations
+        anchor = connectionFactory.create(key);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connectionFactory.destroy(anchor);
+        proxy.stop();
+        server.stop();
+    }
+
+    @Benchmark
+    public String openChannel() throws Exception {
+        final ChannelSftp channel = connectionFactory.create(key);
+        try {
+            return channel.pwd();
+        } finally {
+            connectionFactory.destroy(channel);
+        }
+    }
+}
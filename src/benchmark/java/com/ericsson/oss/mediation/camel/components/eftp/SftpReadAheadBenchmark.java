@@ -0,0 +1,134 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Producer;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.SimpleRegistry;
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.Constants;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.SftpConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedSftpServer;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.LatencyProxy;
+
+/**
+ * Measures single file SFTP retrieval through the eftp producer from the
+ * embedded sshd-core server, reached through a proxy injecting a round trip
+ * time, for different numbers of outstanding read requests and read sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SftpReadAheadBenchmark {
+
+    @Param({ "0", "40" })
+    private int roundTripMillis;
+
+    @Param({ "1", "16", "64" })
+    private int sftpBulkRequests;
+
+    @Param({ "8192", "32768" })
+    private int sftpReadSize;
+
+    @Param({ "8388608" })
+    private int fileSize;
+
+    private EmbeddedSftpServer server;
+    private LatencyProxy proxy;
+    private DefaultCamelContext context;
+    private Producer producer;
+    private File file;
+
+    @Setup
+    public void setUp() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        file = File.createTempFile("eftp-readahead", ".bin");
+        final byte[] content = new byte[fileSize];
+        new Random(1).nextBytes(content);
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+
+        server = new EmbeddedSftpServer(EmbeddedSftpServer.findFreePort());
+        server.start();
+        proxy = new LatencyProxy(EmbeddedSftpServer.findFreePort(),
+                "localhost", server.getPort(), roundTripMillis / 2);
+        proxy.start();
+
+        final SimpleRegistry registry = new SimpleRegistry();
+        registry.put(Constants.SFTP_POOL, new SftpConnectionPool(1, 0, 20,
+                15000, 5000, 2000, 20));
+        context = new DefaultCamelContext(registry);
+        context.start();
+        producer = context.getEndpoint(
+                "eftp://benchmark?sftpBulkRequests=" + sftpBulkRequests
+                        + "&sftpReadSize=" + sftpReadSize).createProducer();
+        producer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        producer.stop();
+        context.stop();
+        proxy.stop();
+        server.stop();
+        file.delete();
+    }
+
+    @Benchmark
+    public long retrieveFile() throws Exception {
+        final Exchange exchange = producer.createExchange();
+        exchange.getIn().setHeader(EftpConstants.EFTP_SECURE_FTP, "true");
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_IP_ADDRESS,
+                "localhost");
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_PORT,
+                String.valueOf(proxy.getListenPort()));
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_USERNAME, "bench");
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_PASSWORD, "bench");
+        exchange.getIn().setHeader(EftpConstants.EFTP_SOURCE_DIRECTORY,
+                file.getParent());
+        exchange.getIn().setHeader(EftpConstants.EFTP_SOURCE_FILE,
+                file.getName());
+        exchange.getIn().setHeader(EftpConstants.EFTP_DESTINATION_DIRECTORY,
+                "/tmp");
+        exchange.getIn().setHeader(EftpConstants.EFTP_DESTINATION_FILE,
+                file.getName());
+        producer.process(exchange);
+
+        final InputStream body = exchange.getIn().getBody(InputStream.class);
+        final byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        try {
+            int count;
+            while ((count = body.read(buffer)) != -1) {
+                total += count;
+            }
+        } finally {
+            body.close();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,132 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.*;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.SimpleRegistry;
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.*;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedFtpServer;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedSftpServer;
+
+/**
+ * Measures the retrieval of a single file, from sending the exchange to the
+ * producer until the body has been read to the end, against the in process
+ * ftpserver-core and sshd-core servers. The connection is pooled, so the
+ * time is that of the transfer itself rather than of the login.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SingleFileRetrievalBenchmark {
+
+    @Param({ "ftp", "sftp" })
+    private String protocol;
+
+    @Param({ "1024", "1048576", "16777216" })
+    private int fileSize;
+
+    private EmbeddedSftpServer sftpServer;
+    private EmbeddedFtpServer ftpServer;
+    private int port;
+    private DefaultCamelContext context;
+    private Producer producer;
+    private File file;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    @Setup
+    public void setUp() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        file = File.createTempFile("eftp-retrieval", ".xml.gz");
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[fileSize]);
+        } finally {
+            out.close();
+        }
+
+        port = EmbeddedSftpServer.findFreePort();
+        final SimpleRegistry registry = new SimpleRegistry();
+        if ("sftp".equals(protocol)) {
+            sftpServer = new EmbeddedSftpServer(port);
+            sftpServer.start();
+            registry.put(Constants.SFTP_POOL, new SftpConnectionPool(1, 0, 20,
+                    15000, 5000, 2000, 20));
+        } else {
+            ftpServer = new EmbeddedFtpServer(port, file.getParentFile(), 20);
+            ftpServer.start();
+            registry.put(Constants.FTP_POOL, new FtpConnectionPool(1, 0, 20,
+                    15000, 5000, 2000, 20));
+        }
+        context = new DefaultCamelContext(registry);
+        context.start();
+        producer = context.getEndpoint("eftp://benchmark").createProducer();
+        producer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        producer.stop();
+        context.stop();
+        if (sftpServer != null) {
+            sftpServer.stop();
+        }
+        if (ftpServer != null) {
+            ftpServer.stop();
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public long retrieveFile() throws Exception {
+        final Exchange exchange = producer.createExchange();
+        final Message in = exchange.getIn();
+        final boolean secure = "sftp".equals(protocol);
+        in.setHeader(EftpConstants.EFTP_SECURE_FTP, String.valueOf(secure));
+        in.setHeader(EftpConstants.EFTP_TARGET_IP_ADDRESS, "localhost");
+        in.setHeader(EftpConstants.EFTP_TARGET_PORT, String.valueOf(port));
+        in.setHeader(EftpConstants.EFTP_TARGET_USERNAME, "benchmark");
+        in.setHeader(EftpConstants.EFTP_TARGET_PASSWORD, "benchmark");
+        // the FTP user is chrooted to the directory of the file
+        in.setHeader(EftpConstants.EFTP_SOURCE_DIRECTORY,
+                secure ? file.getParent() : "/");
+        in.setHeader(EftpConstants.EFTP_SOURCE_FILE, file.getName());
+        in.setHeader(EftpConstants.EFTP_DESTINATION_DIRECTORY, "/tmp");
+        in.setHeader(EftpConstants.EFTP_DESTINATION_FILE, file.getName());
+
+        producer.process(exchange);
+
+        long read = 0;
+        try (InputStream body = exchange.getIn().getBody(InputStream.class)) {
+            int count;
+            while ((count = body.read(buffer)) != -1) {
+                read += count;
+            }
+        }
+        if (read != fileSize) {
+            throw new IllegalStateException("Read " + read + " of "
+                    + fileSize + " bytes");
+        }
+        return read;
+    }
+
+}
@@ -0,0 +1,174 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.io.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.*;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.SimpleRegistry;
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.*;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedFtpServer;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedSftpServer;
+
+/**
+ * Measures the time to collect one file from each of 100 to 10,000 simulated
+ * network elements at once, with asynchronous transfers running on a bounded
+ * pool of platform threads or on virtual threads.
+ *
+ * <p>
+ * Each network element is a distinct user of the embedded sshd-core or
+ * ftpserver-core server, so every transfer borrows a connection under its own
+ * pool key. All exchanges are submitted from the benchmark thread, so the
+ * number of transfers in flight is bounded only by the transfer executor. On
+ * JVMs without virtual threads both variants use the platform pool.
+ * </p>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadScalingBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    private int networkElements;
+
+    @Param({ "sftp", "ftp" })
+    private String protocol;
+
+    @Param({ "false", "true" })
+    private boolean virtualThreads;
+
+    @Param({ "200" })
+    private int asyncTransferPoolSize;
+
+    private EmbeddedSftpServer sftpServer;
+    private EmbeddedFtpServer ftpServer;
+    private int port;
+    private DefaultCamelContext context;
+    private Producer producer;
+    private File file;
+
+    @Setup
+    public void setUp() throws Exception {
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        file = File.createTempFile("eftp-scaling", ".xml");
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[16 * 1024]);
+        } finally {
+            out.close();
+        }
+
+        port = EmbeddedSftpServer.findFreePort();
+        final SimpleRegistry registry = new SimpleRegistry();
+        if ("sftp".equals(protocol)) {
+            sftpServer = new EmbeddedSftpServer(port);
+            sftpServer.start();
+            registry.put(Constants.SFTP_POOL, new SftpConnectionPool(1, 0, 20,
+                    15000, 5000, 2000, 20));
+        } else {
+            ftpServer = new EmbeddedFtpServer(port, file.getParentFile(),
+                    networkElements * 2);
+            ftpServer.start();
+            registry.put(Constants.FTP_POOL, new FtpConnectionPool(1, 0, 20,
+                    15000, 5000, 2000, 20));
+        }
+        final EventDrivenFtpComponent component = new EventDrivenFtpComponent();
+        component.setVirtualThreads(virtualThreads);
+        component.setAsyncTransferPoolSize(asyncTransferPoolSize);
+        context = new DefaultCamelContext(registry);
+        context.addComponent("eftp", component);
+        context.start();
+        producer = context.getEndpoint("eftp://benchmark?asyncTransfer=true")
+                .createProducer();
+        producer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        producer.stop();
+        context.stop();
+        if (sftpServer != null) {
+            sftpServer.stop();
+        }
+        if (ftpServer != null) {
+            ftpServer.stop();
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public int collectFromAllNetworkElements() throws Exception {
+        final CountDownLatch done = new CountDownLatch(networkElements);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < networkElements; i++) {
+            final Exchange exchange = newExchange("ne" + i);
+            ((AsyncProcessor) producer).process(exchange, new AsyncCallback() {
+                @Override
+                public void done(final boolean doneSync) {
+                    if (!consume(exchange)) {
+                        failures.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return failures.get();
+    }
+
+    private Exchange newExchange(final String user) {
+        final boolean secure = "sftp".equals(protocol);
+        final Exchange exchange = producer.createExchange();
+        final Message in = exchange.getIn();
+        in.setHeader(EftpConstants.EFTP_SECURE_FTP, String.valueOf(secure));
+        in.setHeader(EftpConstants.EFTP_TARGET_IP_ADDRESS, "localhost");
+        in.setHeader(EftpConstants.EFTP_TARGET_PORT, String.valueOf(port));
+        in.setHeader(EftpConstants.EFTP_TARGET_USERNAME, user);
+        in.setHeader(EftpConstants.EFTP_TARGET_PASSWORD, user);
+        // the FTP users are chrooted to the directory of the file
+        in.setHeader(EftpConstants.EFTP_SOURCE_DIRECTORY,
+                secure ? file.getParent() : "/");
+        in.setHeader(EftpConstants.EFTP_SOURCE_FILE, file.getName());
+        in.setHeader(EftpConstants.EFTP_DESTINATION_DIRECTORY, "/tmp");
+        in.setHeader(EftpConstants.EFTP_DESTINATION_FILE, file.getName());
+        return exchange;
+    }
+
+    /**
+     * Reads the body to the end, which returns the connection to the pool
+     */
+    private static boolean consume(final Exchange exchange) {
+        if (exchange.getException() != null) {
+            return false;
+        }
+        final byte[] buffer = new byte[8192];
+        try (InputStream body = exchange.getIn().getBody(InputStream.class)) {
+            while (body.read(buffer) != -1) {
+                // drain
+            }
+            return true;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+}
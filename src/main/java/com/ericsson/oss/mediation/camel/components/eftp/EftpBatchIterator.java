@@ -0,0 +1,276 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import org.apache.camel.*;
+import org.apache.camel.impl.DefaultMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.PooledConnectionRelease;
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EftpUtilities;
+
+/**
+ * Retrieves a batch of files from one directory over a single borrowed
+ * connection.
+ *
+ * <p>
+ * A batch is requested by setting either the srcFiles header, to a
+ * {@link Collection} of file names or a {@link Map} of source to destination
+ * file names, or the srcFilePattern header, to a glob matched against the
+ * names of the files in srcDir. The producer then sets the body to an instance
+ * of this class, which can be split with
+ * <code>split(body()).streaming()</code>: each {@link Message} returned
+ * carries the stream of one file and the same headers as a single file
+ * exchange. Files are retrieved lazily, one at a time, and the stream of the
+ * previous file is closed before the next one is requested.
+ * </p>
+ *
+ * <p>
+ * A file which cannot be retrieved, while the connection can still retrieve
+ * the others, does not end the batch: its {@link Message} has no body and
+ * the reason in the fileError header, and the next file follows. Any other
+ * error closes the iterator and is thrown.
+ * </p>
+ *
+ * <p>
+ * The connection is released once the last file has been processed, when the
+ * iterator is closed, or when the exchange completes.
+ * </p>
+ */
+public abstract class EftpBatchIterator implements Iterator<Message>, Closeable {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(EftpBatchIterator.class);
+
+    private final Map<String, String> files;
+    private final Iterator<Map.Entry<String, String>> pending;
+    private final String srcDir;
+    private final String destDir;
+    private final PooledConnectionRelease<?> release;
+
+    private InputStream current;
+    private boolean closed;
+
+    /**
+     * @param files
+     *            the source file names mapped to their destination file names
+     * @param srcDir
+     *            the remote directory of the files
+     * @param destDir
+     *            the destination directory of the files
+     * @param release
+     *            release of the borrowed connection, null if the route
+     *            releases the connection itself
+     */
+    protected EftpBatchIterator(final Map<String, String> files,
+            final String srcDir, final String destDir,
+            final PooledConnectionRelease<?> release) {
+        this.files = files;
+        this.pending = files.entrySet().iterator();
+        this.srcDir = srcDir;
+        this.destDir = destDir;
+        this.release = release;
+    }
+
+    /**
+     * Opens the stream of the next file on the borrowed connection
+     *
+     * @param srcDir
+     *            the remote directory of the file
+     * @param srcFile
+     *            the name of the file
+     */
+    protected abstract InputStream retrieve(String srcDir, String srcFile)
+            throws GenericEftpException;
+
+    /**
+     * @param error
+     *            the error retrieving a file
+     * @return true if the error only concerns that file, such as a file
+     *         missing from the directory, and the connection can retrieve the
+     *         next files; false, the default, if the batch cannot go on
+     */
+    protected boolean isFileError(final GenericEftpException error) {
+        return false;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (pending.hasNext()) {
+            return true;
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public Message next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (!closeCurrent()) {
+            close();
+            throw new RuntimeCamelException(
+                    "Connection not usable after previous file of the batch from "
+                            + srcDir);
+        }
+        final Map.Entry<String, String> file = pending.next();
+        GenericEftpException fileError = null;
+        try {
+            current = retrieve(srcDir, file.getKey());
+        } catch (final GenericEftpException e) {
+            LOG.error("Error code: [{}] and description: [{}] retrieving {}",
+                    new Object[] { e.getErrorCode(), e.getErrorDescription(),
+                            file.getKey() });
+            if (!isFileError(e)) {
+                close();
+                throw new RuntimeCamelException(e);
+            }
+            fileError = e;
+        }
+
+        final Message message = new DefaultMessage();
+        message.setHeader(EftpConstants.EFTP_SOURCE_DIRECTORY, srcDir);
+        message.setHeader(EftpConstants.EFTP_SOURCE_FILE, file.getKey());
+        message.setHeader(EftpConstants.EFTP_DESTINATION_DIRECTORY, destDir);
+        message.setHeader(EftpConstants.EFTP_DESTINATION_FILE, file.getValue());
+        message.setHeader(Exchange.FILE_NAME,
+                EftpUtilities.createFilePathWithSeparator(destDir,
+                        file.getValue()));
+        if (fileError != null) {
+            message.setHeader(EftpConstants.EFTP_FILE_ERROR, fileError);
+        }
+        message.setBody(current);
+        return message;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Closes the stream of the current file and releases the connection
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        final boolean clean = closeCurrent();
+        if (release != null) {
+            release.release(clean);
+        }
+    }
+
+    private boolean closeCurrent() {
+        if (current == null) {
+            return true;
+        }
+        try {
+            current.close();
+            return true;
+        } catch (final IOException e) {
+            LOG.warn("Could not close stream of the batch from {}: {}",
+                    srcDir, e.toString());
+            return false;
+        } finally {
+            current = null;
+        }
+    }
+
+    /**
+     * @return the source file names of the batch mapped to their destination
+     *         file names
+     */
+    public Map<String, String> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * @param in
+     *            the incoming message
+     * @return true if the message requests a batch of files
+     */
+    public static boolean isBatchRequest(final Message in) {
+        return in.getHeader(EftpConstants.EFTP_SOURCE_FILES) != null
+                || in.getHeader(EftpConstants.EFTP_SOURCE_FILE_PATTERN) != null;
+    }
+
+    /**
+     * Resolves the files requested by the srcFiles header
+     *
+     * @param in
+     *            the incoming message
+     * @return the requested source file names mapped to their destination
+     *         file names, null if the srcFiles header is not set
+     */
+    public static Map<String, String> requestedFiles(final Message in) {
+        final Object requested = in.getHeader(EftpConstants.EFTP_SOURCE_FILES);
+        if (requested == null) {
+            return null;
+        }
+        final Map<String, String> files = new LinkedHashMap<String, String>();
+        if (requested instanceof Map) {
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) requested)
+                    .entrySet()) {
+                files.put(entry.getKey().toString(), entry.getValue()
+                        .toString());
+            }
+        } else if (requested instanceof Collection) {
+            for (final Object name : (Collection<?>) requested) {
+                files.put(name.toString(), name.toString());
+            }
+        } else {
+            for (final String name : requested.toString().split(",")) {
+                if (name.trim().length() > 0) {
+                    files.put(name.trim(), name.trim());
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Selects the files matching the srcFilePattern header
+     *
+     * @param in
+     *            the incoming message
+     * @param names
+     *            the names of the files in the remote directory
+     * @return the matching file names, each mapped to itself
+     */
+    public static Map<String, String> matchingFiles(final Message in,
+            final Collection<String> names) {
+        final Pattern pattern = Pattern.compile(EftpUtilities.globToRegex(in
+                .getHeader(EftpConstants.EFTP_SOURCE_FILE_PATTERN, String.class)));
+        final Map<String, String> files = new LinkedHashMap<String, String>();
+        for (final String name : names) {
+            final String fileName = name.substring(name.lastIndexOf('/') + 1);
+            if (pattern.matcher(fileName).matches()) {
+                files.put(fileName, fileName);
+            }
+        }
+        return files;
+    }
+
+}
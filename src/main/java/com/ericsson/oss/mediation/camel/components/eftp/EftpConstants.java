@@ -32,6 +32,32 @@ public final class EftpConstants {
     public static final String EFTP_SESSION = "connectionSession";
     public static final String EFTP_CHANNEL = "connectionChannel";
     public static final String EFTP_CLIENT = "connectionClient";
+    public static final String EFTP_SOURCE_FILES = "srcFiles";
+    public static final String EFTP_SOURCE_FILE_PATTERN = "srcFilePattern";
+
+    /**
+     * header of a batch exchange mapping the source files which could not be
+     * retrieved to the exception describing why
+     */
+    public static final String EFTP_FAILED_FILES = "failedFiles";
+
+    /**
+     * header of a message of a batch iterator whose file could not be
+     * retrieved, set to the exception describing why
+     */
+    public static final String EFTP_FILE_ERROR = "fileError";
+
+    /**
+     * error code of an exchange which waited longer than the session queue
+     * timeout for a session to its network element
+     */
+    public static final int SESSION_QUEUE_TIMED_OUT = 10;
+
+    /**
+     * error code of an exchange failed without connecting because the circuit
+     * of its network element is open
+     */
+    public static final int CIRCUIT_OPEN = 11;
 
     /**
      * JSchException error messages
@@ -11,8 +11,13 @@
  *----------------------------------------------------------------------------*/
 package com.ericsson.oss.mediation.camel.components.eftp;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.camel.AsyncCallback;
 import org.apache.camel.Exchange;
-import org.apache.camel.impl.DefaultProducer;
+import org.apache.camel.impl.DefaultAsyncProducer;
+import org.apache.camel.util.ServiceHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,12 +25,27 @@ import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpEx
 
 /**
  * The Delegating producer checks the incoming exchange header for a value of
- * secureFtp and delegates to the relevant producer based on this value
+ * secureFtp and delegates to the relevant producer based on this value.
+ * <p>
+ * The FTP and SFTP producers are created once per delegating producer and are
+ * started and stopped along with it. The delegating producer is a singleton,
+ * so Camel keeps it for the lifetime of the endpoint and no producer is
+ * allocated per exchange.
+ * </p>
+ * <p>
+ * When the endpoint is configured with <code>asyncTransfer=true</code>, Camel
+ * routes call {@link #process(Exchange, AsyncCallback)}, which runs the
+ * transfer on the transfer executor of the endpoint and releases the route
+ * thread until the callback completes the exchange. Otherwise the exchange is
+ * processed on the calling thread.
+ * </p>
  */
-public class EftpDelegatingProducer extends DefaultProducer {
+public class EftpDelegatingProducer extends DefaultAsyncProducer {
 
     private static final transient Logger LOG = LoggerFactory
             .getLogger(EventDrivenFtpProducer.class);
+    private final EventDrivenFtpProducer ftpProducer;
+    private final EventDrivenSftpProducer sftpProducer;
     private final EventDrivenFtpEndpoint endpoint;
 
     /**
@@ -36,11 +56,15 @@ public class EftpDelegatingProducer extends DefaultProducer {
     public EftpDelegatingProducer(final EventDrivenFtpEndpoint endpoint) {
         super(endpoint);
         this.endpoint = endpoint;
+        this.ftpProducer = new EventDrivenFtpProducer(endpoint);
+        this.sftpProducer = new EventDrivenSftpProducer(endpoint);
         LOG.debug("EftpDelegatingProducer constructor called...");
     }
 
     /**
-     * The process method is the entry point from Camel into this processor
+     * The process method is the entry point from Camel into this processor.
+     * It processes the exchange on the calling thread and throws the failure,
+     * rather than waiting on {@link #process(Exchange, AsyncCallback)}.
      * 
      * @param exchange
      *            {@link Exchange}
@@ -49,6 +73,72 @@ public class EftpDelegatingProducer extends DefaultProducer {
      */
     @Override
     public void process(final Exchange exchange) throws GenericEftpException {
+        if (isSecureExchange(exchange)) {
+            LOG.debug("Secure flag is set on exchange, delegating to EventDrivenSftpProducer");
+            sftpProducer.process(exchange);
+        } else {
+            LOG.debug("Secure flag is not set on exchange, delegating to EventDrivenFtpProducer");
+            ftpProducer.process(exchange);
+        }
+    }
+
+    /**
+     * Processes the exchange on the transfer executor of the endpoint, if
+     * asynchronous transfers are enabled, and on the calling thread otherwise.
+     * A failed transfer is set as the exception of the exchange.
+     * 
+     * @param exchange
+     *            {@link Exchange}
+     * @param callback
+     *            notified once the exchange has been processed
+     * @return true if the exchange was processed on the calling thread
+     */
+    @Override
+    public boolean process(final Exchange exchange,
+            final AsyncCallback callback) {
+        final ExecutorService executor = endpoint.getAsyncTransferExecutor();
+        if (executor != null) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        processQuietly(exchange);
+                        callback.done(false);
+                    }
+                });
+                return false;
+            } catch (final RejectedExecutionException e) {
+                LOG.warn("Transfer executor rejected exchange {}",
+                        exchange.getExchangeId());
+                exchange.setException(e);
+                callback.done(true);
+                return true;
+            }
+        }
+        processQuietly(exchange);
+        callback.done(true);
+        return true;
+    }
+
+    private void processQuietly(final Exchange exchange) {
+        try {
+            process(exchange);
+        } catch (final Exception e) {
+            exchange.setException(e);
+        }
+    }
+
+    /**
+     * Reads the secureFtp header of the exchange
+     * 
+     * @param exchange
+     *            {@link Exchange}
+     * @return true if the exchange is for an SFTP connection
+     * @throws GenericEftpException
+     *             if the secureFtp header is not set
+     */
+    boolean isSecureExchange(final Exchange exchange)
+            throws GenericEftpException {
         LOG.debug("Processing exchange...Looking for secure/unsecure header");
         final String secure = (String) exchange.getIn().getHeader(
                 EftpConstants.EFTP_SECURE_FTP);
@@ -64,26 +154,42 @@ public class EftpDelegatingProducer extends DefaultProducer {
                     "The secureFtp header was not specified on the incoming message of the exchange."
                             + " Set it to false for FTP connections or true for SFTP connections");
         }
-        final boolean secureFlag = Boolean.valueOf(secure);
-        if (secureFlag) {
-            LOG.debug("Secure flag is set on exchange, delegating to EventDrivenSftpProducer");
+        return Boolean.valueOf(secure);
+    }
 
-            new EventDrivenSftpProducer(endpoint).process(exchange);
-        } else {
-            LOG.debug("Secure flag is not set on exchange, delegating to EventDrivenFtpProducer");
-            new EventDrivenFtpProducer(endpoint).process(exchange);
-        }
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        ServiceHelper.startServices(ftpProducer, sftpProducer);
+    }
 
+    @Override
+    protected void doStop() throws Exception {
+        ServiceHelper.stopServices(ftpProducer, sftpProducer);
+        super.doStop();
     }
 
-    /*
-     * (non-Javadoc)
-     * 
-     * @see org.apache.camel.impl.DefaultProducer#isSingleton()
+    /**
+     * @return the producer FTP exchanges are delegated to
+     */
+    EventDrivenFtpProducer getFtpProducer() {
+        return ftpProducer;
+    }
+
+    /**
+     * @return the producer SFTP exchanges are delegated to
+     */
+    EventDrivenSftpProducer getSftpProducer() {
+        return sftpProducer;
+    }
+
+    /**
+     * The cached producers hold no state of any exchange, so Camel may keep
+     * the delegating producer for the lifetime of the endpoint
      */
     @Override
     public boolean isSingleton() {
-        return false;
+        return true;
     }
 
 }
@@ -0,0 +1,531 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
+
+import org.apache.camel.*;
+import org.apache.camel.impl.ScheduledPollConsumer;
+import org.apache.camel.spi.Synchronization;
+import org.apache.camel.util.ServiceHelper;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.FtpConnectionRelease;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.KeyedConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.SftpConnectionRelease;
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.poll.RemoteFile;
+import com.ericsson.oss.mediation.camel.components.eftp.poll.RemoteFileIndex;
+import com.ericsson.oss.mediation.camel.components.eftp.poll.RemoteFileWatch;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.*;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EftpUtilities;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+
+/**
+ * Polls the pollDirectories of the network element configured on the
+ * endpoint and emits an exchange for every file which is new, or whose size
+ * or modification time has changed, since it was last collected.
+ *
+ * <p>
+ * Each directory is listed over a connection borrowed from the pool of the
+ * endpoint and returned straight after the listing. The listing is compared
+ * with a {@link RemoteFileIndex} of the directory, so only the files found
+ * to have changed are retrieved. They are retrieved by the eftp producer of
+ * the endpoint, exactly as if the exchange had requested them with the
+ * srcDir and srcFile headers, and are recorded in the index once the route
+ * has processed their exchange successfully. A file whose exchange fails is
+ * retried on the next poll.
+ * </p>
+ *
+ * <p>
+ * A file the network element is still writing grows between listings. With
+ * <code>awaitStableSize=true</code>, the default, a new or changed file is
+ * only collected once two consecutive listings have seen it with the same
+ * size and modification time, so it is never collected and indexed at a
+ * partial size. Network elements which write each file under a temporary
+ * name and rename it when complete can turn this off to collect files one
+ * poll earlier.
+ * </p>
+ *
+ * <p>
+ * With <code>skipUnchangedDirectories=true</code> an SFTP directory is only
+ * listed if its own modification time has changed since two consecutive
+ * polls last saw the same one, and the same size for every file, which makes
+ * polling an unchanged directory a single stat. Files rewritten or appended
+ * to in place do not change the modification time of their directory, so
+ * this only suits network elements which write each file once under a new
+ * name, or which write it under a temporary name and rename it once
+ * complete, and a poll delay of at least one second. A directory is listed
+ * again after any of its files failed to be collected.
+ * </p>
+ *
+ * <p>
+ * With <code>sshWatch=true</code> an SFTP network element is also watched
+ * through a {@link RemoteFileWatch}, which runs
+ * <code>sshWatchCommand</code> over an exec channel and collects each file
+ * as soon as the network element closes it, rather than at the next poll.
+ * Files reported by the watch are collected one at a time on a thread of
+ * their own, not on the one reading the output of the watcher.
+ * Polling carries on regardless, at the configured delay, and picks up any
+ * file the watch missed. If the network element does not allow command
+ * execution the watch stops and files are only discovered by listing.
+ * </p>
+ */
+public class EftpPollingConsumer extends ScheduledPollConsumer {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(EftpPollingConsumer.class);
+
+    private static final String POLL_EXCHANGE_ID = "poll";
+
+    private final EventDrivenFtpEndpoint endpoint;
+    private final Map<String, PolledDirectory> directories = new LinkedHashMap<String, PolledDirectory>();
+    private Producer producer;
+    private Pattern filePattern;
+    private RemoteFileWatch watch;
+    private ExecutorService watchExecutor;
+    private ExecutorService watchEventExecutor;
+
+    public EftpPollingConsumer(final EventDrivenFtpEndpoint endpoint,
+            final Processor processor) {
+        super(endpoint, processor);
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (endpoint.getIpAddress() == null
+                || endpoint.getPollDirectories() == null) {
+            throw new IllegalArgumentException(
+                    "ipAddress and pollDirectories must be set on the endpoint to poll it");
+        }
+        filePattern = endpoint.getSrcFilePattern() == null ? null : Pattern
+                .compile(EftpUtilities.globToRegex(endpoint
+                        .getSrcFilePattern()));
+        producer = endpoint.createProducer();
+        ServiceHelper.startService(producer);
+        super.doStart();
+        if (endpoint.isSecureFtp() && endpoint.isSshWatch()) {
+            startWatch();
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (watch != null) {
+            watch.stop();
+            endpoint.getCamelContext().getExecutorServiceManager()
+                    .shutdownNow(watchExecutor);
+            endpoint.getCamelContext().getExecutorServiceManager()
+                    .shutdownNow(watchEventExecutor);
+            watch = null;
+            watchExecutor = null;
+            watchEventExecutor = null;
+        }
+        super.doStop();
+        ServiceHelper.stopService(producer);
+        for (final PolledDirectory directory : directories.values()) {
+            try {
+                directory.index.close();
+            } catch (final IOException e) {
+                LOG.warn("Could not close index of {}: {}", directory.path,
+                        e.toString());
+            }
+        }
+        directories.clear();
+    }
+
+    private void startWatch() throws GenericEftpException {
+        final KeyedConnectionPool<ChannelSftp> pool = endpoint.getSftpPool();
+        if (pool == null) {
+            throw new GenericEftpException(0,
+                    "No SFTP connection pool bound in the registry as "
+                            + Constants.SFTP_POOL);
+        }
+        final List<String> paths = new ArrayList<String>();
+        for (final String path : endpoint.getPollDirectories().split(",")) {
+            if (path.trim().length() > 0) {
+                paths.add(path.trim());
+            }
+        }
+        watchEventExecutor = endpoint.getCamelContext()
+                .getExecutorServiceManager()
+                .newSingleThreadExecutor(this, "EftpRemoteFileWatchEvents");
+        watch = new RemoteFileWatch(pool, connectionKey(),
+                endpoint.getSshWatchCommand(), paths,
+                new RemoteFileWatch.Listener() {
+                    @Override
+                    public void fileClosed(final String path,
+                            final RemoteFile file) {
+                        collectClosed(path, file);
+                    }
+
+                    @Override
+                    public void watchUnavailable(final String reason) {
+                        LOG.warn(
+                                "Cannot watch {}, discovering files by listing only: {}",
+                                endpoint.getIpAddress(), reason);
+                    }
+                }, watchEventExecutor, Math.max(1000, getDelay()), 30000);
+        watchExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+                .newSingleThreadExecutor(this, "EftpRemoteFileWatch");
+        watchExecutor.execute(watch);
+    }
+
+    /**
+     * Collects a file reported by the watch, unless a poll already has
+     */
+    private void collectClosed(final String path, final RemoteFile file) {
+        if (!isRunAllowed() || !matches(file.getName())) {
+            return;
+        }
+        try {
+            final PolledDirectory directory = directory(path);
+            synchronized (directory) {
+                if (!directory.index.changes(Collections.singletonList(file))
+                        .isEmpty()) {
+                    collect(directory, file);
+                }
+            }
+        } catch (final Exception e) {
+            getExceptionHandler().handleException(
+                    "Could not collect " + file.getName() + " from " + path,
+                    e);
+        }
+    }
+
+    @Override
+    protected int poll() throws Exception {
+        int collected = 0;
+        for (final String path : endpoint.getPollDirectories().split(",")) {
+            if (path.trim().length() > 0 && isRunAllowed()) {
+                collected += poll(directory(path.trim()));
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * Lists the directory and collects its new and changed files
+     *
+     * @return the number of files collected
+     */
+    private int poll(final PolledDirectory directory) throws Exception {
+        synchronized (directory) {
+            return pollDirectory(directory);
+        }
+    }
+
+    private int pollDirectory(final PolledDirectory directory)
+            throws Exception {
+        final List<RemoteFile> listing = endpoint.isSecureFtp() ? listSftp(directory)
+                : listFtp(directory);
+        if (listing == null) {
+            LOG.trace("Directory {} is unchanged", directory.path);
+            return 0;
+        }
+        final int removed = directory.index.retain(listing);
+        final List<RemoteFile> changes = directory.index.changes(listing);
+        final Set<RemoteFile> stable = directory.listed(listing);
+        LOG.debug("Listed {} files in {}, {} new or changed, {} removed",
+                new Object[] { listing.size(), directory.path,
+                        changes.size(), removed });
+        int collected = 0;
+        for (final RemoteFile file : changes) {
+            if (!isRunAllowed()) {
+                break;
+            }
+            if (endpoint.isAwaitStableSize() && !stable.contains(file)) {
+                LOG.trace("Waiting for {} to stop changing", file);
+                continue;
+            }
+            if (collect(directory, file)) {
+                collected++;
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * Retrieves the file with the producer of the endpoint and hands the
+     * exchange to the route. If it fails the directory is listed again by
+     * the next poll, whether it has changed or not.
+     *
+     * @return true if the route processed the exchange successfully
+     */
+    private boolean collect(final PolledDirectory directory,
+            final RemoteFile file) throws IOException {
+        final Exchange exchange = endpoint.createExchange();
+        final Message in = exchange.getIn();
+        in.setHeader(EftpConstants.EFTP_SECURE_FTP,
+                String.valueOf(endpoint.isSecureFtp()));
+        in.setHeader(EftpConstants.EFTP_TARGET_IP_ADDRESS,
+                endpoint.getIpAddress());
+        in.setHeader(EftpConstants.EFTP_TARGET_PORT,
+                String.valueOf(port()));
+        in.setHeader(EftpConstants.EFTP_TARGET_USERNAME, endpoint.getUsername());
+        in.setHeader(EftpConstants.EFTP_TARGET_PASSWORD, endpoint.getPassword());
+        in.setHeader(EftpConstants.EFTP_SOURCE_DIRECTORY, directory.path);
+        in.setHeader(EftpConstants.EFTP_SOURCE_FILE, file.getName());
+        in.setHeader(EftpConstants.EFTP_DESTINATION_DIRECTORY,
+                endpoint.getDestDir());
+        in.setHeader(EftpConstants.EFTP_DESTINATION_FILE, file.getName());
+        in.setHeader(Exchange.FILE_LENGTH, file.getSize());
+        in.setHeader(Exchange.FILE_LAST_MODIFIED,
+                new Date(file.getLastModified()));
+        try {
+            producer.process(exchange);
+            getProcessor().process(exchange);
+        } catch (final Exception e) {
+            exchange.setException(e);
+        } finally {
+            done(exchange);
+        }
+        if (exchange.getException() != null) {
+            directory.forget();
+            getExceptionHandler().handleException(
+                    "Could not collect " + file.getName() + " from "
+                            + directory.path, exchange,
+                    exchange.getException());
+            return false;
+        }
+        directory.index.collected(file);
+        return true;
+    }
+
+    /**
+     * Releases the connection of the exchange if the route did not take
+     * over its completions
+     */
+    private static void done(final Exchange exchange) {
+        final List<Synchronization> completions = exchange
+                .handoverCompletions();
+        if (completions == null) {
+            return;
+        }
+        for (final Synchronization completion : completions) {
+            if (exchange.isFailed()) {
+                completion.onFailure(exchange);
+            } else {
+                completion.onComplete(exchange);
+            }
+        }
+    }
+
+    /**
+     * @return the files in the directory matching the srcFilePattern, null
+     *         if the directory is known to be unchanged
+     */
+    private List<RemoteFile> listSftp(final PolledDirectory directory)
+            throws Exception {
+        final KeyedConnectionPool<ChannelSftp> pool = endpoint.getSftpPool();
+        if (pool == null) {
+            throw new GenericEftpException(0,
+                    "No SFTP connection pool bound in the registry as "
+                            + Constants.SFTP_POOL);
+        }
+        final ConnectionConfig key = connectionKey();
+        final SftpConnectionRelease release = new SftpConnectionRelease(pool,
+                key, pool.borrowObject(key), POLL_EXCHANGE_ID,
+                endpoint.getLeakDetector());
+        boolean reusable = false;
+        try {
+            final ChannelSftp channel = release.getConnection();
+            if (endpoint.isSkipUnchangedDirectories()
+                    && directory.isUnchanged(channel.stat(directory.path)
+                            .getMTime())) {
+                reusable = true;
+                return null;
+            }
+            final List<RemoteFile> files = new ArrayList<RemoteFile>();
+            for (final Object entry : channel.ls(directory.path)) {
+                final ChannelSftp.LsEntry lsEntry = (ChannelSftp.LsEntry) entry;
+                final SftpATTRS attrs = lsEntry.getAttrs();
+                if (!attrs.isDir() && !attrs.isLink()
+                        && matches(lsEntry.getFilename())) {
+                    files.add(new RemoteFile(lsEntry.getFilename(), attrs
+                            .getSize(), attrs.getMTime() * 1000L));
+                }
+            }
+            reusable = true;
+            return files;
+        } finally {
+            if (!reusable) {
+                directory.forget();
+            }
+            release.release(reusable);
+        }
+    }
+
+    /**
+     * @return the files in the directory matching the srcFilePattern
+     */
+    private List<RemoteFile> listFtp(final PolledDirectory directory)
+            throws Exception {
+        final KeyedConnectionPool<FTPClient> pool = endpoint.getFtpPool();
+        if (pool == null) {
+            throw new GenericEftpException(0,
+                    "No FTP connection pool bound in the registry as "
+                            + Constants.FTP_POOL);
+        }
+        final ConnectionConfig key = connectionKey();
+        final FtpConnectionRelease release = new FtpConnectionRelease(pool,
+                key, pool.borrowObject(key), POLL_EXCHANGE_ID,
+                endpoint.getLeakDetector());
+        boolean reusable = false;
+        try {
+            final FTPClient ftpClient = release.getConnection();
+            final FTPFile[] entries = ftpClient.listFiles(directory.path);
+            if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
+                throw new GenericEftpException(ftpClient.getReplyCode(),
+                        ftpClient.getReplyString());
+            }
+            final List<RemoteFile> files = new ArrayList<RemoteFile>(
+                    entries.length);
+            for (final FTPFile entry : entries) {
+                if (entry != null && entry.isFile()
+                        && matches(entry.getName())) {
+                    files.add(new RemoteFile(entry.getName(), entry.getSize(),
+                            entry.getTimestamp() == null ? 0 : entry
+                                    .getTimestamp().getTimeInMillis()));
+                }
+            }
+            reusable = true;
+            return files;
+        } finally {
+            release.release(reusable);
+        }
+    }
+
+    private boolean matches(final String name) {
+        return filePattern == null || filePattern.matcher(name).matches();
+    }
+
+    /**
+     * @return the port of the endpoint, or the default port of its protocol
+     */
+    private int port() {
+        if (endpoint.getPort() > 0) {
+            return endpoint.getPort();
+        }
+        return endpoint.isSecureFtp() ? 22 : 21;
+    }
+
+    private ConnectionConfig connectionKey() {
+        return new ConnectionConfig(endpoint.getIpAddress(), port(),
+                endpoint.getUsername(),
+                endpoint.getPassword(), String.valueOf(endpoint.isSecureFtp()));
+    }
+
+    /**
+     * @return the state of the directory, its index opened the first time it
+     *         is polled
+     */
+    private synchronized PolledDirectory directory(final String path)
+            throws IOException {
+        PolledDirectory directory = directories.get(path);
+        if (directory == null) {
+            final String name = endpoint.getIpAddress() + ":" + port() + ":"
+                    + endpoint.getUsername() + ":" + path;
+            final RemoteFileIndex index = new RemoteFileIndex(new File(
+                    endpoint.getIndexDirectory(), Integer.toHexString(name
+                            .hashCode()) + ".index"));
+            index.open();
+            directory = new PolledDirectory(path, index);
+            directories.put(path, directory);
+        }
+        return directory;
+    }
+
+    /**
+     * A polled directory and its index, locked while it is polled or a file
+     * reported by the watch is collected from it
+     */
+    private static final class PolledDirectory {
+
+        private final String path;
+        private final RemoteFileIndex index;
+
+        /**
+         * modification time of the directory seen by the last listing, -1
+         * before the first one
+         */
+        private long modified = -1;
+
+        /**
+         * true once two consecutive listings saw the same modification time
+         * and the same files with the same sizes, so no file can have been
+         * added within that second after the last listing and none was being
+         * written
+         */
+        private boolean settled;
+
+        /**
+         * the files seen by the last listing
+         */
+        private Set<RemoteFile> previous = Collections.emptySet();
+
+        private PolledDirectory(final String path, final RemoteFileIndex index) {
+            this.path = path;
+            this.index = index;
+        }
+
+        /**
+         * @param mtime
+         *            the current modification time of the directory
+         * @return true if the directory need not be listed again
+         */
+        private boolean isUnchanged(final long mtime) {
+            if (mtime == modified && settled) {
+                return true;
+            }
+            settled = mtime == modified;
+            modified = mtime;
+            return false;
+        }
+
+        /**
+         * Records a listing of the directory
+         *
+         * @return the files of the listing which the previous listing saw
+         *         with the same size and modification time
+         */
+        private Set<RemoteFile> listed(final List<RemoteFile> listing) {
+            final Set<RemoteFile> current = new HashSet<RemoteFile>(listing);
+            final Set<RemoteFile> stable = new HashSet<RemoteFile>(current);
+            stable.retainAll(previous);
+            settled &= stable.size() == current.size()
+                    && previous.size() == current.size();
+            previous = current;
+            return stable;
+        }
+
+        /**
+         * Forgets the modification time seen by a listing, or a collect,
+         * which failed
+         */
+        private void forget() {
+            modified = -1;
+            settled = false;
+        }
+    }
+
+}
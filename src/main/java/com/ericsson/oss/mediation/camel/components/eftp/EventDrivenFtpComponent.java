@@ -11,21 +11,157 @@
  *----------------------------------------------------------------------------*/
 package com.ericsson.oss.mediation.camel.components.eftp;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.camel.Endpoint;
 import org.apache.camel.impl.DefaultComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ericsson.oss.mediation.camel.components.eftp.connection.ConnectionLeakDetector;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.HostAdmissionController;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.HostCircuitBreaker;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.NetworkElementInventory;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.PoolPrewarmer;
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.EndpointTransferMetrics;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.Constants;
+import com.ericsson.oss.mediation.camel.components.eftp.transfer.TransferExecutors;
+
 /**
- * Represents the component that manages {@link EventDrivenFtpEndpoint}.
+ * Represents the component that manages {@link EventDrivenFtpEndpoint}, and
+ * the services its endpoints share. The options are described in the README.
  */
 public class EventDrivenFtpComponent extends DefaultComponent {
 
     private static final Logger log = LoggerFactory
             .getLogger(EventDrivenFtpComponent.class);
 
+    /**
+     * maximum number of connections borrowed concurrently from one network
+     * element, 0 does not limit them
+     */
+    private int maxSessionsPerHost;
+
+    /**
+     * admit exchanges waiting for a network element in arrival order
+     */
+    private boolean fairSessionQueueing = true;
+
+    /**
+     * maximum time in milliseconds an exchange waits for a session to its
+     * network element, 0 waits indefinitely
+     */
+    private long sessionQueueTimeout;
+
+    /**
+     * number of consecutive connection failures after which exchanges for a
+     * network element fail without connecting, 0 disables the circuit breaker
+     */
+    private int circuitBreakerThreshold;
+
+    /**
+     * time in milliseconds the circuit of a network element stays open before
+     * a connection is attempted again
+     */
+    private long circuitBreakerOpenTime = 60000;
+
+    /**
+     * time in milliseconds after which a connection which has not been
+     * released is reported as leaked, 0 disables leak detection
+     */
+    private long leakDetectionThreshold = 600000;
+
+    /**
+     * maximum number of transfers running concurrently on the asynchronous
+     * transfer executor, virtual threads included
+     */
+    private int asyncTransferPoolSize = 200;
+
+    /**
+     * run each asynchronous transfer on its own virtual thread if the JVM
+     * supports them
+     */
+    private boolean virtualThreads;
+
+    /**
+     * file listing the network elements whose connections are opened ahead
+     * of the collection
+     */
+    private String prewarmInventory;
+
+    /**
+     * network elements whose connections are opened ahead of the collection,
+     * besides those of the prewarmInventory file
+     */
+    private Collection<ConnectionConfig> prewarmNetworkElements;
+
+    /**
+     * connections opened to each network element of the inventory
+     */
+    private int prewarmConnections = 1;
+
+    /**
+     * network elements of the inventory connected to at a time
+     */
+    private int prewarmParallelism = 8;
+
+    /**
+     * longest random delay in milliseconds before the connections to a
+     * network element are opened
+     */
+    private long prewarmJitter = 5000;
+
+    /**
+     * time in milliseconds before each ROP boundary at which the connections
+     * are opened again, 0 to only open them on start
+     */
+    private long prewarmLeadTime = 60000;
+
+    /**
+     * ROP period in milliseconds
+     */
+    private long ropPeriod = 900000;
+
+    /**
+     * created when the component starts, read by every exchange
+     */
+    private volatile HostAdmissionController hostAdmissionController;
+    private volatile HostCircuitBreaker hostCircuitBreaker;
+
+    /**
+     * created the first time an endpoint needs them, guarded by this
+     */
+    private volatile ConnectionLeakDetector leakDetector;
+    private ScheduledExecutorService leakDetectionExecutor;
+    private ExecutorService transferExecutor;
+    private ExecutorService asyncTransferExecutor;
+
+    /**
+     * true if the asynchronous transfer executor runs virtual threads and
+     * must be shut down by the component itself
+     */
+    private boolean virtualThreadExecutor;
+
+    /**
+     * the transfer metrics of each endpoint uri
+     */
+    private final ConcurrentMap<String, EndpointTransferMetrics> endpointTransferMetrics = new ConcurrentHashMap<String, EndpointTransferMetrics>();
+
+    private ScheduledExecutorService prewarmScheduler;
+    private ExecutorService prewarmExecutor;
+    private PoolPrewarmer poolPrewarmer;
+
     public EventDrivenFtpComponent() {
         super();
         log.debug("EventDrivenFtpComponent constructor called...");
@@ -44,4 +180,451 @@ public class EventDrivenFtpComponent extends DefaultComponent {
         }
     }
 
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        if (maxSessionsPerHost > 0) {
+            hostAdmissionController = new HostAdmissionController(
+                    maxSessionsPerHost, fairSessionQueueing,
+                    sessionQueueTimeout);
+        }
+        if (circuitBreakerThreshold > 0) {
+            hostCircuitBreaker = new HostCircuitBreaker(
+                    circuitBreakerThreshold, circuitBreakerOpenTime);
+        }
+        startPrewarming();
+    }
+
+    /**
+     * Opens the connections of the pools bound in the registry to the network
+     * elements of the inventory in the background, and again before every
+     * ROP boundary
+     */
+    private void startPrewarming() throws IOException {
+        final List<ConnectionConfig> networkElements = new ArrayList<ConnectionConfig>();
+        if (prewarmNetworkElements != null) {
+            networkElements.addAll(prewarmNetworkElements);
+        }
+        if (prewarmInventory != null) {
+            networkElements.addAll(NetworkElementInventory.load(new File(
+                    prewarmInventory)));
+        }
+        if (networkElements.isEmpty() || prewarmConnections <= 0) {
+            return;
+        }
+        prewarmScheduler = getCamelContext().getExecutorServiceManager()
+                .newSingleThreadScheduledExecutor(this, "EftpPrewarmScheduler");
+        prewarmExecutor = getCamelContext().getExecutorServiceManager()
+                .newThreadPool(this, "EftpPrewarm", prewarmParallelism,
+                        prewarmParallelism);
+        poolPrewarmer = new PoolPrewarmer(networkElements,
+                EventDrivenFtpEndpoint.toSftpPool(lookup(Constants.SFTP_POOL)),
+                EventDrivenFtpEndpoint.toFtpPool(lookup(Constants.FTP_POOL)),
+                prewarmConnections, prewarmJitter, prewarmScheduler,
+                prewarmExecutor);
+        poolPrewarmer.warm();
+        if (prewarmLeadTime > 0 && ropPeriod > 0) {
+            poolPrewarmer.scheduleBeforeRop(ropPeriod, prewarmLeadTime);
+        }
+    }
+
+    private Object lookup(final String name) {
+        return getCamelContext().getRegistry().lookup(name);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (prewarmScheduler != null) {
+            getCamelContext().getExecutorServiceManager().shutdownNow(
+                    prewarmScheduler);
+            getCamelContext().getExecutorServiceManager().shutdownNow(
+                    prewarmExecutor);
+            prewarmScheduler = null;
+            prewarmExecutor = null;
+            poolPrewarmer = null;
+        }
+        for (final EndpointTransferMetrics metrics : endpointTransferMetrics
+                .values()) {
+            metrics.unregister();
+        }
+        endpointTransferMetrics.clear();
+        stopExecutors();
+        hostAdmissionController = null;
+        hostCircuitBreaker = null;
+        super.doStop();
+    }
+
+    private synchronized void stopExecutors() {
+        if (virtualThreadExecutor) {
+            asyncTransferExecutor.shutdown();
+            virtualThreadExecutor = false;
+        } else if (asyncTransferExecutor != null) {
+            getCamelContext().getExecutorServiceManager().shutdown(
+                    asyncTransferExecutor);
+        }
+        asyncTransferExecutor = null;
+        if (transferExecutor != null) {
+            getCamelContext().getExecutorServiceManager().shutdown(
+                    transferExecutor);
+            transferExecutor = null;
+        }
+        if (leakDetectionExecutor != null) {
+            getCamelContext().getExecutorServiceManager().shutdownNow(
+                    leakDetectionExecutor);
+            leakDetectionExecutor = null;
+            leakDetector = null;
+        }
+    }
+
+    /**
+     * @return the leak detector shared by the endpoints of this component,
+     *         created and scheduled the first time it is asked for, null if
+     *         leak detection is disabled
+     */
+    public ConnectionLeakDetector getLeakDetector() {
+        final ConnectionLeakDetector detector = leakDetector;
+        if (detector != null || leakDetectionThreshold <= 0) {
+            return detector;
+        }
+        return startLeakDetector();
+    }
+
+    private synchronized ConnectionLeakDetector startLeakDetector() {
+        if (leakDetector == null) {
+            final ConnectionLeakDetector detector = new ConnectionLeakDetector(
+                    leakDetectionThreshold);
+            final long period = Math.max(1000, leakDetectionThreshold / 2);
+            leakDetectionExecutor = getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this,
+                            "EftpConnectionLeakDetector");
+            leakDetectionExecutor.scheduleWithFixedDelay(detector, period,
+                    period, TimeUnit.MILLISECONDS);
+            leakDetector = detector;
+        }
+        return leakDetector;
+    }
+
+    /**
+     * @return the executor running the asynchronous transfers of the
+     *         endpoints of this component, created the first time it is asked
+     *         for
+     */
+    public synchronized ExecutorService getAsyncTransferExecutor() {
+        if (asyncTransferExecutor == null && virtualThreads) {
+            asyncTransferExecutor = TransferExecutors
+                    .newVirtualThreadExecutor(asyncTransferPoolSize);
+            virtualThreadExecutor = asyncTransferExecutor != null;
+            if (!virtualThreadExecutor) {
+                log.warn("Virtual threads are not supported by this JVM, using a pool of {} threads",
+                        asyncTransferPoolSize);
+            }
+        }
+        if (asyncTransferExecutor == null) {
+            asyncTransferExecutor = getCamelContext()
+                    .getExecutorServiceManager().newThreadPool(this,
+                            "EftpAsyncTransfer", asyncTransferPoolSize,
+                            asyncTransferPoolSize);
+        }
+        return asyncTransferExecutor;
+    }
+
+    /**
+     * @return the executor fetching the ranges of the chunked and segmented
+     *         downloads of the endpoints of this component, created the
+     *         first time it is asked for
+     */
+    public synchronized ExecutorService getTransferExecutor() {
+        if (transferExecutor == null) {
+            transferExecutor = getCamelContext().getExecutorServiceManager()
+                    .newCachedThreadPool(this, "EftpTransfer");
+        }
+        return transferExecutor;
+    }
+
+    /**
+     * @param endpointUri
+     *            the uri of the endpoint
+     * @return the transfer metrics of the endpoints of the uri, registered
+     *         the first time they are asked for and unregistered when the
+     *         component stops
+     */
+    public EndpointTransferMetrics getEndpointTransferMetrics(
+            final String endpointUri) {
+        EndpointTransferMetrics metrics = endpointTransferMetrics
+                .get(endpointUri);
+        if (metrics == null) {
+            synchronized (endpointTransferMetrics) {
+                metrics = endpointTransferMetrics.get(endpointUri);
+                if (metrics == null) {
+                    metrics = new EndpointTransferMetrics(endpointUri);
+                    endpointTransferMetrics.put(endpointUri, metrics);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the prewarmer of the inventory, null if the component is not
+     *         started or no inventory is configured
+     */
+    public PoolPrewarmer getPoolPrewarmer() {
+        return poolPrewarmer;
+    }
+
+    /**
+     * @return the admission controller shared by the endpoints of this
+     *         component, null if sessions per host are not limited or the
+     *         component is not started
+     */
+    public HostAdmissionController getHostAdmissionController() {
+        return hostAdmissionController;
+    }
+
+    /**
+     * @return the maximum number of connections borrowed concurrently from
+     *         one network element, 0 if they are not limited
+     */
+    public int getMaxSessionsPerHost() {
+        return maxSessionsPerHost;
+    }
+
+    /**
+     * @param maxSessionsPerHost
+     *            the maximum number of connections borrowed concurrently from
+     *            one network element, 0 does not limit them
+     */
+    public void setMaxSessionsPerHost(final int maxSessionsPerHost) {
+        this.maxSessionsPerHost = maxSessionsPerHost;
+    }
+
+    /**
+     * @return true if exchanges waiting for a network element are admitted in
+     *         arrival order
+     */
+    public boolean isFairSessionQueueing() {
+        return fairSessionQueueing;
+    }
+
+    /**
+     * @param fairSessionQueueing
+     *            false to let an exchange take a released session ahead of
+     *            those already waiting, which admits more exchanges per
+     *            second at the cost of longer worst case waits
+     */
+    public void setFairSessionQueueing(final boolean fairSessionQueueing) {
+        this.fairSessionQueueing = fairSessionQueueing;
+    }
+
+    /**
+     * @return the maximum time in milliseconds an exchange waits for a
+     *         session to its network element
+     */
+    public long getSessionQueueTimeout() {
+        return sessionQueueTimeout;
+    }
+
+    /**
+     * @param sessionQueueTimeout
+     *            the maximum time in milliseconds an exchange waits for a
+     *            session to its network element, 0 waits indefinitely
+     */
+    public void setSessionQueueTimeout(final long sessionQueueTimeout) {
+        this.sessionQueueTimeout = sessionQueueTimeout;
+    }
+
+    /**
+     * @return the circuit breaker shared by the endpoints of this component,
+     *         null if it is disabled or the component is not started
+     */
+    public HostCircuitBreaker getHostCircuitBreaker() {
+        return hostCircuitBreaker;
+    }
+
+    /**
+     * @return the number of consecutive connection failures after which
+     *         exchanges for a network element fail without connecting, 0 if
+     *         the circuit breaker is disabled
+     */
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    /**
+     * @param circuitBreakerThreshold
+     *            the number of consecutive connection failures after which
+     *            exchanges for a network element fail without connecting, 0
+     *            disables the circuit breaker
+     */
+    public void setCircuitBreakerThreshold(final int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    /**
+     * @return the time in milliseconds the circuit of a network element stays
+     *         open before a connection is attempted again
+     */
+    public long getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
+    /**
+     * @param circuitBreakerOpenTime
+     *            the time in milliseconds the circuit of a network element
+     *            stays open before a connection is attempted again
+     */
+    public void setCircuitBreakerOpenTime(final long circuitBreakerOpenTime) {
+        this.circuitBreakerOpenTime = circuitBreakerOpenTime;
+    }
+
+    /**
+     * @return the time in milliseconds after which an unreleased connection
+     *         is reported as leaked
+     */
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    /**
+     * @param leakDetectionThreshold
+     *            the time in milliseconds after which an unreleased connection
+     *            is reported as leaked, 0 disables leak detection
+     */
+    public void setLeakDetectionThreshold(final long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    /**
+     * @return the maximum number of transfers running concurrently on the
+     *         asynchronous transfer executor
+     */
+    public int getAsyncTransferPoolSize() {
+        return asyncTransferPoolSize;
+    }
+
+    /**
+     * @param asyncTransferPoolSize
+     *            the maximum number of transfers running concurrently on the
+     *            asynchronous transfer executor, further transfers are queued
+     */
+    public void setAsyncTransferPoolSize(final int asyncTransferPoolSize) {
+        this.asyncTransferPoolSize = asyncTransferPoolSize;
+    }
+
+    /**
+     * @return true if asynchronous transfers run on virtual threads when the
+     *         JVM supports them
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @param virtualThreads
+     *            true to run each asynchronous transfer on its own virtual
+     *            thread, falling back to a pool of asyncTransferPoolSize
+     *            threads on JVMs without virtual threads
+     */
+    public void setVirtualThreads(final boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @return the file listing the network elements whose connections are
+     *         opened ahead of the collection
+     */
+    public String getPrewarmInventory() {
+        return prewarmInventory;
+    }
+
+    /**
+     * @param prewarmInventory
+     *            the file listing the network elements whose connections are
+     *            opened when the component starts and before every ROP, see
+     *            {@link NetworkElementInventory}
+     */
+    public void setPrewarmInventory(final String prewarmInventory) {
+        this.prewarmInventory = prewarmInventory;
+    }
+
+    public Collection<ConnectionConfig> getPrewarmNetworkElements() {
+        return prewarmNetworkElements;
+    }
+
+    /**
+     * @param prewarmNetworkElements
+     *            the keys of the network elements whose connections are
+     *            opened when the component starts and before every ROP
+     */
+    public void setPrewarmNetworkElements(
+            final Collection<ConnectionConfig> prewarmNetworkElements) {
+        this.prewarmNetworkElements = prewarmNetworkElements;
+    }
+
+    public int getPrewarmConnections() {
+        return prewarmConnections;
+    }
+
+    /**
+     * @param prewarmConnections
+     *            the number of connections opened to each network element of
+     *            the inventory, 0 not to open any
+     */
+    public void setPrewarmConnections(final int prewarmConnections) {
+        this.prewarmConnections = prewarmConnections;
+    }
+
+    public int getPrewarmParallelism() {
+        return prewarmParallelism;
+    }
+
+    /**
+     * @param prewarmParallelism
+     *            the number of network elements of the inventory connected to
+     *            at a time
+     */
+    public void setPrewarmParallelism(final int prewarmParallelism) {
+        this.prewarmParallelism = prewarmParallelism;
+    }
+
+    public long getPrewarmJitter() {
+        return prewarmJitter;
+    }
+
+    /**
+     * @param prewarmJitter
+     *            the longest random delay in milliseconds before the
+     *            connections to a network element are opened
+     */
+    public void setPrewarmJitter(final long prewarmJitter) {
+        this.prewarmJitter = prewarmJitter;
+    }
+
+    public long getPrewarmLeadTime() {
+        return prewarmLeadTime;
+    }
+
+    /**
+     * @param prewarmLeadTime
+     *            the time in milliseconds before each ROP boundary at which
+     *            the connections are opened again, 0 to only open them when
+     *            the component starts
+     */
+    public void setPrewarmLeadTime(final long prewarmLeadTime) {
+        this.prewarmLeadTime = prewarmLeadTime;
+    }
+
+    public long getRopPeriod() {
+        return ropPeriod;
+    }
+
+    /**
+     * @param ropPeriod
+     *            the ROP period in milliseconds, ROP boundaries being
+     *            multiples of it since the epoch
+     */
+    public void setRopPeriod(final long ropPeriod) {
+        this.ropPeriod = ropPeriod;
+    }
+
 }
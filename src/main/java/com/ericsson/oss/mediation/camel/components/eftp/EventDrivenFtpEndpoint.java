@@ -11,21 +11,244 @@
  *----------------------------------------------------------------------------*/
 package com.ericsson.oss.mediation.camel.components.eftp;
 
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+
 import org.apache.camel.*;
 import org.apache.camel.impl.DefaultEndpoint;
+import org.apache.commons.net.ftp.FTPClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ericsson.oss.mediation.camel.components.eftp.connection.*;
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.EndpointTransferMetrics;
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.TransferMetrics;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.*;
+import com.ericsson.oss.mediation.camel.components.eftp.transfer.CheckpointStore;
+import com.jcraft.jsch.ChannelSftp;
+
 /**
- * FTP Endpoint
- * 
- * 
+ * FTP Endpoint, retrieving files over the FTP and SFTP connection pools. The
+ * options are described in the README of the component.
  */
 public class EventDrivenFtpEndpoint extends DefaultEndpoint {
 
     public static final Logger LOG = LoggerFactory
             .getLogger(EventDrivenFtpEndpoint.class);
 
+    private volatile FtpConnectionPool ftpConnectionPool;
+    private volatile SftpConnectionPool sftpConnectionPool;
+    private volatile KeyedConnectionPool<FTPClient> ftpPool;
+    private volatile KeyedConnectionPool<ChannelSftp> sftpPool;
+
+    /**
+     * true if the pool was looked up on start and must be released on stop,
+     * false if it was injected as an endpoint option
+     */
+    private boolean ftpPoolFromRegistry;
+    private boolean sftpPoolFromRegistry;
+
+    /**
+     * maximum time in milliseconds to wait for the server to confirm an FTP
+     * retrieval once its stream has been closed
+     */
+    private int ftpCompletionTimeout = 30000;
+
+    /**
+     * return borrowed connections to the pool when the exchange is done with
+     * them, false leaves it to the route
+     */
+    private boolean autoReleaseConnection;
+
+    /**
+     * number of SFTP read requests kept in flight per file, 0 uses the JSch
+     * default
+     */
+    private int sftpBulkRequests;
+
+    /**
+     * size in bytes of each SFTP read, 0 reads as much as the consumer of the
+     * stream asks for
+     */
+    private int sftpReadSize;
+
+    /**
+     * size in bytes from which SFTP files are downloaded as several ranges in
+     * parallel, 0 disables chunked downloads
+     */
+    private long sftpChunkedThreshold;
+
+    /**
+     * number of SFTP channels a chunked download is spread over
+     */
+    private int sftpChunkChannels = 4;
+
+    /**
+     * size in bytes from which FTP files are downloaded as several segments in
+     * parallel, 0 disables segmented downloads
+     */
+    private long ftpSegmentedThreshold;
+
+    /**
+     * number of FTP connections a segmented download is spread over
+     */
+    private int ftpSegments = 4;
+
+    /**
+     * fetch SFTP batches as a single tar stream over an exec channel
+     */
+    private boolean sftpBulkTar;
+
+    /**
+     * archiver writing a tar stream of the files appended to it
+     */
+    private String sftpBulkTarCommand = "tar -cf -";
+
+    /**
+     * time in milliseconds to wait for the exec channel of the archiver to
+     * open
+     */
+    private int sftpBulkTarConnectTimeout = 30000;
+
+    /**
+     * compression algorithms negotiated for the SSH transport, null or empty
+     * to leave the sessions as the pool opens them
+     */
+    private String sshCompression;
+
+    /**
+     * compress SFTP files on the network element over an exec channel
+     */
+    private boolean sftpRemoteCompression;
+
+    /**
+     * compressor reading a file from its input and writing it in gzip format
+     * to its output
+     */
+    private String sftpRemoteCompressionCommand = "gzip -c";
+
+    /**
+     * time in milliseconds to wait for the exec channel of the compressor to
+     * open
+     */
+    private int sftpRemoteCompressionConnectTimeout = 30000;
+
+    /**
+     * write single files straight to destDir/destFile and set the body to the
+     * file instead of the remote stream
+     */
+    private boolean directToDisk;
+
+    /**
+     * size in bytes of the buffer used to write files straight to disk
+     */
+    private int directBufferSize = 256 * 1024;
+
+    /**
+     * inflate files ending in .gz while they are downloaded
+     */
+    private boolean decompressGz;
+
+    /**
+     * number of compressed bytes handed to the inflater at a time
+     */
+    private int decompressBufferSize = 256 * 1024;
+
+    /**
+     * keep the bytes of interrupted downloads and continue from them when
+     * the file is requested again
+     */
+    private boolean resumable;
+
+    /**
+     * directory of the checkpoints of interrupted downloads
+     */
+    private String checkpointDirectory = System.getProperty("java.io.tmpdir")
+            + File.separator + "eftp-checkpoints";
+
+    /**
+     * run transfers on a dedicated executor instead of the route thread
+     */
+    private boolean asyncTransfer;
+
+    /**
+     * record the phases of every transfer and publish them over JMX
+     */
+    private boolean transferMetrics;
+
+    /**
+     * address of the network element polled by a consumer of the endpoint
+     */
+    private String ipAddress;
+
+    /**
+     * port of the polled network element, 0 for the default port of the
+     * protocol
+     */
+    private int port;
+
+    private String username;
+    private String password;
+
+    /**
+     * poll the network element over SFTP rather than FTP
+     */
+    private boolean secureFtp;
+
+    /**
+     * comma separated remote directories polled by a consumer of the endpoint
+     */
+    private String pollDirectories;
+
+    /**
+     * glob selecting the polled files, all files if not set
+     */
+    private String srcFilePattern;
+
+    /**
+     * destination directory of the polled files
+     */
+    private String destDir;
+
+    /**
+     * directory of the indexes of the files already collected by consumers
+     */
+    private String indexDirectory = System.getProperty("java.io.tmpdir")
+            + File.separator + "eftp-index";
+
+    /**
+     * only list an SFTP directory if its modification time has changed
+     */
+    private boolean skipUnchangedDirectories;
+
+    /**
+     * only collect a polled file once two consecutive listings saw it with
+     * the same size and modification time
+     */
+    private boolean awaitStableSize = true;
+
+    /**
+     * also discover the files of an SFTP network element as they are closed,
+     * by running a watcher over an SSH exec channel
+     */
+    private boolean sshWatch;
+
+    /**
+     * watcher printing the path of every file closed in the directories
+     * appended to it
+     */
+    private String sshWatchCommand = "inotifywait -m -q -e close_write -e moved_to --format %w%f";
+
+    /**
+     * shared by the endpoints of the component, set while the endpoint is
+     * started
+     */
+    private EndpointTransferMetrics endpointTransferMetrics;
+    private ExecutorService transferExecutor;
+    private ExecutorService asyncTransferExecutor;
+
+    private CheckpointStore checkpointStore;
+
     /**
      * Default constructor
      * 
@@ -55,8 +278,13 @@ public class EventDrivenFtpEndpoint extends DefaultEndpoint {
 
     @Override
     public Consumer createConsumer(final Processor processor)
-            throws UnsupportedOperationException {
-        return null;
+            throws Exception {
+        // no route holds the connections of the exchanges a poll creates
+        autoReleaseConnection = true;
+        final EftpPollingConsumer consumer = new EftpPollingConsumer(this,
+                processor);
+        configureConsumer(consumer);
+        return consumer;
     }
 
     @Override
@@ -81,9 +309,876 @@ public class EventDrivenFtpEndpoint extends DefaultEndpoint {
         }
     }
 
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        if (ftpPool == null) {
+            final Object pool = lookupPool(Constants.FTP_POOL);
+            if (pool instanceof FtpConnectionPool) {
+                setFtpConnectionPool((FtpConnectionPool) pool);
+            } else {
+                ftpPool = toFtpPool(pool);
+            }
+            ftpPoolFromRegistry = ftpPool != null;
+        }
+        if (sftpPool == null) {
+            final Object pool = lookupPool(Constants.SFTP_POOL);
+            if (pool instanceof SftpConnectionPool) {
+                setSftpConnectionPool((SftpConnectionPool) pool);
+            } else {
+                sftpPool = toSftpPool(pool);
+            }
+            sftpPoolFromRegistry = sftpPool != null;
+        }
+        if (resumable) {
+            checkpointStore = new CheckpointStore(new File(checkpointDirectory));
+        }
+        final Component component = getComponent();
+        if (!(component instanceof EventDrivenFtpComponent)) {
+            return;
+        }
+        final EventDrivenFtpComponent eftpComponent;
+        eftpComponent = (EventDrivenFtpComponent) component;
+        if (transferMetrics) {
+            endpointTransferMetrics = eftpComponent
+                    .getEndpointTransferMetrics(getEndpointUri());
+        }
+        if (asyncTransfer) {
+            asyncTransferExecutor = eftpComponent.getAsyncTransferExecutor();
+        }
+        if (sftpChunkedThreshold > 0 || ftpSegmentedThreshold > 0) {
+            transferExecutor = eftpComponent.getTransferExecutor();
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        checkpointStore = null;
+        endpointTransferMetrics = null;
+        asyncTransferExecutor = null;
+        transferExecutor = null;
+        if (ftpPoolFromRegistry) {
+            ftpConnectionPool = null;
+            ftpPool = null;
+            ftpPoolFromRegistry = false;
+        }
+        if (sftpPoolFromRegistry) {
+            sftpConnectionPool = null;
+            sftpPool = null;
+            sftpPoolFromRegistry = false;
+        }
+        super.doStop();
+    }
+
+    private Object lookupPool(final String name) {
+        final Object pool = getCamelContext().getRegistry().lookup(name);
+        if (pool == null) {
+            LOG.debug("No connection pool bound in the registry as [{}]", name);
+        }
+        return pool;
+    }
+
+    /**
+     * @param pool
+     *            the FTP pool bound in the registry, either kind
+     * @return the pool as a {@link KeyedConnectionPool}, null if none is bound
+     * @throws IllegalArgumentException
+     *             if the object bound is not a connection pool
+     */
+    @SuppressWarnings("unchecked")
+    static KeyedConnectionPool<FTPClient> toFtpPool(final Object pool) {
+        if (pool == null || pool instanceof KeyedConnectionPool) {
+            return (KeyedConnectionPool<FTPClient>) pool;
+        }
+        if (pool instanceof FtpConnectionPool) {
+            return new JcaFtpConnectionPool((FtpConnectionPool) pool);
+        }
+        throw new IllegalArgumentException("Not an FTP connection pool: "
+                + pool.getClass().getName());
+    }
+
+    /**
+     * @param pool
+     *            the SFTP pool bound in the registry, either kind
+     * @return the pool as a {@link KeyedConnectionPool}, null if none is bound
+     * @throws IllegalArgumentException
+     *             if the object bound is not a connection pool
+     */
+    @SuppressWarnings("unchecked")
+    static KeyedConnectionPool<ChannelSftp> toSftpPool(final Object pool) {
+        if (pool == null || pool instanceof KeyedConnectionPool) {
+            return (KeyedConnectionPool<ChannelSftp>) pool;
+        }
+        if (pool instanceof SftpConnectionPool) {
+            return new JcaSftpConnectionPool((SftpConnectionPool) pool);
+        }
+        throw new IllegalArgumentException("Not an SFTP connection pool: "
+                + pool.getClass().getName());
+    }
+
     @Override
     public boolean isSingleton() {
         return false;
     }
 
+    /**
+     * @return the FTP connection pool resolved for this endpoint, null if the
+     *         endpoint has not been started and no pool was injected
+     */
+    public FtpConnectionPool getFtpConnectionPool() {
+        return ftpConnectionPool;
+    }
+
+    /**
+     * @param ftpConnectionPool
+     *            the FTP connection pool to use instead of the one bound in
+     *            the registry
+     */
+    public void setFtpConnectionPool(final FtpConnectionPool ftpConnectionPool) {
+        this.ftpConnectionPool = ftpConnectionPool;
+        this.ftpPool = ftpConnectionPool == null ? null
+                : new JcaFtpConnectionPool(ftpConnectionPool);
+        this.ftpPoolFromRegistry = false;
+    }
+
+    /**
+     * @return the FTP connection pool borrowed from, of either kind, null if
+     *         the endpoint has not been started and no pool was injected
+     */
+    public KeyedConnectionPool<FTPClient> getFtpPool() {
+        return ftpPool;
+    }
+
+    /**
+     * @param ftpPool
+     *            the FTP connection pool to use instead of the one bound in
+     *            the registry, e.g. a {@link LockFreeKeyedConnectionPool}
+     */
+    public void setFtpPool(final KeyedConnectionPool<FTPClient> ftpPool) {
+        this.ftpPool = ftpPool;
+        this.ftpConnectionPool = ftpPool instanceof JcaFtpConnectionPool
+                ? ((JcaFtpConnectionPool) ftpPool).getPool() : null;
+        this.ftpPoolFromRegistry = false;
+    }
+
+    /**
+     * @return the SFTP connection pool resolved for this endpoint, null if the
+     *         endpoint has not been started and no pool was injected
+     */
+    public SftpConnectionPool getSftpConnectionPool() {
+        return sftpConnectionPool;
+    }
+
+    /**
+     * @param sftpConnectionPool
+     *            the SFTP connection pool to use instead of the one bound in
+     *            the registry
+     */
+    public void setSftpConnectionPool(
+            final SftpConnectionPool sftpConnectionPool) {
+        this.sftpConnectionPool = sftpConnectionPool;
+        this.sftpPool = sftpConnectionPool == null ? null
+                : new JcaSftpConnectionPool(sftpConnectionPool);
+        this.sftpPoolFromRegistry = false;
+    }
+
+    /**
+     * @return the SFTP connection pool borrowed from, of either kind, null if
+     *         the endpoint has not been started and no pool was injected
+     */
+    public KeyedConnectionPool<ChannelSftp> getSftpPool() {
+        return sftpPool;
+    }
+
+    /**
+     * @param sftpPool
+     *            the SFTP connection pool to use instead of the one bound in
+     *            the registry, e.g. a {@link LockFreeKeyedConnectionPool}
+     */
+    public void setSftpPool(final KeyedConnectionPool<ChannelSftp> sftpPool) {
+        this.sftpPool = sftpPool;
+        this.sftpConnectionPool = sftpPool instanceof JcaSftpConnectionPool
+                ? ((JcaSftpConnectionPool) sftpPool).getPool() : null;
+        this.sftpPoolFromRegistry = false;
+    }
+
+    /**
+     * @return the maximum time in milliseconds to wait for the server to
+     *         confirm an FTP retrieval once its stream has been closed
+     */
+    public int getFtpCompletionTimeout() {
+        return ftpCompletionTimeout;
+    }
+
+    /**
+     * @param ftpCompletionTimeout
+     *            the maximum time in milliseconds to wait for the server to
+     *            confirm an FTP retrieval, 0 waits indefinitely
+     */
+    public void setFtpCompletionTimeout(final int ftpCompletionTimeout) {
+        this.ftpCompletionTimeout = ftpCompletionTimeout;
+    }
+
+    /**
+     * @return true if borrowed connections are returned to the pool when the
+     *         exchange is done with them
+     */
+    public boolean isAutoReleaseConnection() {
+        return autoReleaseConnection;
+    }
+
+    /**
+     * @param autoReleaseConnection
+     *            false if the route returns borrowed connections itself
+     */
+    public void setAutoReleaseConnection(final boolean autoReleaseConnection) {
+        this.autoReleaseConnection = autoReleaseConnection;
+    }
+
+    /**
+     * @return the leak detector of the component, null if leak detection is
+     *         disabled or connections are released by the route
+     */
+    public ConnectionLeakDetector getLeakDetector() {
+        final Component component = getComponent();
+        if (!autoReleaseConnection
+                || !(component instanceof EventDrivenFtpComponent)) {
+            return null;
+        }
+        return ((EventDrivenFtpComponent) component).getLeakDetector();
+    }
+
+    /**
+     * @return the admission controller of the component limiting the sessions
+     *         per network element, null if they are not limited or
+     *         connections are released by the route
+     */
+    public HostAdmissionController getHostAdmissionController() {
+        final Component component = getComponent();
+        if (!autoReleaseConnection
+                || !(component instanceof EventDrivenFtpComponent)) {
+            return null;
+        }
+        return ((EventDrivenFtpComponent) component)
+                .getHostAdmissionController();
+    }
+
+    /**
+     * @return the circuit breaker of the component, null if it is disabled
+     */
+    public HostCircuitBreaker getHostCircuitBreaker() {
+        final Component component = getComponent();
+        if (!(component instanceof EventDrivenFtpComponent)) {
+            return null;
+        }
+        return ((EventDrivenFtpComponent) component).getHostCircuitBreaker();
+    }
+
+    /**
+     * @return the number of SFTP read requests kept in flight per file, 0 if
+     *         the JSch default is used
+     */
+    public int getSftpBulkRequests() {
+        return sftpBulkRequests;
+    }
+
+    /**
+     * @param sftpBulkRequests
+     *            the number of SFTP read requests to keep in flight per file,
+     *            raise it on links with a high round trip time
+     */
+    public void setSftpBulkRequests(final int sftpBulkRequests) {
+        this.sftpBulkRequests = sftpBulkRequests;
+    }
+
+    /**
+     * @return the size in bytes of each SFTP read request, 0 if reads are
+     *         sized by the consumer of the stream
+     */
+    public int getSftpReadSize() {
+        return sftpReadSize;
+    }
+
+    /**
+     * @param sftpReadSize
+     *            the size in bytes of each SFTP read request
+     */
+    public void setSftpReadSize(final int sftpReadSize) {
+        this.sftpReadSize = sftpReadSize;
+    }
+
+    /**
+     * @return the size in bytes from which SFTP files are downloaded as
+     *         several ranges in parallel, 0 if chunked downloads are disabled
+     */
+    public long getSftpChunkedThreshold() {
+        return sftpChunkedThreshold;
+    }
+
+    /**
+     * @param sftpChunkedThreshold
+     *            the size in bytes from which SFTP files are downloaded as
+     *            several ranges in parallel and written to destDir/destFile,
+     *            0 disables chunked downloads
+     */
+    public void setSftpChunkedThreshold(final long sftpChunkedThreshold) {
+        this.sftpChunkedThreshold = sftpChunkedThreshold;
+    }
+
+    /**
+     * @return the number of SFTP channels a chunked download is spread over
+     */
+    public int getSftpChunkChannels() {
+        return sftpChunkChannels;
+    }
+
+    /**
+     * @param sftpChunkChannels
+     *            the number of SFTP channels a chunked download is spread
+     *            over, including the borrowed channel
+     */
+    public void setSftpChunkChannels(final int sftpChunkChannels) {
+        this.sftpChunkChannels = sftpChunkChannels;
+    }
+
+    /**
+     * @return the size in bytes from which FTP files are downloaded as several
+     *         segments in parallel, 0 if segmented downloads are disabled
+     */
+    public long getFtpSegmentedThreshold() {
+        return ftpSegmentedThreshold;
+    }
+
+    /**
+     * @param ftpSegmentedThreshold
+     *            the size in bytes from which FTP files are downloaded as
+     *            several segments in parallel and written to
+     *            destDir/destFile, 0 disables segmented downloads
+     */
+    public void setFtpSegmentedThreshold(final long ftpSegmentedThreshold) {
+        this.ftpSegmentedThreshold = ftpSegmentedThreshold;
+    }
+
+    /**
+     * @return the number of FTP connections a segmented download is spread
+     *         over
+     */
+    public int getFtpSegments() {
+        return ftpSegments;
+    }
+
+    /**
+     * @param ftpSegments
+     *            the number of FTP connections a segmented download is spread
+     *            over, including the borrowed connection
+     */
+    public void setFtpSegments(final int ftpSegments) {
+        this.ftpSegments = ftpSegments;
+    }
+
+    /**
+     * @return true if SFTP batches are fetched as a single tar stream
+     */
+    public boolean isSftpBulkTar() {
+        return sftpBulkTar;
+    }
+
+    /**
+     * @param sftpBulkTar
+     *            true to fetch SFTP batches as a single tar stream written by
+     *            sftpBulkTarCommand over an exec channel
+     */
+    public void setSftpBulkTar(final boolean sftpBulkTar) {
+        this.sftpBulkTar = sftpBulkTar;
+    }
+
+    /**
+     * @return the archiver run on the network element for SFTP batches
+     */
+    public String getSftpBulkTarCommand() {
+        return sftpBulkTarCommand;
+    }
+
+    /**
+     * @param sftpBulkTarCommand
+     *            the archiver run on the network element, which must write a
+     *            tar stream of the files appended to it to its output after
+     *            changing to the directory given with -C
+     */
+    public void setSftpBulkTarCommand(final String sftpBulkTarCommand) {
+        this.sftpBulkTarCommand = sftpBulkTarCommand;
+    }
+
+    /**
+     * @return the time in milliseconds to wait for the exec channel of the
+     *         archiver to open
+     */
+    public int getSftpBulkTarConnectTimeout() {
+        return sftpBulkTarConnectTimeout;
+    }
+
+    /**
+     * @param sftpBulkTarConnectTimeout
+     *            the time in milliseconds to wait for the exec channel of the
+     *            archiver to open
+     */
+    public void setSftpBulkTarConnectTimeout(
+            final int sftpBulkTarConnectTimeout) {
+        this.sftpBulkTarConnectTimeout = sftpBulkTarConnectTimeout;
+    }
+
+    /**
+     * @return the compression algorithms negotiated for the SSH transport,
+     *         null if the sessions are left as the pool opens them
+     */
+    public String getSshCompression() {
+        return sshCompression;
+    }
+
+    /**
+     * @param sshCompression
+     *            the comma separated compression algorithms negotiated for
+     *            the SSH transport of borrowed sessions, in order of
+     *            preference, such as <code>zlib@openssh.com,zlib,none</code>
+     */
+    public void setSshCompression(final String sshCompression) {
+        this.sshCompression = sshCompression;
+    }
+
+    /**
+     * @return true if SFTP files are compressed on the network element
+     */
+    public boolean isSftpRemoteCompression() {
+        return sftpRemoteCompression;
+    }
+
+    /**
+     * @param sftpRemoteCompression
+     *            true to compress SFTP files and tar streams on the network
+     *            element with sftpRemoteCompressionCommand and inflate them
+     *            as they arrive
+     */
+    public void setSftpRemoteCompression(final boolean sftpRemoteCompression) {
+        this.sftpRemoteCompression = sftpRemoteCompression;
+    }
+
+    /**
+     * @return the compressor run on the network element
+     */
+    public String getSftpRemoteCompressionCommand() {
+        return sftpRemoteCompressionCommand;
+    }
+
+    /**
+     * @param sftpRemoteCompressionCommand
+     *            the compressor run on the network element, which must read
+     *            the file from its input and write it in gzip format to its
+     *            output, such as <code>gzip -1 -c</code>
+     */
+    public void setSftpRemoteCompressionCommand(
+            final String sftpRemoteCompressionCommand) {
+        this.sftpRemoteCompressionCommand = sftpRemoteCompressionCommand;
+    }
+
+    /**
+     * @return the time in milliseconds to wait for the exec channel of the
+     *         compressor to open
+     */
+    public int getSftpRemoteCompressionConnectTimeout() {
+        return sftpRemoteCompressionConnectTimeout;
+    }
+
+    /**
+     * @param sftpRemoteCompressionConnectTimeout
+     *            the time in milliseconds to wait for the exec channel of the
+     *            compressor to open
+     */
+    public void setSftpRemoteCompressionConnectTimeout(
+            final int sftpRemoteCompressionConnectTimeout) {
+        this.sftpRemoteCompressionConnectTimeout = sftpRemoteCompressionConnectTimeout;
+    }
+
+    /**
+     * @return true if single files are written straight to destDir/destFile
+     *         and the body is set to the file
+     */
+    public boolean isDirectToDisk() {
+        return directToDisk;
+    }
+
+    /**
+     * @param directToDisk
+     *            true to write single files straight to destDir/destFile and
+     *            set the body to the file instead of the remote stream
+     */
+    public void setDirectToDisk(final boolean directToDisk) {
+        this.directToDisk = directToDisk;
+    }
+
+    /**
+     * @return the size in bytes of the buffer used to write files to
+     *         disk
+     */
+    public int getDirectBufferSize() {
+        return directBufferSize;
+    }
+
+    /**
+     * @param directBufferSize
+     *            the size in bytes of the buffer used to write files to
+     *            disk, one is kept per transfer thread
+     */
+    public void setDirectBufferSize(final int directBufferSize) {
+        this.directBufferSize = directBufferSize;
+    }
+
+    /**
+     * @return true if files ending in .gz are inflated while they are
+     *         downloaded
+     */
+    public boolean isDecompressGz() {
+        return decompressGz;
+    }
+
+    /**
+     * @param decompressGz
+     *            true to inflate files ending in .gz while they are
+     *            downloaded and remove the suffix from their destination
+     *            names
+     */
+    public void setDecompressGz(final boolean decompressGz) {
+        this.decompressGz = decompressGz;
+    }
+
+    /**
+     * @return the number of compressed bytes handed to the inflater at a time
+     */
+    public int getDecompressBufferSize() {
+        return decompressBufferSize;
+    }
+
+    /**
+     * @param decompressBufferSize
+     *            the number of compressed bytes handed to the inflater at a
+     *            time, and buffered per file being inflated
+     */
+    public void setDecompressBufferSize(final int decompressBufferSize) {
+        this.decompressBufferSize = decompressBufferSize;
+    }
+
+    /**
+     * @return true if interrupted downloads are continued when the file is
+     *         requested again
+     */
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * @param resumable
+     *            true to write single files to disk through a partial file
+     *            and continue interrupted downloads when the file is
+     *            requested again
+     */
+    public void setResumable(final boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    /**
+     * @return the directory of the checkpoints of interrupted downloads
+     */
+    public String getCheckpointDirectory() {
+        return checkpointDirectory;
+    }
+
+    /**
+     * @param checkpointDirectory
+     *            the directory of the checkpoints of interrupted downloads,
+     *            which must survive restarts for downloads to be resumed
+     *            after one
+     */
+    public void setCheckpointDirectory(final String checkpointDirectory) {
+        this.checkpointDirectory = checkpointDirectory;
+    }
+
+    /**
+     * @return the store of the interrupted downloads, null if the endpoint is
+     *         not started or downloads are not resumable
+     */
+    public CheckpointStore getCheckpointStore() {
+        return checkpointStore;
+    }
+
+    /**
+     * @return true if transfers run on a dedicated executor instead of the
+     *         route thread
+     */
+    public boolean isAsyncTransfer() {
+        return asyncTransfer;
+    }
+
+    /**
+     * @param asyncTransfer
+     *            true to run transfers on a dedicated executor and release the
+     *            route thread until they complete
+     */
+    public void setAsyncTransfer(final boolean asyncTransfer) {
+        this.asyncTransfer = asyncTransfer;
+    }
+
+    /**
+     * @return true if the phases of every transfer are recorded
+     */
+    public boolean isTransferMetrics() {
+        return transferMetrics;
+    }
+
+    /**
+     * @param transferMetrics
+     *            true to record the phases of every transfer and publish them
+     *            over JMX
+     */
+    public void setTransferMetrics(final boolean transferMetrics) {
+        this.transferMetrics = transferMetrics;
+    }
+
+    /**
+     * @return the transfer metrics of the endpoint, null if the endpoint is
+     *         not started or transfer metrics are disabled
+     */
+    public EndpointTransferMetrics getEndpointTransferMetrics() {
+        return endpointTransferMetrics;
+    }
+
+    /**
+     * @return the transfer metrics of the network element, null if transfer
+     *         metrics are disabled
+     */
+    public TransferMetrics getTransferMetrics(final String ipAddress,
+            final int port) {
+        final EndpointTransferMetrics metrics = endpointTransferMetrics;
+        return metrics == null ? null : metrics.host(ipAddress, port);
+    }
+
+    /**
+     * @return the executor running asynchronous transfers, null if the
+     *         endpoint is not started or transfers are synchronous
+     */
+    public ExecutorService getAsyncTransferExecutor() {
+        return asyncTransferExecutor;
+    }
+
+    /**
+     * @return the executor fetching the ranges of chunked and segmented
+     *         downloads, null if the endpoint is not started or both are
+     *         disabled
+     */
+    public ExecutorService getTransferExecutor() {
+        return transferExecutor;
+    }
+
+    /**
+     * @return the address of the network element polled by a consumer of the
+     *         endpoint
+     */
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    /**
+     * @param ipAddress
+     *            the address of the network element polled by a consumer of
+     *            the endpoint
+     */
+    public void setIpAddress(final String ipAddress) {
+        this.ipAddress = ipAddress;
+    }
+
+    /**
+     * @return the port of the polled network element, 0 for the default port
+     *         of the protocol
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @param port
+     *            the port of the polled network element, 0 for the default
+     *            port of the protocol
+     */
+    public void setPort(final int port) {
+        this.port = port;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(final String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(final String password) {
+        this.password = password;
+    }
+
+    /**
+     * @return true if the network element is polled over SFTP
+     */
+    public boolean isSecureFtp() {
+        return secureFtp;
+    }
+
+    /**
+     * @param secureFtp
+     *            true to poll the network element over SFTP, false for FTP
+     */
+    public void setSecureFtp(final boolean secureFtp) {
+        this.secureFtp = secureFtp;
+    }
+
+    /**
+     * @return the comma separated remote directories polled by a consumer of
+     *         the endpoint
+     */
+    public String getPollDirectories() {
+        return pollDirectories;
+    }
+
+    /**
+     * @param pollDirectories
+     *            the comma separated remote directories polled by a consumer
+     *            of the endpoint
+     */
+    public void setPollDirectories(final String pollDirectories) {
+        this.pollDirectories = pollDirectories;
+    }
+
+    /**
+     * @return the glob selecting the polled files, null if all files are
+     *         polled
+     */
+    public String getSrcFilePattern() {
+        return srcFilePattern;
+    }
+
+    /**
+     * @param srcFilePattern
+     *            the glob selecting the polled files, such as
+     *            <code>A*.xml.gz</code>
+     */
+    public void setSrcFilePattern(final String srcFilePattern) {
+        this.srcFilePattern = srcFilePattern;
+    }
+
+    /**
+     * @return the destination directory of the polled files
+     */
+    public String getDestDir() {
+        return destDir;
+    }
+
+    /**
+     * @param destDir
+     *            the destination directory of the polled files, set as the
+     *            destDir header of their exchanges
+     */
+    public void setDestDir(final String destDir) {
+        this.destDir = destDir;
+    }
+
+    /**
+     * @return the directory of the indexes of the files already collected
+     */
+    public String getIndexDirectory() {
+        return indexDirectory;
+    }
+
+    /**
+     * @param indexDirectory
+     *            the directory of the indexes of the files already collected,
+     *            which must survive restarts for files not to be collected
+     *            again after one
+     */
+    public void setIndexDirectory(final String indexDirectory) {
+        this.indexDirectory = indexDirectory;
+    }
+
+    /**
+     * @return true if an SFTP directory is only listed when its modification
+     *         time has changed
+     */
+    public boolean isSkipUnchangedDirectories() {
+        return skipUnchangedDirectories;
+    }
+
+    /**
+     * @param skipUnchangedDirectories
+     *            true to only list an SFTP directory when its modification
+     *            time has changed, for network elements which never rewrite
+     *            a file in place
+     */
+    public void setSkipUnchangedDirectories(
+            final boolean skipUnchangedDirectories) {
+        this.skipUnchangedDirectories = skipUnchangedDirectories;
+    }
+
+    /**
+     * @return true if a polled file is only collected once two consecutive
+     *         listings saw it with the same size and modification time
+     */
+    public boolean isAwaitStableSize() {
+        return awaitStableSize;
+    }
+
+    /**
+     * @param awaitStableSize
+     *            false to collect a new or changed file as soon as a listing
+     *            finds it, for network elements which only give a file its
+     *            final name once it is complete
+     */
+    public void setAwaitStableSize(final boolean awaitStableSize) {
+        this.awaitStableSize = awaitStableSize;
+    }
+
+    /**
+     * @return true if the files of an SFTP network element are also
+     *         discovered as they are closed
+     */
+    public boolean isSshWatch() {
+        return sshWatch;
+    }
+
+    /**
+     * @param sshWatch
+     *            true to also discover the files of an SFTP network element
+     *            as they are closed, by running sshWatchCommand over an SSH
+     *            exec channel
+     */
+    public void setSshWatch(final boolean sshWatch) {
+        this.sshWatch = sshWatch;
+    }
+
+    /**
+     * @return the watcher run on the network element
+     */
+    public String getSshWatchCommand() {
+        return sshWatchCommand;
+    }
+
+    /**
+     * @param sshWatchCommand
+     *            the watcher run on the network element, which must print
+     *            the path of every file closed in the directories appended
+     *            to it on a line of its own and keep running
+     */
+    public void setSshWatchCommand(final String sshWatchCommand) {
+        this.sshWatchCommand = sshWatchCommand;
+    }
+
 }
@@ -11,7 +11,12 @@
  *----------------------------------------------------------------------------*/
 package com.ericsson.oss.mediation.camel.components.eftp;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Message;
@@ -20,9 +25,20 @@ import org.apache.commons.net.ftp.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ericsson.oss.mediation.camel.components.eftp.connection.FtpConnectionRelease;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.KeyedConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.HostAdmissionController;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.HostCircuitBreaker;
 import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.io.FtpRetrieveInputStream;
+import com.ericsson.oss.mediation.camel.components.eftp.io.GzipDecompression;
+import com.ericsson.oss.mediation.camel.components.eftp.io.MeteredInputStream;
+import com.ericsson.oss.mediation.camel.components.eftp.io.ReleasingInputStream;
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.TransferMetrics;
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.TransferPhase;
 import com.ericsson.oss.mediation.camel.components.eftp.pool.*;
 import com.ericsson.oss.mediation.camel.components.eftp.pool.exception.GenericPoolException;
+import com.ericsson.oss.mediation.camel.components.eftp.transfer.*;
 import com.ericsson.oss.mediation.camel.components.eftp.utils.EftpUtilities;
 
 /**
@@ -68,7 +84,13 @@ public class EventDrivenFtpProducer extends DefaultProducer {
      */
     @Override
     public void process(final Exchange exchange) throws GenericEftpException {
+        if (EftpBatchIterator.isBatchRequest(exchange.getIn())) {
+            processBatch(exchange);
+            return;
+        }
         FTPClient ftpClient = null;
+        FtpConnectionRelease release = null;
+        TransferMetrics metrics = null;
         try {
 
             final String destDirectory = (String) exchange.getIn().getHeader(
@@ -80,32 +102,337 @@ public class EventDrivenFtpProducer extends DefaultProducer {
             final String srcDir = (String) exchange.getIn().getHeader(
                     EftpConstants.EFTP_SOURCE_DIRECTORY);
 
-            ftpClient = setupConnection(exchange);
+            metrics = hostMetrics(exchange);
+            release = setupConnection(exchange, metrics);
+            ftpClient = release.getConnection();
 
             final Message message = exchange.getIn();
-            message.setBody(getFile(srcDir, srcFile, ftpClient));
+            final boolean inflate = inflate(srcFile);
+            final String destName = inflate ? GzipDecompression
+                    .decompressedName(destFile) : destFile;
+            final long requestedAt = System.nanoTime();
+            final long size = inflate ? -1 : segmentedDownloadSize(srcDir,
+                    srcFile, ftpClient);
+            if (size >= 0) {
+                message.setBody(recordDownload(metrics, requestedAt,
+                        downloadSegmented(srcDir, srcFile, size, release,
+                                new File(destDirectory, destFile))));
+            } else if (!inflate && endpoint.getCheckpointStore() != null) {
+                message.setBody(recordDownload(metrics, requestedAt,
+                        downloadResumable(srcDir, srcFile, release, new File(
+                                destDirectory, destFile))));
+            } else if (endpoint.isDirectToDisk()) {
+                message.setBody(downloadToDisk(
+                        meter(retrieve(srcDir, srcFile, ftpClient), metrics,
+                                requestedAt), release, new File(destDirectory,
+                                destName)));
+            } else {
+                message.setBody(releaseOnClose(
+                        meter(retrieve(srcDir, srcFile, ftpClient), metrics,
+                                requestedAt), release));
+            }
+            message.setHeader(EftpConstants.EFTP_DESTINATION_FILE, destName);
 
             LOG.debug("process will be called for destination: {}",
                     destDirectory + destFile);
 
             message.setHeader(Exchange.FILE_NAME, EftpUtilities
-                    .createFilePathWithSeparator(destDirectory, destFile));
+                    .createFilePathWithSeparator(destDirectory, destName));
 
             exchange.setIn(message);
         } catch (final GenericEftpException e) {
             LOG.error("Error detected during connection, stack trace: {}", e);
             LOG.error("Error code: [{}] and description: [{}]",
                     e.getErrorCode(), e.getErrorDescription());
+            recordError(metrics, e.getErrorCode());
+            invalidate(release);
             throw e;
         } catch (final Exception e) {
             LOG.error("Exception thrown: [{}]", e);
+            // no client if the exception was thrown before one was borrowed
+            final int replyCode = ftpClient == null ? -1 : ftpClient
+                    .getReplyCode();
+            recordError(metrics, replyCode);
+            invalidate(release);
+            throw new GenericEftpException(replyCode,
+                    ftpClient == null ? e.toString() : ftpClient
+                            .getReplyString(), e);
+        }
+    }
+
+    /**
+     * Sets the body to an {@link EftpBatchIterator} retrieving the requested
+     * files over a single borrowed connection
+     */
+    private void processBatch(final Exchange exchange)
+            throws GenericEftpException {
+        final Message message = exchange.getIn();
+        final String srcDir = message.getHeader(
+                EftpConstants.EFTP_SOURCE_DIRECTORY, String.class);
+        final String destDir = message.getHeader(
+                EftpConstants.EFTP_DESTINATION_DIRECTORY, String.class);
+        FtpConnectionRelease release = null;
+        TransferMetrics metrics = null;
+        try {
+            metrics = hostMetrics(exchange);
+            release = setupConnection(exchange, metrics);
+            final TransferMetrics batchMetrics = metrics;
+            final FTPClient ftpClient = release.getConnection();
+            Map<String, String> files = EftpBatchIterator
+                    .requestedFiles(message);
+            if (files == null) {
+                files = EftpBatchIterator.matchingFiles(message,
+                        listFileNames(srcDir, ftpClient));
+            }
+            if (endpoint.isDecompressGz()) {
+                files = GzipDecompression.decompressedNames(files);
+            }
+            LOG.debug("Retrieving batch of {} files from {}", files.size(),
+                    srcDir);
+
+            final EftpBatchIterator batch = new EftpBatchIterator(files,
+                    srcDir, destDir,
+                    endpoint.isAutoReleaseConnection() ? release : null) {
+                @Override
+                protected InputStream retrieve(final String dir,
+                        final String file) throws GenericEftpException {
+                    final long requestedAt = System.nanoTime();
+                    return meter(retrieve(dir, file, ftpClient), batchMetrics,
+                            requestedAt);
+                }
+
+                /**
+                 * A negative reply to RETR, such as 550 for a missing file,
+                 * leaves the control connection usable
+                 */
+                @Override
+                protected boolean isFileError(
+                        final GenericEftpException error) {
+                    final int code = error.getErrorCode();
+                    return error.getCause() == null
+                            && (FTPReply.isNegativePermanent(code)
+                                    || code == FTPReply.FILE_ACTION_NOT_TAKEN);
+                }
+            };
+            if (endpoint.isAutoReleaseConnection()) {
+                release.setBody(batch);
+            }
+            message.setBody(batch);
+        } catch (final GenericEftpException e) {
+            LOG.error("Error code: [{}] and description: [{}]",
+                    e.getErrorCode(), e.getErrorDescription());
+            recordError(metrics, e.getErrorCode());
+            invalidate(release);
+            throw e;
+        }
+    }
+
+    private List<String> listFileNames(final String srcDir,
+            final FTPClient ftpClient) throws GenericEftpException {
+        try {
+            final String[] names = ftpClient.listNames(srcDir);
+            if (names == null) {
+                throw new GenericEftpException(ftpClient.getReplyCode(),
+                        ftpClient.getReplyString());
+            }
+            return Arrays.asList(names);
+        } catch (final IOException e) {
             throw new GenericEftpException(ftpClient.getReplyCode(),
                     ftpClient.getReplyString(), e);
         }
     }
 
-    private FTPClient setupConnection(final Exchange exchange)
+    /**
+     * @return the metrics of the network element of the exchange, null if
+     *         transfer metrics are disabled
+     */
+    private TransferMetrics hostMetrics(final Exchange exchange) {
+        if (endpoint.getEndpointTransferMetrics() == null) {
+            return null;
+        }
+        return endpoint.getTransferMetrics(
+                (String) exchange.getIn().getHeader(
+                        EftpConstants.EFTP_TARGET_IP_ADDRESS),
+                Integer.parseInt(exchange.getIn()
+                        .getHeader(EftpConstants.EFTP_TARGET_PORT).toString()));
+    }
+
+    /**
+     * Wraps the remote stream to record the transfer, if transfer metrics are
+     * enabled
+     */
+    private static InputStream meter(final InputStream stream,
+            final TransferMetrics metrics, final long requestedAt) {
+        return metrics == null ? stream : new MeteredInputStream(stream,
+                metrics, requestedAt);
+    }
+
+    /**
+     * Records a file downloaded straight to disk
+     */
+    private static File recordDownload(final TransferMetrics metrics,
+            final long requestedAt, final File file) {
+        if (metrics != null) {
+            metrics.record(TransferPhase.STREAM, System.nanoTime()
+                    - requestedAt);
+            metrics.recordBytes(file.length());
+            metrics.recordFile();
+        }
+        return file;
+    }
+
+    /**
+     * Counts a failed exchange by its FTP reply code
+     */
+    private static void recordError(final TransferMetrics metrics,
+            final int replyCode) {
+        if (metrics != null) {
+            metrics.recordError("FTP_" + replyCode);
+        }
+    }
+
+    /**
+     * Wraps the body so the connection is returned to the pool as soon as
+     * the body is consumed, if the endpoint releases connections itself
+     */
+    private InputStream releaseOnClose(final InputStream body,
+            final FtpConnectionRelease release) {
+        if (!endpoint.isAutoReleaseConnection()) {
+            return body;
+        }
+        final ReleasingInputStream stream = new ReleasingInputStream(body,
+                release);
+        release.setBody(stream);
+        return stream;
+    }
+
+    /**
+     * @return the size of the remote file if segmented downloads are enabled,
+     *         the server supports them and the file is at least as large as
+     *         the threshold, -1 otherwise
+     */
+    private long segmentedDownloadSize(final String srcDir,
+            final String srcFile, final FTPClient ftpClient)
             throws GenericEftpException {
+        if (endpoint.getFtpSegmentedThreshold() <= 0
+                || endpoint.getTransferExecutor() == null) {
+            return -1;
+        }
+        try {
+            return SegmentedFtpDownload.segmentableSize(ftpClient,
+                    EftpUtilities.normalizeSourceFilePath(srcDir, srcFile),
+                    endpoint.getFtpSegmentedThreshold());
+        } catch (final IOException e) {
+            throw new GenericEftpException(ftpClient.getReplyCode(),
+                    ftpClient.getReplyString(), e);
+        }
+    }
+
+    /**
+     * Downloads the remote file to the destination over several connections,
+     * as many as the network element admits without waiting. The borrowed
+     * connection is no longer needed once the file is on disk, so it is
+     * returned to the pool straight away.
+     */
+    private File downloadSegmented(final String srcDir, final String srcFile,
+            final long size, final FtpConnectionRelease release,
+            final File destination) throws GenericEftpException {
+        final ConnectionConfig key = release.getKey();
+        final HostAdmissionController controller = endpoint
+                .getHostAdmissionController();
+        final List<HostAdmissionController.Permit> permits = controller == null ? null
+                : controller.tryAdmit(key.getIpAddress(), key.getPort(),
+                        endpoint.getFtpSegments() - 1);
+        try {
+            final SegmentedFtpDownload download = new SegmentedFtpDownload(
+                    obtainPoolReference(), key, release.getConnection(),
+                    EftpUtilities.normalizeSourceFilePath(srcDir, srcFile),
+                    permits == null ? endpoint.getFtpSegments()
+                            : 1 + permits.size(),
+                    endpoint.getTransferExecutor(),
+                    endpoint.getFtpCompletionTimeout());
+            download.setCircuitBreaker(endpoint.getHostCircuitBreaker());
+            download.transferTo(destination, size);
+        } finally {
+            if (permits != null) {
+                for (final HostAdmissionController.Permit permit : permits) {
+                    permit.release();
+                }
+            }
+        }
+        final boolean reusable = SegmentedFtpDownload
+                .restoreFileType(release.getConnection());
+        if (endpoint.isAutoReleaseConnection()) {
+            release.release(reusable);
+        }
+        return destination;
+    }
+
+    /**
+     * Writes the remote stream to the destination. Closing the stream
+     * completes the RETR command, so the connection is returned to the pool
+     * straight away.
+     */
+    private File downloadToDisk(final InputStream stream,
+            final FtpConnectionRelease release, final File destination)
+            throws IOException {
+        DirectToDiskTransfer.copy(stream, destination,
+                endpoint.getDirectBufferSize());
+        if (endpoint.isAutoReleaseConnection()) {
+            release.release(true);
+        }
+        return destination;
+    }
+
+    /**
+     * Writes the remote file to the destination through a partial file,
+     * continuing from an interrupted download of the file if there is one
+     */
+    private File downloadResumable(final String srcDir, final String srcFile,
+            final FtpConnectionRelease release, final File destination)
+            throws IOException, GenericEftpException {
+        final FTPClient ftpClient = release.getConnection();
+        final String filePath = EftpUtilities.normalizeSourceFilePath(srcDir,
+                srcFile);
+        new ResumableDownload(endpoint.getCheckpointStore(), release.getKey(),
+                filePath) {
+            @Override
+            protected long remoteSize() throws IOException {
+                return SegmentedFtpDownload.segmentableSize(ftpClient,
+                        filePath, 0);
+            }
+
+            @Override
+            protected long remoteModificationTime() throws IOException {
+                return SegmentedFtpDownload.modificationTime(ftpClient,
+                        filePath);
+            }
+
+            @Override
+            protected InputStream open(final long offset) throws IOException,
+                    GenericEftpException {
+                // restart offsets are byte positions
+                ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+                ftpClient.setRestartOffset(offset);
+                return getFile(srcDir, srcFile, ftpClient);
+            }
+        }.transferTo(destination, endpoint.getDirectBufferSize());
+        final boolean reusable = SegmentedFtpDownload
+                .restoreFileType(ftpClient);
+        if (endpoint.isAutoReleaseConnection()) {
+            release.release(reusable);
+        }
+        return destination;
+    }
+
+    private void invalidate(final FtpConnectionRelease release) {
+        if (release != null && endpoint.isAutoReleaseConnection()) {
+            release.release(false);
+        }
+    }
+
+    private FtpConnectionRelease setupConnection(final Exchange exchange,
+            final TransferMetrics metrics) throws GenericEftpException {
         final String ipAddress = (String) exchange.getIn().getHeader(
                 EftpConstants.EFTP_TARGET_IP_ADDRESS);
 
@@ -127,28 +454,121 @@ public class EventDrivenFtpProducer extends DefaultProducer {
         exchange.getIn().removeHeader(EftpConstants.EFTP_TARGET_USERNAME);
         exchange.getIn().removeHeader(EftpConstants.EFTP_TARGET_PASSWORD);
 
+        final HostCircuitBreaker breaker = endpoint.getHostCircuitBreaker();
+        final HostAdmissionController.Permit permit = admit(ipAddress, port,
+                breaker);
+        boolean borrowed = false;
         try {
             LOG.debug("About to borrow connection with key=[{}]", key);
-            final FTPClient ftpClient = obtainPoolReference().borrowObject(key);
+            final KeyedConnectionPool<FTPClient> pool = obtainPoolReference();
+            final long borrowing = System.nanoTime();
+            final FTPClient ftpClient = pool.borrowObject(key);
+            if (metrics != null) {
+                metrics.record(TransferPhase.BORROW, System.nanoTime()
+                        - borrowing);
+            }
+            if (breaker != null) {
+                breaker.onSuccess(ipAddress, port);
+            }
             exchange.getIn().setHeader(EftpConstants.EFTP_CLIENT, ftpClient);
-            return ftpClient;
+            FtpConnectionRelease release = null;
+            if (endpoint.isAutoReleaseConnection()) {
+                release = new FtpConnectionRelease(pool, key, ftpClient,
+                        exchange.getExchangeId(), endpoint.getLeakDetector());
+                release.setPermit(permit);
+                release.setMetrics(metrics);
+                exchange.addOnCompletion(release);
+            } else {
+                release = new FtpConnectionRelease(pool, key, ftpClient,
+                        exchange.getExchangeId(), null);
+            }
+            borrowed = true;
+            return release;
         } catch (final GenericPoolException gpe) {
-
+            if (breaker != null) {
+                breaker.onFailure(ipAddress, port, gpe);
+            }
             LOG.error(
                     "GenericPoolException caught while calling borrowObject method on connectionPool, stacktrace: {}",
                     gpe);
             throw new GenericEftpException(gpe.getCode(), gpe.getReason(), gpe);
         } catch (final Exception e) {
+            if (breaker != null) {
+                breaker.onFailure(ipAddress, port, e);
+            }
             LOG.error(
                     "Exception caught while calling borrowObject method on connectionPool, stacktrace: {}",
                     e);
             throw new GenericEftpException(-1, e.getMessage(), e);
+        } finally {
+            if (!borrowed && permit != null) {
+                permit.release();
+            }
         }
     }
 
-    private FtpConnectionPool obtainPoolReference() {
-        return (FtpConnectionPool) this.getEndpoint().getCamelContext()
-                .getRegistry().lookup(Constants.FTP_POOL);
+    /**
+     * Fails straight away if the circuit of the network element is open,
+     * otherwise waits until the component admits another session to the
+     * network element, if sessions per network element are limited
+     * 
+     * @return the permit of the session, null if sessions are not limited
+     */
+    private HostAdmissionController.Permit admit(final String ipAddress,
+            final int port, final HostCircuitBreaker breaker)
+            throws GenericEftpException {
+        if (breaker != null) {
+            breaker.allow(ipAddress, port);
+        }
+        final HostAdmissionController controller = endpoint
+                .getHostAdmissionController();
+        try {
+            return controller == null ? null : controller.admit(ipAddress,
+                    port);
+        } catch (final GenericEftpException e) {
+            // waiting for a session says nothing about the network element
+            if (breaker != null) {
+                breaker.cancel(ipAddress, port);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the pool cached by the endpoint, only falling back to a registry
+     * lookup if the endpoint has not been started
+     */
+    private KeyedConnectionPool<FTPClient> obtainPoolReference() {
+        final KeyedConnectionPool<FTPClient> pool = endpoint.getFtpPool();
+        if (pool != null) {
+            return pool;
+        }
+        return EventDrivenFtpEndpoint.toFtpPool(this.getEndpoint()
+                .getCamelContext().getRegistry().lookup(Constants.FTP_POOL));
+    }
+
+    /**
+     * Opens the stream of the remote file, inflated as it is read if it is
+     * gzip compressed and the endpoint asks for it
+     */
+    private InputStream retrieve(final String srcDir, final String srcFile,
+            final FTPClient ftpClient) throws GenericEftpException {
+        final InputStream stream = getFile(srcDir, srcFile, ftpClient);
+        if (!inflate(srcFile)) {
+            return stream;
+        }
+        try {
+            return GzipDecompression.inflate(stream,
+                    endpoint.getDecompressBufferSize());
+        } catch (final IOException e) {
+            throw new GenericEftpException("The file {" + srcFile
+                    + "} could not be inflated", e);
+        }
+    }
+
+    private boolean inflate(final String srcFile) {
+        return endpoint.isDecompressGz()
+                && GzipDecompression.isCompressed(srcFile);
     }
 
     /**
@@ -169,24 +589,21 @@ public class EventDrivenFtpProducer extends DefaultProducer {
             }
             LOG.debug("getFile will be called for source: {}", filePath);
 
-            //Added to as fix for TT478- etonayr 29 November 2012
-            //We can't use an InputStream via the retrieveFileStream(..) method
-            //of the FtpClient API as doing so will also require us to call completePendingCommand()
-            //completePendingCommand() has a weird bug where it sometimes hangs on large files
-            //"large" being unknown, but anything more than a few megabytes.
-            //This is a known issue and has been discussed on Apache commons Net mailing list as far back as 2004
-            //but it dosen't seem to have been fixed or acknowledged as a "real" bug.
-            //Instead we now use a retrieveFile and buffer the file in memory before converting to an InputStream.            
+            // The file is streamed straight from the data connection rather
+            // than buffered in memory (TT478). The returned stream completes
+            // the pending RETR command when it is closed, bounded by the
+            // endpoint's ftpCompletionTimeout, so the client can be reused.
             final InputStream stream = ftpClient.retrieveFileStream(filePath);
 
             // If we dont get a positive response we throw and exception
             // Need to check the reply code and explicitly throw an exception as
             // a negative ftp reply code will not throw an exception in Java
-            if (!isPositiveResponse(ftpClient.getReplyCode())) {
+            if (stream == null || !isPositiveResponse(ftpClient.getReplyCode())) {
                 throw new GenericEftpException(ftpClient.getReplyCode(),
                         ftpClient.getReplyString(), null);
             }
-            return stream;
+            return new FtpRetrieveInputStream(stream, ftpClient, filePath,
+                    endpoint.getFtpCompletionTimeout());
         } catch (final GenericEftpException e) {
             throw e;
         } catch (final Exception e) {
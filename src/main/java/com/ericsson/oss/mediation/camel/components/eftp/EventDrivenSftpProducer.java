@@ -13,17 +13,40 @@ package com.ericsson.oss.mediation.camel.components.eftp;
 
 import static com.ericsson.oss.mediation.camel.components.eftp.EftpConstants.JSchErrorMessages.*;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.camel.Exchange;
+import org.apache.camel.Message;
 import org.apache.camel.impl.DefaultProducer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ericsson.oss.mediation.camel.components.eftp.EftpConstants.JSchErrorMessages;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.HostAdmissionController;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.HostCircuitBreaker;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.KeyedConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.SftpConnectionRelease;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.SshTransportCompression;
 import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.io.GzipDecompression;
+import com.ericsson.oss.mediation.camel.components.eftp.io.MeteredInputStream;
+import com.ericsson.oss.mediation.camel.components.eftp.io.ReleasingInputStream;
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.TransferMetrics;
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.TransferPhase;
 import com.ericsson.oss.mediation.camel.components.eftp.pool.*;
+import com.ericsson.oss.mediation.camel.components.eftp.transfer.*;
 import com.ericsson.oss.mediation.camel.components.eftp.utils.EftpUtilities;
 import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
 
 /**
@@ -34,6 +57,20 @@ public class EventDrivenSftpProducer extends DefaultProducer {
     private static final transient Logger LOG = LoggerFactory
             .getLogger(EventDrivenSftpProducer.class);
 
+    /**
+     * the JSch error categories in the order messages are matched against
+     * them
+     */
+    private static final JSchErrorMessages[] JSCH_ERRORS = {
+            CONNECTION_TIMED_OUT, INVALID_ADD, UNKNOWN_HOST_EXCEPTION,
+            USER_NAME_NOT_NULL, SESSION_DOWN, CONNECTION_REFUSED,
+            READ_TIMED_OUT, AUTH_FAIL };
+
+    /**
+     * the number of read requests JSch keeps outstanding on a new channel
+     */
+    private static final int DEFAULT_BULK_REQUESTS = 16;
+
     private final EventDrivenFtpEndpoint endpoint;
 
     public EventDrivenSftpProducer(final EventDrivenFtpEndpoint endpoint) {
@@ -53,6 +90,10 @@ public class EventDrivenSftpProducer extends DefaultProducer {
      */
     @Override
     public void process(final Exchange exchange) throws GenericEftpException {
+        if (EftpBatchIterator.isBatchRequest(exchange.getIn())) {
+            processBatch(exchange);
+            return;
+        }
         final String srcFile = (String) exchange.getIn().getHeader(
                 EftpConstants.EFTP_SOURCE_FILE);
         final String srcDir = (String) exchange.getIn().getHeader(
@@ -66,30 +107,532 @@ public class EventDrivenSftpProducer extends DefaultProducer {
                 "process will be called for sourceDir=[{}] and sourceFile=[{}], destDir=[{}] and destFile=[{}]",
                 new Object[] { srcDir, srcFile, destDir, destFile });
 
+        TransferMetrics metrics = null;
+        SftpConnectionRelease release = null;
         try {
-            final ChannelSftp channel = setupConnection(exchange);
+            metrics = hostMetrics(exchange);
+            release = setupConnection(exchange, metrics);
+            final ChannelSftp channel = release.getConnection();
             final String fileToGet = EftpUtilities.normalizeSourceFilePath(
                     srcDir, srcFile);
-            exchange.getIn().setBody(getFile(fileToGet, channel));
+            final boolean inflate = inflate(srcFile);
+            final String destName = inflate ? GzipDecompression
+                    .decompressedName(destFile) : destFile;
+            final long requestedAt = System.nanoTime();
+            final long size = inflate ? -1 : chunkedDownloadSize(fileToGet,
+                    channel);
+            if (size >= 0) {
+                exchange.getIn().setBody(
+                        recordDownload(metrics, requestedAt, downloadChunked(
+                                fileToGet, size, channel, new File(destDir,
+                                        destFile), release)));
+            } else if (!inflate && endpoint.getCheckpointStore() != null) {
+                exchange.getIn().setBody(
+                        recordDownload(metrics, requestedAt, downloadResumable(
+                                fileToGet, release, new File(destDir,
+                                        destFile))));
+            } else if (endpoint.isDirectToDisk()) {
+                exchange.getIn().setBody(
+                        downloadToDisk(meter(openFile(fileToGet, channel),
+                                metrics, requestedAt), release, new File(
+                                destDir, destName)));
+            } else {
+                exchange.getIn().setBody(
+                        releaseOnClose(meter(openFile(fileToGet, channel),
+                                metrics, requestedAt), release));
+            }
+            exchange.getIn().setHeader(EftpConstants.EFTP_DESTINATION_FILE,
+                    destName);
             exchange.getIn().setHeader(
                     Exchange.FILE_NAME,
                     EftpUtilities
-                            .createFilePathWithSeparator(destDir, destFile));
+                            .createFilePathWithSeparator(destDir, destName));
 
         } catch (GenericEftpException gex) {
             LOG.error("Exception caught during SFTP transfer {}", gex);
+            recordError(metrics, gex);
+            invalidate(release);
             throw gex;
         } catch (Exception ex) {
             LOG.error("Exception caught during SFTP transfer {}", ex);
+            recordError(metrics, ex);
+            invalidate(release);
             throw new GenericEftpException(
                     "Exception caught during SFTP transfer", ex);
         }
     }
 
+    /**
+     * Sets the body to an {@link EftpBatchIterator} retrieving the requested
+     * files over a single borrowed channel
+     */
+    private void processBatch(final Exchange exchange)
+            throws GenericEftpException {
+        final Message message = exchange.getIn();
+        final String srcDir = message.getHeader(
+                EftpConstants.EFTP_SOURCE_DIRECTORY, String.class);
+        final String destDir = message.getHeader(
+                EftpConstants.EFTP_DESTINATION_DIRECTORY, String.class);
+        TransferMetrics metrics = null;
+        SftpConnectionRelease release = null;
+        try {
+            metrics = hostMetrics(exchange);
+            release = setupConnection(exchange, metrics);
+            final TransferMetrics batchMetrics = metrics;
+            final ChannelSftp channel = release.getConnection();
+            Map<String, String> files = EftpBatchIterator
+                    .requestedFiles(message);
+            if (files == null) {
+                files = EftpBatchIterator.matchingFiles(message,
+                        listFileNames(srcDir, channel));
+            }
+            if (endpoint.isDecompressGz()) {
+                files = GzipDecompression.decompressedNames(files);
+            }
+            LOG.debug("Retrieving batch of {} files from {}", files.size(),
+                    srcDir);
+
+            final SftpTarBatch tar = endpoint.isSftpBulkTar() ? openTar(
+                    channel, srcDir, files.keySet()) : null;
+            if (tar != null && endpoint.isDirectToDisk()) {
+                final Map<String, GenericEftpException> failures =
+                        new LinkedHashMap<String, GenericEftpException>();
+                message.setBody(downloadTarToDisk(tar, files, new File(
+                        destDir), release, batchMetrics, failures));
+                if (!failures.isEmpty()) {
+                    message.setHeader(EftpConstants.EFTP_FAILED_FILES,
+                            failures);
+                }
+                return;
+            }
+            final EftpBatchIterator batch = new EftpBatchIterator(files,
+                    srcDir, destDir,
+                    endpoint.isAutoReleaseConnection() ? release : null) {
+                @Override
+                protected InputStream retrieve(final String dir,
+                        final String file) throws GenericEftpException {
+                    final long requestedAt = System.nanoTime();
+                    if (tar != null) {
+                        return meter(inflate(file, tar.next(file)),
+                                batchMetrics, requestedAt);
+                    }
+                    return meter(openFile(
+                            EftpUtilities.normalizeSourceFilePath(dir, file),
+                            channel), batchMetrics, requestedAt);
+                }
+
+                @Override
+                protected boolean isFileError(
+                        final GenericEftpException error) {
+                    final int code = error.getErrorCode();
+                    return code == ChannelSftp.SSH_FX_NO_SUCH_FILE
+                            || code == ChannelSftp.SSH_FX_PERMISSION_DENIED;
+                }
+
+                @Override
+                public void close() {
+                    if (tar != null) {
+                        tar.close();
+                    }
+                    super.close();
+                }
+            };
+            if (endpoint.isAutoReleaseConnection()) {
+                release.setBody(batch);
+            }
+            message.setBody(batch);
+        } catch (final GenericEftpException gex) {
+            LOG.error("Exception caught during SFTP batch transfer {}", gex);
+            recordError(metrics, gex);
+            invalidate(release);
+            throw gex;
+        }
+    }
+
+    /**
+     * Starts a remote archiver writing the files of the batch as one tar
+     * stream
+     * 
+     * @return the tar stream of the batch, null if the network element does
+     *         not allow command execution and the files must be retrieved one
+     *         by one
+     */
+    private SftpTarBatch openTar(final ChannelSftp channel,
+            final String srcDir, final Collection<String> names)
+            throws GenericEftpException {
+        boolean compress = false;
+        if (endpoint.isSftpRemoteCompression()) {
+            for (final String name : names) {
+                compress |= !isCompressed(name);
+            }
+        }
+        final SftpTarBatch tar = new SftpTarBatch(channel,
+                endpoint.getSftpBulkTarCommand(), srcDir,
+                new ArrayList<String>(names),
+                compress ? endpoint.getSftpRemoteCompressionCommand() : null);
+        try {
+            tar.open(endpoint.getSftpBulkTarConnectTimeout());
+            return tar;
+        } catch (final JSchException e) {
+            LOG.warn(
+                    "Exec channel refused, retrieving the batch from {} file by file: {}",
+                    srcDir, e.getMessage());
+            tar.close();
+            return null;
+        } catch (final IOException e) {
+            tar.close();
+            throw new GenericEftpException("Could not start the archiver in "
+                    + srcDir, e);
+        }
+    }
+
+    /**
+     * Writes every file of the tar stream to the destination directory and
+     * returns the channel to the pool straight away
+     * 
+     * @param failures
+     *            receives the files which could not be written
+     * @return the files written
+     */
+    private List<File> downloadTarToDisk(final SftpTarBatch tar,
+            final Map<String, String> files, final File destDir,
+            final SftpConnectionRelease release,
+            final TransferMetrics metrics,
+            final Map<String, GenericEftpException> failures)
+            throws GenericEftpException {
+        final long requestedAt = System.nanoTime();
+        final List<File> written;
+        try {
+            written = tar.transferTo(files, destDir,
+                    endpoint.getDirectBufferSize(),
+                    endpoint.isDecompressGz() ? endpoint
+                            .getDecompressBufferSize() : 0, failures);
+        } finally {
+            tar.close();
+        }
+        if (metrics != null) {
+            metrics.record(TransferPhase.STREAM, System.nanoTime()
+                    - requestedAt);
+            for (final File file : written) {
+                metrics.recordBytes(file.length());
+                metrics.recordFile();
+            }
+        }
+        if (endpoint.isAutoReleaseConnection()) {
+            release.release(true);
+        }
+        return written;
+    }
+
+    private List<String> listFileNames(final String srcDir,
+            final ChannelSftp channel) throws GenericEftpException {
+        try {
+            final List<String> names = new ArrayList<String>();
+            for (final Object entry : channel.ls(srcDir)) {
+                final ChannelSftp.LsEntry lsEntry = (ChannelSftp.LsEntry) entry;
+                if (!lsEntry.getAttrs().isDir()) {
+                    names.add(lsEntry.getFilename());
+                }
+            }
+            return names;
+        } catch (final SftpException sftpException) {
+            throw new GenericEftpException(
+                    EftpUtilities.extractSftpErrorCodeException(sftpException),
+                    "An SftpException " + sftpException.getLocalizedMessage()
+                            + " occured trying to list the directory {"
+                            + srcDir + "}", sftpException);
+        }
+    }
+
+    /**
+     * @return the metrics of the network element of the exchange, null if
+     *         transfer metrics are disabled
+     */
+    private TransferMetrics hostMetrics(final Exchange exchange) {
+        if (endpoint.getEndpointTransferMetrics() == null) {
+            return null;
+        }
+        return endpoint.getTransferMetrics(
+                (String) exchange.getIn().getHeader(
+                        EftpConstants.EFTP_TARGET_IP_ADDRESS),
+                Integer.parseInt(exchange.getIn()
+                        .getHeader(EftpConstants.EFTP_TARGET_PORT).toString()));
+    }
+
+    /**
+     * Wraps the remote stream to record the transfer, if transfer metrics are
+     * enabled
+     */
+    private static InputStream meter(final InputStream stream,
+            final TransferMetrics metrics, final long requestedAt) {
+        return metrics == null ? stream : new MeteredInputStream(stream,
+                metrics, requestedAt);
+    }
+
+    /**
+     * Records a file downloaded straight to disk
+     */
+    private static File recordDownload(final TransferMetrics metrics,
+            final long requestedAt, final File file) {
+        if (metrics != null) {
+            metrics.record(TransferPhase.STREAM, System.nanoTime()
+                    - requestedAt);
+            metrics.recordBytes(file.length());
+            metrics.recordFile();
+        }
+        return file;
+    }
+
+    /**
+     * Counts a failed exchange by its JSch error category, or by its error
+     * code if the failure is not a JSch connection error
+     */
+    private static void recordError(final TransferMetrics metrics,
+            final Exception exception) {
+        if (metrics == null) {
+            return;
+        }
+        final Throwable cause = exception.getCause();
+        final JSchErrorMessages category = cause == null ? UNKNOWN_EXCEPTION
+                : classifyJschError(cause.getMessage());
+        if (category != UNKNOWN_EXCEPTION) {
+            metrics.recordError(category.name());
+        } else if (exception instanceof GenericEftpException) {
+            metrics.recordError("SFTP_"
+                    + ((GenericEftpException) exception).getErrorCode());
+        } else {
+            metrics.recordError(UNKNOWN_EXCEPTION.name());
+        }
+    }
+
+    /**
+     * Wraps the body so the channel is returned to the pool as soon as the
+     * body is consumed, if the endpoint releases connections itself
+     */
+    private InputStream releaseOnClose(final InputStream body,
+            final SftpConnectionRelease release) {
+        if (!endpoint.isAutoReleaseConnection()) {
+            return body;
+        }
+        final ReleasingInputStream stream = new ReleasingInputStream(body,
+                release);
+        release.setBody(stream);
+        return stream;
+    }
+
+    /**
+     * @return the size of the remote file if chunked downloads are enabled and
+     *         the file is at least as large as the threshold, -1 otherwise
+     */
+    private long chunkedDownloadSize(final String fileToGet,
+            final ChannelSftp channel) throws GenericEftpException {
+        if (endpoint.getSftpChunkedThreshold() <= 0
+                || endpoint.getTransferExecutor() == null) {
+            return -1;
+        }
+        final long size = statSize(fileToGet, channel);
+        return size >= endpoint.getSftpChunkedThreshold() ? size : -1;
+    }
+
+    private long statSize(final String fileToGet, final ChannelSftp channel)
+            throws GenericEftpException {
+        return stat(fileToGet, channel).getSize();
+    }
+
+    private SftpATTRS stat(final String fileToGet, final ChannelSftp channel)
+            throws GenericEftpException {
+        try {
+            return channel.stat(fileToGet);
+        } catch (final SftpException sftpException) {
+            throw new GenericEftpException(
+                    EftpUtilities.extractSftpErrorCodeException(sftpException),
+                    "An SftpException " + sftpException.getLocalizedMessage()
+                            + " occured trying to stat the file {" + fileToGet
+                            + "}", sftpException);
+        }
+    }
+
+    /**
+     * Downloads the remote file to the destination over several channels,
+     * as many as the network element admits without waiting. The channel is
+     * no longer needed once the file is on disk, so it is returned to the
+     * pool straight away.
+     */
+    private File downloadChunked(final String fileToGet, final long size,
+            final ChannelSftp channel, final File destination,
+            final SftpConnectionRelease release) throws GenericEftpException {
+        setBulkRequests(channel);
+        final ConnectionConfig key = release.getKey();
+        final HostAdmissionController controller = endpoint
+                .getHostAdmissionController();
+        final List<HostAdmissionController.Permit> permits = controller == null ? null
+                : controller.tryAdmit(key.getIpAddress(), key.getPort(),
+                        endpoint.getSftpChunkChannels() - 1);
+        try {
+            new ChunkedSftpDownload(channel, fileToGet,
+                    permits == null ? endpoint.getSftpChunkChannels()
+                            : 1 + permits.size(),
+                    endpoint.getTransferExecutor()).transferTo(destination,
+                    size);
+        } finally {
+            if (permits != null) {
+                for (final HostAdmissionController.Permit permit : permits) {
+                    permit.release();
+                }
+            }
+        }
+        if (endpoint.isAutoReleaseConnection()) {
+            release.release(true);
+        }
+        return destination;
+    }
+
+    /**
+     * Writes the remote stream to the destination and returns the channel to
+     * the pool straight away
+     */
+    private File downloadToDisk(final InputStream stream,
+            final SftpConnectionRelease release, final File destination)
+            throws IOException {
+        DirectToDiskTransfer.copy(stream, destination,
+                endpoint.getDirectBufferSize());
+        if (endpoint.isAutoReleaseConnection()) {
+            release.release(true);
+        }
+        return destination;
+    }
+
+    /**
+     * Writes the remote file to the destination through a partial file,
+     * continuing from an interrupted download of the file if there is one
+     */
+    private File downloadResumable(final String fileToGet,
+            final SftpConnectionRelease release, final File destination)
+            throws IOException, GenericEftpException {
+        final ChannelSftp channel = release.getConnection();
+        new ResumableDownload(endpoint.getCheckpointStore(), release.getKey(),
+                fileToGet) {
+            private SftpATTRS attributes;
+
+            @Override
+            protected long remoteSize() throws GenericEftpException {
+                attributes = stat(fileToGet, channel);
+                return attributes.getSize();
+            }
+
+            @Override
+            protected long remoteModificationTime() {
+                return attributes.getMTime() * 1000L;
+            }
+
+            @Override
+            protected InputStream open(final long offset)
+                    throws GenericEftpException {
+                return getFile(fileToGet, channel, offset);
+            }
+        }.transferTo(destination, endpoint.getDirectBufferSize());
+        if (endpoint.isAutoReleaseConnection()) {
+            release.release(true);
+        }
+        return destination;
+    }
+
+    private void invalidate(final SftpConnectionRelease release) {
+        if (release != null && endpoint.isAutoReleaseConnection()) {
+            release.release(false);
+        }
+    }
+
     private InputStream getFile(final String fileToGet,
             final ChannelSftp channel) throws GenericEftpException {
+        return getFile(fileToGet, channel, 0);
+    }
+
+    /**
+     * Opens the stream of the remote file, compressed on the network element
+     * and inflated as it is read if the endpoint asks for it and the file is
+     * not compressed already, or inflated as it is read if it is a gzip file
+     * and the endpoint asks for that
+     */
+    private InputStream openFile(final String fileToGet,
+            final ChannelSftp channel) throws GenericEftpException {
+        if (endpoint.isSftpRemoteCompression() && !isCompressed(fileToGet)) {
+            try {
+                return new RemoteCompressedFile(channel,
+                        endpoint.getSftpRemoteCompressionCommand(), fileToGet)
+                        .open(endpoint.getSftpRemoteCompressionConnectTimeout());
+            } catch (final JSchException e) {
+                LOG.debug("Exec channel refused, retrieving {} as it is: {}",
+                        fileToGet, e.getMessage());
+            }
+        }
+        return inflate(fileToGet, getFile(fileToGet, channel));
+    }
+
+    /**
+     * Wraps the stream of the remote file to inflate it as it is read, if it
+     * is gzip compressed and the endpoint asks for it
+     */
+    private InputStream inflate(final String fileName,
+            final InputStream stream) throws GenericEftpException {
+        if (!inflate(fileName)) {
+            return stream;
+        }
         try {
-            return channel.get(fileToGet);
+            return GzipDecompression.inflate(stream,
+                    endpoint.getDecompressBufferSize());
+        } catch (final IOException e) {
+            throw new GenericEftpException("The file {" + fileName
+                    + "} could not be inflated", e);
+        }
+    }
+
+    private boolean inflate(final String fileName) {
+        return endpoint.isDecompressGz()
+                && GzipDecompression.isCompressed(fileName);
+    }
+
+    private static boolean isCompressed(final String fileName) {
+        return fileName.endsWith("gz");
+    }
+
+    /**
+     * Sets the number of read requests JSch keeps outstanding on the borrowed
+     * channel. The setting stays with the channel when it goes back to the
+     * pool, so it is set before every download from the channel, to the JSch
+     * default if the endpoint does not configure it.
+     */
+    private void setBulkRequests(final ChannelSftp channel)
+            throws GenericEftpException {
+        final int bulkRequests = endpoint.getSftpBulkRequests() > 0 ? endpoint
+                .getSftpBulkRequests() : DEFAULT_BULK_REQUESTS;
+        try {
+            channel.setBulkRequests(bulkRequests);
+        } catch (final JSchException jschException) {
+            throw new GenericEftpException(UNKNOWN_EXCEPTION.getErrorCode(),
+                    "Invalid sftpBulkRequests " + bulkRequests, jschException);
+        }
+    }
+
+    /**
+     * Opens the stream of the remote file, skipping offset bytes. JSch keeps
+     * up to sftpBulkRequests read requests outstanding for the stream, each as
+     * large as the read made on it, so the stream is buffered by sftpReadSize
+     * bytes to issue requests of that size. The buffer belongs to the stream,
+     * so unlike the bulk requests it is never left on the pooled channel.
+     */
+    private InputStream getFile(final String fileToGet,
+            final ChannelSftp channel, final long offset)
+            throws GenericEftpException {
+        setBulkRequests(channel);
+        try {
+            final InputStream stream = offset > 0 ? channel.get(fileToGet,
+                    null, offset) : channel.get(fileToGet);
+            if (endpoint.getSftpReadSize() > 0) {
+                return new BufferedInputStream(stream,
+                        endpoint.getSftpReadSize());
+            }
+            return stream;
         } catch (final SftpException sftpException) {
             LOG.error(
                     "Exception caught while trying to getFile=[{}], stack trace is:{}",
@@ -116,8 +659,8 @@ public class EventDrivenSftpProducer extends DefaultProducer {
         return false;
     }
 
-    private ChannelSftp setupConnection(final Exchange exchange)
-            throws GenericEftpException {
+    private SftpConnectionRelease setupConnection(final Exchange exchange,
+            final TransferMetrics metrics) throws GenericEftpException {
         final String ipAddress = (String) exchange.getIn().getHeader(
                 EftpConstants.EFTP_TARGET_IP_ADDRESS);
 
@@ -136,17 +679,47 @@ public class EventDrivenSftpProducer extends DefaultProducer {
         final ConnectionConfig key = new ConnectionConfig(ipAddress, port,
                 username, password, secure);
 
+        final HostCircuitBreaker breaker = endpoint.getHostCircuitBreaker();
+        final HostAdmissionController.Permit permit = admit(ipAddress, port,
+                breaker);
         try {
             LOG.debug("About to borrow channel with key=[{}]", key);
-            final ChannelSftp channel = obtainPoolReference().borrowObject(key);
+            final KeyedConnectionPool<ChannelSftp> pool = obtainPoolReference();
+            final long borrowing = System.nanoTime();
+            final ChannelSftp channel = pool.borrowObject(key);
+            compressTransport(pool, key, channel);
+            if (metrics != null) {
+                metrics.record(TransferPhase.BORROW, System.nanoTime()
+                        - borrowing);
+            }
+            if (breaker != null) {
+                breaker.onSuccess(ipAddress, port);
+            }
+            SftpConnectionRelease release = null;
+            if (endpoint.isAutoReleaseConnection()) {
+                release = new SftpConnectionRelease(pool, key, channel,
+                        exchange.getExchangeId(), endpoint.getLeakDetector());
+                release.setPermit(permit);
+                release.setMetrics(metrics);
+                exchange.addOnCompletion(release);
+            } else {
+                release = new SftpConnectionRelease(pool, key, channel,
+                        exchange.getExchangeId(), null);
+            }
             exchange.getIn().setHeader(EftpConstants.EFTP_SESSION,
                     channel.getSession());
             exchange.getIn().setHeader(EftpConstants.EFTP_CONNECTION_KEY, key);
             exchange.getIn().setHeader(EftpConstants.EFTP_CHANNEL, channel);
             exchange.getIn().removeHeader(EftpConstants.EFTP_TARGET_USERNAME);
             exchange.getIn().removeHeader(EftpConstants.EFTP_TARGET_PASSWORD);
-            return channel;
+            return release;
         } catch (Exception e) {
+            if (breaker != null) {
+                breaker.onFailure(ipAddress, port, e);
+            }
+            if (permit != null) {
+                permit.release();
+            }
             resolveJschErrorCodes(e);
             LOG.error(
                     "Exception caught while calling setupConnection method on connectionPool, stacktrace: {}",
@@ -155,9 +728,65 @@ public class EventDrivenSftpProducer extends DefaultProducer {
         }
     }
 
-    private SftpConnectionPool obtainPoolReference() {
-        return (SftpConnectionPool) this.getEndpoint().getCamelContext()
-                .getRegistry().lookup(Constants.SFTP_POOL);
+    /**
+     * Negotiates the compression of the SSH transport of the borrowed
+     * channel, if the endpoint asks for it. A session whose keys could not be
+     * exchanged again is unusable, so the channel is invalidated.
+     */
+    private void compressTransport(
+            final KeyedConnectionPool<ChannelSftp> pool,
+            final ConnectionConfig key, final ChannelSftp channel)
+            throws Exception {
+        final String algorithms = endpoint.getSshCompression();
+        if (algorithms == null || algorithms.isEmpty()) {
+            return;
+        }
+        try {
+            SshTransportCompression.enable(channel.getSession(), algorithms);
+        } catch (final JSchException e) {
+            pool.invalidateObject(key, channel);
+            throw e;
+        }
+    }
+
+    /**
+     * Fails straight away if the circuit of the network element is open,
+     * otherwise waits until the component admits another session to the
+     * network element, if sessions per network element are limited
+     * 
+     * @return the permit of the session, null if sessions are not limited
+     */
+    private HostAdmissionController.Permit admit(final String ipAddress,
+            final int port, final HostCircuitBreaker breaker)
+            throws GenericEftpException {
+        if (breaker != null) {
+            breaker.allow(ipAddress, port);
+        }
+        final HostAdmissionController controller = endpoint
+                .getHostAdmissionController();
+        try {
+            return controller == null ? null : controller.admit(ipAddress,
+                    port);
+        } catch (final GenericEftpException e) {
+            // waiting for a session says nothing about the network element
+            if (breaker != null) {
+                breaker.cancel(ipAddress, port);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the pool cached by the endpoint, only falling back to a registry
+     * lookup if the endpoint has not been started
+     */
+    private KeyedConnectionPool<ChannelSftp> obtainPoolReference() {
+        final KeyedConnectionPool<ChannelSftp> pool = endpoint.getSftpPool();
+        if (pool != null) {
+            return pool;
+        }
+        return EventDrivenFtpEndpoint.toSftpPool(this.getEndpoint()
+                .getCamelContext().getRegistry().lookup(Constants.SFTP_POOL));
     }
 
     /**
@@ -166,47 +795,34 @@ public class EventDrivenSftpProducer extends DefaultProducer {
      */
     private void resolveJschErrorCodes(final Exception jschException)
             throws GenericEftpException {
-        String error_message = jschException.getMessage();
-
-        // this error code will be returned only in case of non JSchException
-        int errorCode = UNKNOWN_EXCEPTION.getErrorCode();
-
-        if (error_message.contains(CONNECTION_TIMED_OUT.getErrorMsg())) {
-            errorCode = CONNECTION_TIMED_OUT.getErrorCode();
-            error_message = CONNECTION_TIMED_OUT.getReplyMsg();
-
-        } else if (error_message.contains(INVALID_ADD.getErrorMsg())) {
-            errorCode = INVALID_ADD.getErrorCode();
-            error_message = INVALID_ADD.getReplyMsg();
-
-        } else if (error_message.contains(UNKNOWN_HOST_EXCEPTION.getErrorMsg())) {
-            errorCode = UNKNOWN_HOST_EXCEPTION.getErrorCode();
-            error_message = UNKNOWN_HOST_EXCEPTION.getReplyMsg();
-
-        } else if (error_message.contains(USER_NAME_NOT_NULL.getErrorMsg())) {
-            errorCode = USER_NAME_NOT_NULL.getErrorCode();
-            error_message = USER_NAME_NOT_NULL.getReplyMsg();
+        final JSchErrorMessages error = classifyJschError(jschException
+                .getMessage());
 
-        } else if (error_message.contains(SESSION_DOWN.getErrorMsg())) {
-            errorCode = SESSION_DOWN.getErrorCode();
-            error_message = SESSION_DOWN.getReplyMsg();
+        // the error message is kept as is only in case of non JSchException
+        final String error_message = error == UNKNOWN_EXCEPTION ? jschException
+                .getMessage() : error.getReplyMsg();
 
-        } else if (error_message.contains(CONNECTION_REFUSED.getErrorMsg())) {
-            errorCode = CONNECTION_REFUSED.getErrorCode();
-            error_message = CONNECTION_REFUSED.getReplyMsg();
-
-        } else if (error_message.contains(READ_TIMED_OUT.getErrorMsg())) {
-            errorCode = READ_TIMED_OUT.getErrorCode();
-            error_message = READ_TIMED_OUT.getReplyMsg();
-
-        } else if (error_message.contains(AUTH_FAIL.getErrorMsg())) {
-            errorCode = AUTH_FAIL.getErrorCode();
-            error_message = AUTH_FAIL.getReplyMsg();
-        }
-
-        throw new GenericEftpException(errorCode,
+        throw new GenericEftpException(error.getErrorCode(),
                 "Connection could not be established with Network Element due to "
                         + error_message, jschException);
     }
 
-}
\ No newline at end of file
+    /**
+     * @param errorMessage
+     *            the message of the exception thrown by JSch
+     * @return the category of the JSch error, UNKNOWN_EXCEPTION if the
+     *         message is not one of a known category
+     */
+    static JSchErrorMessages classifyJschError(final String errorMessage) {
+        if (errorMessage == null) {
+            return UNKNOWN_EXCEPTION;
+        }
+        for (final JSchErrorMessages error : JSCH_ERRORS) {
+            if (errorMessage.contains(error.getErrorMsg())) {
+                return error;
+            }
+        }
+        return UNKNOWN_EXCEPTION;
+    }
+
+}
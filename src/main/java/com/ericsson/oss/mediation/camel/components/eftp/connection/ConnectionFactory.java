@@ -0,0 +1,44 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+/**
+ * Opens, checks and closes the connections of a
+ * {@link LockFreeKeyedConnectionPool}
+ *
+ * @param <C>
+ *            the type of the connections
+ */
+public interface ConnectionFactory<C> {
+
+    /**
+     * Opens and logs in a new connection
+     *
+     * @param key
+     *            the network element and credentials
+     */
+    C create(ConnectionConfig key) throws Exception;
+
+    /**
+     * @return true if the idle connection can still be used, checked before
+     *         it is lent again
+     */
+    boolean isValid(C connection);
+
+    /**
+     * Closes the connection, without failing
+     */
+    void destroy(C connection);
+
+}
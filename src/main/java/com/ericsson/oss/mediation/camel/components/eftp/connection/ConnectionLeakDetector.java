@@ -0,0 +1,114 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the connections currently borrowed by eftp producers and
+ * reports, once per connection, those held longer than a threshold. A
+ * connection reported here has usually been left behind by a route which
+ * never consumed or closed the body of the exchange.
+ *
+ * <p>
+ * {@link #run()} performs one check and is meant to be scheduled periodically.
+ * </p>
+ */
+public class ConnectionLeakDetector implements Runnable {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(ConnectionLeakDetector.class);
+
+    private final long threshold;
+
+    /**
+     * outstanding connections mapped to true once they have been reported
+     */
+    private final ConcurrentMap<PooledConnectionRelease<?>, Boolean> outstanding = new ConcurrentHashMap<PooledConnectionRelease<?>, Boolean>();
+
+    private final AtomicLong leaksDetected = new AtomicLong();
+
+    /**
+     * @param threshold
+     *            time in milliseconds after which a borrowed connection is
+     *            reported as leaked
+     */
+    public ConnectionLeakDetector(final long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Called when a connection is borrowed
+     */
+    void borrowed(final PooledConnectionRelease<?> release) {
+        outstanding.put(release, Boolean.FALSE);
+    }
+
+    /**
+     * Called when a connection is returned or invalidated
+     */
+    void released(final PooledConnectionRelease<?> release) {
+        if (outstanding.remove(release) == Boolean.TRUE) {
+            LOG.info(
+                    "Connection for key=[{}] reported as leaked was released after {} ms",
+                    release.getKey(),
+                    System.currentTimeMillis() - release.getBorrowedAt());
+        }
+    }
+
+    @Override
+    public void run() {
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<PooledConnectionRelease<?>, Boolean> entry : outstanding
+                .entrySet()) {
+            final PooledConnectionRelease<?> release = entry.getKey();
+            final long held = now - release.getBorrowedAt();
+            if (held > threshold && entry.getValue() == Boolean.FALSE
+                    && outstanding.replace(release, Boolean.FALSE, Boolean.TRUE)) {
+                leaksDetected.incrementAndGet();
+                LOG.warn(
+                        "Connection for key=[{}] borrowed by exchange {} has not been released after {} ms,"
+                                + " check that the route consumes or closes the message body",
+                        new Object[] { release.getKey(),
+                                release.getExchangeId(), held });
+            }
+        }
+    }
+
+    /**
+     * @return the number of connections currently borrowed
+     */
+    public int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    /**
+     * @return the number of connections reported as leaked so far
+     */
+    public long getLeaksDetected() {
+        return leaksDetected.get();
+    }
+
+    /**
+     * @return the threshold in milliseconds
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import java.io.IOException;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+/**
+ * Opens and logs in an {@link FTPClient} in passive mode for each connection
+ * of a {@link LockFreeKeyedConnectionPool}
+ */
+public class FtpConnectionFactory implements ConnectionFactory<FTPClient> {
+
+    private final int connectTimeout;
+    private final int dataTimeout;
+
+    /**
+     * @param connectTimeout
+     *            the time in milliseconds to wait for the control connection
+     *            to open
+     * @param dataTimeout
+     *            the time in milliseconds to wait for data on an open
+     *            connection
+     */
+    public FtpConnectionFactory(final int connectTimeout,
+            final int dataTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.dataTimeout = dataTimeout;
+    }
+
+    @Override
+    public FTPClient create(final ConnectionConfig key) throws IOException,
+            GenericEftpException {
+        final FTPClient ftpClient = new FTPClient();
+        ftpClient.setConnectTimeout(connectTimeout);
+        ftpClient.setDefaultTimeout(dataTimeout);
+        ftpClient.setDataTimeout(dataTimeout);
+        boolean loggedIn = false;
+        try {
+            ftpClient.connect(key.getIpAddress(), key.getPort());
+            if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
+                throw new GenericEftpException(ftpClient.getReplyCode(),
+                        "FTP server refused connection: "
+                                + ftpClient.getReplyString());
+            }
+            if (!ftpClient.login(key.getUsername(), key.getPassword())) {
+                throw new GenericEftpException(ftpClient.getReplyCode(),
+                        "FTP login failed: " + ftpClient.getReplyString());
+            }
+            ftpClient.enterLocalPassiveMode();
+            loggedIn = true;
+            return ftpClient;
+        } finally {
+            if (!loggedIn) {
+                destroy(ftpClient);
+            }
+        }
+    }
+
+    @Override
+    public boolean isValid(final FTPClient ftpClient) {
+        return ftpClient.isConnected();
+    }
+
+    @Override
+    public void destroy(final FTPClient ftpClient) {
+        if (!ftpClient.isConnected()) {
+            return;
+        }
+        try {
+            ftpClient.logout();
+        } catch (final IOException e) {
+            // the connection is closed anyway
+        }
+        try {
+            ftpClient.disconnect();
+        } catch (final IOException e) {
+            // ignore
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+/**
+ * Releases an {@link FTPClient} borrowed from a {@link KeyedConnectionPool}
+ */
+public class FtpConnectionRelease extends PooledConnectionRelease<FTPClient> {
+
+    private final KeyedConnectionPool<FTPClient> pool;
+
+    public FtpConnectionRelease(
+            final KeyedConnectionPool<FTPClient> pool,
+            final ConnectionConfig key, final FTPClient ftpClient,
+            final String exchangeId, final ConnectionLeakDetector leakDetector) {
+        super(key, ftpClient, exchangeId, leakDetector);
+        this.pool = pool;
+    }
+
+    @Override
+    protected void returnToPool(final ConnectionConfig key,
+            final FTPClient ftpClient) throws Exception {
+        pool.returnObject(key, ftpClient);
+    }
+
+    @Override
+    protected void invalidate(final ConnectionConfig key,
+            final FTPClient ftpClient) throws Exception {
+        pool.invalidateObject(key, ftpClient);
+    }
+
+}
@@ -0,0 +1,289 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.EftpConstants;
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+
+/**
+ * Limits the number of connections borrowed concurrently from each network
+ * element, identified by its ip address and port, whatever the user name.
+ *
+ * <p>
+ * An exchange for a network element which already has
+ * <code>maxSessionsPerHost</code> connections borrowed waits before the pool
+ * is asked for a connection, so the network element is never sent more
+ * session requests than it accepts. With fair queueing the waiting exchanges
+ * are admitted in the order they arrived, otherwise a connection released by
+ * one exchange may be taken by an exchange which did not wait at all. The time
+ * spent waiting is recorded for every admission.
+ * </p>
+ *
+ * <p>
+ * A transfer which would open further connections to the network element,
+ * such as a segmented download, takes a permit for each of them with
+ * {@link #tryAdmit(String, int, int)} and makes do with the connections it
+ * was admitted, rather than waiting for more.
+ * </p>
+ *
+ * <p>
+ * Idle connections kept by the pool still hold their sessions, so the idle
+ * limit of the pool should not exceed <code>maxSessionsPerHost</code>.
+ * </p>
+ */
+public class HostAdmissionController {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(HostAdmissionController.class);
+
+    private final int maxSessionsPerHost;
+    private final boolean fair;
+    private final long queueTimeout;
+
+    private final ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong totalQueueTime = new AtomicLong();
+    private final AtomicLong maxQueueTime = new AtomicLong();
+
+    /**
+     * @param maxSessionsPerHost
+     *            the maximum number of connections borrowed concurrently from
+     *            one network element
+     * @param fair
+     *            true to admit waiting exchanges in the order they arrived
+     * @param queueTimeout
+     *            the maximum time in milliseconds an exchange waits to be
+     *            admitted, 0 waits indefinitely
+     */
+    public HostAdmissionController(final int maxSessionsPerHost,
+            final boolean fair, final long queueTimeout) {
+        if (maxSessionsPerHost <= 0) {
+            throw new IllegalArgumentException(
+                    "maxSessionsPerHost must be positive: "
+                            + maxSessionsPerHost);
+        }
+        this.maxSessionsPerHost = maxSessionsPerHost;
+        this.fair = fair;
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * Waits until a connection may be borrowed from the network element.
+     *
+     * @param ipAddress
+     *            the ip address of the network element
+     * @param port
+     *            the port of the network element
+     * @return the permit to release once the connection is given back
+     * @throws GenericEftpException
+     *             if the exchange was not admitted within the queue timeout
+     *             or the thread was interrupted while waiting
+     */
+    public Permit admit(final String ipAddress, final int port)
+            throws GenericEftpException {
+        final String host = hostKey(ipAddress, port);
+        final Semaphore sessions = sessions(host);
+        if (sessions.tryAcquire()) {
+            admitted.incrementAndGet();
+            return new Permit(sessions);
+        }
+        LOG.debug("Host {} has {} sessions in use, queueing exchange", host,
+                maxSessionsPerHost);
+        final long start = System.nanoTime();
+        boolean acquired = false;
+        try {
+            if (queueTimeout > 0) {
+                acquired = sessions.tryAcquire(queueTimeout,
+                        TimeUnit.MILLISECONDS);
+            } else {
+                sessions.acquire();
+                acquired = true;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenericEftpException(
+                    EftpConstants.SESSION_QUEUE_TIMED_OUT,
+                    "Interrupted while waiting for a session to host " + host,
+                    e);
+        } finally {
+            recordQueueTime(System.nanoTime() - start);
+        }
+        if (!acquired) {
+            timedOut.incrementAndGet();
+            throw new GenericEftpException(
+                    EftpConstants.SESSION_QUEUE_TIMED_OUT,
+                    "No session to host " + host + " became available within "
+                            + queueTimeout + " ms, " + maxSessionsPerHost
+                            + " sessions are in use");
+        }
+        admitted.incrementAndGet();
+        return new Permit(sessions);
+    }
+
+    /**
+     * Admits up to the given number of further sessions to the network
+     * element, without waiting for any of them.
+     *
+     * @param ipAddress
+     *            the ip address of the network element
+     * @param port
+     *            the port of the network element
+     * @param count
+     *            the number of sessions wanted
+     * @return the permits of the sessions admitted, possibly none, each to be
+     *         released once its connection is given back
+     */
+    public List<Permit> tryAdmit(final String ipAddress, final int port,
+            final int count) {
+        final List<Permit> permits = new ArrayList<Permit>(Math.max(0, count));
+        final Semaphore sessions = sessions(hostKey(ipAddress, port));
+        while (permits.size() < count && sessions.tryAcquire()) {
+            admitted.incrementAndGet();
+            permits.add(new Permit(sessions));
+        }
+        return permits;
+    }
+
+    private Semaphore sessions(final String host) {
+        Semaphore sessions = hosts.get(host);
+        if (sessions == null) {
+            final Semaphore created = new Semaphore(maxSessionsPerHost, fair);
+            sessions = hosts.putIfAbsent(host, created);
+            if (sessions == null) {
+                sessions = created;
+            }
+        }
+        return sessions;
+    }
+
+    private void recordQueueTime(final long nanos) {
+        queued.incrementAndGet();
+        totalQueueTime.addAndGet(nanos);
+        long max = maxQueueTime.get();
+        while (nanos > max && !maxQueueTime.compareAndSet(max, nanos)) {
+            max = maxQueueTime.get();
+        }
+    }
+
+    private static String hostKey(final String ipAddress, final int port) {
+        return ipAddress + ":" + port;
+    }
+
+    /**
+     * @return the number of connections currently borrowed from the network
+     *         element
+     */
+    public int getSessionsInUse(final String ipAddress, final int port) {
+        final Semaphore sessions = hosts.get(hostKey(ipAddress, port));
+        return sessions == null ? 0 : maxSessionsPerHost
+                - sessions.availablePermits();
+    }
+
+    /**
+     * @return the number of exchanges currently waiting for a session to the
+     *         network element
+     */
+    public int getQueueLength(final String ipAddress, final int port) {
+        final Semaphore sessions = hosts.get(hostKey(ipAddress, port));
+        return sessions == null ? 0 : sessions.getQueueLength();
+    }
+
+    /**
+     * @return the number of exchanges admitted so far
+     */
+    public long getAdmittedCount() {
+        return admitted.get();
+    }
+
+    /**
+     * @return the number of exchanges which had to wait to be admitted
+     */
+    public long getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return the number of exchanges which gave up waiting
+     */
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    /**
+     * @return the total time in milliseconds exchanges have waited to be
+     *         admitted
+     */
+    public long getTotalQueueTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalQueueTime.get());
+    }
+
+    /**
+     * @return the longest time in milliseconds an exchange has waited to be
+     *         admitted
+     */
+    public long getMaxQueueTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxQueueTime.get());
+    }
+
+    /**
+     * @return the maximum number of connections borrowed concurrently from
+     *         one network element
+     */
+    public int getMaxSessionsPerHost() {
+        return maxSessionsPerHost;
+    }
+
+    /**
+     * @return true if waiting exchanges are admitted in the order they arrived
+     */
+    public boolean isFair() {
+        return fair;
+    }
+
+    /**
+     * A session admitted to a network element, released exactly once.
+     */
+    public static final class Permit {
+
+        private final Semaphore sessions;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(final Semaphore sessions) {
+            this.sessions = sessions;
+        }
+
+        /**
+         * Gives the session back, admitting the next waiting exchange
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                sessions.release();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,296 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.EftpConstants;
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+
+/**
+ * Fails exchanges for unreachable network elements immediately instead of
+ * letting each of them wait for the connect timeout.
+ *
+ * <p>
+ * Each network element, identified by its ip address and port, has a circuit
+ * which opens after <code>failureThreshold</code> consecutive connection
+ * failures: refused connections, connect and read timeouts, unknown hosts and
+ * sessions going down. While the circuit is open no connection is attempted
+ * and the exchange fails with {@link EftpConstants#CIRCUIT_OPEN}. Once
+ * <code>openTime</code> has passed the circuit is half open and a single
+ * exchange is let through as a probe, closing the circuit if it connects and
+ * opening it again if it does not. Other failures, such as a rejected login,
+ * neither count nor reset the consecutive failures; they only end a probe
+ * without deciding it. An exchange which gives up before connecting, such as
+ * one timing out in the queue of the admission controller, is not accounted
+ * at all, see {@link #cancel}.
+ * </p>
+ */
+public class HostCircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(HostCircuitBreaker.class);
+
+    /**
+     * messages of the JSchExceptions thrown when the network element cannot
+     * be reached, JSch does not always keep the underlying exception
+     */
+    private static final String[] CONNECTION_FAILURE_MESSAGES = {
+            "Connection timed out", "Connection refused", "session is down",
+            "UnknownHostException", "Read timed out", "No route to host" };
+
+    /**
+     * The state of the circuit of one network element
+     */
+    public enum State {
+        /** connections are attempted */
+        CLOSED,
+        /** exchanges fail without a connection being attempted */
+        OPEN,
+        /** a single exchange is probing the network element */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openTime;
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+    /**
+     * @param failureThreshold
+     *            the number of consecutive connection failures opening the
+     *            circuit of a network element
+     * @param openTime
+     *            the time in milliseconds a circuit stays open before a probe
+     *            is let through
+     */
+    public HostCircuitBreaker(final int failureThreshold, final long openTime) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException(
+                    "failureThreshold must be positive: " + failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * Checks that a connection may be attempted to the network element. Every
+     * call which does not throw must be followed by {@link #onSuccess},
+     * {@link #onFailure} or {@link #cancel} for the same network element.
+     *
+     * @throws GenericEftpException
+     *             if the circuit of the network element is open
+     */
+    public void allow(final String ipAddress, final int port)
+            throws GenericEftpException {
+        final String host = hostKey(ipAddress, port);
+        if (!circuit(host).allow(System.currentTimeMillis())) {
+            throw new GenericEftpException(EftpConstants.CIRCUIT_OPEN,
+                    "Connection to " + host + " not attempted, "
+                            + failureThreshold
+                            + " consecutive connection failures");
+        }
+    }
+
+    /**
+     * Records that a connection to the network element was established
+     */
+    public void onSuccess(final String ipAddress, final int port) {
+        final Circuit circuit = circuits.get(hostKey(ipAddress, port));
+        if (circuit != null) {
+            circuit.succeeded();
+        }
+    }
+
+    /**
+     * Records that a connection to the network element could not be
+     * established
+     *
+     * @param cause
+     *            the exception thrown when connecting
+     */
+    public void onFailure(final String ipAddress, final int port,
+            final Throwable cause) {
+        final String host = hostKey(ipAddress, port);
+        final Circuit circuit = circuit(host);
+        if (!isConnectionFailure(cause)) {
+            circuit.ignored();
+        } else if (circuit.failed(System.currentTimeMillis())) {
+            LOG.warn(
+                    "Opening circuit of {} for {} ms after {} consecutive connection failures, last was {}",
+                    new Object[] { host, openTime, failureThreshold,
+                            cause.toString() });
+        }
+    }
+
+    /**
+     * Records that the connection allowed to the network element was not
+     * attempted after all, without counting it either way. Ends the probe if
+     * the exchange was probing the network element.
+     */
+    public void cancel(final String ipAddress, final int port) {
+        final Circuit circuit = circuits.get(hostKey(ipAddress, port));
+        if (circuit != null) {
+            circuit.ignored();
+        }
+    }
+
+    /**
+     * @return the state of the circuit of the network element
+     */
+    public State getState(final String ipAddress, final int port) {
+        final Circuit circuit = circuits.get(hostKey(ipAddress, port));
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    /**
+     * @return the state of the circuit of every network element connected to
+     *         so far, keyed by ip address and port
+     */
+    public Map<String, State> getStates() {
+        final Map<String, State> states = new TreeMap<String, State>();
+        for (final Map.Entry<String, Circuit> entry : circuits.entrySet()) {
+            states.put(entry.getKey(), entry.getValue().getState());
+        }
+        return states;
+    }
+
+    /**
+     * @return the number of consecutive connection failures opening a circuit
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * @return the time in milliseconds a circuit stays open before a probe
+     */
+    public long getOpenTime() {
+        return openTime;
+    }
+
+    /**
+     * @return true if the exception, or one of its causes, shows that the
+     *         network element could not be reached
+     */
+    static boolean isConnectionFailure(final Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause
+                .getCause()) {
+            if (cause instanceof ConnectException
+                    || cause instanceof SocketTimeoutException
+                    || cause instanceof UnknownHostException
+                    || cause instanceof NoRouteToHostException) {
+                return true;
+            }
+            final String message = cause.getMessage();
+            if (message != null) {
+                for (final String failure : CONNECTION_FAILURE_MESSAGES) {
+                    if (message.contains(failure)) {
+                        return true;
+                    }
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private Circuit circuit(final String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            final Circuit created = new Circuit();
+            circuit = circuits.putIfAbsent(host, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    private static String hostKey(final String ipAddress, final int port) {
+        return ipAddress + ":" + port;
+    }
+
+    private final class Circuit {
+
+        private State state = State.CLOSED;
+        private int failures;
+        private long openedAt;
+        private boolean probing;
+
+        synchronized boolean allow(final long now) {
+            switch (state) {
+            case OPEN:
+                if (now - openedAt < openTime) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            case HALF_OPEN:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+            default:
+                return true;
+            }
+        }
+
+        synchronized void succeeded() {
+            state = State.CLOSED;
+            failures = 0;
+            probing = false;
+        }
+
+        /**
+         * A failure unrelated to reaching the network element ends a probe
+         * without deciding it, so the next exchange probes again, and leaves
+         * the consecutive failures as they are
+         */
+        synchronized void ignored() {
+            probing = false;
+        }
+
+        /**
+         * @return true if the circuit was opened by this failure
+         */
+        synchronized boolean failed(final long now) {
+            probing = false;
+            if (state == State.CLOSED && ++failures < failureThreshold) {
+                return false;
+            }
+            final boolean opened = state == State.CLOSED;
+            state = State.OPEN;
+            openedAt = now;
+            return opened;
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+    }
+
+}
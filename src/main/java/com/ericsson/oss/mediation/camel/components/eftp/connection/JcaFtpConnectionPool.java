@@ -0,0 +1,54 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.FtpConnectionPool;
+import org.apache.commons.net.ftp.FTPClient;
+
+/**
+ * The {@link FtpConnectionPool} of camel-engine-jca-common as a
+ * {@link KeyedConnectionPool}
+ */
+public class JcaFtpConnectionPool implements KeyedConnectionPool<FTPClient> {
+
+    private final FtpConnectionPool pool;
+
+    public JcaFtpConnectionPool(final FtpConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public FTPClient borrowObject(final ConnectionConfig key) throws Exception {
+        return pool.borrowObject(key);
+    }
+
+    @Override
+    public void returnObject(final ConnectionConfig key,
+            final FTPClient connection) throws Exception {
+        pool.returnObject(key, connection);
+    }
+
+    @Override
+    public void invalidateObject(final ConnectionConfig key,
+            final FTPClient connection) throws Exception {
+        pool.invalidateObject(key, connection);
+    }
+
+    /**
+     * @return the wrapped pool
+     */
+    public FtpConnectionPool getPool() {
+        return pool;
+    }
+
+}
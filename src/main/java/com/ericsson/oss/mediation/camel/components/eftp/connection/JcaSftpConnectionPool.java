@@ -0,0 +1,54 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.SftpConnectionPool;
+import com.jcraft.jsch.ChannelSftp;
+
+/**
+ * The {@link SftpConnectionPool} of camel-engine-jca-common as a
+ * {@link KeyedConnectionPool}
+ */
+public class JcaSftpConnectionPool implements KeyedConnectionPool<ChannelSftp> {
+
+    private final SftpConnectionPool pool;
+
+    public JcaSftpConnectionPool(final SftpConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public ChannelSftp borrowObject(final ConnectionConfig key) throws Exception {
+        return pool.borrowObject(key);
+    }
+
+    @Override
+    public void returnObject(final ConnectionConfig key,
+            final ChannelSftp connection) throws Exception {
+        pool.returnObject(key, connection);
+    }
+
+    @Override
+    public void invalidateObject(final ConnectionConfig key,
+            final ChannelSftp connection) throws Exception {
+        pool.invalidateObject(key, connection);
+    }
+
+    /**
+     * @return the wrapped pool
+     */
+    public SftpConnectionPool getPool() {
+        return pool;
+    }
+
+}
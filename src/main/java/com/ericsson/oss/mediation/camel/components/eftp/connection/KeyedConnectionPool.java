@@ -0,0 +1,51 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+/**
+ * The pool the producers and consumers borrow connections from, keyed by the
+ * network element and credentials of the connection.
+ *
+ * <p>
+ * Implemented by {@link JcaFtpConnectionPool} and
+ * {@link JcaSftpConnectionPool}, over the pools of camel-engine-jca-common,
+ * and by the component's own {@link LockFreeKeyedConnectionPool}.
+ * </p>
+ *
+ * @param <C>
+ *            the type of the pooled connections
+ */
+public interface KeyedConnectionPool<C> {
+
+    /**
+     * Borrows an idle connection for the key, or opens a new one
+     *
+     * @param key
+     *            the network element and credentials
+     * @return the connection, which must be returned or invalidated
+     */
+    C borrowObject(ConnectionConfig key) throws Exception;
+
+    /**
+     * Returns a borrowed connection which is still usable to the pool
+     */
+    void returnObject(ConnectionConfig key, C connection) throws Exception;
+
+    /**
+     * Closes a borrowed connection which is no longer usable and removes it
+     * from the pool
+     */
+    void invalidateObject(ConnectionConfig key, C connection) throws Exception;
+
+}
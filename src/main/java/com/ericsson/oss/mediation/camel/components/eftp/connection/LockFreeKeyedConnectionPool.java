@@ -0,0 +1,508 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+/**
+ * Keyed connection pool whose borrow and return take no lock.
+ *
+ * <p>
+ * The idle connections of each key are kept on a few striped stacks, each a
+ * linked list whose head is swapped with a compare and set. A thread returns
+ * connections to the stripe picked by its id and borrows from that stripe
+ * first, so threads working on the same hot key seldom contend for the same
+ * head, and borrowing or returning takes a constant number of steps. The
+ * stacks are last in first out, so the connections in use stay warm and the
+ * others age out.
+ * </p>
+ *
+ * <p>
+ * The connections open for a key, and in the whole pool, are counted with
+ * atomic counters and bounded by <code>maxPerKey</code> and
+ * <code>maxTotal</code>. When the pool is full, idle connections of other keys
+ * are closed to make room; when every connection is borrowed the borrower
+ * parks until one is returned or <code>maxWait</code> has passed, and then
+ * fails with a {@link NoSuchElementException}. Only that slow path waits.
+ * </p>
+ *
+ * <p>
+ * A background evictor closes the connections idle for longer than
+ * <code>idleTimeout</code> every <code>evictionInterval</code>. It detaches a
+ * stack while it goes through it, and a borrower finding that stripe empty
+ * in the meantime looks at the others or opens a connection.
+ * </p>
+ *
+ * <p>
+ * The pool is configured through its setters before it is first used, and
+ * is bound in the registry under the names of the camel-engine-jca-common
+ * pools, with an {@link SftpConnectionFactory} or an
+ * {@link FtpConnectionFactory}, or injected as an endpoint option.
+ * </p>
+ *
+ * @param <C>
+ *            the type of the pooled connections
+ */
+public class LockFreeKeyedConnectionPool<C> implements KeyedConnectionPool<C>,
+        Closeable {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(LockFreeKeyedConnectionPool.class);
+
+    /**
+     * longest a waiting borrower parks before checking the pool again, in
+     * case a return was missed
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(10);
+
+    private final ConnectionFactory<C> factory;
+    private final int stripes;
+    private final ConcurrentMap<ConnectionConfig, KeyPool<C>> pools = new ConcurrentHashMap<ConnectionConfig, KeyPool<C>>();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger idle = new AtomicInteger();
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+    private volatile int maxTotal = 256;
+    private volatile int maxPerKey = 8;
+    private volatile long maxWait = 30000;
+    private volatile long idleTimeout = 60000;
+    private volatile long evictionInterval = 15000;
+
+    private volatile boolean closed;
+    private ScheduledExecutorService evictor;
+
+    /**
+     * @param factory
+     *            opens and closes the connections
+     */
+    public LockFreeKeyedConnectionPool(final ConnectionFactory<C> factory) {
+        this.factory = factory;
+        this.stripes = Integer.highestOneBit(Math.min(8, Runtime.getRuntime()
+                .availableProcessors()));
+    }
+
+    @Override
+    public C borrowObject(final ConnectionConfig key) throws Exception {
+        startEvictor();
+        final KeyPool<C> pool = keyPool(key);
+        final int stripe = stripe();
+        long deadline = 0;
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("Connection pool closed");
+            }
+            final Node<C> node = pool.pop(stripe);
+            if (node != null) {
+                idle.decrementAndGet();
+                if (factory.isValid(node.connection)) {
+                    return node.connection;
+                }
+                destroy(pool, node.connection);
+                continue;
+            }
+            if (reserve(pool)) {
+                try {
+                    return factory.create(key);
+                } catch (final Exception e) {
+                    unreserve(pool);
+                    throw e;
+                }
+            }
+            if (open.get() >= maxTotal && closeIdleOfOtherKey(pool)) {
+                continue;
+            }
+            final long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + TimeUnit.MILLISECONDS.toNanos(maxWait);
+            } else if (now - deadline >= 0) {
+                throw new NoSuchElementException(
+                        "Timeout waiting for a connection to " + key + " after "
+                                + maxWait + " ms, " + pool.open.get()
+                                + " open for the key and " + open.get()
+                                + " in the pool");
+            }
+            await(pool, stripe, deadline - now);
+        }
+    }
+
+    @Override
+    public void returnObject(final ConnectionConfig key, final C connection) {
+        final KeyPool<C> pool = pools.get(key);
+        if (pool == null) {
+            factory.destroy(connection);
+            return;
+        }
+        if (closed) {
+            destroy(pool, connection);
+            return;
+        }
+        pool.push(stripe(), new Node<C>(connection, System.nanoTime()));
+        idle.incrementAndGet();
+        signal();
+    }
+
+    @Override
+    public void invalidateObject(final ConnectionConfig key,
+            final C connection) {
+        final KeyPool<C> pool = pools.get(key);
+        if (pool == null) {
+            factory.destroy(connection);
+            return;
+        }
+        destroy(pool, connection);
+    }
+
+    /**
+     * Closes the idle connections and stops the evictor. Connections still
+     * borrowed are closed as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            if (evictor != null) {
+                evictor.shutdownNow();
+                evictor = null;
+            }
+        }
+        for (final KeyPool<C> pool : pools.values()) {
+            for (int i = 0; i < stripes; i++) {
+                Node<C> node = pool.heads.getAndSet(i, null);
+                for (; node != null; node = node.next) {
+                    idle.decrementAndGet();
+                    destroy(pool, node.connection);
+                }
+            }
+        }
+        signal();
+    }
+
+    /**
+     * Closes the connections idle for longer than the idle timeout, or no
+     * longer valid
+     */
+    void evict() {
+        final long now = System.nanoTime();
+        final long timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        int evicted = 0;
+        for (final KeyPool<C> pool : pools.values()) {
+            for (int i = 0; i < stripes; i++) {
+                final List<Node<C>> kept = new ArrayList<Node<C>>();
+                Node<C> node = pool.heads.getAndSet(i, null);
+                for (; node != null; node = node.next) {
+                    if (now - node.idleSince > timeout
+                            || !factory.isValid(node.connection)) {
+                        idle.decrementAndGet();
+                        destroy(pool, node.connection);
+                        evicted++;
+                    } else {
+                        kept.add(node);
+                    }
+                }
+                // push the oldest first, so the most recent is on top again
+                for (int k = kept.size() - 1; k >= 0; k--) {
+                    final Node<C> keep = kept.get(k);
+                    pool.push(i, new Node<C>(keep.connection, keep.idleSince));
+                }
+            }
+        }
+        if (evicted > 0) {
+            LOG.debug("Evicted {} idle connections, {} open, {} idle",
+                    new Object[] { evicted, open.get(), idle.get() });
+        }
+    }
+
+    /**
+     * @return the number of connections open, borrowed or idle
+     */
+    public int getNumOpen() {
+        return open.get();
+    }
+
+    /**
+     * @return the number of idle connections
+     */
+    public int getNumIdle() {
+        return idle.get();
+    }
+
+    /**
+     * @return the number of connections open for the key, borrowed or idle
+     */
+    public int getNumOpen(final ConnectionConfig key) {
+        final KeyPool<C> pool = pools.get(key);
+        return pool == null ? 0 : pool.open.get();
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * @param maxTotal
+     *            the maximum number of connections open in the pool, for all
+     *            keys
+     */
+    public void setMaxTotal(final int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    public int getMaxPerKey() {
+        return maxPerKey;
+    }
+
+    /**
+     * @param maxPerKey
+     *            the maximum number of connections open for one key, that is
+     *            sessions to one network element with one user
+     */
+    public void setMaxPerKey(final int maxPerKey) {
+        this.maxPerKey = maxPerKey;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * @param maxWait
+     *            the time in milliseconds a borrower waits for a connection
+     *            when all of them are borrowed
+     */
+    public void setMaxWait(final long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @param idleTimeout
+     *            the time in milliseconds after which an idle connection is
+     *            closed
+     */
+    public void setIdleTimeout(final long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getEvictionInterval() {
+        return evictionInterval;
+    }
+
+    /**
+     * @param evictionInterval
+     *            the time in milliseconds between two runs of the evictor, 0
+     *            not to evict idle connections
+     */
+    public void setEvictionInterval(final long evictionInterval) {
+        this.evictionInterval = evictionInterval;
+    }
+
+    private KeyPool<C> keyPool(final ConnectionConfig key) {
+        KeyPool<C> pool = pools.get(key);
+        if (pool == null) {
+            final KeyPool<C> created = new KeyPool<C>(stripes);
+            pool = pools.putIfAbsent(key, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    private int stripe() {
+        return (int) Thread.currentThread().getId() & (stripes - 1);
+    }
+
+    /**
+     * Counts a new connection for the key, if neither limit is reached
+     */
+    private boolean reserve(final KeyPool<C> pool) {
+        int count;
+        do {
+            count = pool.open.get();
+            if (count >= maxPerKey) {
+                return false;
+            }
+        } while (!pool.open.compareAndSet(count, count + 1));
+        do {
+            count = open.get();
+            if (count >= maxTotal) {
+                pool.open.decrementAndGet();
+                return false;
+            }
+        } while (!open.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    private void unreserve(final KeyPool<C> pool) {
+        pool.open.decrementAndGet();
+        open.decrementAndGet();
+        signal();
+    }
+
+    private void destroy(final KeyPool<C> pool, final C connection) {
+        try {
+            factory.destroy(connection);
+        } finally {
+            unreserve(pool);
+        }
+    }
+
+    /**
+     * Closes an idle connection of another key to make room in a full pool
+     *
+     * @return true if a connection was closed
+     */
+    private boolean closeIdleOfOtherKey(final KeyPool<C> except) {
+        for (final KeyPool<C> pool : pools.values()) {
+            if (pool != except) {
+                for (int i = 0; i < stripes; i++) {
+                    final Node<C> node = pool.pop(i);
+                    if (node != null) {
+                        idle.decrementAndGet();
+                        destroy(pool, node.connection);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parks until a connection is returned or closed, or the time is up
+     */
+    private void await(final KeyPool<C> pool, final int stripe,
+            final long nanos) {
+        final Thread thread = Thread.currentThread();
+        waiters.add(thread);
+        try {
+            // a connection returned before this thread was queued
+            if (!pool.isEmpty() || pool.open.get() < maxPerKey
+                    && open.get() < maxTotal) {
+                return;
+            }
+            LockSupport.parkNanos(this, Math.min(nanos, MAX_PARK_NANOS));
+        } finally {
+            waiters.remove(thread);
+        }
+    }
+
+    private void signal() {
+        final Thread waiter = waiters.peek();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    private synchronized void startEvictor() {
+        if (evictor != null || closed || evictionInterval <= 0) {
+            return;
+        }
+        evictor = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable,
+                                "EftpPoolEvictor");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evict();
+                } catch (final RuntimeException e) {
+                    LOG.warn("Eviction of idle connections failed", e);
+                }
+            }
+        }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The idle connections and the open connection count of one key
+     */
+    private static final class KeyPool<C> {
+
+        private final AtomicReferenceArray<Node<C>> heads;
+        private final AtomicInteger open = new AtomicInteger();
+
+        private KeyPool(final int stripes) {
+            heads = new AtomicReferenceArray<Node<C>>(stripes);
+        }
+
+        private void push(final int stripe, final Node<C> node) {
+            Node<C> head;
+            do {
+                head = heads.get(stripe);
+                node.next = head;
+            } while (!heads.compareAndSet(stripe, head, node));
+        }
+
+        /**
+         * Pops from the given stripe, or from the next one which is not empty
+         */
+        private Node<C> pop(final int stripe) {
+            final int stripes = heads.length();
+            for (int i = 0; i < stripes; i++) {
+                final int index = (stripe + i) & (stripes - 1);
+                Node<C> head;
+                while ((head = heads.get(index)) != null) {
+                    if (heads.compareAndSet(index, head, head.next)) {
+                        return head;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private boolean isEmpty() {
+            for (int i = 0; i < heads.length(); i++) {
+                if (heads.get(i) != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Node<C> {
+
+        private final C connection;
+        private final long idleSince;
+        private Node<C> next;
+
+        private Node(final C connection, final long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
+
+}
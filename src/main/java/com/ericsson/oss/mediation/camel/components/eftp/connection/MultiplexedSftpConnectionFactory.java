@@ -0,0 +1,244 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.jcraft.jsch.*;
+
+/**
+ * Opens the SFTP channels of a {@link LockFreeKeyedConnectionPool} on shared
+ * SSH sessions, up to <code>maxChannelsPerSession</code> channels on each
+ * session of a network element.
+ *
+ * <p>
+ * Opening a channel on a session which is already authenticated takes one
+ * round trip, where a new session costs a TCP connection, a key exchange and
+ * a login. So a new session is only opened when every session of the network
+ * element carries as many channels as allowed, and only by one thread at a
+ * time for a network element: the threads which need a channel meanwhile
+ * wait for it and then share it. A session is closed with its last channel.
+ * </p>
+ *
+ * <p>
+ * Servers limit the channels of a session, to 10 by default for OpenSSH
+ * (MaxSessions). The channels the producers open on the session of a
+ * borrowed channel, for chunked downloads, bulk tar, remote compression or
+ * the watch, count towards that limit, so <code>maxChannelsPerSession</code>
+ * should leave room for them. If the server refuses a channel on a session still
+ * connected, the session is taken as full and the channel is opened on
+ * another session.
+ * </p>
+ */
+public class MultiplexedSftpConnectionFactory extends SftpConnectionFactory {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(MultiplexedSftpConnectionFactory.class);
+
+    private final int maxChannelsPerSession;
+    private final ConcurrentMap<ConnectionConfig, List<SharedSession>> sessionsByKey = new ConcurrentHashMap<ConnectionConfig, List<SharedSession>>();
+    private final ConcurrentMap<Session, SharedSession> sessions = new ConcurrentHashMap<Session, SharedSession>();
+
+    /**
+     * @param connectTimeout
+     *            the time in milliseconds to wait for a session or a channel
+     *            to open
+     * @param maxChannelsPerSession
+     *            the maximum number of SFTP channels open at once on one
+     *            session
+     */
+    public MultiplexedSftpConnectionFactory(final int connectTimeout,
+            final int maxChannelsPerSession) {
+        super(connectTimeout);
+        this.maxChannelsPerSession = Math.max(1, maxChannelsPerSession);
+    }
+
+    @Override
+    public ChannelSftp create(final ConnectionConfig key) throws JSchException {
+        final List<SharedSession> keySessions = sessionsOf(key);
+        ChannelSftp channel = openOnSharedSession(keySessions);
+        if (channel != null) {
+            return channel;
+        }
+        final SharedSession shared;
+        synchronized (keySessions) {
+            // another thread may have opened a session in the meantime
+            channel = openOnSharedSession(keySessions);
+            if (channel != null) {
+                return channel;
+            }
+            shared = new SharedSession(key, openSession(key),
+                    maxChannelsPerSession);
+            shared.acquire();
+            sessions.put(shared.session, shared);
+            keySessions.add(shared);
+        }
+        LOG.debug("Opened session {} of {}", keySessions.size(), key);
+        try {
+            return openChannel(shared.session);
+        } catch (final JSchException e) {
+            release(shared);
+            throw e;
+        }
+    }
+
+    @Override
+    public void destroy(final ChannelSftp channel) {
+        channel.disconnect();
+        final Session session;
+        try {
+            session = channel.getSession();
+        } catch (final JSchException e) {
+            // the channel was never bound to a session
+            return;
+        }
+        final SharedSession shared = sessions.get(session);
+        if (shared == null) {
+            session.disconnect();
+        } else {
+            release(shared);
+        }
+    }
+
+    /**
+     * @return the number of sessions open for the key
+     */
+    public int getNumSessions(final ConnectionConfig key) {
+        final List<SharedSession> keySessions = sessionsByKey.get(key);
+        return keySessions == null ? 0 : keySessions.size();
+    }
+
+    /**
+     * @return the number of sessions open for all keys
+     */
+    public int getNumSessions() {
+        return sessions.size();
+    }
+
+    public int getMaxChannelsPerSession() {
+        return maxChannelsPerSession;
+    }
+
+    private List<SharedSession> sessionsOf(final ConnectionConfig key) {
+        List<SharedSession> keySessions = sessionsByKey.get(key);
+        if (keySessions == null) {
+            final List<SharedSession> created = new CopyOnWriteArrayList<SharedSession>();
+            keySessions = sessionsByKey.putIfAbsent(key, created);
+            if (keySessions == null) {
+                keySessions = created;
+            }
+        }
+        return keySessions;
+    }
+
+    /**
+     * Opens a channel on a session of the key with a channel to spare
+     *
+     * @return the channel, null if every session is full
+     */
+    private ChannelSftp openOnSharedSession(
+            final List<SharedSession> keySessions) {
+        for (final SharedSession shared : keySessions) {
+            if (!shared.session.isConnected()) {
+                // closed along with its last channel
+                continue;
+            }
+            if (!shared.acquire()) {
+                continue;
+            }
+            try {
+                return openChannel(shared.session);
+            } catch (final JSchException e) {
+                if (shared.session.isConnected()) {
+                    shared.limit = shared.channels.get() - 1;
+                    LOG.debug("Channel refused on a session of {} with {} channels open: {}",
+                            new Object[] { shared.key, shared.limit,
+                                    e.getMessage() });
+                }
+                release(shared);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gives back the channel slot of a session, closing the session once it
+     * has no channel left
+     */
+    private void release(final SharedSession shared) {
+        if (shared.channels.decrementAndGet() > 0
+                && shared.session.isConnected()) {
+            return;
+        }
+        final List<SharedSession> keySessions = sessionsOf(shared.key);
+        synchronized (keySessions) {
+            // a channel may have been opened on it meanwhile
+            if (shared.channels.get() > 0 && shared.session.isConnected()) {
+                return;
+            }
+            if (!shared.retire()) {
+                return;
+            }
+            keySessions.remove(shared);
+            sessions.remove(shared.session);
+        }
+        shared.session.disconnect();
+    }
+
+    /**
+     * A session of a network element and the number of channels open on it
+     */
+    private static final class SharedSession {
+
+        private final ConnectionConfig key;
+        private final Session session;
+        private final AtomicInteger channels = new AtomicInteger();
+        private volatile int limit;
+
+        private SharedSession(final ConnectionConfig key,
+                final Session session, final int limit) {
+            this.key = key;
+            this.session = session;
+            this.limit = limit;
+        }
+
+        /**
+         * Takes a channel slot, unless the session is full or retired
+         */
+        private boolean acquire() {
+            int count;
+            do {
+                count = channels.get();
+                if (count < 0 || count >= limit) {
+                    return false;
+                }
+            } while (!channels.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * Marks a session without channels as closing, so no channel is
+         * opened on it any more
+         */
+        private boolean retire() {
+            final int count = channels.get();
+            return count <= 0 && channels.compareAndSet(count, -1);
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+/**
+ * Reads the network elements whose connections are opened ahead of the
+ * collection, from a text file with one network element per line:
+ * 
+ * <pre>
+ * # protocol host port username password
+ * sftp 10.0.0.1 22 pmuser secret
+ * ftp  10.0.0.2 21 pmuser secret
+ * </pre>
+ * 
+ * Blank lines and lines starting with # are ignored.
+ */
+public final class NetworkElementInventory {
+
+    private NetworkElementInventory() {
+    }
+
+    /**
+     * @return the connection key of every network element of the file, in
+     *         the order of the file
+     * @throws IOException
+     *             if the file cannot be read or has a malformed line
+     */
+    public static List<ConnectionConfig> load(final File file)
+            throws IOException {
+        final List<ConnectionConfig> networkElements = new ArrayList<ConnectionConfig>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                networkElements.add(parse(line, file, number));
+            }
+        }
+        return networkElements;
+    }
+
+    private static ConnectionConfig parse(final String line, final File file,
+            final int number) throws IOException {
+        final String[] fields = line.split("\\s+");
+        if (fields.length != 5) {
+            throw new IOException("Line " + number + " of " + file
+                    + " is not 'protocol host port username password'");
+        }
+        final String secure;
+        if ("sftp".equalsIgnoreCase(fields[0])) {
+            secure = "true";
+        } else if ("ftp".equalsIgnoreCase(fields[0])) {
+            secure = "false";
+        } else {
+            throw new IOException("Unknown protocol " + fields[0]
+                    + " on line " + number + " of " + file);
+        }
+        final int port;
+        try {
+            port = Integer.parseInt(fields[2]);
+        } catch (final NumberFormatException e) {
+            throw new IOException("Invalid port " + fields[2] + " on line "
+                    + number + " of " + file);
+        }
+        return new ConnectionConfig(fields[1], port, fields[3], fields[4],
+                secure);
+    }
+
+}
@@ -0,0 +1,201 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.jcraft.jsch.ChannelSftp;
+
+/**
+ * Opens the pooled connections to an inventory of network elements ahead of
+ * the collection, so that the first transfers of a ROP find them open rather
+ * than all of them connecting, exchanging keys and logging in at the same
+ * moment.
+ *
+ * <p>
+ * Warming a network element borrows the given number of connections at once
+ * and returns them, which opens the ones missing and checks the idle ones,
+ * and leaves them idle in the pool. The network elements are warmed on an
+ * executor bounding how many are connected to at a time, each after a random
+ * delay up to the jitter, so the network and the network elements see the
+ * logins spread out. Failures are logged and counted, and the transfers will
+ * connect as usual.
+ * </p>
+ *
+ * <p>
+ * The warming is repeated a lead time before each ROP boundary, ROP
+ * boundaries being multiples of the ROP period since the epoch, which also
+ * keeps the connections from being evicted as idle between two ROPs.
+ * </p>
+ */
+public class PoolPrewarmer {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(PoolPrewarmer.class);
+
+    private final List<ConnectionConfig> networkElements;
+    private final KeyedConnectionPool<ChannelSftp> sftpPool;
+    private final KeyedConnectionPool<FTPClient> ftpPool;
+    private final int connections;
+    private final long maxJitter;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+    private final AtomicLong warmed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param networkElements
+     *            the keys of the network elements, secure ones warmed in the
+     *            SFTP pool and the others in the FTP pool
+     * @param sftpPool
+     *            the SFTP pool, null if there is none
+     * @param ftpPool
+     *            the FTP pool, null if there is none
+     * @param connections
+     *            the number of connections opened to each network element
+     * @param maxJitter
+     *            the longest random delay in milliseconds before a network
+     *            element is warmed
+     * @param scheduler
+     *            runs the delays and the warming before each ROP
+     * @param executor
+     *            connects to the network elements, with as many threads as
+     *            network elements are warmed at a time
+     */
+    public PoolPrewarmer(final List<ConnectionConfig> networkElements,
+            final KeyedConnectionPool<ChannelSftp> sftpPool,
+            final KeyedConnectionPool<FTPClient> ftpPool,
+            final int connections, final long maxJitter,
+            final ScheduledExecutorService scheduler,
+            final ExecutorService executor) {
+        this.networkElements = new ArrayList<ConnectionConfig>(networkElements);
+        this.sftpPool = sftpPool;
+        this.ftpPool = ftpPool;
+        this.connections = connections;
+        this.maxJitter = maxJitter;
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * Warms every network element once, in the background
+     */
+    public void warm() {
+        LOG.debug("Pre-opening {} connections to each of {} network elements",
+                connections, networkElements.size());
+        for (final ConnectionConfig key : networkElements) {
+            final long delay = maxJitter > 0 ? ThreadLocalRandom.current()
+                    .nextLong(maxJitter + 1) : 0;
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            warm(key);
+                        }
+                    });
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Warms every network element again a lead time before each ROP
+     * boundary
+     *
+     * @param ropPeriod
+     *            the ROP period in milliseconds
+     * @param leadTime
+     *            how long before the ROP boundary warming starts, in
+     *            milliseconds, which should exceed the jitter
+     */
+    public void scheduleBeforeRop(final long ropPeriod, final long leadTime) {
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                warm();
+            }
+        }, delayBeforeBoundary(System.currentTimeMillis(), ropPeriod,
+                leadTime), ropPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the time in milliseconds from now until the lead time before
+     *         the next ROP boundary
+     */
+    static long delayBeforeBoundary(final long now, final long ropPeriod,
+            final long leadTime) {
+        final long remainder = (now + leadTime) % ropPeriod;
+        return remainder == 0 ? 0 : ropPeriod - remainder;
+    }
+
+    /**
+     * @return the number of network elements warmed successfully
+     */
+    public long getWarmedCount() {
+        return warmed.get();
+    }
+
+    /**
+     * @return the number of times a network element could not be warmed
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    void warm(final ConnectionConfig key) {
+        if (Boolean.parseBoolean(key.getSecure())) {
+            warm(sftpPool, key);
+        } else {
+            warm(ftpPool, key);
+        }
+    }
+
+    private <C> void warm(final KeyedConnectionPool<C> pool,
+            final ConnectionConfig key) {
+        if (pool == null) {
+            LOG.debug("No connection pool to warm for {}", key);
+            return;
+        }
+        final List<C> borrowed = new ArrayList<C>(connections);
+        try {
+            while (borrowed.size() < connections) {
+                borrowed.add(pool.borrowObject(key));
+            }
+            warmed.incrementAndGet();
+        } catch (final Exception e) {
+            failures.incrementAndGet();
+            LOG.warn("Could only pre-open {} of {} connections to {}: {}",
+                    new Object[] { borrowed.size(), connections, key,
+                            e.toString() });
+        } finally {
+            for (final C connection : borrowed) {
+                try {
+                    pool.returnObject(key, connection);
+                } catch (final Exception e) {
+                    LOG.debug("Could not return pre-opened connection to {}",
+                            key, e);
+                }
+            }
+        }
+    }
+
+}
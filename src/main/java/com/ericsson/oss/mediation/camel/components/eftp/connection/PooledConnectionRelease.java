@@ -0,0 +1,238 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.Synchronization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.TransferMetrics;
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.TransferPhase;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+/**
+ * Hands a connection borrowed by an eftp producer back to its pool exactly
+ * once.
+ *
+ * <p>
+ * The release is triggered by whichever happens first: the body stream of the
+ * exchange being read to the end or closed, or the exchange completing. On
+ * successful completion the connection is returned to the pool, if the
+ * exchange failed or the body stream could not be closed cleanly the
+ * connection is invalidated instead.
+ * </p>
+ *
+ * @param <T>
+ *            the pooled connection type
+ */
+public abstract class PooledConnectionRelease<T> implements Synchronization {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(PooledConnectionRelease.class);
+
+    private final ConnectionConfig key;
+    private final T connection;
+    private final String exchangeId;
+    private final long borrowedAt;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private final ConnectionLeakDetector leakDetector;
+
+    private volatile Closeable body;
+    private volatile HostAdmissionController.Permit permit;
+    private volatile TransferMetrics metrics;
+
+    /**
+     * @param key
+     *            the key the connection was borrowed with
+     * @param connection
+     *            the borrowed connection
+     * @param exchangeId
+     *            the id of the exchange holding the connection
+     * @param leakDetector
+     *            detector to register the borrowed connection with, may be
+     *            null
+     */
+    protected PooledConnectionRelease(final ConnectionConfig key,
+            final T connection, final String exchangeId,
+            final ConnectionLeakDetector leakDetector) {
+        this.key = key;
+        this.connection = connection;
+        this.exchangeId = exchangeId;
+        this.leakDetector = leakDetector;
+        this.borrowedAt = System.currentTimeMillis();
+        if (leakDetector != null) {
+            leakDetector.borrowed(this);
+        }
+    }
+
+    /**
+     * Returns the connection to the pool, or invalidates it, unless this has
+     * already been done.
+     *
+     * @param reusable
+     *            true to return the connection to the pool, false to
+     *            invalidate it
+     * @return true if the connection was released by this call
+     */
+    public boolean release(final boolean reusable) {
+        if (!released.compareAndSet(false, true)) {
+            return false;
+        }
+        if (leakDetector != null) {
+            leakDetector.released(this);
+        }
+        final long releasing = System.nanoTime();
+        try {
+            if (reusable) {
+                LOG.debug("Returning connection for key=[{}] held by exchange {}",
+                        key, exchangeId);
+                returnToPool(key, connection);
+            } else {
+                LOG.debug("Invalidating connection for key=[{}] held by exchange {}",
+                        key, exchangeId);
+                invalidate(key, connection);
+            }
+        } catch (final Exception e) {
+            LOG.warn("Could not release connection for key=[{}]: {}", key,
+                    e.toString());
+        } finally {
+            final TransferMetrics recorded = metrics;
+            if (recorded != null) {
+                recorded.record(TransferPhase.RETURN, System.nanoTime()
+                        - releasing);
+            }
+            final HostAdmissionController.Permit admitted = permit;
+            if (admitted != null) {
+                admitted.release();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Registers the body stream to be closed if the exchange completes before
+     * the stream is consumed.
+     *
+     * @param body
+     *            the stream set as the exchange body
+     */
+    public void setBody(final Closeable body) {
+        this.body = body;
+    }
+
+    /**
+     * Registers the admission of the connection to be released along with
+     * the connection.
+     *
+     * @param permit
+     *            the permit the connection was borrowed under
+     */
+    public void setPermit(final HostAdmissionController.Permit permit) {
+        this.permit = permit;
+    }
+
+    /**
+     * @param metrics
+     *            the metrics of the network element to record the release
+     *            of the connection in
+     */
+    public void setMetrics(final TransferMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the metrics of the network element of the connection, null if
+     *         transfer metrics are disabled
+     */
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void onComplete(final Exchange exchange) {
+        release(closeBody());
+    }
+
+    @Override
+    public void onFailure(final Exchange exchange) {
+        closeBody();
+        release(false);
+    }
+
+    private boolean closeBody() {
+        final Closeable stream = body;
+        if (stream == null) {
+            return true;
+        }
+        try {
+            stream.close();
+            return true;
+        } catch (final IOException e) {
+            LOG.debug("Body stream could not be closed cleanly: {}",
+                    e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Returns the connection to its pool.
+     */
+    protected abstract void returnToPool(ConnectionConfig key, T connection)
+            throws Exception;
+
+    /**
+     * Removes the connection from its pool and closes it.
+     */
+    protected abstract void invalidate(ConnectionConfig key, T connection)
+            throws Exception;
+
+    /**
+     * @return true if the connection has been returned or invalidated
+     */
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    /**
+     * @return the key the connection was borrowed with
+     */
+    public ConnectionConfig getKey() {
+        return key;
+    }
+
+    /**
+     * @return the borrowed connection
+     */
+    public T getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return the id of the exchange holding the connection
+     */
+    public String getExchangeId() {
+        return exchangeId;
+    }
+
+    /**
+     * @return the time in milliseconds the connection was borrowed at
+     */
+    public long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+}
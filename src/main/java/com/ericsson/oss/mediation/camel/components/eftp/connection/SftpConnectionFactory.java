@@ -0,0 +1,89 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.jcraft.jsch.*;
+
+/**
+ * Opens an SSH session and an SFTP channel on it for each connection of a
+ * {@link LockFreeKeyedConnectionPool}, the way the SFTP pool of
+ * camel-engine-jca-common does
+ */
+public class SftpConnectionFactory implements ConnectionFactory<ChannelSftp> {
+
+    private final JSch jsch = new JSch();
+    private final int connectTimeout;
+
+    /**
+     * @param connectTimeout
+     *            the time in milliseconds to wait for the session and the
+     *            channel to open
+     */
+    public SftpConnectionFactory(final int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @Override
+    public ChannelSftp create(final ConnectionConfig key) throws JSchException {
+        final Session session = openSession(key);
+        try {
+            return openChannel(session);
+        } catch (final JSchException e) {
+            session.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens and authenticates a new SSH session to the network element
+     */
+    protected Session openSession(final ConnectionConfig key)
+            throws JSchException {
+        final Session session = jsch.getSession(key.getUsername(),
+                key.getIpAddress(), key.getPort());
+        session.setPassword(key.getPassword());
+        session.setConfig("StrictHostKeyChecking", "no");
+        session.connect(connectTimeout);
+        return session;
+    }
+
+    /**
+     * Opens an SFTP channel on a connected session
+     */
+    protected ChannelSftp openChannel(final Session session)
+            throws JSchException {
+        final ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+        channel.connect(connectTimeout);
+        return channel;
+    }
+
+    @Override
+    public boolean isValid(final ChannelSftp channel) {
+        try {
+            return channel.isConnected() && channel.getSession().isConnected();
+        } catch (final JSchException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy(final ChannelSftp channel) {
+        channel.disconnect();
+        try {
+            channel.getSession().disconnect();
+        } catch (final JSchException e) {
+            // the channel was never bound to a session
+        }
+    }
+
+}
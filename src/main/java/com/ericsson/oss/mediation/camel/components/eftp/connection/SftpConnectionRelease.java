@@ -0,0 +1,44 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.jcraft.jsch.ChannelSftp;
+
+/**
+ * Releases a {@link ChannelSftp} borrowed from a {@link KeyedConnectionPool}
+ */
+public class SftpConnectionRelease extends PooledConnectionRelease<ChannelSftp> {
+
+    private final KeyedConnectionPool<ChannelSftp> pool;
+
+    public SftpConnectionRelease(
+            final KeyedConnectionPool<ChannelSftp> pool,
+            final ConnectionConfig key, final ChannelSftp channel,
+            final String exchangeId, final ConnectionLeakDetector leakDetector) {
+        super(key, channel, exchangeId, leakDetector);
+        this.pool = pool;
+    }
+
+    @Override
+    protected void returnToPool(final ConnectionConfig key,
+            final ChannelSftp channel) throws Exception {
+        pool.returnObject(key, channel);
+    }
+
+    @Override
+    protected void invalidate(final ConnectionConfig key,
+            final ChannelSftp channel) throws Exception {
+        pool.invalidateObject(key, channel);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * Switches the SSH transport of a pooled session to zlib compression.
+ *
+ * <p>
+ * The sessions are opened by the connection pool, which offers no way to set
+ * the algorithms proposed in the key exchange. Compression is instead
+ * negotiated on the open session: the algorithms are set on the session and
+ * the keys are exchanged again, after which both directions are compressed.
+ * This is done once per session, the first time it is borrowed for an
+ * endpoint asking for compression, and lasts for the life of the session,
+ * whichever endpoint borrows it next.
+ * </p>
+ *
+ * <p>
+ * If the server does not support any of the algorithms the exchange settles
+ * on none and the session carries on uncompressed.
+ * </p>
+ */
+public final class SshTransportCompression {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(SshTransportCompression.class);
+
+    private static final String SERVER_TO_CLIENT = "compression.s2c";
+    private static final String CLIENT_TO_SERVER = "compression.c2s";
+
+    private SshTransportCompression() {
+    }
+
+    /**
+     * Proposes the compression algorithms on the session, if it has not
+     * already been done
+     *
+     * @param session
+     *            the session of the borrowed channel
+     * @param algorithms
+     *            the comma separated algorithms in order of preference, such
+     *            as <code>zlib@openssh.com,zlib,none</code>
+     * @return true if the keys were exchanged again, false if the session
+     *         already proposed the algorithms
+     * @throws JSchException
+     *             if the key exchange fails, the session is then unusable
+     */
+    public static boolean enable(final Session session, final String algorithms)
+            throws JSchException {
+        synchronized (session) {
+            if (algorithms.equals(session.getConfig(SERVER_TO_CLIENT))
+                    && algorithms.equals(session.getConfig(CLIENT_TO_SERVER))) {
+                return false;
+            }
+            session.setConfig(SERVER_TO_CLIENT, algorithms);
+            session.setConfig(CLIENT_TO_SERVER, algorithms);
+            LOG.debug("Negotiating {} compression with {}", algorithms,
+                    session.getHost());
+            try {
+                session.rekey();
+            } catch (final JSchException e) {
+                throw e;
+            } catch (final Exception e) {
+                // JSch declares the key exchange as throwing any exception
+                throw new JSchException("Key exchange failed: " + e, e);
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.io;
+
+import java.io.*;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps the data connection stream returned by
+ * {@link FTPClient#retrieveFileStream(String)} so that the file is streamed to
+ * the consumer without being buffered in memory.
+ *
+ * <p>
+ * When the stream is closed the data connection is closed and the pending
+ * RETR command is completed by calling
+ * {@link FTPClient#completePendingCommand()}. The control connection read
+ * timeout is set to the configured completion timeout for the duration of the
+ * call, so a server which never sends the final reply cannot hang the caller.
+ * If the command does not complete with a positive reply the client is left in
+ * an unknown protocol state and {@link #isClientReusable()} returns false.
+ * A reader which stops before the end of the file calls {@link #abort()}
+ * instead, which does not treat the reply to the interrupted command as a
+ * failure.
+ * </p>
+ */
+public class FtpRetrieveInputStream extends FilterInputStream {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(FtpRetrieveInputStream.class);
+
+    private final FTPClient ftpClient;
+    private final int completionTimeout;
+    private final String filePath;
+
+    private long bytesRead;
+    private boolean closed;
+    private boolean clientReusable;
+
+    /**
+     * @param stream
+     *            the data connection stream of the RETR command
+     * @param ftpClient
+     *            the client the RETR command was issued on
+     * @param filePath
+     *            the remote file being retrieved, used for logging
+     * @param completionTimeout
+     *            maximum time in milliseconds to wait for the final reply of
+     *            the RETR command, 0 waits indefinitely
+     */
+    public FtpRetrieveInputStream(final InputStream stream,
+            final FTPClient ftpClient, final String filePath,
+            final int completionTimeout) {
+        super(stream);
+        this.ftpClient = ftpClient;
+        this.filePath = filePath;
+        this.completionTimeout = completionTimeout;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int value = super.read();
+        if (value != -1) {
+            bytesRead++;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length)
+            throws IOException {
+        final int count = super.read(buffer, offset, length);
+        if (count > 0) {
+            bytesRead += count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(final long count) throws IOException {
+        final long skipped = super.skip(count);
+        bytesRead += skipped;
+        return skipped;
+    }
+
+    /**
+     * Closes the data connection and completes the pending RETR command.
+     * Calling close more than once has no effect.
+     *
+     * @throws IOException
+     *             if the data connection could not be closed or the server
+     *             did not confirm the transfer
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            super.close();
+        } finally {
+            clientReusable = completePendingCommand();
+        }
+        if (!clientReusable) {
+            throw new IOException("Transfer of " + filePath
+                    + " was not confirmed by the server, reply: "
+                    + ftpClient.getReplyString());
+        }
+    }
+
+    /**
+     * Closes the data connection before the end of the file and reads the
+     * reply of the server to the RETR command cut short. The 426 or 451 reply
+     * expected is not a failure, but the client is only reusable if the
+     * server completed the transfer anyway. Calling abort or close more than
+     * once has no effect.
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            super.close();
+        } catch (final IOException e) {
+            LOG.debug("Could not close data connection of {}: {}", filePath,
+                    e.toString());
+        }
+        clientReusable = completePendingCommand();
+        if (!clientReusable) {
+            LOG.debug("Retrieval of {} aborted after {} bytes, reply: {}",
+                    new Object[] { filePath, bytesRead,
+                            ftpClient.getReplyString() });
+        }
+    }
+
+    private boolean completePendingCommand() {
+        int previousTimeout = 0;
+        try {
+            previousTimeout = ftpClient.getSoTimeout();
+            ftpClient.setSoTimeout(completionTimeout);
+            final boolean completed = ftpClient.completePendingCommand();
+            LOG.debug("Completed retrieval of {} after {} bytes, reply: {}",
+                    new Object[] { filePath, bytesRead,
+                            ftpClient.getReplyCode() });
+            return completed;
+        } catch (final IOException e) {
+            LOG.warn("Could not complete retrieval of {} within {} ms: {}",
+                    new Object[] { filePath, completionTimeout, e.toString() });
+            return false;
+        } finally {
+            restoreTimeout(previousTimeout);
+        }
+    }
+
+    private void restoreTimeout(final int previousTimeout) {
+        try {
+            if (ftpClient.isConnected()) {
+                ftpClient.setSoTimeout(previousTimeout);
+            }
+        } catch (final IOException e) {
+            LOG.debug("Could not restore control connection timeout: {}",
+                    e.toString());
+        }
+    }
+
+    /**
+     * @return true once the stream has been closed and the server confirmed
+     *         the transfer, i.e. the client can be used for the next command
+     */
+    public boolean isClientReusable() {
+        return closed && clientReusable;
+    }
+
+    /**
+     * @return true if the stream has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the number of bytes read from the data connection so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the client the file is being retrieved on
+     */
+    public FTPClient getFtpClient() {
+        return ftpClient;
+    }
+
+}
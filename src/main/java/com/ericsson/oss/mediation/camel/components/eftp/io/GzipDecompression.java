@@ -0,0 +1,110 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.io;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Inflates gzip files while they are downloaded, so the consumers of the
+ * exchange get the content itself and no compressed copy is ever written to
+ * disk.
+ *
+ * <p>
+ * The file is inflated as its bytes are read from the connection, which the
+ * operating system keeps receiving into the socket buffer in the meantime,
+ * so the download and the inflation overlap. The compressed bytes are handed
+ * to the native zlib inflater in chunks of the buffer size, large enough to
+ * keep the number of native calls per file small; the default of
+ * {@link GZIPInputStream} is 512 bytes.
+ * </p>
+ */
+public final class GzipDecompression {
+
+    /**
+     * suffix of the files which are inflated, and removed from their
+     * destination names
+     */
+    public static final String SUFFIX = ".gz";
+
+    private static final int MIN_BUFFER_SIZE = 512;
+
+    private GzipDecompression() {
+    }
+
+    /**
+     * @return true if the file is gzip compressed, judging by its name
+     */
+    public static boolean isCompressed(final String fileName) {
+        return fileName.endsWith(SUFFIX);
+    }
+
+    /**
+     * @return the name of the file once inflated, without its gz suffix
+     */
+    public static String decompressedName(final String fileName) {
+        return isCompressed(fileName) ? fileName.substring(0,
+                fileName.length() - SUFFIX.length()) : fileName;
+    }
+
+    /**
+     * @param files
+     *            source file names mapped to destination file names
+     * @return the same mapping, with the gz suffix removed from the
+     *         destination names of compressed source files
+     */
+    public static Map<String, String> decompressedNames(
+            final Map<String, String> files) {
+        final Map<String, String> names = new LinkedHashMap<String, String>();
+        for (final Map.Entry<String, String> file : files.entrySet()) {
+            names.put(file.getKey(), isCompressed(file.getKey())
+                    ? decompressedName(file.getValue()) : file.getValue());
+        }
+        return names;
+    }
+
+    /**
+     * Wraps the stream of a compressed file to inflate it as it is read.
+     * Closing the returned stream closes the compressed stream.
+     *
+     * @param compressed
+     *            the stream of the remote file, closed if its gzip header
+     *            cannot be read
+     * @param bufferSize
+     *            the number of compressed bytes handed to the inflater at a
+     *            time, at least 512
+     * @return the inflated stream
+     * @throws IOException
+     *             if the stream does not start with a gzip header
+     */
+    public static InputStream inflate(final InputStream compressed,
+            final int bufferSize) throws IOException {
+        boolean inflating = false;
+        try {
+            final InputStream inflated = new GZIPInputStream(compressed,
+                    Math.max(MIN_BUFFER_SIZE, bufferSize));
+            inflating = true;
+            return inflated;
+        } finally {
+            if (!inflating) {
+                try {
+                    compressed.close();
+                } catch (final IOException e) {
+                    // the header error is reported
+                }
+            }
+        }
+    }
+
+}
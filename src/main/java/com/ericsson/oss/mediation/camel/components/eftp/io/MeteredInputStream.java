@@ -0,0 +1,109 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.io;
+
+import java.io.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.TransferMetrics;
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.TransferPhase;
+
+/**
+ * Body stream recording the time to the first byte read, the time until the
+ * stream is read to the end and the number of bytes read. Reads only update
+ * fields of the stream, the metrics are recorded once the first bytes arrive
+ * and once the stream is closed.
+ */
+public class MeteredInputStream extends FilterInputStream {
+
+    private final TransferMetrics metrics;
+    private final long requestedAt;
+    private long bytes;
+    private boolean firstByte;
+    private boolean complete;
+    private boolean closed;
+
+    /**
+     * @param stream
+     *            the stream of the remote file
+     * @param metrics
+     *            the metrics to record the transfer in
+     * @param requestedAt
+     *            the {@link System#nanoTime()} at which the file was
+     *            requested
+     */
+    public MeteredInputStream(final InputStream stream,
+            final TransferMetrics metrics, final long requestedAt) {
+        super(stream);
+        this.metrics = metrics;
+        this.requestedAt = requestedAt;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int value = super.read();
+        if (value == -1) {
+            complete = true;
+        } else {
+            read(1);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length)
+            throws IOException {
+        final int count = super.read(buffer, offset, length);
+        if (count == -1) {
+            complete = true;
+        } else {
+            read(count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(final long count) throws IOException {
+        final long skipped = super.skip(count);
+        read(skipped);
+        return skipped;
+    }
+
+    private void read(final long count) {
+        if (!firstByte && count > 0) {
+            firstByte = true;
+            metrics.record(TransferPhase.FIRST_BYTE, System.nanoTime()
+                    - requestedAt);
+        }
+        bytes += count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        metrics.recordBytes(bytes);
+        if (complete) {
+            metrics.record(TransferPhase.STREAM, System.nanoTime()
+                    - requestedAt);
+            metrics.recordFile();
+        }
+        super.close();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+}
@@ -0,0 +1,90 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.io;
+
+import java.io.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.PooledConnectionRelease;
+
+/**
+ * Body stream which releases the pooled connection it is read from as soon as
+ * it is read to the end or closed. The connection is returned to the pool if
+ * the underlying stream closed cleanly and invalidated otherwise.
+ */
+public class ReleasingInputStream extends FilterInputStream {
+
+    private final PooledConnectionRelease<?> release;
+    private boolean closed;
+
+    /**
+     * @param stream
+     *            the stream read from the pooled connection
+     * @param release
+     *            the release of the pooled connection
+     */
+    public ReleasingInputStream(final InputStream stream,
+            final PooledConnectionRelease<?> release) {
+        super(stream);
+        this.release = release;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (closed) {
+            return -1;
+        }
+        final int value = super.read();
+        if (value == -1) {
+            close();
+        }
+        return value;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length)
+            throws IOException {
+        if (closed) {
+            return -1;
+        }
+        final int count = super.read(buffer, offset, length);
+        if (count == -1) {
+            close();
+        }
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return closed ? 0 : super.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean clean = false;
+        try {
+            super.close();
+            clean = true;
+        } finally {
+            release.release(clean);
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+}
@@ -0,0 +1,335 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.io;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the regular files of a tar stream one after the other, as written by
+ * GNU tar, BSD tar or busybox tar. Long names are read from GNU long name
+ * and POSIX extended headers, directories, links and other entries are
+ * skipped.
+ */
+public class TarReader implements Closeable {
+
+    private static final int BLOCK = 512;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A regular file of the archive
+     */
+    public static final class Entry {
+
+        private final String name;
+        private final long size;
+
+        private Entry(final String name, final long size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        /**
+         * @return the path of the file as stored in the archive
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+    }
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK];
+
+    /**
+     * bytes of the current entry not read yet
+     */
+    private long remaining;
+
+    /**
+     * padding after the current entry up to the next block
+     */
+    private long padding;
+
+    private boolean end;
+
+    /**
+     * @param in
+     *            the tar stream
+     */
+    public TarReader(final InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Skips what is left of the current file and reads the header of the
+     * next one
+     *
+     * @return the next regular file, null at the end of the archive
+     */
+    public Entry next() throws IOException {
+        skipCurrent();
+        String longName = null;
+        long paxSize = -1;
+        while (!end) {
+            if (!readBlock(header)) {
+                end = true;
+                return null;
+            }
+            if (isZeroBlock(header)) {
+                end = true;
+                return null;
+            }
+            final byte type = header[156];
+            final long size = size(header);
+            if (type == 'L') {
+                longName = trimName(new String(readData(size), UTF8));
+                continue;
+            }
+            if (type == 'x') {
+                final String[] pax = pax(readData(size));
+                if (pax[0] != null) {
+                    longName = pax[0];
+                }
+                if (pax[1] != null) {
+                    paxSize = Long.parseLong(pax[1]);
+                }
+                continue;
+            }
+            final long entrySize = paxSize >= 0 ? paxSize : size;
+            remaining = entrySize;
+            padding = pad(entrySize);
+            if (type == '0' || type == 0 || type == '7') {
+                return new Entry(longName != null ? longName : name(header),
+                        entrySize);
+            }
+            // directory, link or global header, none has content to return
+            skipCurrent();
+            longName = null;
+            paxSize = -1;
+        }
+        return null;
+    }
+
+    /**
+     * @return the stream of the current file, ending with it. Closing it
+     *         does not close the archive.
+     */
+    public InputStream stream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                final int value = in.read();
+                if (value == -1) {
+                    throw new EOFException("Tar stream ended within a file");
+                }
+                remaining--;
+                return value;
+            }
+
+            @Override
+            public int read(final byte[] buffer, final int offset,
+                    final int length) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                final int count = in.read(buffer, offset,
+                        (int) Math.min(length, remaining));
+                if (count == -1) {
+                    throw new EOFException("Tar stream ended within a file");
+                }
+                remaining -= count;
+                return count;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(in.available(), remaining);
+            }
+
+            @Override
+            public void close() {
+                // the rest of the file is skipped by the next call to next
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void skipCurrent() throws IOException {
+        skipFully(remaining + padding);
+        remaining = 0;
+        padding = 0;
+    }
+
+    private byte[] readData(final long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Tar header of " + size + " bytes");
+        }
+        final byte[] data = new byte[(int) size];
+        readFully(data);
+        skipFully(pad(size));
+        return data;
+    }
+
+    private boolean readBlock(final byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            final int count = in.read(block, read, block.length - read);
+            if (count == -1) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("Tar stream ended within a header");
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    private void readFully(final byte[] data) throws IOException {
+        int read = 0;
+        while (read < data.length) {
+            final int count = in.read(data, read, data.length - read);
+            if (count == -1) {
+                throw new EOFException("Tar stream ended within a header");
+            }
+            read += count;
+        }
+    }
+
+    private void skipFully(final long count) throws IOException {
+        final byte[] buffer = new byte[BLOCK * 16];
+        long left = count;
+        while (left > 0) {
+            final int read = in.read(buffer, 0, (int) Math.min(buffer.length,
+                    left));
+            if (read == -1) {
+                throw new EOFException("Tar stream ended within a file");
+            }
+            left -= read;
+        }
+    }
+
+    private static long pad(final long size) {
+        return (BLOCK - size % BLOCK) % BLOCK;
+    }
+
+    private static boolean isZeroBlock(final byte[] block) {
+        for (final byte value : block) {
+            if (value != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the size field, octal or base-256 for files over 8 GiB
+     */
+    private static long size(final byte[] block) throws IOException {
+        if ((block[124] & 0x80) != 0) {
+            long size = 0;
+            for (int i = 125; i < 136; i++) {
+                size = (size << 8) | (block[i] & 0xff);
+            }
+            return size;
+        }
+        long size = 0;
+        for (int i = 124; i < 136; i++) {
+            final byte digit = block[i];
+            if (digit == 0 || digit == ' ') {
+                if (size > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (digit < '0' || digit > '7') {
+                throw new IOException("Invalid size in tar header");
+            }
+            size = (size << 3) + (digit - '0');
+        }
+        return size;
+    }
+
+    /**
+     * @return the name, prefixed by the ustar prefix if there is one
+     */
+    private static String name(final byte[] block) {
+        final String name = string(block, 0, 100);
+        final boolean posix = block[257] == 'u' && block[262] == 0;
+        if (posix && block[345] != 0) {
+            return string(block, 345, 155) + "/" + name;
+        }
+        return name;
+    }
+
+    private static String string(final byte[] block, final int offset,
+            final int length) {
+        int end = offset;
+        while (end < offset + length && block[end] != 0) {
+            end++;
+        }
+        return new String(block, offset, end - offset, UTF8);
+    }
+
+    private static String trimName(final String name) {
+        final int nul = name.indexOf(0);
+        return nul < 0 ? name : name.substring(0, nul);
+    }
+
+    /**
+     * @return the path and size of a POSIX extended header, null if absent
+     */
+    private static String[] pax(final byte[] data) {
+        final String[] values = new String[2];
+        int offset = 0;
+        while (offset < data.length) {
+            int space = offset;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            if (space >= data.length) {
+                break;
+            }
+            final int length = Integer.parseInt(new String(data, offset, space
+                    - offset, UTF8));
+            if (length <= 0 || offset + length > data.length) {
+                break;
+            }
+            final String record = new String(data, space + 1, offset + length
+                    - space - 2, UTF8);
+            final int equals = record.indexOf('=');
+            if (equals > 0) {
+                final String key = record.substring(0, equals);
+                if ("path".equals(key)) {
+                    values[0] = record.substring(equals + 1);
+                } else if ("size".equals(key)) {
+                    values[1] = record.substring(equals + 1);
+                }
+            }
+            offset += length;
+        }
+        return values;
+    }
+
+}
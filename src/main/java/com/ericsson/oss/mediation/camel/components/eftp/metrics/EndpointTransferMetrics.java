@@ -0,0 +1,191 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The transfer metrics of an endpoint and of each network element it has
+ * connected to, published in the platform MBean server as
+ * <code>com.ericsson.oss.mediation.camel.components.eftp:type=TransferMetrics,endpoint=&lt;uri&gt;,instance=&lt;n&gt;</code>
+ * with an additional <code>host=&lt;ip:port&gt;</code> key for each network
+ * element. The instance key tells apart endpoints of the same uri, such as
+ * those of two Camel contexts, numbering the metrics in creation order.
+ *
+ * <p>
+ * The metrics of a network element are looked up by every exchange, by ip
+ * address and then by port among the few ports of that address, so the
+ * lookup does not build a key.
+ * </p>
+ */
+public class EndpointTransferMetrics {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(EndpointTransferMetrics.class);
+
+    private static final String DOMAIN = "com.ericsson.oss.mediation.camel.components.eftp";
+
+    private static final AtomicLong INSTANCES = new AtomicLong();
+
+    private final String endpointName;
+    private final long instance = INSTANCES.incrementAndGet();
+    private final MBeanServer server;
+    private final TransferMetrics total = new TransferMetrics(null);
+    private final ConcurrentMap<String, Ports> hosts = new ConcurrentHashMap<String, Ports>();
+
+    /**
+     * The metrics of the network elements at one ip address, one per port
+     */
+    private static final class Ports {
+
+        private volatile int[] ports = new int[0];
+        private volatile TransferMetrics[] metrics = new TransferMetrics[0];
+
+        /**
+         * @return the metrics of the port, null if there are none yet
+         */
+        private TransferMetrics get(final int port) {
+            final TransferMetrics[] current = metrics;
+            final int[] known = ports;
+            for (int i = 0; i < current.length; i++) {
+                if (known[i] == port) {
+                    return current[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Adds the metrics of a port, the caller holding the lock of this
+         */
+        private void add(final int port, final TransferMetrics added) {
+            final int[] grownPorts = Arrays.copyOf(ports, ports.length + 1);
+            grownPorts[ports.length] = port;
+            final TransferMetrics[] grown = Arrays.copyOf(metrics,
+                    metrics.length + 1);
+            grown[metrics.length] = added;
+            // ports first, so a reader never sees more metrics than ports
+            ports = grownPorts;
+            metrics = grown;
+        }
+    }
+
+    /**
+     * Creates the metrics of the endpoint and registers its MBean
+     *
+     * @param endpointName
+     *            the uri of the endpoint
+     */
+    public EndpointTransferMetrics(final String endpointName) {
+        this(endpointName, ManagementFactory.getPlatformMBeanServer());
+    }
+
+    EndpointTransferMetrics(final String endpointName, final MBeanServer server) {
+        this.endpointName = endpointName;
+        this.server = server;
+        register(total, null);
+    }
+
+    /**
+     * @return the metrics of the network element, created and registered the
+     *         first time it is connected to
+     */
+    public TransferMetrics host(final String ipAddress, final int port) {
+        Ports ports = hosts.get(ipAddress);
+        if (ports == null) {
+            final Ports created = new Ports();
+            ports = hosts.putIfAbsent(ipAddress, created);
+            if (ports == null) {
+                ports = created;
+            }
+        }
+        final TransferMetrics metrics = ports.get(port);
+        return metrics != null ? metrics : add(ports, ipAddress, port);
+    }
+
+    private TransferMetrics add(final Ports ports, final String ipAddress,
+            final int port) {
+        synchronized (ports) {
+            TransferMetrics metrics = ports.get(port);
+            if (metrics == null) {
+                metrics = new TransferMetrics(total);
+                ports.add(port, metrics);
+                register(metrics, ipAddress + ":" + port);
+            }
+            return metrics;
+        }
+    }
+
+    /**
+     * @return the metrics of all transfers made by the endpoint
+     */
+    public TransferMetrics getTotal() {
+        return total;
+    }
+
+    /**
+     * Unregisters the MBeans of the endpoint and of its network elements
+     */
+    public void unregister() {
+        unregister(null);
+        for (final Map.Entry<String, Ports> host : hosts.entrySet()) {
+            for (final int port : host.getValue().ports) {
+                unregister(host.getKey() + ":" + port);
+            }
+        }
+        hosts.clear();
+    }
+
+    private void register(final TransferMetrics metrics, final String host) {
+        try {
+            server.registerMBean(metrics, objectName(host));
+        } catch (final Exception e) {
+            LOG.warn("Could not register transfer metrics of {}: {}",
+                    host == null ? endpointName : host, e.toString());
+        }
+    }
+
+    private void unregister(final String host) {
+        try {
+            final ObjectName name = objectName(host);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (final Exception e) {
+            LOG.debug("Could not unregister transfer metrics of {}: {}",
+                    host == null ? endpointName : host, e.toString());
+        }
+    }
+
+    private ObjectName objectName(final String host) throws Exception {
+        final StringBuilder name = new StringBuilder(DOMAIN)
+                .append(":type=TransferMetrics,endpoint=")
+                .append(ObjectName.quote(endpointName))
+                .append(",instance=").append(instance);
+        if (host != null) {
+            name.append(",host=").append(ObjectName.quote(host));
+        }
+        return new ObjectName(name.toString());
+    }
+
+}
@@ -0,0 +1,169 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of the transfers made by an endpoint, or
+ * by an endpoint from one network element. Everything recorded for a network
+ * element is also recorded for its endpoint.
+ */
+public class TransferMetrics implements TransferMetricsMXBean {
+
+    private final TransferMetrics parent;
+    private final LatencyHistogram[] phases = new LatencyHistogram[TransferPhase
+            .values().length];
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * @param parent
+     *            the metrics to also record everything in, may be null
+     */
+    public TransferMetrics(final TransferMetrics parent) {
+        this.parent = parent;
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param phase
+     *            the phase of the transfer
+     * @param nanos
+     *            the duration of the phase in nanoseconds
+     */
+    public void record(final TransferPhase phase, final long nanos) {
+        phases[phase.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (parent != null) {
+            parent.record(phase, nanos);
+        }
+    }
+
+    /**
+     * Counts a file read to the end
+     */
+    public void recordFile() {
+        files.incrementAndGet();
+        if (parent != null) {
+            parent.recordFile();
+        }
+    }
+
+    /**
+     * @param count
+     *            the number of bytes read
+     */
+    public void recordBytes(final long count) {
+        bytes.addAndGet(count);
+        if (parent != null) {
+            parent.recordBytes(count);
+        }
+    }
+
+    /**
+     * @param category
+     *            the JSch error category or FTP reply code of the failure
+     */
+    public void recordError(final String category) {
+        AtomicLong counter = errors.get(category);
+        if (counter == null) {
+            final AtomicLong created = new AtomicLong();
+            counter = errors.putIfAbsent(category, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+        if (parent != null) {
+            parent.recordError(category);
+        }
+    }
+
+    /**
+     * @return the histogram of the phase
+     */
+    public LatencyHistogram getHistogram(final TransferPhase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    @Override
+    public long getFiles() {
+        return files.get();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        final Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (final Map.Entry<String, AtomicLong> entry : errors.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    @Override
+    public Map<String, Long> getBorrowLatency() {
+        return summary(TransferPhase.BORROW);
+    }
+
+    @Override
+    public Map<String, Long> getFirstByteLatency() {
+        return summary(TransferPhase.FIRST_BYTE);
+    }
+
+    @Override
+    public Map<String, Long> getStreamLatency() {
+        return summary(TransferPhase.STREAM);
+    }
+
+    @Override
+    public Map<String, Long> getReturnLatency() {
+        return summary(TransferPhase.RETURN);
+    }
+
+    @Override
+    public void reset() {
+        for (final LatencyHistogram histogram : phases) {
+            histogram.reset();
+        }
+        files.set(0);
+        bytes.set(0);
+        errors.clear();
+    }
+
+    private Map<String, Long> summary(final TransferPhase phase) {
+        final LatencyHistogram histogram = getHistogram(phase);
+        final Map<String, Long> summary = new LinkedHashMap<String, Long>();
+        summary.put("count", histogram.getCount());
+        summary.put("mean", histogram.getMean());
+        summary.put("p50", histogram.getPercentile(50));
+        summary.put("p90", histogram.getPercentile(90));
+        summary.put("p99", histogram.getPercentile(99));
+        summary.put("p999", histogram.getPercentile(99.9));
+        summary.put("max", histogram.getMax());
+        return summary;
+    }
+
+}
@@ -0,0 +1,52 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the transfer metrics of an endpoint or of one
+ * network element. Latencies are summarised as count, mean, 50th, 90th, 99th
+ * and 99.9th percentile and max, in microseconds.
+ */
+public interface TransferMetricsMXBean {
+
+    /**
+     * @return the number of files read to the end
+     */
+    long getFiles();
+
+    /**
+     * @return the number of bytes read, including those of failed transfers
+     */
+    long getBytes();
+
+    /**
+     * @return the number of failed exchanges by JSch error category or FTP
+     *         reply code
+     */
+    Map<String, Long> getErrors();
+
+    Map<String, Long> getBorrowLatency();
+
+    Map<String, Long> getFirstByteLatency();
+
+    Map<String, Long> getStreamLatency();
+
+    Map<String, Long> getReturnLatency();
+
+    /**
+     * Clears all counters and histograms
+     */
+    void reset();
+
+}
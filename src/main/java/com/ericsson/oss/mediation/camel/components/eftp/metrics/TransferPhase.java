@@ -0,0 +1,40 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.metrics;
+
+/**
+ * The phases of a file transfer timed by {@link TransferMetrics}
+ */
+public enum TransferPhase {
+
+    /**
+     * borrowing the connection from the pool, including the TCP connect, SSH
+     * handshake and login when the pool has no idle connection for the key
+     */
+    BORROW,
+
+    /**
+     * from requesting the file until its first bytes are read
+     */
+    FIRST_BYTE,
+
+    /**
+     * from requesting the file until it has been read to the end
+     */
+    STREAM,
+
+    /**
+     * returning or invalidating the connection
+     */
+    RETURN
+
+}
@@ -0,0 +1,77 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.poll;
+
+/**
+ * A file listed in a remote directory, with the attributes used to tell
+ * whether it has changed since it was last collected
+ */
+public final class RemoteFile {
+
+    private final String name;
+    private final long size;
+    private final long lastModified;
+
+    /**
+     * @param name
+     *            the name of the file in its directory
+     * @param size
+     *            the size of the file in bytes
+     * @param lastModified
+     *            the modification time of the file in milliseconds, as
+     *            precise as the server reports it
+     */
+    public RemoteFile(final String name, final long size,
+            final long lastModified) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof RemoteFile)) {
+            return false;
+        }
+        final RemoteFile file = (RemoteFile) other;
+        return name.equals(file.name) && size == file.size
+                && lastModified == file.lastModified;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = name.hashCode();
+        result = 31 * result + (int) (size ^ (size >>> 32));
+        return 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + size + " bytes, modified " + lastModified + ")";
+    }
+
+}
@@ -0,0 +1,255 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.poll;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The files of one remote directory which have already been collected, with
+ * the size and modification time they had when they were, so that a poll
+ * only emits the files which are new or have changed since.
+ *
+ * <p>
+ * The index is held in memory and persisted as a journal: every file
+ * collected and every file which has disappeared from the directory appends
+ * one line, so a poll writes in proportion to the changes it finds rather
+ * than to the size of the directory. The journal is compacted once
+ * superseded lines outnumber the files indexed, when it is opened or as it is
+ * appended to, and when it is opened if its last line was cut short.
+ * </p>
+ *
+ * <p>
+ * An index is used by one poll at a time and is not thread safe.
+ * </p>
+ */
+public class RemoteFileIndex implements Closeable {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(RemoteFileIndex.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Comparator<RemoteFile> OLDEST_FIRST = new Comparator<RemoteFile>() {
+        @Override
+        public int compare(final RemoteFile first, final RemoteFile second) {
+            if (first.getLastModified() != second.getLastModified()) {
+                return first.getLastModified() < second.getLastModified() ? -1
+                        : 1;
+            }
+            return first.getName().compareTo(second.getName());
+        }
+    };
+
+    private final File journal;
+    private final Map<String, RemoteFile> files = new HashMap<String, RemoteFile>();
+    private Writer writer;
+    private int lines;
+    private boolean corrupt;
+
+    /**
+     * @param journal
+     *            the file the index is persisted in, created along with its
+     *            directory if it does not exist
+     */
+    public RemoteFileIndex(final File journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Loads the index from its journal, compacting the journal if most of it
+     * is superseded
+     */
+    public void open() throws IOException {
+        files.clear();
+        lines = 0;
+        corrupt = false;
+        if (journal.isFile()) {
+            load();
+        } else if (!journal.getParentFile().isDirectory()
+                && !journal.getParentFile().mkdirs()) {
+            throw new IOException("Could not create index directory "
+                    + journal.getParentFile());
+        }
+        if (corrupt || lines > 2 * files.size() + 64) {
+            compact();
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(journal, true), UTF8));
+    }
+
+    /**
+     * @param listing
+     *            the files currently in the directory
+     * @return the files of the listing which are not indexed, or whose size
+     *         or modification time differ from the indexed ones, oldest first
+     */
+    public List<RemoteFile> changes(final Collection<RemoteFile> listing) {
+        final List<RemoteFile> changes = new ArrayList<RemoteFile>();
+        for (final RemoteFile file : listing) {
+            if (!file.equals(files.get(file.getName()))) {
+                changes.add(file);
+            }
+        }
+        Collections.sort(changes, OLDEST_FIRST);
+        return changes;
+    }
+
+    /**
+     * Records that the file has been collected
+     */
+    public void collected(final RemoteFile file) throws IOException {
+        files.put(file.getName(), file);
+        append("+ " + file.getSize() + " " + file.getLastModified() + " "
+                + file.getName());
+    }
+
+    /**
+     * Forgets the indexed files which are no longer in the directory, so that
+     * a file of the same name created later is collected again
+     *
+     * @param listing
+     *            the files currently in the directory
+     * @return the number of files forgotten
+     */
+    public int retain(final Collection<RemoteFile> listing) throws IOException {
+        if (files.size() <= listing.size() && containsAll(listing)) {
+            return 0;
+        }
+        final Set<String> names = new HashSet<String>(listing.size() * 2);
+        for (final RemoteFile file : listing) {
+            names.add(file.getName());
+        }
+        int removed = 0;
+        for (final Iterator<String> it = files.keySet().iterator(); it
+                .hasNext();) {
+            final String name = it.next();
+            if (!names.contains(name)) {
+                it.remove();
+                append("- " + name);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return true if every indexed file is in the listing, given that the
+     *         listing has at least as many files as the index
+     */
+    private boolean containsAll(final Collection<RemoteFile> listing) {
+        int indexed = 0;
+        for (final RemoteFile file : listing) {
+            if (files.containsKey(file.getName())) {
+                indexed++;
+            }
+        }
+        return indexed == files.size();
+    }
+
+    /**
+     * @return the indexed file of the given name, null if it is not indexed
+     */
+    public RemoteFile get(final String name) {
+        return files.get(name);
+    }
+
+    /**
+     * @return the number of files indexed
+     */
+    public int size() {
+        return files.size();
+    }
+
+    public File getJournal() {
+        return journal;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private void append(final String line) throws IOException {
+        if (writer == null) {
+            throw new IOException("Index " + journal + " is not open");
+        }
+        writer.write(line);
+        writer.write('\n');
+        writer.flush();
+        lines++;
+        if (lines > 2 * files.size() + 64) {
+            writer.close();
+            writer = null;
+            compact();
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(journal, true), UTF8));
+        }
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journal), UTF8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                if (line.startsWith("+ ")) {
+                    final String[] fields = line.split(" ", 4);
+                    if (fields.length == 4) {
+                        try {
+                            files.put(fields[3], new RemoteFile(fields[3],
+                                    Long.parseLong(fields[1]),
+                                    Long.parseLong(fields[2])));
+                            continue;
+                        } catch (final NumberFormatException e) {
+                            // reported below
+                        }
+                    }
+                } else if (line.startsWith("- ")) {
+                    files.remove(line.substring(2));
+                    continue;
+                }
+                // a line cut short by a crash, the file is collected again
+                corrupt = true;
+                LOG.warn("Ignoring corrupt line {} of index {}", lines,
+                        journal);
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        final File compacted = new File(journal.getParentFile(),
+                journal.getName() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(compacted), UTF8))) {
+            for (final RemoteFile file : files.values()) {
+                out.write("+ " + file.getSize() + " " + file.getLastModified()
+                        + " " + file.getName() + "\n");
+            }
+        }
+        if (!journal.delete() || !compacted.renameTo(journal)) {
+            throw new IOException("Could not replace index " + journal
+                    + " with its compacted copy");
+        }
+        LOG.debug("Compacted index {} from {} to {} lines", new Object[] {
+                journal, lines, files.size() });
+        lines = files.size();
+    }
+
+}
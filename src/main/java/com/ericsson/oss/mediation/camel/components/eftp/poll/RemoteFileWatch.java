@@ -0,0 +1,374 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.poll;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.KeyedConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EftpUtilities;
+import com.jcraft.jsch.*;
+
+/**
+ * Discovers files as soon as a network element closes them, by running a
+ * watcher such as inotifywait over an SSH exec channel and reading the path
+ * of every closed file from its output, one per line.
+ *
+ * <p>
+ * The exec channel is opened on the JSch session of an SFTP channel borrowed
+ * from the pool, so the watch costs no further login. The SFTP channel is
+ * returned to the pool as soon as the exec channel is open, so the watch
+ * holds no connection of the pool while it runs. The session stays open
+ * with the channel in the pool; if the pool destroys that channel, the
+ * session and the watch end with it and the watch is restarted.
+ * </p>
+ *
+ * <p>
+ * The thread running the watch only reads the output of the watcher. The
+ * files reported are handed to the dispatcher, which stats each of them on
+ * a channel borrowed for the purpose and reports it to the listener. A file
+ * reported again before it was dispatched is dispatched once.
+ * </p>
+ *
+ * <p>
+ * If the server refuses the exec channel, or the watcher exits with a
+ * failure before reporting anything, for instance because it is not
+ * installed, the watch reports itself unavailable and stops, leaving
+ * discovery to listing. A watch which ends after having run is restarted
+ * after the retry delay.
+ * </p>
+ */
+public class RemoteFileWatch implements Runnable {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(RemoteFileWatch.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives the files discovered by a {@link RemoteFileWatch}
+     */
+    public interface Listener {
+
+        /**
+         * @param directory
+         *            the watched directory the file is in, as configured
+         * @param file
+         *            the file closed by the network element
+         */
+        void fileClosed(String directory, RemoteFile file);
+
+        /**
+         * The watch could not be started and has stopped
+         *
+         * @param reason
+         *            why the watch is unavailable
+         */
+        void watchUnavailable(String reason);
+    }
+
+    private final KeyedConnectionPool<ChannelSftp> pool;
+    private final ConnectionConfig key;
+    private final String command;
+    private final List<String> directories;
+    private final Listener listener;
+    private final Executor dispatcher;
+    private final long retryDelay;
+    private final int connectTimeout;
+
+    private volatile boolean running = true;
+    private volatile Channel exec;
+
+    /**
+     * The directory of every file waiting to be dispatched, by path
+     */
+    private final Map<String, String> pending = new LinkedHashMap<String, String>();
+    private boolean dispatching;
+
+    private final Runnable dispatch = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPending();
+        }
+    };
+
+    /**
+     * @param pool
+     *            the pool to borrow the SFTP channel from
+     * @param key
+     *            the key of the network element
+     * @param command
+     *            the watcher command, printing the path of every closed file
+     *            on a line of its own, to which the quoted directories are
+     *            appended
+     * @param directories
+     *            the remote directories to watch
+     * @param listener
+     *            receives the discovered files
+     * @param dispatcher
+     *            runs the stat of the discovered files and the listener,
+     *            off the thread running the watch
+     * @param retryDelay
+     *            the time in milliseconds after which a watch which ended is
+     *            restarted
+     * @param connectTimeout
+     *            the time in milliseconds to wait for the exec channel to
+     *            open
+     */
+    public RemoteFileWatch(final KeyedConnectionPool<ChannelSftp> pool,
+            final ConnectionConfig key, final String command,
+            final List<String> directories, final Listener listener,
+            final Executor dispatcher, final long retryDelay,
+            final int connectTimeout) {
+        this.pool = pool;
+        this.key = key;
+        this.command = command;
+        this.directories = directories;
+        this.listener = listener;
+        this.dispatcher = dispatcher;
+        this.retryDelay = retryDelay;
+        this.connectTimeout = connectTimeout;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (!watch()) {
+                    return;
+                }
+            } catch (final Exception e) {
+                LOG.warn("Watch of {} ended: {}", key, e.toString());
+            }
+            try {
+                Thread.sleep(retryDelay);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops the watch, closing its exec channel
+     */
+    public void stop() {
+        running = false;
+        final Channel channel = exec;
+        if (channel != null) {
+            channel.disconnect();
+        }
+    }
+
+    /**
+     * @return the command run on the network element
+     */
+    public String getRemoteCommand() {
+        final StringBuilder remoteCommand = new StringBuilder(command);
+        for (final String directory : directories) {
+            remoteCommand.append(' ').append(
+                    EftpUtilities.shellQuote(directory));
+        }
+        return remoteCommand.toString();
+    }
+
+    /**
+     * Runs the watcher until it ends
+     *
+     * @return false if the watch is unavailable and must not be retried
+     */
+    private boolean watch() throws Exception {
+        final ChannelExec channel;
+        final InputStream output;
+        final ChannelSftp sftp = pool.borrowObject(key);
+        boolean reusable = false;
+        try {
+            channel = (ChannelExec) sftp.getSession().openChannel("exec");
+            channel.setCommand(getRemoteCommand());
+            output = channel.getInputStream();
+            reusable = true;
+            try {
+                channel.connect(connectTimeout);
+            } catch (final JSchException e) {
+                listener.watchUnavailable("exec channel refused: "
+                        + e.getMessage());
+                return false;
+            }
+        } finally {
+            // the exec channel only needs the session
+            if (reusable) {
+                pool.returnObject(key, sftp);
+            } else {
+                pool.invalidateObject(key, sftp);
+            }
+        }
+        exec = channel;
+        LOG.info("Watching {} on {}", directories, key);
+        final int events;
+        try {
+            events = readEvents(output);
+        } finally {
+            exec = null;
+            channel.disconnect();
+        }
+        final int status = channel.getExitStatus();
+        if (running && events == 0 && status > 0) {
+            listener.watchUnavailable("watcher exited with status " + status);
+            return false;
+        }
+        LOG.debug("Watch of {} ended with status {} after {} events",
+                new Object[] { key, status, events });
+        return true;
+    }
+
+    /**
+     * @return the number of files reported by the watcher
+     */
+    private int readEvents(final InputStream output) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                output, UTF8));
+        int events = 0;
+        String path;
+        while (running && (path = reader.readLine()) != null) {
+            final int slash = path.lastIndexOf('/');
+            final String directory = slash < 0 ? null : watchedDirectory(path
+                    .substring(0, slash));
+            if (directory == null) {
+                LOG.debug("Ignoring watch event {}", path);
+                continue;
+            }
+            events++;
+            enqueue(path, directory);
+        }
+        return events;
+    }
+
+    /**
+     * Hands a reported file to the dispatcher, unless it is already waiting
+     * for it
+     */
+    private void enqueue(final String path, final String directory) {
+        final boolean schedule;
+        synchronized (pending) {
+            pending.put(path, directory);
+            schedule = !dispatching;
+            dispatching = true;
+        }
+        if (schedule) {
+            try {
+                dispatcher.execute(dispatch);
+            } catch (final RejectedExecutionException e) {
+                // shutting down, listing will catch up
+                synchronized (pending) {
+                    pending.clear();
+                    dispatching = false;
+                }
+                LOG.debug("Dropped watch event {}: {}", path, e.toString());
+            }
+        }
+    }
+
+    private void dispatchPending() {
+        while (running) {
+            final String path;
+            final String directory;
+            synchronized (pending) {
+                final Iterator<Map.Entry<String, String>> next = pending
+                        .entrySet().iterator();
+                if (!next.hasNext()) {
+                    dispatching = false;
+                    return;
+                }
+                final Map.Entry<String, String> entry = next.next();
+                path = entry.getKey();
+                directory = entry.getValue();
+                next.remove();
+            }
+            dispatch(path, directory);
+        }
+        synchronized (pending) {
+            pending.clear();
+            dispatching = false;
+        }
+    }
+
+    private void dispatch(final String path, final String directory) {
+        final SftpATTRS attrs;
+        try {
+            attrs = stat(path);
+        } catch (final SftpException e) {
+            // removed or renamed again since, listing will catch up
+            LOG.debug("Could not stat {}: {}", path, e.toString());
+            return;
+        } catch (final Exception e) {
+            LOG.warn("Could not stat {} on {}: {}", new Object[] { path, key,
+                    e.toString() });
+            return;
+        }
+        if (!attrs.isDir()) {
+            listener.fileClosed(directory, new RemoteFile(path.substring(path
+                    .lastIndexOf('/') + 1), attrs.getSize(),
+                    attrs.getMTime() * 1000L));
+        }
+    }
+
+    private SftpATTRS stat(final String path) throws Exception {
+        final ChannelSftp sftp = pool.borrowObject(key);
+        boolean reusable = false;
+        try {
+            final SftpATTRS attrs;
+            try {
+                attrs = sftp.stat(path);
+            } catch (final SftpException e) {
+                reusable = true;
+                throw e;
+            }
+            reusable = true;
+            return attrs;
+        } finally {
+            if (reusable) {
+                pool.returnObject(key, sftp);
+            } else {
+                pool.invalidateObject(key, sftp);
+            }
+        }
+    }
+
+    /**
+     * @return the configured directory the parent path reported by the
+     *         watcher stands for, null if it is none of them
+     */
+    private String watchedDirectory(final String parent) {
+        for (final String directory : directories) {
+            if (trimSlashes(directory).equals(trimSlashes(parent))) {
+                return directory;
+            }
+        }
+        return null;
+    }
+
+    private static String trimSlashes(final String path) {
+        int end = path.length();
+        while (end > 1 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(0, end);
+    }
+
+}
@@ -0,0 +1,120 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A contiguous range of bytes of a remote file, fetched independently of the
+ * other ranges of the file and written at its own position in the local copy.
+ */
+public final class ByteRange {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long offset;
+    private final long length;
+
+    /**
+     * @param offset
+     *            the position of the first byte of the range in the file
+     * @param length
+     *            the number of bytes in the range
+     */
+    public ByteRange(final long offset, final long length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Splits a file into ranges of equal length, the last range taking the
+     * remainder
+     *
+     * @param size
+     *            the size of the file in bytes
+     * @param count
+     *            the maximum number of ranges
+     * @return the ranges in file order, fewer than count if the file has
+     *         fewer bytes
+     */
+    public static List<ByteRange> split(final long size, final int count) {
+        final int ranges = (int) Math.max(1, Math.min(count, size));
+        final long length = size / ranges;
+        final List<ByteRange> result = new ArrayList<ByteRange>(ranges);
+        for (int i = 0; i < ranges; i++) {
+            final long offset = i * length;
+            result.add(new ByteRange(offset, i == ranges - 1 ? size - offset
+                    : length));
+        }
+        return result;
+    }
+
+    /**
+     * Copies the range from a stream positioned at its first byte into the
+     * file at the same position. The stream is not closed.
+     *
+     * @param in
+     *            stream of the remote file starting at the offset of the range
+     * @param out
+     *            channel of the local copy of the file
+     * @return the number of bytes copied
+     * @throws EOFException
+     *             if the stream ends before the end of the range
+     */
+    public long copyTo(final InputStream in, final FileChannel out)
+            throws IOException {
+        final byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE,
+                Math.max(1, length))];
+        long position = offset;
+        long remaining = length;
+        while (remaining > 0) {
+            final int count = in.read(buffer, 0,
+                    (int) Math.min(buffer.length, remaining));
+            if (count == -1) {
+                throw new EOFException("Stream ended " + remaining
+                        + " bytes before the end of " + this);
+            }
+            final ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+            while (data.hasRemaining()) {
+                position += out.write(data, position);
+            }
+            remaining -= count;
+        }
+        return length;
+    }
+
+    /**
+     * @return the position of the first byte of the range in the file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes in the range
+     */
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "bytes " + offset + "-" + (offset + length - 1);
+    }
+
+}
@@ -0,0 +1,183 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+/**
+ * Remembers the downloads which were interrupted, so that a retry of the same
+ * file from the same network element continues from the bytes already on
+ * disk rather than fetching the whole file again.
+ *
+ * <p>
+ * Each checkpoint is a small properties file in the store directory, named
+ * after a digest of the address, port and user of the network element and
+ * the remote path, recording the remote path, the size and modification
+ * time of the remote file when the download started and the partial file
+ * holding the bytes received so far. The offset to resume from is the length
+ * of the partial file, which is always consistent with what was written, and
+ * only if the remote file has neither grown nor been replaced since and the
+ * bytes are to be appended to that same partial file.
+ * </p>
+ */
+public class CheckpointStore {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(CheckpointStore.class);
+
+    private static final String REMOTE_PATH = "remotePath";
+    private static final String REMOTE_SIZE = "remoteSize";
+    private static final String REMOTE_MODIFIED = "remoteModified";
+    private static final String PARTIAL_FILE = "partialFile";
+
+    private final File directory;
+
+    /**
+     * @param directory
+     *            the directory holding the checkpoints, created if it does not
+     *            exist
+     */
+    public CheckpointStore(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param key
+     *            the key of the connection to the network element
+     * @param remotePath
+     *            the path of the remote file
+     * @param remoteSize
+     *            the current size of the remote file
+     * @param remoteModified
+     *            the current modification time of the remote file in
+     *            milliseconds
+     * @param partial
+     *            the partial file the download will append to
+     * @return the number of bytes of the file already in the partial file, 0
+     *         if there is no checkpoint for the file, the size or
+     *         modification time of the remote file has changed since the
+     *         download was interrupted or the interrupted download was
+     *         written to another partial file
+     */
+    public long resumeOffset(final ConnectionConfig key,
+            final String remotePath, final long remoteSize,
+            final long remoteModified, final File partial) {
+        final File checkpoint = checkpointFile(key, remotePath);
+        if (!checkpoint.isFile()) {
+            return 0;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(checkpoint)) {
+            properties.load(in);
+        } catch (final IOException e) {
+            LOG.warn("Could not read checkpoint {}: {}", checkpoint,
+                    e.toString());
+            return 0;
+        }
+        if (!remotePath.equals(properties.getProperty(REMOTE_PATH))
+                || !partial.getAbsolutePath().equals(
+                        properties.getProperty(PARTIAL_FILE))
+                || !String.valueOf(remoteSize).equals(
+                        properties.getProperty(REMOTE_SIZE))
+                || !String.valueOf(remoteModified).equals(
+                        properties.getProperty(REMOTE_MODIFIED))
+                || !partial.isFile() || partial.length() > remoteSize) {
+            LOG.debug("Discarding stale checkpoint of {}", remotePath);
+            return 0;
+        }
+        return partial.length();
+    }
+
+    /**
+     * Records that the file is being downloaded to the partial file
+     *
+     * @param key
+     *            the key of the connection to the network element
+     * @param remotePath
+     *            the path of the remote file
+     * @param remoteSize
+     *            the size of the remote file
+     * @param remoteModified
+     *            the modification time of the remote file in milliseconds
+     * @param partial
+     *            the file receiving the bytes of the remote file
+     */
+    public void save(final ConnectionConfig key, final String remotePath,
+            final long remoteSize, final long remoteModified,
+            final File partial) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create checkpoint directory "
+                    + directory);
+        }
+        final Properties properties = new Properties();
+        properties.setProperty(REMOTE_PATH, remotePath);
+        properties.setProperty(REMOTE_SIZE, String.valueOf(remoteSize));
+        properties.setProperty(REMOTE_MODIFIED, String.valueOf(remoteModified));
+        properties.setProperty(PARTIAL_FILE, partial.getAbsolutePath());
+        try (OutputStream out = new FileOutputStream(checkpointFile(key,
+                remotePath))) {
+            properties.store(out, null);
+        }
+    }
+
+    /**
+     * Forgets the checkpoint of a file once it has been downloaded completely
+     *
+     * @param key
+     *            the key of the connection to the network element
+     * @param remotePath
+     *            the path of the remote file
+     */
+    public void remove(final ConnectionConfig key, final String remotePath) {
+        final File checkpoint = checkpointFile(key, remotePath);
+        if (checkpoint.exists() && !checkpoint.delete()) {
+            LOG.warn("Could not delete checkpoint {}", checkpoint);
+        }
+    }
+
+    /**
+     * @return the directory holding the checkpoints
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    private File checkpointFile(final ConnectionConfig key,
+            final String remotePath) {
+        final String name = key.getIpAddress() + ":" + key.getPort() + ":"
+                + key.getUsername() + ":" + remotePath;
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(
+                    name.getBytes(StandardCharsets.UTF_8));
+        } catch (final NoSuchAlgorithmException e) {
+            // every Java platform provides SHA-1
+            throw new IllegalStateException(e);
+        }
+        final StringBuilder hex = new StringBuilder(digest.length * 2 + 11);
+        for (final byte b : digest) {
+            hex.append(Character.forDigit(b >> 4 & 0xf, 16)).append(
+                    Character.forDigit(b & 0xf, 16));
+        }
+        return new File(directory, hex.append(".checkpoint").toString());
+    }
+
+}
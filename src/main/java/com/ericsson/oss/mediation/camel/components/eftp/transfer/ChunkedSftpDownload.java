@@ -0,0 +1,171 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EftpUtilities;
+import com.jcraft.jsch.*;
+
+/**
+ * Downloads a large remote file as several byte ranges fetched concurrently,
+ * each over its own SFTP channel, and writes every range at its position in
+ * the local file.
+ *
+ * <p>
+ * The last range is fetched on the calling thread over the borrowed channel,
+ * so that its stream is read to the end and the channel is left in a clean
+ * state for the pool. The other ranges are fetched on the given executor over
+ * additional channels opened on the session of the borrowed channel, which
+ * are disconnected once their range is written. The number of channels is
+ * limited by the server, e.g. by MaxSessions on OpenSSH, and by the caller to
+ * the sessions it was admitted to the network element for the additional
+ * channels. No further connection is opened to the network element.
+ * </p>
+ */
+public class ChunkedSftpDownload {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(ChunkedSftpDownload.class);
+
+    private final ChannelSftp channel;
+    private final String source;
+    private final int channels;
+    private final ExecutorService executor;
+
+    /**
+     * @param channel
+     *            the borrowed channel
+     * @param source
+     *            the path of the remote file
+     * @param channels
+     *            the number of channels to fetch the file over, including the
+     *            borrowed channel, at most one more than the sessions
+     *            admitted for the additional channels
+     * @param executor
+     *            the executor fetching the ranges over the additional channels
+     */
+    public ChunkedSftpDownload(final ChannelSftp channel, final String source,
+            final int channels, final ExecutorService executor) {
+        this.channel = channel;
+        this.source = source;
+        this.channels = channels;
+        this.executor = executor;
+    }
+
+    /**
+     * Downloads the remote file to the destination, replacing its content.
+     * The destination is deleted if the download fails.
+     *
+     * @param destination
+     *            the local file
+     * @param size
+     *            the size of the remote file in bytes
+     * @return the number of bytes downloaded
+     */
+    public long transferTo(final File destination, final long size)
+            throws GenericEftpException {
+        final List<ByteRange> ranges = ByteRange.split(size, channels);
+        LOG.debug("Downloading {} to {} as {} ranges", new Object[] { source,
+                destination, ranges.size() });
+        final File parent = destination.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new GenericEftpException(-1, "Could not create directory "
+                    + parent);
+        }
+        boolean complete = false;
+        try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+            file.setLength(size);
+            final FileChannel out = file.getChannel();
+            final List<Future<Long>> pending = new ArrayList<Future<Long>>();
+            try {
+                for (final ByteRange range : ranges.subList(0,
+                        ranges.size() - 1)) {
+                    pending.add(executor.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws Exception {
+                            return fetchOverNewChannel(range, out);
+                        }
+                    }));
+                }
+                fetch(channel, ranges.get(ranges.size() - 1), out);
+                for (final Future<Long> range : pending) {
+                    range.get();
+                }
+                complete = true;
+                return size;
+            } finally {
+                if (!complete) {
+                    for (final Future<Long> range : pending) {
+                        range.cancel(true);
+                    }
+                }
+            }
+        } catch (final ExecutionException e) {
+            throw failure(e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure(e);
+        } catch (final Exception e) {
+            throw failure(e);
+        } finally {
+            if (!complete && destination.exists() && !destination.delete()) {
+                LOG.warn("Could not delete incomplete download {}",
+                        destination);
+            }
+        }
+    }
+
+    private long fetchOverNewChannel(final ByteRange range,
+            final FileChannel out) throws JSchException, SftpException,
+            IOException {
+        final ChannelSftp extra = (ChannelSftp) channel.getSession()
+                .openChannel("sftp");
+        try {
+            extra.connect();
+            return fetch(extra, range, out);
+        } finally {
+            extra.disconnect();
+        }
+    }
+
+    private long fetch(final ChannelSftp over, final ByteRange range,
+            final FileChannel out) throws SftpException, IOException {
+        try (InputStream in = over.get(source, null, range.getOffset())) {
+            return range.copyTo(in, out);
+        }
+    }
+
+    private GenericEftpException failure(final Throwable cause) {
+        final String description = "Chunked download of the file {" + source
+                + "} failed: " + cause;
+        if (cause instanceof GenericEftpException) {
+            return (GenericEftpException) cause;
+        }
+        if (cause instanceof SftpException) {
+            return new GenericEftpException(
+                    EftpUtilities
+                            .extractSftpErrorCodeException((SftpException) cause),
+                    description, cause);
+        }
+        return new GenericEftpException(description, cause);
+    }
+
+}
@@ -0,0 +1,130 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the stream of a remote file straight into the destination file
+ * through a {@link FileChannel}, so the exchange can carry a {@link File}
+ * instead of a stream that a file endpoint would copy again.
+ *
+ * <p>
+ * The stream is read straight into an array of the configured buffer size,
+ * which is wrapped and written to the file channel, so each read is as large
+ * as the buffer allows and no copy is made in between. The array belongs to
+ * the copy and is not kept once it ends.
+ * </p>
+ */
+public final class DirectToDiskTransfer {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(DirectToDiskTransfer.class);
+
+    private static final int MIN_BUFFER_SIZE = 8192;
+
+    private DirectToDiskTransfer() {
+    }
+
+    /**
+     * Copies the stream to the destination, replacing its content, and
+     * closes the stream. The destination is deleted if the copy fails.
+     *
+     * @param in
+     *            the stream of the remote file
+     * @param destination
+     *            the local file
+     * @param bufferSize
+     *            the size in bytes of the buffer, at least 8 KiB
+     * @return the number of bytes written
+     */
+    public static long copy(final InputStream in, final File destination,
+            final int bufferSize) throws IOException {
+        boolean complete = false;
+        try {
+            final long written = write(in, destination, bufferSize, false);
+            complete = true;
+            return written;
+        } finally {
+            if (!complete && destination.exists() && !destination.delete()) {
+                LOG.warn("Could not delete incomplete download {}",
+                        destination);
+            }
+        }
+    }
+
+    /**
+     * Appends the stream to the end of a partially downloaded file and
+     * closes the stream. What was written is kept if the copy fails, so the
+     * download can be resumed.
+     *
+     * @param in
+     *            the stream of the remote file, positioned at the length of
+     *            the partial file
+     * @param partial
+     *            the partially downloaded file
+     * @param bufferSize
+     *            the size in bytes of the buffer, at least 8 KiB
+     * @return the number of bytes appended
+     */
+    public static long append(final InputStream in, final File partial,
+            final int bufferSize) throws IOException {
+        return write(in, partial, bufferSize, true);
+    }
+
+    private static long write(final InputStream in, final File destination,
+            final int bufferSize, final boolean append) throws IOException {
+        final File parent = destination.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            in.close();
+            throw new IOException("Could not create directory " + parent);
+        }
+        boolean complete = false;
+        long written = 0;
+        try (FileOutputStream out = new FileOutputStream(destination, append)) {
+            final FileChannel to = out.getChannel();
+            final byte[] buffer = new byte[Math.max(MIN_BUFFER_SIZE,
+                    bufferSize)];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                final ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+                while (data.hasRemaining()) {
+                    written += to.write(data);
+                }
+            }
+            // closing the stream confirms the transfer with the server
+            in.close();
+            complete = true;
+        } finally {
+            if (!complete) {
+                closeQuietly(in);
+            }
+        }
+        LOG.debug("Wrote {} bytes to {}", written, destination);
+        return written;
+    }
+
+    private static void closeQuietly(final InputStream in) {
+        try {
+            in.close();
+        } catch (final IOException e) {
+            LOG.debug("Could not close stream of failed download: {}",
+                    e.toString());
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EftpUtilities;
+import com.jcraft.jsch.*;
+
+/**
+ * Retrieves a remote file compressed on the network element, by running a
+ * gzip compressor over an SSH exec channel opened on the session of the
+ * borrowed SFTP channel and inflating its output as it arrives.
+ *
+ * <p>
+ * PM files are XML and typically shrink to a tenth of their size, so on a
+ * link slower than the compressor the file arrives sooner compressed, at the
+ * cost of CPU on both ends. The compression level of the command, such as
+ * <code>gzip -1 -c</code>, trades the CPU of the network element against the
+ * bytes on the link.
+ * </p>
+ */
+public class RemoteCompressedFile {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(RemoteCompressedFile.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * bytes of the error output of the compressor kept for the error message
+     */
+    private static final int MAX_ERROR_OUTPUT = 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ChannelSftp channel;
+    private final String command;
+    private final String path;
+
+    /**
+     * @param channel
+     *            the borrowed channel, whose session runs the compressor
+     * @param command
+     *            the compressor, reading the file from its input and writing
+     *            it in gzip format to its output, such as
+     *            <code>gzip -c</code>
+     * @param path
+     *            the remote path of the file
+     */
+    public RemoteCompressedFile(final ChannelSftp channel,
+            final String command, final String path) {
+        this.channel = channel;
+        this.command = command;
+        this.path = path;
+    }
+
+    /**
+     * @return the command run on the network element
+     */
+    public String getRemoteCommand() {
+        return command + " < " + EftpUtilities.shellQuote(path);
+    }
+
+    /**
+     * Starts the compressor
+     *
+     * @param connectTimeout
+     *            the time in milliseconds to wait for the exec channel to
+     *            open
+     * @return the inflated content of the file, closing it closes the exec
+     *         channel
+     * @throws JSchException
+     *             if the network element does not allow command execution
+     * @throws GenericEftpException
+     *             if the compressor writes nothing, usually because the file
+     *             cannot be read
+     */
+    public InputStream open(final int connectTimeout) throws JSchException,
+            GenericEftpException {
+        final ChannelExec exec = (ChannelExec) channel.getSession()
+                .openChannel("exec");
+        exec.setCommand(getRemoteCommand());
+        boolean started = false;
+        try {
+            final InputStream output = exec.getInputStream();
+            final InputStream errors = exec.getErrStream();
+            exec.connect(connectTimeout);
+            LOG.debug("Retrieving {} compressed", path);
+            final InputStream inflated = inflate(output, errors, exec);
+            started = true;
+            return inflated;
+        } catch (final IOException e) {
+            throw new GenericEftpException("Could not start the compressor of "
+                    + path, e);
+        } finally {
+            if (!started) {
+                exec.disconnect();
+            }
+        }
+    }
+
+    private InputStream inflate(final InputStream output,
+            final InputStream errors, final ChannelExec exec)
+            throws IOException, GenericEftpException {
+        try {
+            return new GZIPInputStream(new BufferedInputStream(output,
+                    BUFFER_SIZE), BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        exec.disconnect();
+                    }
+                }
+            };
+        } catch (final EOFException e) {
+            throw new GenericEftpException(ChannelSftp.SSH_FX_NO_SUCH_FILE,
+                    "The file {" + path + "} could not be compressed: "
+                            + readErrors(errors), e);
+        }
+    }
+
+    private static String readErrors(final InputStream errors) {
+        final byte[] buffer = new byte[MAX_ERROR_OUTPUT];
+        int length = 0;
+        try {
+            int count;
+            while (length < buffer.length
+                    && (count = errors.read(buffer, length, buffer.length
+                            - length)) != -1) {
+                length += count;
+            }
+        } catch (final IOException e) {
+            // keep what was read
+        }
+        return new String(buffer, 0, length, UTF8).trim();
+    }
+
+}
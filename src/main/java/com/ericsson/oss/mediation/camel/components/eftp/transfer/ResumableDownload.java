@@ -0,0 +1,140 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+/**
+ * Downloads a remote file to disk through a partial file, so that a download
+ * interrupted by a broken connection can be continued by a later attempt.
+ *
+ * <p>
+ * The bytes are appended to <code>destFile.part</code> next to the
+ * destination, and the download is recorded in the {@link CheckpointStore}.
+ * If a checkpoint exists for the same file, the remote file still has the
+ * same size and modification time and the checkpoint was written for the
+ * same partial file, the remote stream is opened at the length of the
+ * partial file. Otherwise the partial file is discarded.
+ * When the download completes the partial file is renamed to the destination
+ * and the checkpoint removed; when it fails both are kept for the next
+ * attempt.
+ * </p>
+ *
+ * <p>
+ * Subclasses provide the protocol specific parts, i.e. the size and
+ * modification time of the remote file and a stream starting at a given
+ * offset.
+ * </p>
+ */
+public abstract class ResumableDownload {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(ResumableDownload.class);
+
+    static final String PARTIAL_SUFFIX = ".part";
+
+    private final CheckpointStore store;
+    private final ConnectionConfig key;
+    private final String source;
+
+    /**
+     * @param store
+     *            the store of the interrupted downloads
+     * @param key
+     *            the key of the connection to the network element
+     * @param source
+     *            the path of the remote file
+     */
+    protected ResumableDownload(final CheckpointStore store,
+            final ConnectionConfig key, final String source) {
+        this.store = store;
+        this.key = key;
+        this.source = source;
+    }
+
+    /**
+     * @return the size of the remote file, -1 if the server cannot tell, in
+     *         which case the file is always downloaded from the start
+     */
+    protected abstract long remoteSize() throws IOException,
+            GenericEftpException;
+
+    /**
+     * Called after {@link #remoteSize()}, if the server told the size
+     *
+     * @return the modification time of the remote file in milliseconds, -1
+     *         if the server cannot tell, in which case the file is always
+     *         downloaded from the start
+     */
+    protected abstract long remoteModificationTime() throws IOException,
+            GenericEftpException;
+
+    /**
+     * @param offset
+     *            the number of bytes of the remote file to skip
+     * @return the stream of the remote file starting at the offset
+     */
+    protected abstract InputStream open(long offset) throws IOException,
+            GenericEftpException;
+
+    /**
+     * Downloads the remote file to the destination, continuing an earlier
+     * interrupted download of the file if possible
+     *
+     * @param destination
+     *            the local file
+     * @param bufferSize
+     *            the size in bytes of the buffer used to write the file
+     * @return the number of bytes transferred by this attempt
+     */
+    public long transferTo(final File destination, final int bufferSize)
+            throws IOException, GenericEftpException {
+        final File partial = new File(destination.getPath() + PARTIAL_SUFFIX);
+        final long size = remoteSize();
+        final long modified = size >= 0 ? remoteModificationTime() : -1;
+        long offset = 0;
+        if (modified >= 0) {
+            offset = store.resumeOffset(key, source, size, modified, partial);
+            store.save(key, source, size, modified, partial);
+        }
+        if (offset > 0) {
+            LOG.info("Resuming download of {} at byte {} of {}", new Object[] {
+                    source, offset, size });
+        } else if (partial.exists() && !partial.delete()) {
+            throw new IOException("Could not delete stale partial file "
+                    + partial);
+        }
+
+        final long transferred = DirectToDiskTransfer.append(open(offset),
+                partial, bufferSize);
+        if (size >= 0 && offset + transferred != size) {
+            throw new IOException("Received " + (offset + transferred)
+                    + " bytes of " + source + " instead of " + size);
+        }
+        if (destination.exists() && !destination.delete()
+                || !partial.renameTo(destination)) {
+            throw new IOException("Could not rename " + partial + " to "
+                    + destination);
+        }
+        store.remove(key, source);
+        return transferred;
+    }
+
+}
@@ -0,0 +1,429 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.io.FtpRetrieveInputStream;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.HostCircuitBreaker;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.KeyedConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+/**
+ * Downloads a large remote file as several segments fetched concurrently,
+ * each by its own {@link FTPClient} issuing REST before RETR, and writes every
+ * segment at its position in the local file.
+ *
+ * <p>
+ * The last segment is fetched on the calling thread by the borrowed client, so
+ * that its data connection is read to the end and the client can be returned
+ * to the pool. The other segments are fetched on the given executor by
+ * additional clients borrowed from the pool for the same
+ * {@link ConnectionConfig}. A client whose segment ended before the end of the
+ * file closes its data connection early; the 426 or 451 reply of the server
+ * does not fail the segment, but the client is returned to the pool only if
+ * the server completed the transfer anyway, and is invalidated otherwise. If
+ * the pool cannot lend as many clients as requested the file is split into
+ * fewer segments.
+ * </p>
+ *
+ * <p>
+ * The additional clients are connections to the network element like any
+ * other: the caller limits the number of segments to the sessions it was
+ * admitted for them, and the connections opened are recorded with the circuit
+ * breaker, if one is set.
+ * </p>
+ * 
+ * <p>
+ * Every client is switched to binary mode before its segment is requested,
+ * and the additional clients are switched back to the ASCII default of a new
+ * connection before they go back to the pool; the borrowed client is left to
+ * its borrower, see {@link #restoreFileType(FTPClient)}.
+ * </p>
+ */
+public class SegmentedFtpDownload {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(SegmentedFtpDownload.class);
+
+    private static final Pattern MDTM_TIME = Pattern
+            .compile("\\d{14}(\\.\\d+)?");
+
+    private final KeyedConnectionPool<FTPClient> pool;
+    private final ConnectionConfig key;
+    private final FTPClient ftpClient;
+    private final String source;
+    private final int segments;
+    private final ExecutorService executor;
+    private final int completionTimeout;
+    private HostCircuitBreaker breaker;
+
+    /**
+     * @param pool
+     *            the pool to borrow the additional clients from
+     * @param key
+     *            the key the borrowed client was borrowed with
+     * @param ftpClient
+     *            the borrowed client
+     * @param source
+     *            the path of the remote file
+     * @param segments
+     *            the number of segments to fetch the file as, including the
+     *            one fetched by the borrowed client, at most one more than
+     *            the sessions admitted for the additional clients
+     * @param executor
+     *            the executor fetching the segments of the additional clients
+     * @param completionTimeout
+     *            maximum time in milliseconds to wait for the final reply of
+     *            each RETR command
+     */
+    public SegmentedFtpDownload(final KeyedConnectionPool<FTPClient> pool,
+            final ConnectionConfig key, final FTPClient ftpClient,
+            final String source, final int segments,
+            final ExecutorService executor, final int completionTimeout) {
+        this.pool = pool;
+        this.key = key;
+        this.ftpClient = ftpClient;
+        this.source = source;
+        this.segments = segments;
+        this.executor = executor;
+        this.completionTimeout = completionTimeout;
+    }
+
+    /**
+     * @param breaker
+     *            the circuit breaker to record the connections to the network
+     *            element opened for the additional clients with, null for
+     *            none. No additional client is borrowed while the circuit is
+     *            not closed.
+     */
+    public void setCircuitBreaker(final HostCircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * Asks the server for the size of the file and, if the file is large
+     * enough, checks that it accepts a restart offset
+     *
+     * @param ftpClient
+     *            the borrowed client
+     * @param source
+     *            the path of the remote file
+     * @param minSize
+     *            the size below which the file is retrieved as a single
+     *            stream anyway, so REST is not checked
+     * @return the size of the file, -1 if it is smaller than minSize or the
+     *         server does not support SIZE or REST and the file must be
+     *         retrieved as a single stream
+     */
+    public static long segmentableSize(final FTPClient ftpClient,
+            final String source, final long minSize) throws IOException {
+        if (ftpClient.sendCommand("SIZE", source) != 213) {
+            LOG.debug("SIZE not supported for {}: {}", source,
+                    ftpClient.getReplyString());
+            return -1;
+        }
+        final long size;
+        try {
+            size = Long.parseLong(ftpClient.getReplyString().substring(3)
+                    .trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+        if (size < minSize) {
+            return -1;
+        }
+        if (!FTPReply.isPositiveIntermediate(ftpClient.sendCommand("REST",
+                "1"))) {
+            LOG.debug("REST not supported by {}", source);
+            return -1;
+        }
+        // clear the restart marker before the next transfer
+        ftpClient.sendCommand("REST", "0");
+        return size;
+    }
+
+    /**
+     * Asks the server for the modification time of the file
+     *
+     * @param ftpClient
+     *            the borrowed client
+     * @param source
+     *            the path of the remote file
+     * @return the modification time of the file in milliseconds, -1 if the
+     *         server does not support MDTM
+     */
+    public static long modificationTime(final FTPClient ftpClient,
+            final String source) throws IOException {
+        if (ftpClient.sendCommand("MDTM", source) != 213) {
+            LOG.debug("MDTM not supported for {}: {}", source,
+                    ftpClient.getReplyString());
+            return -1;
+        }
+        // YYYYMMDDHHMMSS[.sss] in UTC, RFC 3659
+        final String time = ftpClient.getReplyString().substring(3).trim();
+        if (!MDTM_TIME.matcher(time).matches()) {
+            LOG.debug("Unexpected MDTM reply for {}: {}", source, time);
+            return -1;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        try {
+            long millis = format.parse(time.substring(0, 14)).getTime();
+            if (time.length() > 15) {
+                millis += Long.parseLong((time.substring(15) + "00")
+                        .substring(0, 3));
+            }
+            return millis;
+        } catch (final ParseException e) {
+            LOG.debug("Unexpected MDTM reply for {}: {}", source, time);
+            return -1;
+        }
+    }
+
+    /**
+     * Downloads the remote file to the destination, replacing its content.
+     * Segments are always transferred in binary mode, as restart offsets are
+     * byte positions. The destination is deleted if the download fails.
+     *
+     * @param destination
+     *            the local file
+     * @param size
+     *            the size of the remote file in bytes
+     * @return the number of bytes downloaded
+     */
+    public long transferTo(final File destination, final long size)
+            throws GenericEftpException {
+        final File parent = destination.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new GenericEftpException(-1, "Could not create directory "
+                    + parent);
+        }
+        final List<FTPClient> clients = borrowClients();
+        final List<ByteRange> ranges = ByteRange.split(size, clients.size());
+        returnClients(clients.subList(ranges.size(), clients.size()));
+        LOG.debug("Downloading {} to {} as {} segments", new Object[] {
+                source, destination, ranges.size() });
+        boolean complete = false;
+        int submitted = 0;
+        try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+            file.setLength(size);
+            final FileChannel out = file.getChannel();
+            final List<Future<Long>> pending = new ArrayList<Future<Long>>();
+            for (int i = 0; i < ranges.size() - 1; i++, submitted++) {
+                final FTPClient client = clients.get(i + 1);
+                final ByteRange range = ranges.get(i);
+                pending.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return fetchWithExtraClient(client, range, out);
+                    }
+                }));
+            }
+            // the segments are never cancelled, each task must run to
+            // release its client
+            Throwable failure = null;
+            try {
+                fetch(ftpClient, ranges.get(ranges.size() - 1), out);
+            } catch (final Exception e) {
+                failure = e;
+            }
+            for (final Future<Long> segment : pending) {
+                try {
+                    segment.get();
+                } catch (final ExecutionException e) {
+                    failure = failure == null ? e.getCause() : failure;
+                }
+            }
+            if (failure != null) {
+                throw failure(failure);
+            }
+            complete = true;
+            return size;
+        } catch (final GenericEftpException e) {
+            throw e;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure(e);
+        } catch (final Exception e) {
+            throw failure(e);
+        } finally {
+            returnClients(clients.subList(1 + submitted, ranges.size()));
+            if (!complete && destination.exists() && !destination.delete()) {
+                LOG.warn("Could not delete incomplete download {}",
+                        destination);
+            }
+        }
+    }
+
+    /**
+     * @return the borrowed client followed by as many additional clients as
+     *         the pool could lend, up to one per segment
+     */
+    private List<FTPClient> borrowClients() {
+        final List<FTPClient> clients = new ArrayList<FTPClient>(segments);
+        clients.add(ftpClient);
+        final String ipAddress = key.getIpAddress();
+        final int port = key.getPort();
+        while (clients.size() < segments) {
+            if (breaker != null) {
+                try {
+                    breaker.allow(ipAddress, port);
+                } catch (final GenericEftpException e) {
+                    LOG.debug("Not borrowing another client for {}: {}",
+                            source, e.getErrorDescription());
+                    break;
+                }
+            }
+            try {
+                clients.add(pool.borrowObject(key));
+            } catch (final Exception e) {
+                if (breaker != null) {
+                    breaker.onFailure(ipAddress, port, e);
+                }
+                LOG.debug("Could not borrow another client for {}: {}",
+                        source, e.toString());
+                break;
+            }
+            if (breaker != null) {
+                breaker.onSuccess(ipAddress, port);
+            }
+        }
+        return clients;
+    }
+
+    /**
+     * Returns additional clients which were borrowed but are not given a
+     * segment
+     */
+    private void returnClients(final List<FTPClient> unused) {
+        for (final FTPClient client : unused) {
+            release(client, true);
+        }
+    }
+
+    private long fetchWithExtraClient(final FTPClient client,
+            final ByteRange range, final FileChannel out) throws Exception {
+        boolean reusable = false;
+        try {
+            final FtpRetrieveInputStream in = open(client, range);
+            try {
+                return range.copyTo(in, out);
+            } finally {
+                // the segment ends before the end of the file, the server
+                // answers the RETR cut short with 426 or 451
+                in.abort();
+                reusable = in.isClientReusable();
+            }
+        } finally {
+            release(client, reusable);
+        }
+    }
+
+    /**
+     * Fetches the last segment, reading the data connection to its end so
+     * that the server completes the RETR command
+     */
+    private long fetch(final FTPClient client, final ByteRange range,
+            final FileChannel out) throws IOException, GenericEftpException {
+        final FtpRetrieveInputStream in = open(client, range);
+        boolean complete = false;
+        try {
+            range.copyTo(in, out);
+            if (in.read() != -1) {
+                throw new IOException("File " + source
+                        + " grew during the segmented download");
+            }
+            complete = true;
+        } finally {
+            if (complete) {
+                in.close();
+            } else {
+                in.abort();
+            }
+        }
+        return range.getLength();
+    }
+
+    private FtpRetrieveInputStream open(final FTPClient client,
+            final ByteRange range) throws IOException, GenericEftpException {
+        // restart offsets are byte positions
+        if (!client.setFileType(FTP.BINARY_FILE_TYPE)) {
+            throw new GenericEftpException(client.getReplyCode(),
+                    client.getReplyString());
+        }
+        client.setRestartOffset(range.getOffset());
+        final InputStream stream = client.retrieveFileStream(source);
+        if (stream == null) {
+            throw new GenericEftpException(client.getReplyCode(),
+                    client.getReplyString());
+        }
+        return new FtpRetrieveInputStream(stream, client, source,
+                completionTimeout);
+    }
+
+    private void release(final FTPClient client, final boolean reusable) {
+        try {
+            if (reusable && restoreFileType(client)) {
+                pool.returnObject(key, client);
+            } else {
+                pool.invalidateObject(key, client);
+            }
+        } catch (final Exception e) {
+            LOG.warn("Could not release client of {}: {}", key, e.toString());
+        }
+    }
+
+    /**
+     * Switches a client which was put in binary mode back to ASCII, the type
+     * of a new connection, before it goes back to the pool
+     *
+     * @return true if the server accepted the type, false if the client
+     *         should be invalidated
+     */
+    public static boolean restoreFileType(final FTPClient client) {
+        try {
+            return client.setFileType(FTP.ASCII_FILE_TYPE);
+        } catch (final IOException e) {
+            LOG.debug("Could not restore the file type: {}", e.toString());
+            return false;
+        }
+    }
+
+    private GenericEftpException failure(final Throwable cause) {
+        if (cause instanceof GenericEftpException) {
+            return (GenericEftpException) cause;
+        }
+        return new GenericEftpException("Segmented download of the file {"
+                + source + "} failed: " + cause, cause);
+    }
+
+}
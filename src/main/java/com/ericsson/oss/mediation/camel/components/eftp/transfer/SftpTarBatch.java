@@ -0,0 +1,368 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.io.GzipDecompression;
+import com.ericsson.oss.mediation.camel.components.eftp.io.TarReader;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EftpUtilities;
+import com.jcraft.jsch.*;
+
+/**
+ * Retrieves a batch of files from one remote directory as a single tar
+ * stream, produced by running tar over an SSH exec channel opened on the
+ * session of the borrowed SFTP channel.
+ *
+ * <p>
+ * Fetching a small file over SFTP takes an open, a stat, at least one read
+ * and a close, each a round trip to the network element. The archiver reads
+ * the files on the network element itself and writes them back to back, so
+ * the whole batch costs a single round trip and moves as one pipelined
+ * stream. The files are requested in order and arrive in that order; each
+ * is read from the stream as it comes, nothing is buffered.
+ * </p>
+ *
+ * <p>
+ * The names of the files are passed as arguments of the command, so a batch
+ * is bounded by the maximum command line length of the network element.
+ * </p>
+ *
+ * <p>
+ * The stream can also be compressed on the network element, by piping the
+ * archiver through a gzip compressor, and is then inflated as it is read.
+ * </p>
+ *
+ * <p>
+ * The archiver reports a file it cannot read on its error stream and goes on
+ * with the next one, so the batch keeps the next entry of the stream until
+ * the file it belongs to is requested: a missing file fails on its own and
+ * the files after it are still found. The error stream is kept to describe
+ * these failures, and the exit status of the archiver is checked once the
+ * stream has been read to its end.
+ * </p>
+ */
+public class SftpTarBatch implements Closeable {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(SftpTarBatch.class);
+
+    private static final int ERRORS_LIMIT = 8 * 1024;
+
+    private final ChannelSftp channel;
+    private final String command;
+    private final String srcDir;
+    private final Collection<String> names;
+    private final String compressCommand;
+
+    /**
+     * the start of the error stream of the archiver, written by the session
+     * thread
+     */
+    private final ByteArrayOutputStream errors = new ByteArrayOutputStream() {
+        @Override
+        public synchronized void write(final int value) {
+            if (count < ERRORS_LIMIT) {
+                super.write(value);
+            }
+        }
+
+        @Override
+        public synchronized void write(final byte[] buffer, final int offset,
+                final int length) {
+            super.write(buffer, offset,
+                    Math.max(0, Math.min(length, ERRORS_LIMIT - count)));
+        }
+    };
+
+    private ChannelExec exec;
+    private TarReader reader;
+    private int connectTimeout;
+
+    /**
+     * the entry read from the stream but not requested yet, because the file
+     * requested before it was missing
+     */
+    private TarReader.Entry lookahead;
+    private boolean ended;
+    private GenericEftpException broken;
+
+    /**
+     * @param channel
+     *            the borrowed channel, whose session runs the archiver
+     * @param command
+     *            the archiver command writing a tar stream of the files
+     *            appended to it to its output, such as <code>tar -cf -</code>
+     * @param srcDir
+     *            the remote directory of the files
+     * @param names
+     *            the names of the files, in the order they are read
+     */
+    public SftpTarBatch(final ChannelSftp channel, final String command,
+            final String srcDir, final Collection<String> names) {
+        this(channel, command, srcDir, names, null);
+    }
+
+    /**
+     * @param channel
+     *            the borrowed channel, whose session runs the archiver
+     * @param command
+     *            the archiver command writing a tar stream of the files
+     *            appended to it to its output, such as <code>tar -cf -</code>
+     * @param srcDir
+     *            the remote directory of the files
+     * @param names
+     *            the names of the files, in the order they are read
+     * @param compressCommand
+     *            the compressor the tar stream is piped through, writing gzip
+     *            format, such as <code>gzip -c</code>, null to retrieve the
+     *            tar stream as it is
+     */
+    public SftpTarBatch(final ChannelSftp channel, final String command,
+            final String srcDir, final Collection<String> names,
+            final String compressCommand) {
+        this.channel = channel;
+        this.command = command;
+        this.srcDir = srcDir;
+        this.names = names;
+        this.compressCommand = compressCommand;
+    }
+
+    /**
+     * @return the command run on the network element
+     */
+    public String getRemoteCommand() {
+        final StringBuilder remoteCommand = new StringBuilder(command)
+                .append(" -C ").append(EftpUtilities.shellQuote(srcDir))
+                .append(" --");
+        for (final String name : names) {
+            remoteCommand.append(' ').append(EftpUtilities.shellQuote(name));
+        }
+        if (compressCommand != null) {
+            remoteCommand.append(" | ").append(compressCommand);
+        }
+        return remoteCommand.toString();
+    }
+
+    /**
+     * Starts the archiver
+     *
+     * @param connectTimeout
+     *            the time in milliseconds to wait for the exec channel to
+     *            open
+     * @throws JSchException
+     *             if the network element does not allow command execution
+     */
+    public void open(final int connectTimeout) throws JSchException,
+            IOException {
+        this.connectTimeout = connectTimeout;
+        exec = (ChannelExec) channel.getSession().openChannel("exec");
+        exec.setCommand(getRemoteCommand());
+        exec.setErrStream(errors);
+        final InputStream output = exec.getInputStream();
+        exec.connect(connectTimeout);
+        final InputStream buffered = new BufferedInputStream(output,
+                64 * 1024);
+        reader = new TarReader(compressCommand == null ? buffered
+                : new GZIPInputStream(buffered, 64 * 1024));
+        LOG.debug("Retrieving {} files from {} as a tar stream", names.size(),
+                srcDir);
+    }
+
+    /**
+     * Advances to the next file of the batch, which must be the given one. A
+     * file missing from the stream fails without consuming the entry of the
+     * file after it.
+     *
+     * @param name
+     *            the name of the next file
+     * @return the stream of the file, ending with it
+     * @throws GenericEftpException
+     *             with {@link ChannelSftp#SSH_FX_NO_SUCH_FILE} if the
+     *             archiver could not read the file, the next file can still be
+     *             requested; with any other code if the stream is broken
+     */
+    public InputStream next(final String name) throws GenericEftpException {
+        if (broken != null) {
+            throw broken;
+        }
+        if (lookahead == null && !ended) {
+            try {
+                lookahead = reader.next();
+            } catch (final IOException e) {
+                broken = new GenericEftpException("Tar stream of " + srcDir
+                        + " broken before " + name, e);
+                throw broken;
+            }
+            ended = lookahead == null;
+        }
+        if (lookahead == null || !name.equals(stripDot(lookahead.getName()))) {
+            throw new GenericEftpException(ChannelSftp.SSH_FX_NO_SUCH_FILE,
+                    "The file {" + name + "} is not in the tar stream of "
+                            + srcDir + ", archiver reported: " + errors());
+        }
+        lookahead = null;
+        return reader.stream();
+    }
+
+    /**
+     * Reads the stream to its end and waits, at most the connect timeout, for
+     * the archiver to exit
+     *
+     * @return the exit status of the archiver, -1 if it is not known
+     */
+    public int finish() throws GenericEftpException {
+        if (broken != null) {
+            throw broken;
+        }
+        try {
+            while (!ended) {
+                if (lookahead != null) {
+                    LOG.warn("Unrequested file {} in the tar stream of {}",
+                            lookahead.getName(), srcDir);
+                }
+                lookahead = reader.next();
+                ended = lookahead == null;
+            }
+        } catch (final IOException e) {
+            broken = new GenericEftpException("Tar stream of " + srcDir
+                    + " broken at its end", e);
+            throw broken;
+        }
+        final long deadline = System.currentTimeMillis() + connectTimeout;
+        try {
+            while (!exec.isClosed() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return exec.getExitStatus();
+    }
+
+    /**
+     * @return what the archiver wrote to its error stream so far
+     */
+    public String errors() {
+        try {
+            return errors.toString("UTF-8").trim();
+        } catch (final UnsupportedEncodingException e) {
+            return errors.toString().trim();
+        }
+    }
+
+    /**
+     * Writes every file of the batch to the destination directory. A file
+     * which cannot be retrieved or written does not stop the batch, it is
+     * reported in the failures instead.
+     *
+     * @param files
+     *            the names of the files mapped to their destination names,
+     *            in the order given to the constructor
+     * @param destDir
+     *            the destination directory
+     * @param bufferSize
+     *            the size in bytes of the buffer
+     * @param inflateBufferSize
+     *            the number of compressed bytes handed to the inflater at a
+     *            time for files ending in .gz, which are then written
+     *            inflated; 0 to write them as they are
+     * @param failures
+     *            receives the names of the files not written mapped to the
+     *            reason
+     * @return the files written
+     */
+    public List<File> transferTo(final Map<String, String> files,
+            final File destDir, final int bufferSize,
+            final int inflateBufferSize,
+            final Map<String, GenericEftpException> failures)
+            throws GenericEftpException {
+        if (!destDir.isDirectory() && !destDir.mkdirs()) {
+            throw new GenericEftpException(-1, "Could not create directory "
+                    + destDir);
+        }
+        final Map<String, File> written = new LinkedHashMap<String, File>();
+        for (final Map.Entry<String, String> file : files.entrySet()) {
+            final File destination = new File(destDir, file.getValue());
+            try {
+                final InputStream stream = next(file.getKey());
+                DirectToDiskTransfer.copy(inflateBufferSize > 0
+                        && GzipDecompression.isCompressed(file.getKey())
+                        ? GzipDecompression.inflate(stream, inflateBufferSize)
+                        : stream, destination, bufferSize);
+                written.put(file.getKey(), destination);
+            } catch (final GenericEftpException e) {
+                failures.put(file.getKey(), e);
+            } catch (final IOException e) {
+                destination.delete();
+                failures.put(file.getKey(), new GenericEftpException(
+                        "Could not write " + destination
+                                + " from the tar stream of " + srcDir, e));
+            }
+        }
+        if (broken == null) {
+            checkExitStatus(written, failures);
+        }
+        return new ArrayList<File>(written.values());
+    }
+
+    /**
+     * Fails the written files the archiver complained about if it exited
+     * with an error, such as a file changed while it was read
+     */
+    private void checkExitStatus(final Map<String, File> written,
+            final Map<String, GenericEftpException> failures)
+            throws GenericEftpException {
+        final int status = finish();
+        if (status <= 0) {
+            return;
+        }
+        final String errors = errors();
+        for (final Iterator<Map.Entry<String, File>> it = written.entrySet()
+                .iterator(); it.hasNext();) {
+            final Map.Entry<String, File> file = it.next();
+            if (errors.contains(file.getKey())) {
+                it.remove();
+                file.getValue().delete();
+                failures.put(file.getKey(), new GenericEftpException(status,
+                        "The archiver in " + srcDir + " exited with status "
+                                + status + ": " + errors));
+            }
+        }
+        if (failures.isEmpty()) {
+            LOG.warn("The archiver in {} exited with status {}: {}",
+                    new Object[] { srcDir, status, errors });
+        }
+    }
+
+    /**
+     * Stops the archiver, if it has not finished, and closes the exec channel
+     */
+    @Override
+    public void close() {
+        if (exec != null) {
+            exec.disconnect();
+            exec = null;
+        }
+    }
+
+    private static String stripDot(final String name) {
+        return name.startsWith("./") ? name.substring(2) : name;
+    }
+
+}
@@ -0,0 +1,165 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates executors running each transfer on its own virtual thread, on JVMs
+ * which support them.
+ *
+ * <p>
+ * The component is built for Java 7, so the executor is created reflectively
+ * through <code>Executors.newVirtualThreadPerTaskExecutor()</code>. JSch and
+ * commons-net block on socket reads, which unmounts a virtual thread from its
+ * carrier, so thousands of concurrent transfers need no more than a handful of
+ * platform threads. Reads made while holding a monitor, as JSch does, pin the
+ * carrier thread on JVMs before Java 24.
+ * </p>
+ *
+ * <p>
+ * A virtual thread is started for every task submitted, so the executor
+ * limits the number of tasks running at once: a task started beyond the
+ * limit waits on its virtual thread until another one ends.
+ * </p>
+ */
+public final class TransferExecutors {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(TransferExecutors.class);
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findFactory();
+
+    private TransferExecutors() {
+    }
+
+    /**
+     * @return true if the JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * @param maxConcurrentTransfers
+     *            the maximum number of tasks running at once
+     * @return a new executor starting a virtual thread for each task, null if
+     *         the JVM does not support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor(
+            final int maxConcurrentTransfers) {
+        return newExecutor(NEW_VIRTUAL_THREAD_EXECUTOR, maxConcurrentTransfers);
+    }
+
+    /**
+     * @param factory
+     *            the static method creating the unbounded executor, null if
+     *            there is none
+     */
+    static ExecutorService newExecutor(final Method factory,
+            final int maxConcurrentTransfers) {
+        if (factory == null) {
+            return null;
+        }
+        try {
+            return new BoundedExecutorService(
+                    (ExecutorService) factory.invoke(null),
+                    maxConcurrentTransfers);
+        } catch (final Exception e) {
+            LOG.warn("Could not create virtual thread executor: {}",
+                    e.toString());
+            return null;
+        }
+    }
+
+    private static Method findFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs the tasks on the given executor, at most the given number at once
+     */
+    private static final class BoundedExecutorService extends
+            AbstractExecutorService {
+
+        private final ExecutorService executor;
+        private final Semaphore running;
+
+        BoundedExecutorService(final ExecutorService executor,
+                final int maxConcurrentTasks) {
+            if (maxConcurrentTasks <= 0) {
+                throw new IllegalArgumentException(
+                        "maxConcurrentTransfers must be positive: "
+                                + maxConcurrentTasks);
+            }
+            this.executor = executor;
+            this.running = new Semaphore(maxConcurrentTasks, true);
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        running.acquire();
+                    } catch (final InterruptedException e) {
+                        // shut down before the task could start
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    try {
+                        command.run();
+                    } finally {
+                        running.release();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return executor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit)
+                throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+    }
+
+}
@@ -12,6 +12,7 @@
 package com.ericsson.oss.mediation.camel.components.eftp.utils;
 
 import java.io.File;
+import java.util.regex.Pattern;
 
 import com.jcraft.jsch.SftpException;
 
@@ -143,4 +144,97 @@ public final class EftpUtilities {
                 errorMessage.indexOf(":")).trim();
         return Integer.parseInt(errorCodeString);
     }
+
+    /**
+     * Converts a file name glob into a regular expression. <b>*</b> matches
+     * any sequence of characters, <b>?</b> matches a single character,
+     * <b>[...]</b> matches a character class and <b>[!...]</b> any character
+     * not in it, a <b>]</b> right after the opening bracket being a member of
+     * the class. A <b>[</b> without a closing bracket, and everything else, is
+     * matched literally e.g.
+     * 
+     * <p>
+     * glob = A*.xml.gz<br>
+     * returns \QA\E.*\Q.xml.gz\E
+     * </p>
+     * 
+     * @param glob
+     *            the file name glob
+     * @return the regular expression
+     */
+    public static String globToRegex(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            final char c = glob.charAt(i++);
+            final int classEnd = c == '[' ? classEnd(glob, i) : -1;
+            if (c != '*' && c != '?' && classEnd < 0) {
+                literal.append(c);
+                continue;
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append('[');
+                if (glob.charAt(i) == '!') {
+                    regex.append('^');
+                    i++;
+                }
+                for (; i < classEnd; i++) {
+                    final char member = glob.charAt(i);
+                    if (!Character.isLetterOrDigit(member) && member != '-') {
+                        regex.append('\\');
+                    }
+                    regex.append(member);
+                }
+                regex.append(']');
+                i = classEnd + 1;
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+
+    /**
+     * @param start
+     *            the index of the character after the opening bracket
+     * @return the index of the bracket closing the character class, -1 if
+     *         there is none
+     */
+    private static int classEnd(final String glob, final int start) {
+        int i = start;
+        if (i < glob.length() && glob.charAt(i) == '!') {
+            i++;
+        }
+        // a bracket first in the class is a member of it
+        if (i < glob.length() && glob.charAt(i) == ']') {
+            i++;
+        }
+        return glob.indexOf(']', i);
+    }
+
+    /**
+     * Quotes an argument of a remote shell command e.g.
+     * 
+     * <p>
+     * argument = it's<br>
+     * returns 'it'\''s'
+     * </p>
+     * 
+     * @param argument
+     *            the argument, such as a directory or file name
+     * @return the argument single quoted for a POSIX shell
+     */
+    public static String shellQuote(final String argument) {
+        return "'" + argument.replace("'", "'\\''") + "'";
+    }
 }
@@ -0,0 +1,165 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.impl.DefaultMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.PooledConnectionRelease;
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EftpBatchIteratorTest {
+
+    @Mock
+    private PooledConnectionRelease<Object> release;
+
+    private final List<String> retrieved = new ArrayList<String>();
+    private final List<InputStream> opened = new ArrayList<InputStream>();
+
+    private Map<String, String> files;
+
+    @Before
+    public void setUp() {
+        files = new LinkedHashMap<String, String>();
+        files.put("A.xml", "A_copy.xml");
+        files.put("B.xml", "B_copy.xml");
+    }
+
+    @Test
+    public void next_EachFile_RetrievedInOrderWithDestinationHeaders() {
+        final EftpBatchIterator batch = newBatch(null);
+
+        final Message first = batch.next();
+        assertEquals("A.xml",
+                first.getHeader(EftpConstants.EFTP_SOURCE_FILE));
+        assertEquals("destDir" + File.separator + "A_copy.xml",
+                first.getHeader(Exchange.FILE_NAME));
+        final Message second = batch.next();
+        assertEquals("B.xml",
+                second.getHeader(EftpConstants.EFTP_SOURCE_FILE));
+        assertFalse(batch.hasNext());
+
+        assertEquals(Arrays.asList("A.xml", "B.xml"), retrieved);
+    }
+
+    @Test
+    public void next_PreviousStreamClosedBeforeNextRetrieval() throws Exception {
+        final EftpBatchIterator batch = newBatch(null);
+        batch.next();
+        batch.next();
+        verify(opened.get(0)).close();
+    }
+
+    @Test
+    public void hasNext_BatchExhausted_ReleasesConnectionOnce() throws Exception {
+        final EftpBatchIterator batch = newBatch(null);
+        while (batch.hasNext()) {
+            batch.next();
+        }
+        batch.close();
+        verify(release, times(1)).release(true);
+        verify(opened.get(1)).close();
+    }
+
+    @Test
+    public void next_RetrievalFails_InvalidatesAndThrows() {
+        final EftpBatchIterator batch = newBatch("B.xml");
+        batch.next();
+        try {
+            batch.next();
+            fail("Expected RuntimeCamelException");
+        } catch (final RuntimeCamelException e) {
+            assertTrue(e.getCause() instanceof GenericEftpException);
+        }
+        verify(release).release(true);
+        assertFalse(batch.hasNext());
+    }
+
+    @Test
+    public void next_FileErrorInTheMiddle_ReportedAndBatchContinues() {
+        files.put("C.xml", "C_copy.xml");
+        final EftpBatchIterator batch = newBatch("B.xml", true);
+        batch.next();
+
+        final Message failed = batch.next();
+        assertEquals("B.xml", failed.getHeader(EftpConstants.EFTP_SOURCE_FILE));
+        assertNull(failed.getBody());
+        assertEquals(550, failed.getHeader(EftpConstants.EFTP_FILE_ERROR,
+                GenericEftpException.class).getErrorCode());
+
+        assertEquals("C.xml",
+                batch.next().getHeader(EftpConstants.EFTP_SOURCE_FILE));
+        assertFalse(batch.hasNext());
+        assertEquals(Arrays.asList("A.xml", "C.xml"), retrieved);
+        verify(release, times(1)).release(true);
+    }
+
+    @Test
+    public void requestedFiles_CollectionHeader_MapsEachNameToItself() {
+        final Message in = new DefaultMessage();
+        in.setHeader(EftpConstants.EFTP_SOURCE_FILES,
+                Arrays.asList("A.xml", "B.xml"));
+        assertTrue(EftpBatchIterator.isBatchRequest(in));
+        assertEquals("B.xml", EftpBatchIterator.requestedFiles(in).get("B.xml"));
+    }
+
+    @Test
+    public void matchingFiles_GlobHeader_SelectsMatchingNames() {
+        final Message in = new DefaultMessage();
+        in.setHeader(EftpConstants.EFTP_SOURCE_FILE_PATTERN, "A*.xml.gz");
+        final Map<String, String> matching = EftpBatchIterator.matchingFiles(
+                in, Arrays.asList("/pm_data/A1.xml.gz", "/pm_data/B1.xml.gz",
+                        "A2.xml.gz"));
+        assertEquals(new ArrayList<String>(Arrays.asList("A1.xml.gz",
+                "A2.xml.gz")), new ArrayList<String>(matching.keySet()));
+    }
+
+    private EftpBatchIterator newBatch(final String failingFile) {
+        return newBatch(failingFile, false);
+    }
+
+    private EftpBatchIterator newBatch(final String failingFile,
+            final boolean fileErrors) {
+        return new EftpBatchIterator(files, "srcDir", "destDir", release) {
+            @Override
+            protected boolean isFileError(final GenericEftpException error) {
+                return fileErrors;
+            }
+
+            @Override
+            protected InputStream retrieve(final String srcDir,
+                    final String srcFile) throws GenericEftpException {
+                if (srcFile.equals(failingFile)) {
+                    throw new GenericEftpException(550, "No such file");
+                }
+                retrieved.add(srcFile);
+                final InputStream stream = mock(InputStream.class);
+                opened.add(stream);
+                return stream;
+            }
+        };
+    }
+}
@@ -13,12 +13,17 @@ package com.ericsson.oss.mediation.camel.components.eftp;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
-import static org.mockito.Mockito.when;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.ExecutorService;
 
 import org.apache.camel.*;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
@@ -39,6 +44,12 @@ public class EftpDelegatingProducerTest {
     @Mock
     private EndpointConfiguration config;
 
+    @Mock
+    private AsyncCallback callback;
+
+    @Mock
+    private ExecutorService executor;
+
     @Before
     public void setup() {
         when(endpoint.createExchange()).thenReturn(exchange);
@@ -56,7 +67,7 @@ public class EftpDelegatingProducerTest {
     @Test
     public void testIsSingleton() {
         EftpDelegatingProducer producer = new EftpDelegatingProducer(endpoint);
-        assertFalse(producer.isSingleton());
+        assertTrue(producer.isSingleton());
     }
 
     /**
@@ -85,4 +96,63 @@ public class EftpDelegatingProducerTest {
         producer.process(exchange);
     }
 
+    /**
+     * Test method for
+     * {@link com.ericsson.oss.mediation.camel.components.eftp.EftpDelegatingProducer#isSecureExchange(org.apache.camel.Exchange)}
+     * .
+     */
+    @Test
+    public void testSecureFlagSelectsSftp() throws Exception {
+        EftpDelegatingProducer producer = new EftpDelegatingProducer(endpoint);
+        assertTrue(producer.isSecureExchange(exchange));
+
+        when(message.getHeader(EftpConstants.EFTP_SECURE_FTP)).thenReturn(
+                "false");
+        assertFalse(producer.isSecureExchange(exchange));
+    }
+
+    @Test
+    public void testDelegatesStartedAndStoppedWithProducer() throws Exception {
+        EftpDelegatingProducer producer = new EftpDelegatingProducer(endpoint);
+        assertFalse(producer.getFtpProducer().isStarted());
+        assertFalse(producer.getSftpProducer().isStarted());
+
+        producer.start();
+        assertTrue(producer.isStarted());
+        assertTrue(producer.getFtpProducer().isStarted());
+        assertTrue(producer.getSftpProducer().isStarted());
+
+        producer.stop();
+        assertTrue(producer.isStopped());
+        assertTrue(producer.getFtpProducer().isStopped());
+        assertTrue(producer.getSftpProducer().isStopped());
+    }
+
+    @Test
+    public void testAsyncProcessWithoutExecutorCompletesSynchronously() {
+        when(message.getHeader(EftpConstants.EFTP_SECURE_FTP)).thenReturn(null);
+        EftpDelegatingProducer producer = new EftpDelegatingProducer(endpoint);
+
+        assertTrue(producer.process(exchange, callback));
+        verify(exchange).setException(any(GenericEftpException.class));
+        verify(callback).done(true);
+    }
+
+    @Test
+    public void testAsyncProcessWithExecutorCompletesOnTransferThread() {
+        when(message.getHeader(EftpConstants.EFTP_SECURE_FTP)).thenReturn(null);
+        when(endpoint.getAsyncTransferExecutor()).thenReturn(executor);
+        EftpDelegatingProducer producer = new EftpDelegatingProducer(endpoint);
+
+        assertFalse(producer.process(exchange, callback));
+        verify(callback, never()).done(anyBoolean());
+
+        final ArgumentCaptor<Runnable> transfer = ArgumentCaptor
+                .forClass(Runnable.class);
+        verify(executor).execute(transfer.capture());
+        transfer.getValue().run();
+        verify(exchange).setException(any(GenericEftpException.class));
+        verify(callback).done(false);
+    }
+
 }
@@ -0,0 +1,185 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.LockFreeKeyedConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.SftpConnectionFactory;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedSftpServer;
+import com.jcraft.jsch.ChannelSftp;
+
+/**
+ * Polls a directory of an {@link EmbeddedSftpServer}, calling poll directly
+ * rather than waiting for the scheduler
+ */
+public class EftpPollingConsumerTest {
+
+    private EmbeddedSftpServer server;
+    private LockFreeKeyedConnectionPool<ChannelSftp> pool;
+    private DefaultCamelContext context;
+    private File remoteDir;
+    private File indexDir;
+    private EftpPollingConsumer consumer;
+
+    /**
+     * the source files of the exchanges the route received, and the sizes
+     * of their bodies
+     */
+    private final Map<String, Integer> received = new LinkedHashMap<String, Integer>();
+    private int attempts;
+    private boolean failNext;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EmbeddedSftpServer(EmbeddedSftpServer.findFreePort());
+        server.start();
+        remoteDir = temporaryDirectory("ne");
+        indexDir = temporaryDirectory("index");
+        pool = new LockFreeKeyedConnectionPool<ChannelSftp>(
+                new SftpConnectionFactory(5000));
+
+        final EventDrivenFtpComponent component = new EventDrivenFtpComponent();
+        context = new DefaultCamelContext();
+        component.setCamelContext(context);
+        context.start();
+        final EventDrivenFtpEndpoint endpoint = new EventDrivenFtpEndpoint(
+                "eftp://poll", component);
+        endpoint.setIpAddress("localhost");
+        endpoint.setPort(server.getPort());
+        endpoint.setUsername("test");
+        endpoint.setPassword("test");
+        endpoint.setSecureFtp(true);
+        endpoint.setPollDirectories(remoteDir.getAbsolutePath());
+        endpoint.setDestDir(indexDir.getAbsolutePath());
+        endpoint.setIndexDirectory(indexDir.getAbsolutePath());
+        endpoint.setSkipUnchangedDirectories(true);
+        endpoint.setSftpPool(pool);
+        endpoint.start();
+
+        consumer = (EftpPollingConsumer) endpoint
+                .createConsumer(new Processor() {
+                    @Override
+                    public void process(final Exchange exchange)
+                            throws Exception {
+                        attempts++;
+                        final InputStream body = exchange.getIn().getBody(
+                                InputStream.class);
+                        final int size = drain(body);
+                        if (failNext) {
+                            failNext = false;
+                            throw new IOException("Route failed");
+                        }
+                        received.put(exchange.getIn().getHeader(
+                                EftpConstants.EFTP_SOURCE_FILE, String.class),
+                                size);
+                    }
+                });
+        // polls are run by the test
+        consumer.setInitialDelay(3600000);
+        consumer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        consumer.stop();
+        context.stop();
+        pool.close();
+        server.stop();
+        delete(remoteDir);
+        delete(indexDir);
+    }
+
+    @Test
+    public void poll_CollectFailsInSettledDirectory_ListedAndRetriedNextPoll()
+            throws Exception {
+        write("A1.xml", 100, false);
+
+        assertEquals(0, consumer.poll());
+        failNext = true;
+        assertEquals(0, consumer.poll());
+        assertEquals(1, attempts);
+        assertTrue(received.isEmpty());
+
+        assertEquals(1, consumer.poll());
+        assertEquals(Integer.valueOf(100), received.get("A1.xml"));
+        assertEquals(0, consumer.poll());
+        assertEquals(2, attempts);
+    }
+
+    @Test
+    public void poll_FileGrowingBetweenListings_CollectedOnceStable()
+            throws Exception {
+        write("A1.xml", 100, false);
+        assertEquals(0, consumer.poll());
+
+        write("A1.xml", 50, true);
+        assertEquals(0, consumer.poll());
+        assertEquals(0, attempts);
+
+        assertEquals(1, consumer.poll());
+        assertEquals(Integer.valueOf(150), received.get("A1.xml"));
+        assertEquals(0, consumer.poll());
+    }
+
+    private void write(final String name, final int length,
+            final boolean append) throws IOException {
+        final OutputStream out = new FileOutputStream(new File(remoteDir,
+                name), append);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int drain(final InputStream in) throws IOException {
+        final byte[] buffer = new byte[4096];
+        int size = 0;
+        int count;
+        try {
+            while ((count = in.read(buffer)) != -1) {
+                size += count;
+            }
+        } finally {
+            in.close();
+        }
+        return size;
+    }
+
+    private static File temporaryDirectory(final String prefix)
+            throws IOException {
+        final File directory = File.createTempFile(prefix, "");
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
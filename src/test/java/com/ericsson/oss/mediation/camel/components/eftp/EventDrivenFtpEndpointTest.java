@@ -0,0 +1,226 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Producer;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.impl.SimpleRegistry;
+import org.apache.camel.spi.Synchronization;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.KeyedConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.*;
+import com.jcraft.jsch.ChannelSftp;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EventDrivenFtpEndpointTest {
+
+    @Mock
+    private FtpConnectionPool ftpPool;
+
+    @Mock
+    private SftpConnectionPool sftpPool;
+
+    @Mock
+    private FtpConnectionPool injectedFtpPool;
+
+    @Mock
+    private KeyedConnectionPool<FTPClient> keyedFtpPool;
+
+    @Mock
+    private KeyedConnectionPool<ChannelSftp> keyedSftpPool;
+
+    @Mock
+    private ChannelSftp channel;
+
+    private SimpleRegistry registry;
+    private DefaultCamelContext context;
+    private EventDrivenFtpComponent component;
+    private EventDrivenFtpEndpoint endpoint;
+
+    @Before
+    public void setUp() {
+        registry = new SimpleRegistry();
+        registry.put(Constants.FTP_POOL, ftpPool);
+        registry.put(Constants.SFTP_POOL, sftpPool);
+        component = new EventDrivenFtpComponent();
+        context = new DefaultCamelContext(registry);
+        component.setCamelContext(context);
+        endpoint = new EventDrivenFtpEndpoint("eftp://test", component);
+    }
+
+    @Test
+    public void start_PoolsBoundInRegistry_ResolvesPools() {
+        endpoint.start();
+        assertSame(ftpPool, endpoint.getFtpConnectionPool());
+        assertSame(sftpPool, endpoint.getSftpConnectionPool());
+    }
+
+    @Test
+    public void stop_PoolsFromRegistry_ReleasesPools() {
+        endpoint.start();
+        endpoint.stop();
+        assertNull(endpoint.getFtpConnectionPool());
+        assertNull(endpoint.getSftpConnectionPool());
+    }
+
+    @Test
+    public void stop_InjectedPool_KeepsInjectedPool() {
+        endpoint.setFtpConnectionPool(injectedFtpPool);
+        endpoint.start();
+        assertSame(injectedFtpPool, endpoint.getFtpConnectionPool());
+        endpoint.stop();
+        assertSame(injectedFtpPool, endpoint.getFtpConnectionPool());
+        assertNull(endpoint.getSftpConnectionPool());
+    }
+
+    @Test
+    public void start_KeyedPoolBoundInRegistry_ResolvesKeyedPool() {
+        registry.put(Constants.FTP_POOL, keyedFtpPool);
+        endpoint.start();
+        assertSame(keyedFtpPool, endpoint.getFtpPool());
+        assertNull(endpoint.getFtpConnectionPool());
+        endpoint.stop();
+        assertNull(endpoint.getFtpPool());
+    }
+
+    @Test
+    public void setFtpConnectionPool_JcaPool_AdaptedAsKeyedPool()
+            throws Exception {
+        endpoint.setFtpConnectionPool(injectedFtpPool);
+        final ConnectionConfig key = new ConnectionConfig("10.0.0.1", 21,
+                "user", "password", "false");
+        endpoint.getFtpPool().borrowObject(key);
+        verify(injectedFtpPool).borrowObject(key);
+    }
+
+    @Test
+    public void start_VirtualThreadsRequested_AsyncExecutorCreatedOnAnyJvm() {
+        endpoint.setAsyncTransfer(true);
+        component.setVirtualThreads(true);
+        component.setAsyncTransferPoolSize(4);
+
+        endpoint.start();
+        assertNotNull(endpoint.getAsyncTransferExecutor());
+        endpoint.stop();
+
+        assertNull(endpoint.getAsyncTransferExecutor());
+    }
+
+    @Test
+    public void start_EndpointsOfSameComponent_ShareExecutorsAndMetrics()
+            throws Exception {
+        final EventDrivenFtpEndpoint other = new EventDrivenFtpEndpoint(
+                "eftp://test", component);
+        component.start();
+        startWithSharedServices(endpoint);
+        startWithSharedServices(other);
+        final ExecutorService executor = endpoint.getAsyncTransferExecutor();
+
+        assertSame(executor, other.getAsyncTransferExecutor());
+        assertSame(endpoint.getLeakDetector(), other.getLeakDetector());
+        assertSame(endpoint.getEndpointTransferMetrics(),
+                other.getEndpointTransferMetrics());
+
+        endpoint.stop();
+        assertFalse(executor.isShutdown());
+        other.stop();
+        component.stop();
+        assertTrue(executor.isShutdown());
+    }
+
+    private static void startWithSharedServices(
+            final EventDrivenFtpEndpoint started) {
+        started.setAsyncTransfer(true);
+        started.setAutoReleaseConnection(true);
+        started.setTransferMetrics(true);
+        started.start();
+    }
+
+    @Test
+    public void start_PrewarmNetworkElements_PrewarmedByComponent()
+            throws Exception {
+        component.setPrewarmNetworkElements(Collections
+                .singletonList(new ConnectionConfig("10.0.0.1", 21, "user",
+                        "password", "false")));
+        component.setPrewarmJitter(0);
+
+        component.start();
+        assertNotNull(component.getPoolPrewarmer());
+        component.stop();
+
+        assertNull(component.getPoolPrewarmer());
+    }
+
+    @Test
+    public void process_RouteReturnsChannelItself_ReturnedToPoolOnce()
+            throws Exception {
+        assertFalse(endpoint.isAutoReleaseConnection());
+        endpoint.setSftpPool(keyedSftpPool);
+        when(keyedSftpPool.borrowObject(any(ConnectionConfig.class)))
+                .thenReturn(channel);
+        when(channel.get(anyString())).thenReturn(
+                new ByteArrayInputStream(new byte[16]));
+        final Exchange exchange = new DefaultExchange(context);
+        exchange.getIn().setHeader(EftpConstants.EFTP_SECURE_FTP, "true");
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_IP_ADDRESS,
+                "10.0.0.1");
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_PORT, "22");
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_USERNAME, "user");
+        exchange.getIn().setHeader(EftpConstants.EFTP_TARGET_PASSWORD,
+                "password");
+        exchange.getIn().setHeader(EftpConstants.EFTP_SOURCE_DIRECTORY,
+                "/pm_data");
+        exchange.getIn().setHeader(EftpConstants.EFTP_SOURCE_FILE, "A1.xml");
+        exchange.getIn().setHeader(EftpConstants.EFTP_DESTINATION_DIRECTORY,
+                "target");
+        exchange.getIn().setHeader(EftpConstants.EFTP_DESTINATION_FILE,
+                "A1.xml");
+        final Producer producer = endpoint.createProducer();
+        producer.start();
+
+        producer.process(exchange);
+        // as routes written before autoReleaseConnection do
+        final ConnectionConfig key = exchange.getIn().getHeader(
+                EftpConstants.EFTP_CONNECTION_KEY, ConnectionConfig.class);
+        keyedSftpPool.returnObject(key, exchange.getIn().getHeader(
+                EftpConstants.EFTP_CHANNEL, ChannelSftp.class));
+        final List<Synchronization> completions = exchange
+                .handoverCompletions();
+        if (completions != null) {
+            for (final Synchronization completion : completions) {
+                completion.onComplete(exchange);
+            }
+        }
+        producer.stop();
+
+        verify(keyedSftpPool, times(1)).returnObject(key, channel);
+        verify(keyedSftpPool, never()).invalidateObject(key, channel);
+    }
+}
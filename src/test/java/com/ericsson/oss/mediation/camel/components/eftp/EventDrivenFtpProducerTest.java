@@ -11,13 +11,19 @@
  *----------------------------------------------------------------------------*/
 package com.ericsson.oss.mediation.camel.components.eftp;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.camel.*;
 import org.apache.camel.spi.Registry;
@@ -201,10 +207,91 @@ public class EventDrivenFtpProducerTest {
         }
     }
 
+    @Test
+    public void process_NoDataConnection_ThrowsEftpExceptionWithReplyCode()
+            throws Exception {
+        setUpSuccessfulConnection();
+        when(mockedClient.retrieveFileStream(any(String.class))).thenReturn(
+                null);
+        when(mockedClient.getReplyCode()).thenReturn(CANT_OPEN_DATA_CONNECTION);
+        try {
+            eftpProducer.process(exchange);
+            fail("Expected EFTP Exception");
+        } catch (final GenericEftpException e) {
+            assertEquals(CANT_OPEN_DATA_CONNECTION, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void process_DirectToDisk_WritesDestinationAndSetsFileAsBody()
+            throws Exception {
+        setUpSuccessfulConnection();
+        final byte[] content = "<measData/>".getBytes("UTF-8");
+        final File destination = File.createTempFile("direct", ".xml");
+        destination.deleteOnExit();
+        when(message.getHeader(EftpConstants.EFTP_DESTINATION_DIRECTORY))
+                .thenReturn(destination.getParent());
+        when(message.getHeader(EftpConstants.EFTP_DESTINATION_FILE))
+                .thenReturn(destination.getName());
+        when(mockedClient.retrieveFileStream(any(String.class))).thenReturn(
+                new ByteArrayInputStream(content));
+        when(mockedClient.completePendingCommand()).thenReturn(true);
+        when(endpoint.isDirectToDisk()).thenReturn(true);
+
+        eftpProducer.process(exchange);
+
+        verify(message).setBody(destination);
+        verify(mockedClient).completePendingCommand();
+        final byte[] written = new byte[(int) destination.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(
+                destination))) {
+            in.readFully(written);
+        }
+        assertArrayEquals(content, written);
+    }
+
+    @Test
+    public void process_DecompressGzDirectToDisk_WritesInflatedFile()
+            throws Exception {
+        setUpSuccessfulConnection();
+        final byte[] content = "<measData/>".getBytes("UTF-8");
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(content);
+        }
+        final File inflated = File.createTempFile("inflated", ".xml");
+        inflated.deleteOnExit();
+        when(message.getHeader(EftpConstants.EFTP_SOURCE_FILE)).thenReturn(
+                "A1.xml.gz");
+        when(message.getHeader(EftpConstants.EFTP_DESTINATION_DIRECTORY))
+                .thenReturn(inflated.getParent());
+        when(message.getHeader(EftpConstants.EFTP_DESTINATION_FILE))
+                .thenReturn(inflated.getName() + ".gz");
+        when(mockedClient.retrieveFileStream(any(String.class))).thenReturn(
+                new ByteArrayInputStream(compressed.toByteArray()));
+        when(mockedClient.completePendingCommand()).thenReturn(true);
+        when(endpoint.isDirectToDisk()).thenReturn(true);
+        when(endpoint.isDecompressGz()).thenReturn(true);
+
+        eftpProducer.process(exchange);
+
+        verify(message).setBody(inflated);
+        verify(message).setHeader(Exchange.FILE_NAME, inflated.getPath());
+        verify(mockedClient).completePendingCommand();
+        final byte[] written = new byte[(int) inflated.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(
+                inflated))) {
+            in.readFully(written);
+        }
+        assertArrayEquals(content, written);
+    }
+
     private void setUpSuccessfulConnection() throws Exception {
         when(mockedClient.getReplyCode()).thenReturn(COMMAND_OK);
         when(mockedClient.login(userName, password)).thenReturn(true);
         when(mockedClient.isConnected()).thenReturn(true);
+        when(mockedClient.retrieveFileStream(any(String.class))).thenReturn(
+                new ByteArrayInputStream(new byte[0]));
     }
 
     /**
@@ -14,10 +14,14 @@ package com.ericsson.oss.mediation.camel.components.eftp;
 import static com.ericsson.oss.mediation.camel.components.eftp.EftpConstants.JSchErrorMessages.AUTH_FAIL;
 import static com.ericsson.oss.mediation.camel.components.eftp.EftpConstants.JSchErrorMessages.INVALID_ADD;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 
@@ -26,6 +30,8 @@ import org.apache.camel.spi.Registry;
 import org.junit.*;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -149,6 +155,35 @@ public class EventDrivenSftpProducerTest {
                 destDir + File.separator + destFile);
     }
 
+    @Test
+    public void process_BulkRequestsAndReadSizeSet_NotLeftOnPooledChannel()
+            throws Exception {
+        final String file = EftpUtilities.normalizeSourceFilePath(srcDir,
+                srcFile);
+        when(channel.get(file)).thenReturn(
+                new ByteArrayInputStream(new byte[16]),
+                new ByteArrayInputStream(new byte[16]));
+        when(endpoint.getSftpBulkRequests()).thenReturn(64);
+        when(endpoint.getSftpReadSize()).thenReturn(32768);
+
+        esftpProducer.process(exchange);
+
+        when(endpoint.getSftpBulkRequests()).thenReturn(0);
+        when(endpoint.getSftpReadSize()).thenReturn(0);
+        new TestEsftpProducer(endpoint).process(exchange);
+
+        final InOrder order = inOrder(channel);
+        order.verify(channel).setBulkRequests(64);
+        order.verify(channel).get(file);
+        order.verify(channel).setBulkRequests(16);
+        order.verify(channel).get(file);
+        final ArgumentCaptor<InputStream> bodies = ArgumentCaptor
+                .forClass(InputStream.class);
+        verify(message, times(2)).setBody(bodies.capture());
+        assertTrue(bodies.getAllValues().get(0) instanceof BufferedInputStream);
+        assertFalse(bodies.getAllValues().get(1) instanceof BufferedInputStream);
+    }
+
     @Test
     public void process_FailedJob_SetCorrectSFTPError_FileNotAvailable()
             throws Exception {
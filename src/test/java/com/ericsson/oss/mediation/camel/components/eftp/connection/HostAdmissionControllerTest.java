@@ -0,0 +1,113 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.ericsson.oss.mediation.camel.components.eftp.EftpConstants;
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.jcraft.jsch.ChannelSftp;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HostAdmissionControllerTest {
+
+    @Mock
+    private KeyedConnectionPool<ChannelSftp> pool;
+
+    @Mock
+    private ChannelSftp channel;
+
+    @Test
+    public void admit_HostAtLimit_TimesOutWithQueueTimeoutCode()
+            throws Exception {
+        final HostAdmissionController controller = new HostAdmissionController(
+                2, true, 50);
+        controller.admit("10.0.0.1", 22);
+        controller.admit("10.0.0.1", 22);
+        controller.admit("10.0.0.2", 22);
+
+        try {
+            controller.admit("10.0.0.1", 22);
+            fail("Expected GenericEftpException");
+        } catch (final GenericEftpException e) {
+            assertEquals(EftpConstants.SESSION_QUEUE_TIMED_OUT,
+                    e.getErrorCode());
+        }
+        assertEquals(2, controller.getSessionsInUse("10.0.0.1", 22));
+        assertEquals(1, controller.getTimedOutCount());
+        assertTrue(controller.getMaxQueueTime() >= 50);
+    }
+
+    @Test
+    public void connectionReleased_AdmitsWaitingExchange() throws Exception {
+        final HostAdmissionController controller = new HostAdmissionController(
+                1, true, 0);
+        final SftpConnectionRelease release = new SftpConnectionRelease(pool,
+                new ConnectionConfig("10.0.0.1", 22, "user", "password",
+                        "true"), channel, "exchange-1", null);
+        release.setPermit(controller.admit("10.0.0.1", 22));
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<HostAdmissionController.Permit> waiting = executor
+                    .submit(new Callable<HostAdmissionController.Permit>() {
+                        @Override
+                        public HostAdmissionController.Permit call()
+                                throws Exception {
+                            return controller.admit("10.0.0.1", 22);
+                        }
+                    });
+            while (controller.getQueueLength("10.0.0.1", 22) == 0) {
+                Thread.sleep(1);
+            }
+            assertFalse(waiting.isDone());
+
+            release.release(true);
+            release.release(true);
+
+            assertNotNull(waiting.get(5, TimeUnit.SECONDS));
+            assertEquals(1, controller.getSessionsInUse("10.0.0.1", 22));
+            assertEquals(1, controller.getQueuedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void tryAdmit_HostNearLimit_AdmitsOnlyFreeSessions()
+            throws Exception {
+        final HostAdmissionController controller = new HostAdmissionController(
+                3, true, 50);
+        controller.admit("10.0.0.1", 22);
+
+        final List<HostAdmissionController.Permit> permits = controller
+                .tryAdmit("10.0.0.1", 22, 4);
+
+        assertEquals(2, permits.size());
+        assertEquals(3, controller.getSessionsInUse("10.0.0.1", 22));
+        assertEquals(0, controller.getQueuedCount());
+        for (final HostAdmissionController.Permit permit : permits) {
+            permit.release();
+        }
+        assertEquals(1, controller.getSessionsInUse("10.0.0.1", 22));
+    }
+}
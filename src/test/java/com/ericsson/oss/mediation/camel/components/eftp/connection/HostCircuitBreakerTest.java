@@ -0,0 +1,107 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import static org.junit.Assert.*;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import org.junit.Test;
+
+import com.ericsson.oss.mediation.camel.components.eftp.EftpConstants;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.HostCircuitBreaker.State;
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.jcraft.jsch.JSchException;
+
+public class HostCircuitBreakerTest {
+
+    private static final String HOST = "10.0.0.1";
+
+    @Test
+    public void allow_ThresholdOfConnectionFailures_FailsFastWithCircuitOpenCode()
+            throws Exception {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(3, 60000);
+        for (int i = 0; i < 3; i++) {
+            breaker.allow(HOST, 22);
+            breaker.onFailure(HOST, 22, new IllegalStateException(
+                    new ConnectException("Connection refused")));
+        }
+
+        assertEquals(State.OPEN, breaker.getState(HOST, 22));
+        assertEquals(State.CLOSED, breaker.getState(HOST, 21));
+        try {
+            breaker.allow(HOST, 22);
+            fail("Expected GenericEftpException");
+        } catch (final GenericEftpException e) {
+            assertEquals(EftpConstants.CIRCUIT_OPEN, e.getErrorCode());
+        }
+        breaker.allow(HOST, 21);
+    }
+
+    @Test
+    public void onFailure_AuthFail_DoesNotCountAsConnectionFailure()
+            throws Exception {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(2, 60000);
+        breaker.onFailure(HOST, 22, new SocketTimeoutException(
+                "connect timed out"));
+        breaker.onFailure(HOST, 22, new JSchException("Auth fail"));
+        breaker.onFailure(HOST, 22, new JSchException("Auth fail"));
+
+        assertEquals(State.CLOSED, breaker.getState(HOST, 22));
+    }
+
+    @Test
+    public void onFailure_AuthFailBetweenConnectionFailures_CountKept()
+            throws Exception {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(2, 60000);
+        breaker.onFailure(HOST, 22, new SocketTimeoutException(
+                "connect timed out"));
+        breaker.onFailure(HOST, 22, new JSchException("Auth fail"));
+        breaker.onFailure(HOST, 22, new JSchException("Connection timed out"));
+
+        assertEquals(State.OPEN, breaker.getState(HOST, 22));
+    }
+
+    @Test
+    public void cancel_ProbeNotAttempted_NextExchangeProbes() throws Exception {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(1, 0);
+        breaker.onFailure(HOST, 22, new JSchException("session is down"));
+        breaker.allow(HOST, 22);
+
+        breaker.cancel(HOST, 22);
+
+        assertEquals(State.HALF_OPEN, breaker.getState(HOST, 22));
+        breaker.allow(HOST, 22);
+    }
+
+    @Test
+    public void allow_OpenTimeElapsed_LetsSingleProbeThrough()
+            throws Exception {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(1, 0);
+        breaker.onFailure(HOST, 22, new JSchException("session is down"));
+        assertEquals(State.OPEN, breaker.getState(HOST, 22));
+
+        breaker.allow(HOST, 22);
+        assertEquals(State.HALF_OPEN, breaker.getState(HOST, 22));
+        try {
+            breaker.allow(HOST, 22);
+            fail("Expected GenericEftpException");
+        } catch (final GenericEftpException e) {
+            assertEquals(EftpConstants.CIRCUIT_OPEN, e.getErrorCode());
+        }
+
+        breaker.onSuccess(HOST, 22);
+        assertEquals(State.CLOSED, breaker.getState(HOST, 22));
+        assertEquals(State.CLOSED, breaker.getStates().get(HOST + ":22"));
+    }
+}
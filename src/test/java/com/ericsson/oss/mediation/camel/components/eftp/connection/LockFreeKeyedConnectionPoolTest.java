@@ -0,0 +1,217 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+public class LockFreeKeyedConnectionPoolTest {
+
+    private final ConnectionConfig key = new ConnectionConfig("10.0.0.1", 22,
+            "user", "password", "true");
+    private final ConnectionConfig otherKey = new ConnectionConfig(
+            "10.0.0.2", 22, "user", "password", "true");
+
+    private FakeConnectionFactory factory;
+    private LockFreeKeyedConnectionPool<FakeConnection> pool;
+
+    @Before
+    public void setUp() {
+        factory = new FakeConnectionFactory();
+        pool = new LockFreeKeyedConnectionPool<FakeConnection>(factory);
+        pool.setMaxPerKey(2);
+        pool.setMaxTotal(3);
+        pool.setMaxWait(50);
+        pool.setEvictionInterval(0);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void borrowObject_ConnectionReturned_ReusedForSameKey()
+            throws Exception {
+        final FakeConnection connection = pool.borrowObject(key);
+        pool.returnObject(key, connection);
+
+        assertSame(connection, pool.borrowObject(key));
+        assertEquals(1, factory.created.size());
+        assertNotSame(connection, pool.borrowObject(otherKey));
+    }
+
+    @Test
+    public void borrowObject_KeyAtLimit_TimesOut() throws Exception {
+        pool.borrowObject(key);
+        pool.borrowObject(key);
+
+        final long start = System.nanoTime();
+        try {
+            pool.borrowObject(key);
+            fail("Expected NoSuchElementException");
+        } catch (final NoSuchElementException e) {
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+                    .toNanos(50));
+        }
+        assertEquals(2, pool.getNumOpen(key));
+        assertNotNull(pool.borrowObject(otherKey));
+    }
+
+    @Test
+    public void borrowObject_ConnectionReturnedWhileWaiting_LendsIt()
+            throws Exception {
+        pool.setMaxWait(10000);
+        final FakeConnection first = pool.borrowObject(key);
+        pool.borrowObject(key);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<FakeConnection> waiting = executor
+                    .submit(new Callable<FakeConnection>() {
+                        @Override
+                        public FakeConnection call() throws Exception {
+                            return pool.borrowObject(key);
+                        }
+                    });
+            Thread.sleep(20);
+            pool.returnObject(key, first);
+            assertSame(first, waiting.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void borrowObject_PoolFull_ClosesIdleConnectionOfOtherKey()
+            throws Exception {
+        final FakeConnection idle = pool.borrowObject(otherKey);
+        pool.borrowObject(otherKey);
+        pool.borrowObject(key);
+        pool.returnObject(otherKey, idle);
+
+        assertNotNull(pool.borrowObject(key));
+        assertTrue(idle.destroyed);
+        assertEquals(3, pool.getNumOpen());
+        assertEquals(0, pool.getNumIdle());
+    }
+
+    @Test
+    public void borrowObject_IdleConnectionNoLongerValid_OpensNewOne()
+            throws Exception {
+        final FakeConnection broken = pool.borrowObject(key);
+        pool.returnObject(key, broken);
+        broken.valid = false;
+
+        final FakeConnection connection = pool.borrowObject(key);
+
+        assertNotSame(broken, connection);
+        assertTrue(broken.destroyed);
+        assertEquals(1, pool.getNumOpen(key));
+    }
+
+    @Test
+    public void borrowObject_CreateFails_CapacityFreed() throws Exception {
+        factory.failure = new IllegalStateException("Auth fail");
+        try {
+            pool.borrowObject(key);
+            fail("Expected IllegalStateException");
+        } catch (final IllegalStateException e) {
+            assertEquals(0, pool.getNumOpen());
+        }
+    }
+
+    @Test
+    public void invalidateObject_ConnectionClosedAndCapacityFreed()
+            throws Exception {
+        final FakeConnection connection = pool.borrowObject(key);
+        pool.borrowObject(key);
+
+        pool.invalidateObject(key, connection);
+
+        assertTrue(connection.destroyed);
+        assertEquals(1, pool.getNumOpen(key));
+        assertNotNull(pool.borrowObject(key));
+    }
+
+    @Test
+    public void evict_IdleTimeoutPassed_ClosesOnlyExpiredConnections()
+            throws Exception {
+        pool.setIdleTimeout(30);
+        final FakeConnection expired = pool.borrowObject(key);
+        final FakeConnection recent = pool.borrowObject(key);
+        pool.returnObject(key, expired);
+        Thread.sleep(50);
+        pool.returnObject(key, recent);
+
+        pool.evict();
+
+        assertTrue(expired.destroyed);
+        assertFalse(recent.destroyed);
+        assertEquals(1, pool.getNumIdle());
+        assertSame(recent, pool.borrowObject(key));
+    }
+
+    @Test
+    public void close_IdleConnectionsClosed() throws Exception {
+        final FakeConnection connection = pool.borrowObject(key);
+        pool.returnObject(key, connection);
+
+        pool.close();
+
+        assertTrue(connection.destroyed);
+        assertEquals(0, pool.getNumOpen());
+    }
+
+    private static final class FakeConnection {
+        private volatile boolean valid = true;
+        private volatile boolean destroyed;
+    }
+
+    private static final class FakeConnectionFactory implements
+            ConnectionFactory<FakeConnection> {
+
+        private final List<FakeConnection> created = new ArrayList<FakeConnection>();
+        private volatile RuntimeException failure;
+
+        @Override
+        public synchronized FakeConnection create(final ConnectionConfig key) {
+            if (failure != null) {
+                throw failure;
+            }
+            final FakeConnection connection = new FakeConnection();
+            created.add(connection);
+            return connection;
+        }
+
+        @Override
+        public boolean isValid(final FakeConnection connection) {
+            return connection.valid;
+        }
+
+        @Override
+        public void destroy(final FakeConnection connection) {
+            connection.destroyed = true;
+        }
+    }
+
+}
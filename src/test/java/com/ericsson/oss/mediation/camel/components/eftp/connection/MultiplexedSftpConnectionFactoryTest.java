@@ -0,0 +1,128 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.jcraft.jsch.*;
+
+public class MultiplexedSftpConnectionFactoryTest {
+
+    private final ConnectionConfig key = new ConnectionConfig("10.0.0.1", 22,
+            "user", "password", "true");
+
+    private final FakeSessionFactory factory = new FakeSessionFactory(2);
+
+    @Test
+    public void create_SessionHasRoom_ChannelOpenedOnSameSession()
+            throws Exception {
+        final ChannelSftp first = factory.create(key);
+        final ChannelSftp second = factory.create(key);
+
+        assertSame(first.getSession(), second.getSession());
+        assertEquals(1, factory.opened.size());
+        assertEquals(1, factory.getNumSessions(key));
+    }
+
+    @Test
+    public void create_SessionFull_NewSessionOpened() throws Exception {
+        factory.create(key);
+        factory.create(key);
+
+        final ChannelSftp third = factory.create(key);
+
+        assertEquals(2, factory.opened.size());
+        assertSame(factory.opened.get(1), third.getSession());
+    }
+
+    @Test
+    public void destroy_LastChannelOfSession_SessionClosed() throws Exception {
+        final ChannelSftp first = factory.create(key);
+        final ChannelSftp second = factory.create(key);
+
+        factory.destroy(first);
+        verify(first.getSession(), never()).disconnect();
+
+        factory.destroy(second);
+        verify(second.getSession()).disconnect();
+        assertEquals(0, factory.getNumSessions());
+    }
+
+    @Test
+    public void destroy_ChannelOfFullSession_SlotReused() throws Exception {
+        final ChannelSftp first = factory.create(key);
+        factory.create(key);
+        factory.destroy(first);
+
+        factory.create(key);
+
+        assertEquals(1, factory.opened.size());
+    }
+
+    @Test
+    public void create_ChannelRefusedBySession_OpenedOnNewSession()
+            throws Exception {
+        factory.create(key);
+        factory.refuse = true;
+
+        final ChannelSftp channel = factory.create(key);
+
+        assertEquals(2, factory.opened.size());
+        assertSame(factory.opened.get(1), channel.getSession());
+        assertEquals(2, factory.getNumSessions(key));
+    }
+
+    /**
+     * Opens mocked sessions and channels, refusing channels on sessions
+     * which already have one if asked to
+     */
+    private static final class FakeSessionFactory extends
+            MultiplexedSftpConnectionFactory {
+
+        private final List<Session> opened = new ArrayList<Session>();
+        private final List<Session> withChannel = new ArrayList<Session>();
+        private boolean refuse;
+
+        private FakeSessionFactory(final int maxChannelsPerSession) {
+            super(1000, maxChannelsPerSession);
+        }
+
+        @Override
+        protected Session openSession(final ConnectionConfig key) {
+            final Session session = mock(Session.class);
+            when(session.isConnected()).thenReturn(true);
+            opened.add(session);
+            return session;
+        }
+
+        @Override
+        protected ChannelSftp openChannel(final Session session)
+                throws JSchException {
+            if (refuse && withChannel.contains(session)) {
+                throw new JSchException("channel is not opened.");
+            }
+            withChannel.add(session);
+            final ChannelSftp channel = mock(ChannelSftp.class);
+            when(channel.getSession()).thenReturn(session);
+            when(channel.isConnected()).thenReturn(true);
+            return channel;
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+public class NetworkElementInventoryTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("inventory", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void load_NetworkElementsAndComments_NetworkElementsInOrder()
+            throws IOException {
+        write("# protocol host port username password\n",
+                "sftp 10.0.0.1 22 pmuser secret\n", "\n",
+                "  FTP\t10.0.0.2   21 pmuser secret  \n");
+
+        final List<ConnectionConfig> networkElements = NetworkElementInventory
+                .load(file);
+
+        assertEquals(2, networkElements.size());
+        assertEquals("10.0.0.1", networkElements.get(0).getIpAddress());
+        assertEquals("true", networkElements.get(0).getSecure());
+        assertEquals("10.0.0.2", networkElements.get(1).getIpAddress());
+        assertEquals(Integer.valueOf(21), networkElements.get(1).getPort());
+        assertEquals("false", networkElements.get(1).getSecure());
+    }
+
+    @Test(expected = IOException.class)
+    public void load_MissingPassword_Fails() throws IOException {
+        write("sftp 10.0.0.1 22 pmuser\n");
+
+        NetworkElementInventory.load(file);
+    }
+
+    private void write(final String... lines) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            for (final String line : lines) {
+                writer.write(line);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.jcraft.jsch.ChannelSftp;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PoolPrewarmerTest {
+
+    private final ConnectionConfig sftpKey = new ConnectionConfig("10.0.0.1",
+            22, "user", "password", "true");
+    private final ConnectionConfig ftpKey = new ConnectionConfig("10.0.0.2",
+            21, "user", "password", "false");
+
+    @Mock
+    private KeyedConnectionPool<ChannelSftp> sftpPool;
+
+    @Mock
+    private KeyedConnectionPool<FTPClient> ftpPool;
+
+    @Mock
+    private ChannelSftp first;
+
+    @Mock
+    private ChannelSftp second;
+
+    private final ScheduledExecutorService scheduler = Executors
+            .newSingleThreadScheduledExecutor();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void warm_SecureNetworkElement_ConnectionsBorrowedTogetherAndReturned()
+            throws Exception {
+        when(sftpPool.borrowObject(sftpKey)).thenReturn(first, second);
+
+        prewarmer(2).warm(sftpKey);
+
+        verify(sftpPool, times(2)).borrowObject(sftpKey);
+        verify(sftpPool).returnObject(sftpKey, first);
+        verify(sftpPool).returnObject(sftpKey, second);
+        verifyZeroInteractions(ftpPool);
+    }
+
+    @Test
+    public void warm_NetworkElementUnreachable_BorrowedReturnedAndFailureCounted()
+            throws Exception {
+        when(sftpPool.borrowObject(sftpKey)).thenReturn(first).thenThrow(
+                new IllegalStateException("Auth fail"));
+        final PoolPrewarmer prewarmer = prewarmer(2);
+
+        prewarmer.warm(sftpKey);
+
+        verify(sftpPool).returnObject(sftpKey, first);
+        assertEquals(1, prewarmer.getFailureCount());
+        assertEquals(0, prewarmer.getWarmedCount());
+    }
+
+    @Test
+    public void warm_Inventory_EveryNetworkElementWarmedInItsPool()
+            throws Exception {
+        when(sftpPool.borrowObject(sftpKey)).thenReturn(first);
+        final FTPClient ftpClient = mock(FTPClient.class);
+        when(ftpPool.borrowObject(ftpKey)).thenReturn(ftpClient);
+
+        prewarmer(1).warm();
+
+        verify(sftpPool, timeout(2000)).returnObject(sftpKey, first);
+        verify(ftpPool, timeout(2000)).returnObject(ftpKey, ftpClient);
+    }
+
+    @Test
+    public void delayBeforeBoundary_LeadTimeBeforeNextRop() {
+        final long rop = 900000;
+        assertEquals(rop - 60000 - 1000,
+                PoolPrewarmer.delayBeforeBoundary(rop * 10 + 1000, rop, 60000));
+        assertEquals(0,
+                PoolPrewarmer.delayBeforeBoundary(rop * 11 - 60000, rop, 60000));
+        assertEquals(rop - 1000, PoolPrewarmer.delayBeforeBoundary(rop * 11
+                - 59000, rop, 60000));
+    }
+
+    private PoolPrewarmer prewarmer(final int connections) {
+        return new PoolPrewarmer(Arrays.asList(sftpKey, ftpKey), sftpPool,
+                ftpPool, connections, 50, scheduler, executor);
+    }
+
+}
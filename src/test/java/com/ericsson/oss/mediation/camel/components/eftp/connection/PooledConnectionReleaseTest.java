@@ -0,0 +1,122 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.*;
+
+import org.apache.camel.Exchange;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.ericsson.oss.mediation.camel.components.eftp.io.ReleasingInputStream;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.jcraft.jsch.ChannelSftp;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PooledConnectionReleaseTest {
+
+    @Mock
+    private KeyedConnectionPool<ChannelSftp> pool;
+
+    @Mock
+    private ChannelSftp channel;
+
+    @Mock
+    private Exchange exchange;
+
+    private final ConnectionConfig key = new ConnectionConfig("localhost",
+            22, "user", "password", "true");
+
+    private ConnectionLeakDetector leakDetector;
+    private SftpConnectionRelease release;
+
+    @Before
+    public void setUp() {
+        leakDetector = new ConnectionLeakDetector(60000);
+        release = new SftpConnectionRelease(pool, key, channel, "exchange-1",
+                leakDetector);
+    }
+
+    @Test
+    public void onComplete_NoBody_ReturnsConnection() throws Exception {
+        release.onComplete(exchange);
+        verify(pool).returnObject(key, channel);
+        assertTrue(release.isReleased());
+        assertEquals(0, leakDetector.getOutstandingCount());
+    }
+
+    @Test
+    public void onFailure_InvalidatesConnection() throws Exception {
+        release.onFailure(exchange);
+        verify(pool).invalidateObject(key, channel);
+        verify(pool, never()).returnObject(key, channel);
+    }
+
+    @Test
+    public void release_CalledTwice_ReleasesOnce() throws Exception {
+        assertTrue(release.release(true));
+        assertFalse(release.release(false));
+        release.onComplete(exchange);
+        verify(pool, times(1)).returnObject(key, channel);
+        verify(pool, never()).invalidateObject(key, channel);
+    }
+
+    @Test
+    public void bodyReadToEnd_ReturnsConnectionBeforeExchangeCompletes()
+            throws Exception {
+        final InputStream body = new ReleasingInputStream(
+                new ByteArrayInputStream(new byte[10]), release);
+        release.setBody(body);
+        while (body.read() != -1) {
+            // drain
+        }
+        verify(pool).returnObject(key, channel);
+        release.onComplete(exchange);
+        verify(pool, times(1)).returnObject(key, channel);
+    }
+
+    @Test
+    public void bodyFailsToClose_InvalidatesConnection() throws Exception {
+        final InputStream failing = new ByteArrayInputStream(new byte[0]) {
+            @Override
+            public void close() throws IOException {
+                throw new IOException("transfer not confirmed");
+            }
+        };
+        release.setBody(new ReleasingInputStream(failing, release));
+        release.onComplete(exchange);
+        verify(pool).invalidateObject(key, channel);
+    }
+
+    @Test
+    public void leakDetector_ConnectionHeldPastThreshold_ReportsLeakOnce()
+            throws Exception {
+        final ConnectionLeakDetector detector = new ConnectionLeakDetector(0);
+        final SftpConnectionRelease held = new SftpConnectionRelease(pool,
+                key, channel, "exchange-2", detector);
+        Thread.sleep(5);
+
+        detector.run();
+        detector.run();
+        assertEquals(1, detector.getLeaksDetected());
+        assertEquals(1, detector.getOutstandingCount());
+
+        held.release(true);
+        assertEquals(0, detector.getOutstandingCount());
+    }
+}
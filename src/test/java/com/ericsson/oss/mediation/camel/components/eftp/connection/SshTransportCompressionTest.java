@@ -0,0 +1,54 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.connection;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.jcraft.jsch.Session;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SshTransportCompressionTest {
+
+    private static final String ZLIB = "zlib@openssh.com,zlib,none";
+
+    @Mock
+    private Session session;
+
+    @Test
+    public void testEnable_Uncompressed_ExchangesKeysAgain() throws Exception {
+        when(session.getConfig("compression.s2c")).thenReturn("none");
+        when(session.getConfig("compression.c2s")).thenReturn("none");
+
+        assertTrue(SshTransportCompression.enable(session, ZLIB));
+
+        verify(session).setConfig("compression.s2c", ZLIB);
+        verify(session).setConfig("compression.c2s", ZLIB);
+        verify(session).rekey();
+    }
+
+    @Test
+    public void testEnable_AlreadyProposed_Unchanged() throws Exception {
+        when(session.getConfig("compression.s2c")).thenReturn(ZLIB);
+        when(session.getConfig("compression.c2s")).thenReturn(ZLIB);
+
+        assertFalse(SshTransportCompression.enable(session, ZLIB));
+
+        verify(session, never()).rekey();
+    }
+
+}
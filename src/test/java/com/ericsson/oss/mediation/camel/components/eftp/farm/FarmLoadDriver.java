@@ -0,0 +1,224 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.farm;
+
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Producer;
+
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.metrics.LatencyHistogram;
+
+/**
+ * Retrieves every file of every network element of a
+ * {@link NetworkElementFarm} through an eftp producer, a number of files at a
+ * time, and reports the files and bytes per second, the latency of each file
+ * and the errors.
+ */
+public class FarmLoadDriver {
+
+    private final Producer producer;
+    private final int concurrency;
+
+    /**
+     * @param producer
+     *            the started eftp producer
+     * @param concurrency
+     *            the number of files retrieved at a time
+     */
+    public FarmLoadDriver(final Producer producer, final int concurrency) {
+        this.producer = producer;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Retrieves every file of the network elements once, in an order
+     * interleaving the network elements the way a collection round does
+     *
+     * @return the report of the round
+     */
+    public LoadReport run(final List<SimulatedNetworkElement> networkElements)
+            throws InterruptedException {
+        final List<Callable<Void>> retrievals = new ArrayList<Callable<Void>>();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong files = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+        int maxFiles = 0;
+        for (final SimulatedNetworkElement networkElement : networkElements) {
+            maxFiles = Math.max(maxFiles, networkElement.getFileNames().size());
+        }
+        for (int i = 0; i < maxFiles; i++) {
+            for (final SimulatedNetworkElement networkElement : networkElements) {
+                if (i < networkElement.getFileNames().size()) {
+                    final String fileName = networkElement.getFileNames()
+                            .get(i);
+                    retrievals.add(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            final long start = System.nanoTime();
+                            try {
+                                bytes.addAndGet(retrieve(networkElement,
+                                        fileName));
+                                files.incrementAndGet();
+                                latency.record(TimeUnit.NANOSECONDS
+                                        .toMicros(System.nanoTime() - start));
+                            } catch (final Exception e) {
+                                count(errors, category(e));
+                            }
+                            return null;
+                        }
+                    });
+                }
+            }
+        }
+
+        final ExecutorService executor = Executors
+                .newFixedThreadPool(concurrency);
+        final long start = System.nanoTime();
+        try {
+            executor.invokeAll(retrievals);
+        } finally {
+            executor.shutdownNow();
+        }
+        final Map<String, Long> errorCounts = new TreeMap<String, Long>();
+        for (final Map.Entry<String, AtomicLong> entry : errors.entrySet()) {
+            errorCounts.put(entry.getKey(), entry.getValue().get());
+        }
+        return new LoadReport(files.get(), bytes.get(), System.nanoTime()
+                - start, latency, errorCounts);
+    }
+
+    private long retrieve(final SimulatedNetworkElement networkElement,
+            final String fileName) throws Exception {
+        final Exchange exchange = producer.createExchange();
+        networkElement.setHeaders(exchange.getIn(), fileName);
+        producer.process(exchange);
+        if (exchange.getException() != null) {
+            throw exchange.getException();
+        }
+        final byte[] buffer = new byte[64 * 1024];
+        long read = 0;
+        try (InputStream body = exchange.getIn().getBody(InputStream.class)) {
+            int count;
+            while ((count = body.read(buffer)) != -1) {
+                read += count;
+            }
+        }
+        if (read != networkElement.getProfile().getFileSize()) {
+            throw new IllegalStateException("Read " + read + " bytes of "
+                    + fileName);
+        }
+        return read;
+    }
+
+    private static String category(final Exception e) {
+        if (e instanceof GenericEftpException) {
+            return "EFTP_" + ((GenericEftpException) e).getErrorCode();
+        }
+        return e.getClass().getSimpleName();
+    }
+
+    private static void count(final ConcurrentMap<String, AtomicLong> errors,
+            final String category) {
+        AtomicLong counter = errors.get(category);
+        if (counter == null) {
+            final AtomicLong created = new AtomicLong();
+            counter = errors.putIfAbsent(category, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * The outcome of a round of retrievals
+     */
+    public static final class LoadReport {
+
+        private final long files;
+        private final long bytes;
+        private final long elapsedNanos;
+        private final LatencyHistogram latency;
+        private final Map<String, Long> errors;
+
+        private LoadReport(final long files, final long bytes,
+                final long elapsedNanos, final LatencyHistogram latency,
+                final Map<String, Long> errors) {
+            this.files = files;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+            this.errors = errors;
+        }
+
+        /**
+         * @return the number of files retrieved completely
+         */
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getFilesPerSecond() {
+            return files * 1e9 / elapsedNanos;
+        }
+
+        public double getMegabytesPerSecond() {
+            return bytes * 1e9 / elapsedNanos / (1024 * 1024);
+        }
+
+        /**
+         * @return the latency of a file retrieved completely, in
+         *         milliseconds, at the given percentile
+         */
+        public double getLatencyMillis(final double percentile) {
+            return latency.getPercentile(percentile) / 1000.0;
+        }
+
+        /**
+         * @return the number of failed retrievals by eftp error code or
+         *         exception class
+         */
+        public Map<String, Long> getErrors() {
+            return errors;
+        }
+
+        public long getErrorCount() {
+            long count = 0;
+            for (final long value : errors.values()) {
+                count += value;
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d files, %.1f files/s, %.2f MB/s, p50 %.1f ms, "
+                            + "p99 %.1f ms, max %.1f ms, errors %s", files,
+                    getFilesPerSecond(), getMegabytesPerSecond(),
+                    getLatencyMillis(50), getLatencyMillis(99),
+                    latency.getMax() / 1000.0, errors);
+        }
+    }
+
+}
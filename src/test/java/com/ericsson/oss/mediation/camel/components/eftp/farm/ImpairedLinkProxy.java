@@ -0,0 +1,275 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.farm;
+
+import java.io.*;
+import java.net.*;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP proxy emulating the link to one network element: it adds latency in
+ * each direction, limits the bandwidth of each connection, refuses
+ * connections beyond a session limit and drops or stalls some connections
+ * part way through what the network element sends, as described by a
+ * {@link NetworkElementProfile}.
+ */
+public class ImpairedLinkProxy {
+
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    /**
+     * largest chunk relayed at once on a limited link, so the pacing stays
+     * smooth
+     */
+    private static final int PACED_CHUNK = 8 * 1024;
+
+    private final int listenPort;
+    private final String targetHost;
+    private final int targetPort;
+    private final NetworkElementProfile profile;
+    private final ExecutorService executor;
+    private final Random random;
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final AtomicInteger refused = new AtomicInteger();
+    private final AtomicLong relayed = new AtomicLong();
+
+    private ServerSocket serverSocket;
+
+    /**
+     * @param listenPort
+     *            the local port clients connect to, 0 for any free port
+     * @param targetHost
+     *            the host of the real server
+     * @param targetPort
+     *            the port of the real server
+     * @param profile
+     *            the impairments of the link
+     * @param executor
+     *            runs the relay threads, shared by the proxies of a farm
+     * @param seed
+     *            the seed of the random faults
+     */
+    public ImpairedLinkProxy(final int listenPort, final String targetHost,
+            final int targetPort, final NetworkElementProfile profile,
+            final ExecutorService executor, final long seed) {
+        this.listenPort = listenPort;
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.profile = profile;
+        this.executor = executor;
+        this.random = new Random(seed);
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(listenPort);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        accept(serverSocket.accept());
+                    } catch (final IOException e) {
+                        // server socket closed
+                    }
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (final IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * @return the port the proxy listens on, once started
+     */
+    public int getListenPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of connections currently open
+     */
+    public int getSessions() {
+        return sessions.get();
+    }
+
+    /**
+     * @return the number of connections refused because of the session limit
+     */
+    public int getRefused() {
+        return refused.get();
+    }
+
+    /**
+     * @return the number of bytes relayed in both directions since the proxy
+     *         was created, as they would cross the link
+     */
+    public long getRelayedBytes() {
+        return relayed.get();
+    }
+
+    private void accept(final Socket client) throws IOException {
+        final int active = sessions.incrementAndGet();
+        if (profile.getMaxSessions() > 0 && active > profile.getMaxSessions()) {
+            sessions.decrementAndGet();
+            refused.incrementAndGet();
+            closeQuietly(client);
+            return;
+        }
+        final Socket server;
+        try {
+            server = new Socket(targetHost, targetPort);
+        } catch (final IOException e) {
+            sessions.decrementAndGet();
+            closeQuietly(client);
+            throw e;
+        }
+        client.setTcpNoDelay(true);
+        server.setTcpNoDelay(true);
+
+        final long dropAt;
+        final long stallAt;
+        synchronized (random) {
+            dropAt = random.nextDouble() < profile.getDropProbability() ? faultOffset()
+                    : -1;
+            stallAt = random.nextDouble() < profile.getStallProbability() ? faultOffset()
+                    : -1;
+        }
+        final AtomicBoolean closed = new AtomicBoolean();
+        relay(client, server, -1, -1, closed);
+        relay(server, client, dropAt, stallAt, closed);
+    }
+
+    /**
+     * @return a random offset within the first file size of bytes sent on
+     *         the connection
+     */
+    private long faultOffset() {
+        return random.nextInt(Math.max(1, profile.getFileSize()));
+    }
+
+    /**
+     * Relays one direction of a connection
+     *
+     * @param dropAt
+     *            the number of bytes after which the connection is dropped,
+     *            -1 if it is not
+     * @param stallAt
+     *            the number of bytes after which the connection stalls, -1
+     *            if it does not
+     */
+    private void relay(final Socket from, final Socket to, final long dropAt,
+            final long stallAt, final AtomicBoolean closed) {
+        final BlockingQueue<DelayedChunk> queue = new LinkedBlockingQueue<DelayedChunk>();
+        final long oneWayDelay = profile.getRoundTripMillis() / 2;
+        final int chunkSize = profile.getBandwidth() > 0 ? PACED_CHUNK
+                : 32 * 1024;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] buffer = new byte[chunkSize];
+                try {
+                    final InputStream in = from.getInputStream();
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        queue.put(new DelayedChunk(Arrays.copyOf(buffer, count),
+                                System.currentTimeMillis() + oneWayDelay));
+                    }
+                } catch (final Exception e) {
+                    // connection closed
+                } finally {
+                    queue.offer(new DelayedChunk(END_OF_STREAM, 0));
+                }
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long sent = 0;
+                long nextSendAt = System.nanoTime();
+                boolean stalled = false;
+                try {
+                    final OutputStream out = to.getOutputStream();
+                    while (true) {
+                        final DelayedChunk chunk = queue.take();
+                        if (chunk.data == END_OF_STREAM) {
+                            break;
+                        }
+                        final long wait = chunk.due - System.currentTimeMillis();
+                        if (wait > 0) {
+                            Thread.sleep(wait);
+                        }
+                        if (dropAt >= 0 && sent + chunk.data.length > dropAt) {
+                            break;
+                        }
+                        if (!stalled && stallAt >= 0
+                                && sent + chunk.data.length > stallAt) {
+                            stalled = true;
+                            Thread.sleep(profile.getStallMillis());
+                        }
+                        if (profile.getBandwidth() > 0) {
+                            nextSendAt = Math.max(nextSendAt, System.nanoTime())
+                                    + chunk.data.length * 1000000000L
+                                    / profile.getBandwidth();
+                            final long pace = nextSendAt - System.nanoTime();
+                            if (pace > 0) {
+                                TimeUnit.NANOSECONDS.sleep(pace);
+                            }
+                        }
+                        out.write(chunk.data);
+                        out.flush();
+                        sent += chunk.data.length;
+                        relayed.addAndGet(chunk.data.length);
+                    }
+                } catch (final Exception e) {
+                    // connection closed
+                } finally {
+                    closeQuietly(from);
+                    closeQuietly(to);
+                    if (closed.compareAndSet(false, true)) {
+                        sessions.decrementAndGet();
+                    }
+                }
+            }
+        });
+    }
+
+    private static void closeQuietly(final Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException e) {
+            // ignore
+        }
+    }
+
+    private static final class DelayedChunk {
+        private final byte[] data;
+        private final long due;
+
+        private DelayedChunk(final byte[] data, final long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.farm;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.usermanager.impl.*;
+import org.apache.sshd.server.PasswordAuthenticator;
+import org.apache.sshd.server.session.ServerSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedFtpServer;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.EmbeddedSftpServer;
+
+/**
+ * Hundreds of simulated network elements on one machine, for load testing
+ * the component without a lab. Each network element has its own directory of
+ * files and its own localhost port, an {@link ImpairedLinkProxy} in front of
+ * an in process sshd-core or ftpserver-core server shared by all the network
+ * elements of that protocol. The servers tell the network elements apart by
+ * user name, which is the name of the network element.
+ * <p>
+ * An FTP data connection goes straight to the FTP server rather than through
+ * the proxy, so for FTP the latency, drops and stalls only affect the control
+ * connection. The bandwidth of an FTP download is limited by the server
+ * instead, with the {@link TransferRatePermission} of the user.
+ */
+public class NetworkElementFarm {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(NetworkElementFarm.class);
+
+    private final File rootDirectory;
+    private final Map<String, SimulatedNetworkElement> networkElements = new LinkedHashMap<String, SimulatedNetworkElement>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private EmbeddedSftpServer sftpServer;
+    private EmbeddedFtpServer ftpServer;
+
+    /**
+     * @param rootDirectory
+     *            the directory under which the directories of the network
+     *            elements are created
+     */
+    public NetworkElementFarm(final File rootDirectory) {
+        this.rootDirectory = rootDirectory;
+    }
+
+    /**
+     * Creates network elements, their files and their links. The servers are
+     * started the first time network elements of their protocol are added.
+     *
+     * @param count
+     *            the number of network elements to add
+     * @param profile
+     *            the files, link and faults of the network elements
+     * @param secure
+     *            true for SFTP network elements, false for FTP
+     * @return the network elements added
+     */
+    public synchronized List<SimulatedNetworkElement> addNetworkElements(
+            final int count, final NetworkElementProfile profile,
+            final boolean secure) throws Exception {
+        final int serverPort = startServer(secure);
+        final List<SimulatedNetworkElement> added = new ArrayList<SimulatedNetworkElement>(
+                count);
+        for (int i = 0; i < count; i++) {
+            final int index = networkElements.size();
+            final String name = String.format("%s%05d", secure ? "SFTP_NE"
+                    : "FTP_NE", index);
+            final File directory = new File(rootDirectory, name);
+            final List<String> fileNames = populate(directory, profile);
+            final ImpairedLinkProxy proxy = new ImpairedLinkProxy(0,
+                    "localhost", serverPort, profile, executor, index);
+            proxy.start();
+            final SimulatedNetworkElement networkElement = new SimulatedNetworkElement(
+                    name, secure, directory, fileNames, profile, proxy);
+            networkElements.put(name, networkElement);
+            added.add(networkElement);
+        }
+        LOG.info("Added {} {} network elements", count, secure ? "SFTP"
+                : "FTP");
+        return added;
+    }
+
+    /**
+     * @return all the network elements of the farm
+     */
+    public synchronized List<SimulatedNetworkElement> getNetworkElements() {
+        return new ArrayList<SimulatedNetworkElement>(networkElements.values());
+    }
+
+    /**
+     * Stops the links and servers and deletes the files of the network
+     * elements
+     */
+    public synchronized void stop() {
+        for (final SimulatedNetworkElement networkElement : networkElements
+                .values()) {
+            networkElement.getProxy().stop();
+            delete(networkElement.getDirectory());
+        }
+        networkElements.clear();
+        if (sftpServer != null) {
+            sftpServer.stop();
+            sftpServer = null;
+        }
+        if (ftpServer != null) {
+            ftpServer.stop();
+            ftpServer = null;
+        }
+        executor.shutdownNow();
+    }
+
+    private int startServer(final boolean secure) throws Exception {
+        if (secure) {
+            if (sftpServer == null) {
+                sftpServer = new EmbeddedSftpServer(
+                        EmbeddedSftpServer.findFreePort(),
+                        new FaultyPasswordAuthenticator());
+                sftpServer.start();
+            }
+            return sftpServer.getPort();
+        }
+        if (ftpServer == null) {
+            ftpServer = new FarmFtpServer(EmbeddedSftpServer.findFreePort());
+            ftpServer.start();
+        }
+        return ftpServer.getPort();
+    }
+
+    private static List<String> populate(final File directory,
+            final NetworkElementProfile profile) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        final byte[] content = new byte[profile.getFileSize()];
+        new Random(directory.getName().hashCode()).nextBytes(content);
+        final List<String> fileNames = new ArrayList<String>(
+                profile.getFileCount());
+        for (int i = 0; i < profile.getFileCount(); i++) {
+            // binary suffix, so FTP transfers the file unchanged
+            final String fileName = String.format("A%04d.xml.gz", i);
+            final OutputStream out = new FileOutputStream(new File(directory,
+                    fileName));
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+            }
+            fileNames.add(fileName);
+        }
+        return fileNames;
+    }
+
+    private static void delete(final File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * @return whether a login to the network element is accepted, rejecting
+     *         some at random as set by its profile
+     */
+    private boolean acceptLogin(final String username) {
+        final SimulatedNetworkElement networkElement;
+        synchronized (this) {
+            networkElement = networkElements.get(username);
+        }
+        if (networkElement == null) {
+            return false;
+        }
+        return ThreadLocalRandom.current().nextDouble() >= networkElement
+                .getProfile().getAuthFailureProbability();
+    }
+
+    private final class FaultyPasswordAuthenticator implements
+            PasswordAuthenticator {
+        @Override
+        public boolean authenticate(final String username,
+                final String password, final ServerSession session) {
+            return acceptLogin(username);
+        }
+    }
+
+    private final class FarmFtpServer extends EmbeddedFtpServer {
+
+        private FarmFtpServer(final int port) {
+            super(port, rootDirectory, Integer.MAX_VALUE);
+        }
+
+        @Override
+        protected BaseUser newUser(final String name) {
+            final BaseUser user = super.newUser(name);
+            final SimulatedNetworkElement networkElement;
+            synchronized (NetworkElementFarm.this) {
+                networkElement = networkElements.get(name);
+            }
+            if (networkElement != null) {
+                user.setHomeDirectory(networkElement.getDirectory()
+                        .getAbsolutePath());
+                final long bandwidth = networkElement.getProfile()
+                        .getBandwidth();
+                if (bandwidth > 0) {
+                    final List<Authority> authorities = new ArrayList<Authority>(
+                            user.getAuthorities());
+                    authorities.add(new TransferRatePermission(
+                            (int) Math.min(bandwidth, Integer.MAX_VALUE),
+                            (int) Math.min(bandwidth, Integer.MAX_VALUE)));
+                    user.setAuthorities(authorities);
+                }
+            }
+            return user;
+        }
+
+        @Override
+        protected boolean accept(final String name) {
+            return acceptLogin(name);
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.farm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.apache.camel.Producer;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.SimpleRegistry;
+import org.junit.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.*;
+
+/**
+ * Collects from a small farm of healthy and faulty network elements. This
+ * test will not be run by Maven unless the profile run-integration-test is
+ * active
+ */
+public class NetworkElementFarmIntegrationTest {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(NetworkElementFarmIntegrationTest.class);
+
+    private NetworkElementFarm farm;
+    private DefaultCamelContext context;
+    private Producer producer;
+
+    @Before
+    public void setUp() throws Exception {
+        farm = new NetworkElementFarm(new File("target/ne-farm"));
+        final SimpleRegistry registry = new SimpleRegistry();
+        registry.put(Constants.SFTP_POOL, new SftpConnectionPool(1, 0, 20,
+                15000, 5000, 2000, 20));
+        registry.put(Constants.FTP_POOL, new FtpConnectionPool(1, 0, 20,
+                15000, 5000, 2000, 20));
+        context = new DefaultCamelContext(registry);
+        context.start();
+        producer = context.getEndpoint("eftp://farm").createProducer();
+        producer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        producer.stop();
+        context.stop();
+        farm.stop();
+    }
+
+    @Test
+    public void testHealthyNetworkElements() throws Exception {
+        final NetworkElementProfile profile = new NetworkElementProfile()
+                .withFiles(3, 32 * 1024).withRoundTrip(20)
+                .withBandwidth(1024 * 1024);
+        farm.addNetworkElements(10, profile, true);
+        farm.addNetworkElements(10, profile, false);
+
+        final FarmLoadDriver.LoadReport report = new FarmLoadDriver(producer,
+                8).run(farm.getNetworkElements());
+        LOG.info("Healthy farm: {}", report);
+
+        assertEquals(60, report.getFiles());
+        assertEquals(60 * 32 * 1024, report.getBytes());
+        assertTrue(report.getErrors().isEmpty());
+        assertTrue(report.getLatencyMillis(99) >= 20);
+    }
+
+    @Test
+    public void testFaultyNetworkElements() throws Exception {
+        farm.addNetworkElements(10, new NetworkElementProfile().withFiles(2,
+                16 * 1024).withAuthFailures(0.9), true);
+
+        final FarmLoadDriver.LoadReport report = new FarmLoadDriver(producer,
+                4).run(farm.getNetworkElements());
+        LOG.info("Faulty farm: {}", report);
+
+        assertEquals(20, report.getFiles() + report.getErrorCount());
+        assertTrue(report.getErrorCount() > 0);
+    }
+
+}
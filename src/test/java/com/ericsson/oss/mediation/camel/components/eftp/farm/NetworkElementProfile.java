@@ -0,0 +1,144 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.farm;
+
+/**
+ * Describes the files, link and faults of the simulated network elements of
+ * a {@link NetworkElementFarm}. All settings default to a healthy network
+ * element on an unimpaired link.
+ */
+public class NetworkElementProfile {
+
+    private int fileCount = 4;
+    private int fileSize = 64 * 1024;
+    private long roundTripMillis;
+    private long bandwidth;
+    private int maxSessions;
+    private double dropProbability;
+    private double authFailureProbability;
+    private double stallProbability;
+    private long stallMillis = 5000;
+
+    /**
+     * @param fileCount
+     *            the number of files each network element holds
+     * @param fileSize
+     *            the size in bytes of each file
+     */
+    public NetworkElementProfile withFiles(final int fileCount,
+            final int fileSize) {
+        this.fileCount = fileCount;
+        this.fileSize = fileSize;
+        return this;
+    }
+
+    /**
+     * @param roundTripMillis
+     *            the round trip time added to the link
+     */
+    public NetworkElementProfile withRoundTrip(final long roundTripMillis) {
+        this.roundTripMillis = roundTripMillis;
+        return this;
+    }
+
+    /**
+     * @param bandwidth
+     *            the maximum bytes per second of each connection in each
+     *            direction, 0 does not limit it
+     */
+    public NetworkElementProfile withBandwidth(final long bandwidth) {
+        this.bandwidth = bandwidth;
+        return this;
+    }
+
+    /**
+     * @param maxSessions
+     *            the maximum number of concurrent connections accepted, any
+     *            further connection is closed as soon as it is accepted, 0
+     *            does not limit them
+     */
+    public NetworkElementProfile withMaxSessions(final int maxSessions) {
+        this.maxSessions = maxSessions;
+        return this;
+    }
+
+    /**
+     * @param dropProbability
+     *            the probability that a connection is dropped part way
+     *            through
+     */
+    public NetworkElementProfile withDrops(final double dropProbability) {
+        this.dropProbability = dropProbability;
+        return this;
+    }
+
+    /**
+     * @param authFailureProbability
+     *            the probability that a login is rejected
+     */
+    public NetworkElementProfile withAuthFailures(
+            final double authFailureProbability) {
+        this.authFailureProbability = authFailureProbability;
+        return this;
+    }
+
+    /**
+     * @param stallProbability
+     *            the probability that a connection stops sending part way
+     *            through
+     * @param stallMillis
+     *            how long a stalled connection stops sending for
+     */
+    public NetworkElementProfile withStalls(final double stallProbability,
+            final long stallMillis) {
+        this.stallProbability = stallProbability;
+        this.stallMillis = stallMillis;
+        return this;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public int getFileSize() {
+        return fileSize;
+    }
+
+    public long getRoundTripMillis() {
+        return roundTripMillis;
+    }
+
+    public long getBandwidth() {
+        return bandwidth;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public double getDropProbability() {
+        return dropProbability;
+    }
+
+    public double getAuthFailureProbability() {
+        return authFailureProbability;
+    }
+
+    public double getStallProbability() {
+        return stallProbability;
+    }
+
+    public long getStallMillis() {
+        return stallMillis;
+    }
+
+}
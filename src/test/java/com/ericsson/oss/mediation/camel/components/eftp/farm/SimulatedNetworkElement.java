@@ -0,0 +1,100 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.farm;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.camel.Message;
+
+import com.ericsson.oss.mediation.camel.components.eftp.EftpConstants;
+
+/**
+ * One network element of a {@link NetworkElementFarm}: a directory of files
+ * served through its own {@link ImpairedLinkProxy}. The network element is
+ * identified on the shared server by its name, used as user name.
+ */
+public class SimulatedNetworkElement {
+
+    private final String name;
+    private final boolean secure;
+    private final File directory;
+    private final List<String> fileNames;
+    private final NetworkElementProfile profile;
+    private final ImpairedLinkProxy proxy;
+
+    SimulatedNetworkElement(final String name, final boolean secure,
+            final File directory, final List<String> fileNames,
+            final NetworkElementProfile profile, final ImpairedLinkProxy proxy) {
+        this.name = name;
+        this.secure = secure;
+        this.directory = directory;
+        this.fileNames = fileNames;
+        this.profile = profile;
+        this.proxy = proxy;
+    }
+
+    /**
+     * Sets the headers retrieving one of the files of the network element
+     *
+     * @param in
+     *            the message sent to the eftp producer
+     * @param fileName
+     *            one of {@link #getFileNames()}
+     */
+    public void setHeaders(final Message in, final String fileName) {
+        in.setHeader(EftpConstants.EFTP_SECURE_FTP, String.valueOf(secure));
+        in.setHeader(EftpConstants.EFTP_TARGET_IP_ADDRESS, "localhost");
+        in.setHeader(EftpConstants.EFTP_TARGET_PORT, String.valueOf(getPort()));
+        in.setHeader(EftpConstants.EFTP_TARGET_USERNAME, name);
+        in.setHeader(EftpConstants.EFTP_TARGET_PASSWORD, name);
+        // the FTP user is chrooted to the directory of the network element
+        in.setHeader(EftpConstants.EFTP_SOURCE_DIRECTORY,
+                secure ? directory.getAbsolutePath() : "/");
+        in.setHeader(EftpConstants.EFTP_SOURCE_FILE, fileName);
+        in.setHeader(EftpConstants.EFTP_DESTINATION_DIRECTORY, "/tmp");
+        in.setHeader(EftpConstants.EFTP_DESTINATION_FILE, name + "_"
+                + fileName);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isSecure() {
+        return secure;
+    }
+
+    /**
+     * @return the port of the link to the network element
+     */
+    public int getPort() {
+        return proxy.getListenPort();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public List<String> getFileNames() {
+        return fileNames;
+    }
+
+    public NetworkElementProfile getProfile() {
+        return profile;
+    }
+
+    public ImpairedLinkProxy getProxy() {
+        return proxy;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.io;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FtpRetrieveInputStreamTest {
+
+    private static final int TIMEOUT = 5000;
+    private static final int PREVIOUS_TIMEOUT = 60000;
+
+    @Mock
+    private FTPClient ftpClient;
+
+    private FtpRetrieveInputStream stream;
+
+    @Before
+    public void setUp() throws Exception {
+        when(ftpClient.getSoTimeout()).thenReturn(PREVIOUS_TIMEOUT);
+        when(ftpClient.isConnected()).thenReturn(true);
+        stream = new FtpRetrieveInputStream(new ByteArrayInputStream(
+                "file content".getBytes()), ftpClient, "/dir/file", TIMEOUT);
+    }
+
+    @Test
+    public void close_TransferConfirmed_CompletesCommandWithinTimeout()
+            throws Exception {
+        when(ftpClient.completePendingCommand()).thenReturn(true);
+
+        stream.close();
+
+        final InOrder order = inOrder(ftpClient);
+        order.verify(ftpClient).setSoTimeout(TIMEOUT);
+        order.verify(ftpClient).completePendingCommand();
+        order.verify(ftpClient).setSoTimeout(PREVIOUS_TIMEOUT);
+        assertTrue(stream.isClientReusable());
+    }
+
+    @Test
+    public void close_CalledTwice_CompletesCommandOnce() throws Exception {
+        when(ftpClient.completePendingCommand()).thenReturn(true);
+
+        stream.close();
+        stream.close();
+
+        verify(ftpClient, times(1)).completePendingCommand();
+    }
+
+    @Test
+    public void abort_TransferCutShort_NotAFailureButClientNotReusable()
+            throws Exception {
+        when(ftpClient.completePendingCommand()).thenReturn(false);
+        when(ftpClient.getReplyString()).thenReturn(
+                "426 Connection closed; transfer aborted.\r\n");
+
+        stream.abort();
+        stream.close();
+
+        verify(ftpClient, times(1)).completePendingCommand();
+        assertTrue(stream.isClosed());
+        assertFalse(stream.isClientReusable());
+    }
+
+    @Test
+    public void abort_TransferCompletedAnyway_ClientReusable()
+            throws Exception {
+        when(ftpClient.completePendingCommand()).thenReturn(true);
+
+        stream.abort();
+
+        assertTrue(stream.isClientReusable());
+    }
+
+    @Test
+    public void close_NegativeReply_ClientNotReusable() throws Exception {
+        when(ftpClient.completePendingCommand()).thenReturn(false);
+        try {
+            stream.close();
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            assertFalse(stream.isClientReusable());
+        }
+    }
+
+    @Test
+    public void close_ReplyTimesOut_ClientNotReusableAndTimeoutRestored()
+            throws Exception {
+        when(ftpClient.completePendingCommand()).thenThrow(
+                new SocketTimeoutException("Read timed out"));
+        try {
+            stream.close();
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            assertFalse(stream.isClientReusable());
+        }
+        verify(ftpClient).setSoTimeout(PREVIOUS_TIMEOUT);
+    }
+
+    @Test
+    public void read_WholeStream_CountsBytes() throws Exception {
+        final byte[] buffer = new byte[64];
+        while (stream.read(buffer) != -1) {
+            // drain
+        }
+        assertEquals("file content".length(), stream.getBytesRead());
+    }
+}
@@ -0,0 +1,85 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.io;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class GzipDecompressionTest {
+
+    @Test
+    public void testDecompressedName_RemovesGzSuffixOnly() {
+        assertEquals("A1.xml", GzipDecompression.decompressedName("A1.xml.gz"));
+        assertEquals("A1.xml", GzipDecompression.decompressedName("A1.xml"));
+        assertEquals("A1.tgz", GzipDecompression.decompressedName("A1.tgz"));
+    }
+
+    @Test
+    public void testDecompressedNames_RenamesCompressedSources() {
+        final Map<String, String> files = new LinkedHashMap<String, String>();
+        files.put("A1.xml.gz", "NE1_A1.xml.gz");
+        files.put("A2.xml", "NE1_A2.xml");
+
+        final Map<String, String> names = GzipDecompression
+                .decompressedNames(files);
+
+        assertEquals("NE1_A1.xml", names.get("A1.xml.gz"));
+        assertEquals("NE1_A2.xml", names.get("A2.xml"));
+    }
+
+    @Test
+    public void testInflate_ReadsContent() throws Exception {
+        final byte[] content = new byte[300000];
+        new Random(1).nextBytes(content);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(content);
+        }
+
+        final ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        try (InputStream in = GzipDecompression.inflate(
+                new ByteArrayInputStream(compressed.toByteArray()), 64 * 1024)) {
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                inflated.write(buffer, 0, count);
+            }
+        }
+        assertArrayEquals(content, inflated.toByteArray());
+    }
+
+    @Test
+    public void testInflate_NotGzip_ClosesStream() throws Exception {
+        final boolean[] closed = new boolean[1];
+        final InputStream stream = new ByteArrayInputStream(
+                "<measData/>".getBytes("UTF-8")) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        try {
+            GzipDecompression.inflate(stream, 0);
+            fail();
+        } catch (final IOException e) {
+            assertTrue(closed[0]);
+        }
+    }
+
+}
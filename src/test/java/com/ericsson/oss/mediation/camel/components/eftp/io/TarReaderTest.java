@@ -0,0 +1,105 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.io;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ericsson.oss.mediation.camel.components.eftp.utils.TarStreamBuilder;
+
+public class TarReaderTest {
+
+    private final byte[] small = content(100, 1);
+    private final byte[] block = content(512, 2);
+    private final byte[] large = content(70000, 3);
+
+    @Test
+    public void next_RegularFiles_ReadInOrder() throws Exception {
+        final TarReader reader = reader(new TarStreamBuilder()
+                .file("A1.xml", small).file("A2.xml", block)
+                .file("A3.xml", large).build());
+
+        assertEntry(reader, "A1.xml", small);
+        assertEntry(reader, "A2.xml", block);
+        assertEntry(reader, "A3.xml", large);
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void next_FileNotRead_Skipped() throws Exception {
+        final TarReader reader = reader(new TarStreamBuilder()
+                .file("A1.xml", large).file("A2.xml", small).build());
+
+        assertEquals("A1.xml", reader.next().getName());
+        assertEquals(10, reader.stream().read(new byte[10]));
+        assertEntry(reader, "A2.xml", small);
+    }
+
+    @Test
+    public void next_LongNameAndDirectory_LongNameKeptDirectorySkipped()
+            throws Exception {
+        final StringBuilder name = new StringBuilder();
+        while (name.length() < 150) {
+            name.append("A20130316.2300-2315_");
+        }
+        final TarReader reader = reader(new TarStreamBuilder()
+                .directory("sub/").file(name.toString(), small)
+                .file("A2.xml", new byte[0]).build());
+
+        assertEntry(reader, name.toString(), small);
+        assertEntry(reader, "A2.xml", new byte[0]);
+        assertNull(reader.next());
+    }
+
+    @Test(expected = EOFException.class)
+    public void stream_Truncated_ThrowsEOFException() throws Exception {
+        final byte[] tar = new TarStreamBuilder().file("A1.xml", large)
+                .build();
+        final TarReader reader = reader(java.util.Arrays.copyOf(tar, 20000));
+
+        reader.next();
+        readAll(reader.stream());
+    }
+
+    private static TarReader reader(final byte[] tar) {
+        return new TarReader(new ByteArrayInputStream(tar));
+    }
+
+    private static void assertEntry(final TarReader reader,
+            final String name, final byte[] content) throws IOException {
+        final TarReader.Entry entry = reader.next();
+        assertEquals(name, entry.getName());
+        assertEquals(content.length, entry.getSize());
+        assertArrayEquals(content, readAll(reader.stream()));
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] content(final int size, final long seed) {
+        final byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+}
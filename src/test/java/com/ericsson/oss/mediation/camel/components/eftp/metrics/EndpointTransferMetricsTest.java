@@ -0,0 +1,105 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.ericsson.oss.mediation.camel.components.eftp.io.MeteredInputStream;
+
+public class EndpointTransferMetricsTest {
+
+    private final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+    @Test
+    public void host_RecordsInHostAndEndpointAndRegistersMBeans()
+            throws Exception {
+        final EndpointTransferMetrics metrics = new EndpointTransferMetrics(
+                "eftp://test", server);
+        final TransferMetrics host = metrics.host("10.0.0.1", 22);
+        assertSame(host, metrics.host("10.0.0.1", 22));
+
+        final InputStream body = new MeteredInputStream(
+                new ByteArrayInputStream(new byte[5000]), host,
+                System.nanoTime());
+        final byte[] buffer = new byte[1024];
+        while (body.read(buffer) != -1) {
+            // drain
+        }
+        body.close();
+        host.recordError("AUTH_FAIL");
+
+        assertEquals(1, metrics.getTotal().getFiles());
+        assertEquals(5000, metrics.getTotal().getBytes());
+        assertEquals(Long.valueOf(1), metrics.getTotal().getErrors()
+                .get("AUTH_FAIL"));
+        assertEquals(Long.valueOf(1),
+                host.getFirstByteLatency().get("count"));
+        assertEquals(Long.valueOf(1), host.getStreamLatency().get("count"));
+
+        final Set<ObjectName> hostNames = server.queryNames(new ObjectName(
+                "com.ericsson.oss.mediation.camel.components.eftp:type=TransferMetrics,endpoint="
+                        + ObjectName.quote("eftp://test") + ",host="
+                        + ObjectName.quote("10.0.0.1:22") + ",*"), null);
+        assertEquals(1, hostNames.size());
+        final ObjectName hostName = hostNames.iterator().next();
+        assertEquals(5000L, server.getAttribute(hostName, "Bytes"));
+
+        metrics.unregister();
+        assertFalse(server.isRegistered(hostName));
+        // only the delegate of the server is left
+        assertEquals(Integer.valueOf(1), server.getMBeanCount());
+    }
+
+    @Test
+    public void new_TwoEndpointsOfSameUri_BothRegistered() throws Exception {
+        final EndpointTransferMetrics first = new EndpointTransferMetrics(
+                "eftp://test", server);
+        final EndpointTransferMetrics second = new EndpointTransferMetrics(
+                "eftp://test", server);
+        first.host("10.0.0.1", 22);
+        second.host("10.0.0.1", 22);
+        first.host("10.0.0.1", 21);
+
+        assertNotSame(first.host("10.0.0.1", 21), first.host("10.0.0.1", 22));
+        // the delegate of the server, two endpoints and three hosts
+        assertEquals(Integer.valueOf(6), server.getMBeanCount());
+
+        first.unregister();
+        assertEquals(Integer.valueOf(3), server.getMBeanCount());
+        second.unregister();
+    }
+
+    @Test
+    public void close_StreamNotReadToEnd_CountsBytesButNoFile()
+            throws Exception {
+        final TransferMetrics metrics = new TransferMetrics(null);
+        final InputStream body = new MeteredInputStream(
+                new ByteArrayInputStream(new byte[5000]), metrics,
+                System.nanoTime());
+        body.read(new byte[100]);
+        body.close();
+
+        assertEquals(0, metrics.getFiles());
+        assertEquals(100, metrics.getBytes());
+        assertEquals(0, metrics.getHistogram(TransferPhase.STREAM).getCount());
+    }
+}
@@ -0,0 +1,163 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.poll;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.*;
+
+public class RemoteFileIndexTest {
+
+    private File directory;
+    private File journal;
+    private RemoteFileIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("index", "");
+        directory.delete();
+        journal = new File(directory, "dir.index");
+        index = new RemoteFileIndex(journal);
+        index.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        index.close();
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void changes_NewAndModifiedFiles_ReturnedOldestFirst()
+            throws Exception {
+        index.collected(new RemoteFile("A1.xml", 100, 1000));
+        index.collected(new RemoteFile("A2.xml", 100, 2000));
+
+        final List<RemoteFile> changes = index.changes(Arrays.asList(
+                new RemoteFile("A3.xml", 100, 4000), new RemoteFile("A1.xml",
+                        100, 1000), new RemoteFile("A2.xml", 150, 3000)));
+
+        assertEquals(Arrays.asList(new RemoteFile("A2.xml", 150, 3000),
+                new RemoteFile("A3.xml", 100, 4000)), changes);
+    }
+
+    @Test
+    public void open_AfterRestart_RestoresCollectedFiles() throws Exception {
+        index.collected(new RemoteFile("A1.xml", 100, 1000));
+        index.collected(new RemoteFile("with space.xml", 200, 2000));
+        index.collected(new RemoteFile("A1.xml", 300, 3000));
+        index.close();
+
+        index = new RemoteFileIndex(journal);
+        index.open();
+
+        assertEquals(2, index.size());
+        assertEquals(new RemoteFile("A1.xml", 300, 3000), index.get("A1.xml"));
+        assertEquals(new RemoteFile("with space.xml", 200, 2000),
+                index.get("with space.xml"));
+    }
+
+    @Test
+    public void retain_FileRemoved_CollectedAgainWhenRecreated()
+            throws Exception {
+        final RemoteFile file = new RemoteFile("A1.xml", 100, 1000);
+        index.collected(file);
+
+        assertEquals(1, index.retain(Collections.<RemoteFile> emptyList()));
+        index.close();
+        index = new RemoteFileIndex(journal);
+        index.open();
+
+        assertEquals(Collections.singletonList(file),
+                index.changes(Collections.singletonList(file)));
+    }
+
+    @Test
+    public void retain_NothingRemoved_AppendsNothing() throws Exception {
+        final RemoteFile file = new RemoteFile("A1.xml", 100, 1000);
+        index.collected(file);
+        final long length = journal.length();
+
+        assertEquals(0, index.retain(Arrays.asList(file, new RemoteFile(
+                "A2.xml", 100, 2000))));
+        assertEquals(length, journal.length());
+    }
+
+    @Test
+    public void open_MostlySuperseded_CompactsJournal() throws Exception {
+        index.close();
+        final Writer out = new FileWriter(journal, true);
+        for (int i = 0; i < 200; i++) {
+            out.write("+ " + i + " " + i + " A1.xml\n");
+        }
+        out.close();
+
+        index = new RemoteFileIndex(journal);
+        index.open();
+
+        assertEquals(new RemoteFile("A1.xml", 199, 199), index.get("A1.xml"));
+        assertEquals(1, countLines(journal));
+    }
+
+    @Test
+    public void collected_MostlySuperseded_CompactsWhileOpen()
+            throws Exception {
+        for (int i = 0; i < 200; i++) {
+            index.collected(new RemoteFile("A1.xml", i, i));
+        }
+
+        assertTrue(countLines(journal) <= 66);
+        index.collected(new RemoteFile("A2.xml", 5, 5));
+        index.close();
+        index = new RemoteFileIndex(journal);
+        index.open();
+
+        assertEquals(2, index.size());
+        assertEquals(new RemoteFile("A1.xml", 199, 199), index.get("A1.xml"));
+    }
+
+    @Test
+    public void open_TruncatedLastLine_IgnoresIt() throws Exception {
+        index.collected(new RemoteFile("A1.xml", 100, 1000));
+        index.close();
+        final Writer out = new FileWriter(journal, true);
+        out.write("+ 12");
+        out.close();
+
+        index = new RemoteFileIndex(journal);
+        index.open();
+
+        assertEquals(1, index.size());
+    }
+
+    private static int countLines(final File file) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            int lines = 0;
+            while (reader.readLine() != null) {
+                lines++;
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+}
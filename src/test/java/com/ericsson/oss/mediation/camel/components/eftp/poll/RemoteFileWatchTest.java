@@ -0,0 +1,199 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.poll;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.KeyedConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+import com.jcraft.jsch.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RemoteFileWatchTest {
+
+    private final ConnectionConfig key = new ConnectionConfig("localhost", 22,
+            "user", "password", "true");
+
+    @Mock
+    private KeyedConnectionPool<ChannelSftp> pool;
+
+    @Mock
+    private ChannelSftp sftp;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private ChannelExec exec;
+
+    @Mock
+    private SftpATTRS attrs;
+
+    private final List<String> closed = new ArrayList<String>();
+    private final List<String> unavailable = new ArrayList<String>();
+    private final List<Thread> listenerThreads = new CopyOnWriteArrayList<Thread>();
+    private RemoteFileWatch watch;
+
+    @Before
+    public void setUp() throws Exception {
+        when(pool.borrowObject(key)).thenReturn(sftp);
+        when(sftp.getSession()).thenReturn(session);
+        when(session.openChannel("exec")).thenReturn(exec);
+        when(sftp.stat(anyString())).thenReturn(attrs);
+        when(attrs.getSize()).thenReturn(1024L);
+        when(attrs.getMTime()).thenReturn(1400000000);
+        watch = newWatch(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    private RemoteFileWatch newWatch(final Executor dispatcher) {
+        return new RemoteFileWatch(pool, key, "inotifywait -m",
+                Arrays.asList("/pm_data/", "/ctr's"),
+                new RemoteFileWatch.Listener() {
+                    @Override
+                    public void fileClosed(final String directory,
+                            final RemoteFile file) {
+                        listenerThreads.add(Thread.currentThread());
+                        closed.add(directory + "|" + file.getName() + "|"
+                                + file.getSize() + "|"
+                                + file.getLastModified());
+                        watch.stop();
+                    }
+
+                    @Override
+                    public void watchUnavailable(final String reason) {
+                        unavailable.add(reason);
+                    }
+                }, dispatcher, 1, 1000);
+    }
+
+    @Test
+    public void getRemoteCommand_QuotesDirectories() {
+        assertEquals("inotifywait -m '/pm_data/' '/ctr'\\''s'",
+                watch.getRemoteCommand());
+    }
+
+    @Test
+    public void run_FileClosed_ReportedWithItsAttributes() throws Exception {
+        when(exec.getInputStream()).thenReturn(
+                new ByteArrayInputStream(
+                        "/other/A1.xml\n/pm_data/A2.xml\n".getBytes("UTF-8")));
+
+        watch.run();
+
+        assertEquals(
+                Collections.singletonList("/pm_data/|A2.xml|1024|1400000000000"),
+                closed);
+        assertTrue(unavailable.isEmpty());
+        verify(exec).setCommand(watch.getRemoteCommand());
+    }
+
+    @Test
+    public void run_ExecOpen_ChannelReturnedBeforeEventsRead() throws Exception {
+        when(exec.getInputStream()).thenReturn(
+                new ByteArrayInputStream("/pm_data/A2.xml\n".getBytes("UTF-8")));
+
+        watch.run();
+
+        final InOrder order = inOrder(pool, exec, sftp);
+        order.verify(exec).connect(anyInt());
+        order.verify(pool).returnObject(key, sftp);
+        order.verify(pool).borrowObject(key);
+        order.verify(sftp).stat("/pm_data/A2.xml");
+        order.verify(pool).returnObject(key, sftp);
+        verify(pool, never()).invalidateObject(key, sftp);
+    }
+
+    @Test
+    public void run_FileClosed_ReportedOffWatchThread() throws Exception {
+        when(exec.getInputStream()).thenReturn(
+                new ByteArrayInputStream("/pm_data/A2.xml\n".getBytes("UTF-8")));
+        final ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+        watch = newWatch(dispatcher);
+        try {
+            watch.run();
+        } finally {
+            dispatcher.shutdownNow();
+        }
+
+        assertEquals(1, closed.size());
+        assertNotSame(Thread.currentThread(), listenerThreads.get(0));
+    }
+
+    @Test
+    public void run_StatFails_NotReportedAndChannelReturned() throws Exception {
+        when(exec.getInputStream()).thenReturn(
+                new ByteArrayInputStream("/pm_data/A2.xml\n".getBytes("UTF-8")));
+        when(sftp.stat(anyString())).thenThrow(
+                new SftpException(ChannelSftp.SSH_FX_NO_SUCH_FILE, "gone"));
+        when(exec.getExitStatus()).thenReturn(0);
+        final RemoteFileWatch watch = this.watch;
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+                watch.stop();
+                return null;
+            }
+        }).when(exec).disconnect();
+
+        watch.run();
+
+        assertTrue(closed.isEmpty());
+        verify(pool, times(2)).returnObject(key, sftp);
+        verify(pool, never()).invalidateObject(key, sftp);
+    }
+
+    @Test
+    public void run_ExecRefused_ReportsUnavailable() throws Exception {
+        when(exec.getInputStream()).thenReturn(
+                new ByteArrayInputStream(new byte[0]));
+        doThrow(new JSchException("channel is not opened.")).when(exec)
+                .connect(anyInt());
+
+        watch.run();
+
+        assertEquals(1, unavailable.size());
+        verify(pool).returnObject(key, sftp);
+    }
+
+    @Test
+    public void run_WatcherNotInstalled_ReportsUnavailable() throws Exception {
+        when(exec.getInputStream()).thenReturn(
+                new ByteArrayInputStream(new byte[0]));
+        when(exec.getExitStatus()).thenReturn(127);
+
+        watch.run();
+
+        assertEquals(Collections.singletonList("watcher exited with status 127"),
+                unavailable);
+        assertTrue(closed.isEmpty());
+    }
+
+}
@@ -16,7 +16,6 @@ import java.util.*;
 import java.util.Map.Entry;
 
 import org.apache.camel.Exchange;
-import org.apache.camel.Processor;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.component.mock.MockEndpoint;
 import org.apache.camel.impl.JndiRegistry;
@@ -24,11 +23,9 @@ import org.junit.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ericsson.oss.mediation.camel.components.eftp.EftpConstants;
 import com.ericsson.oss.mediation.camel.components.eftp.pool.*;
 import com.ericsson.oss.mediation.camel.components.eftp.utils.BaseCamelIntegrationTest;
 import com.ericsson.oss.mediation.camel.components.eftp.utils.FileTransferDataSet;
-import com.jcraft.jsch.ChannelSftp;
 
 public class EftpSshSoakTest extends BaseCamelIntegrationTest {
 
@@ -87,26 +84,7 @@ public class EftpSshSoakTest extends BaseCamelIntegrationTest {
             @Override
             public void configure() throws Exception {
                 from("dataset:fileTransferDataSet?produceDelay=3&size=12")
-                        .routeId("test").to("eftp://blah").to("mock:result")
-                        .process(new Processor() {
-                            @Override
-                            public void process(final Exchange exchange)
-                                    throws Exception {
-                                final ConnectionConfig key = (ConnectionConfig) exchange
-                                        .getIn()
-                                        .getHeader(
-                                                EftpConstants.EFTP_CONNECTION_KEY);
-
-                                
-                                final ChannelSftp channel = (ChannelSftp) exchange
-                                        .getIn().getHeader(
-                                                EftpConstants.EFTP_CHANNEL);
-                                SftpConnectionPool sftpPool = (SftpConnectionPool) exchange
-                                        .getContext().getRegistry()
-                                        .lookup(Constants.SFTP_POOL);
-                                sftpPool.returnObject(key, channel);
-                            }
-                        });
+                        .routeId("test").to("eftp://blah").to("mock:result");
 
             }
         });
@@ -0,0 +1,122 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.jcraft.jsch.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ChunkedSftpDownloadTest {
+
+    private static final String SOURCE = "/pm_data/CTR.bin";
+
+    @Mock
+    private ChannelSftp channel;
+
+    @Mock
+    private ChannelSftp extraChannel;
+
+    @Mock
+    private Session session;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final byte[] content = new byte[100003];
+    private File destination;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(7).nextBytes(content);
+        destination = File.createTempFile("chunked", ".bin");
+        when(channel.getSession()).thenReturn(session);
+        when(session.openChannel("sftp")).thenReturn(extraChannel);
+        final Answer<InputStream> rangeOfContent = new Answer<InputStream>() {
+            @Override
+            public InputStream answer(final InvocationOnMock invocation) {
+                final long skip = (Long) invocation.getArguments()[2];
+                return new ByteArrayInputStream(content, (int) skip,
+                        content.length - (int) skip);
+            }
+        };
+        when(channel.get(eq(SOURCE), any(SftpProgressMonitor.class),
+                anyLong())).thenAnswer(rangeOfContent);
+        when(extraChannel.get(eq(SOURCE), any(SftpProgressMonitor.class),
+                anyLong())).thenAnswer(rangeOfContent);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        destination.delete();
+    }
+
+    @Test
+    public void transferTo_RangesFetchedOverSeveralChannels_FileReassembledInOrder()
+            throws Exception {
+        final long size = new ChunkedSftpDownload(channel, SOURCE, 4,
+                executor).transferTo(destination, content.length);
+
+        assertEquals(content.length, size);
+        assertArrayEquals(content, readFile(destination));
+        verify(channel).get(SOURCE, null, 75000L);
+        verify(session, times(3)).openChannel("sftp");
+        verify(extraChannel, times(3)).disconnect();
+    }
+
+    @Test
+    public void transferTo_RangeFails_ThrowsAndDeletesDestination()
+            throws Exception {
+        when(extraChannel.get(eq(SOURCE), any(SftpProgressMonitor.class),
+                eq(25000L))).thenThrow(
+                new SftpException(2, "No such file"));
+        try {
+            new ChunkedSftpDownload(channel, SOURCE, 4, executor).transferTo(
+                    destination, content.length);
+            fail("Expected GenericEftpException");
+        } catch (final GenericEftpException e) {
+            assertEquals(2, e.getErrorCode());
+        }
+        assertFalse(destination.exists());
+    }
+
+    @Test
+    public void split_SizeNotMultipleOfCount_LastRangeTakesRemainder() {
+        final List<ByteRange> ranges = ByteRange.split(10, 3);
+        assertEquals(3, ranges.size());
+        assertEquals(6, ranges.get(2).getOffset());
+        assertEquals(4, ranges.get(2).getLength());
+        assertEquals(1, ByteRange.split(0, 3).size());
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        final byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        return data;
+    }
+}
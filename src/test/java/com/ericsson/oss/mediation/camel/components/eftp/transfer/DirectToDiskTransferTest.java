@@ -0,0 +1,92 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.*;
+
+public class DirectToDiskTransferTest {
+
+    private final byte[] content = new byte[300000];
+    private File destination;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(3).nextBytes(content);
+        destination = File.createTempFile("direct", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        destination.delete();
+    }
+
+    @Test
+    public void copy_LargeBuffer_ReadsAsMuchAsTheBufferHolds()
+            throws Exception {
+        final RecordingStream in = new RecordingStream(content);
+
+        final long written = DirectToDiskTransfer.copy(in, destination, 65536);
+
+        assertEquals(content.length, written);
+        assertEquals(65536, in.largestRead);
+        assertTrue(in.closed);
+        assertArrayEquals(content, readFile(destination));
+    }
+
+    @Test
+    public void append_PartialFile_ContentAppended() throws Exception {
+        try (OutputStream out = new FileOutputStream(destination)) {
+            out.write(content, 0, 1000);
+        }
+
+        DirectToDiskTransfer.append(new ByteArrayInputStream(content, 1000,
+                content.length - 1000), destination, 8192);
+
+        assertArrayEquals(content, readFile(destination));
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        final byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        return data;
+    }
+
+    private static final class RecordingStream extends ByteArrayInputStream {
+
+        private int largestRead;
+        private boolean closed;
+
+        RecordingStream(final byte[] content) {
+            super(content);
+        }
+
+        @Override
+        public synchronized int read(final byte[] buffer, final int offset,
+                final int length) {
+            largestRead = Math.max(largestRead, length);
+            return super.read(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
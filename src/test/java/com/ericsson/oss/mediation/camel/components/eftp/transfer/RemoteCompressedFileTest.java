@@ -0,0 +1,116 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.*;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.jcraft.jsch.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RemoteCompressedFileTest {
+
+    @Mock
+    private ChannelSftp sftp;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private ChannelExec exec;
+
+    private RemoteCompressedFile file;
+
+    @Before
+    public void setUp() throws Exception {
+        when(sftp.getSession()).thenReturn(session);
+        when(session.openChannel("exec")).thenReturn(exec);
+        when(exec.getErrStream()).thenReturn(
+                new ByteArrayInputStream(new byte[0]));
+        file = new RemoteCompressedFile(sftp, "gzip -1 -c",
+                "/pm_data/A'1.xml");
+    }
+
+    @Test
+    public void testGetRemoteCommand_QuotesPath() {
+        assertEquals("gzip -1 -c < '/pm_data/A'\\''1.xml'",
+                file.getRemoteCommand());
+    }
+
+    @Test
+    public void testOpen_InflatesOutputAndDisconnectsOnClose()
+            throws Exception {
+        final byte[] content = "<measCollecFile/>".getBytes("UTF-8");
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(content);
+        gzip.close();
+        when(exec.getInputStream()).thenReturn(
+                new ByteArrayInputStream(compressed.toByteArray()));
+
+        final InputStream stream = file.open(1000);
+        final byte[] read = new byte[content.length];
+        assertEquals(content.length, stream.read(read));
+        assertArrayEquals(content, read);
+        assertEquals(-1, stream.read());
+        verify(exec).setCommand(file.getRemoteCommand());
+        verify(exec).connect(1000);
+        verify(exec, never()).disconnect();
+
+        stream.close();
+        verify(exec).disconnect();
+    }
+
+    @Test
+    public void testOpen_NoOutput_NoSuchFile() throws Exception {
+        when(exec.getInputStream()).thenReturn(
+                new ByteArrayInputStream(new byte[0]));
+        when(exec.getErrStream()).thenReturn(
+                new ByteArrayInputStream("No such file or directory"
+                        .getBytes("UTF-8")));
+
+        try {
+            file.open(1000);
+            fail();
+        } catch (final GenericEftpException e) {
+            assertEquals(ChannelSftp.SSH_FX_NO_SUCH_FILE, e.getErrorCode());
+            assertTrue(e.getErrorDescription().contains(
+                    "No such file or directory"));
+        }
+        verify(exec).disconnect();
+    }
+
+    @Test(expected = JSchException.class)
+    public void testOpen_ExecRefused_ThrowsJSchException() throws Exception {
+        doThrow(new JSchException("failed to send channel request")).when(
+                exec).connect(1000);
+        when(exec.getInputStream()).thenReturn(
+                new ByteArrayInputStream(new byte[0]));
+
+        try {
+            file.open(1000);
+        } finally {
+            verify(exec).disconnect();
+        }
+    }
+
+}
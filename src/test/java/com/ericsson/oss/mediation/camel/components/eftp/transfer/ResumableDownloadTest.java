@@ -0,0 +1,233 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.*;
+
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+public class ResumableDownloadTest {
+
+    private static final String SOURCE = "/pm_data/CTR.bin";
+    private static final long MODIFIED = 1363474800000L;
+
+    private final ConnectionConfig key = new ConnectionConfig("localhost", 22,
+            "user", "password", "true");
+    private final byte[] content = new byte[50000];
+    private final List<Long> offsets = new ArrayList<Long>();
+
+    private File directory;
+    private File destination;
+    private CheckpointStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(3).nextBytes(content);
+        directory = File.createTempFile("resumable", "");
+        directory.delete();
+        directory.mkdirs();
+        destination = new File(directory, "CTR.bin");
+        store = new CheckpointStore(new File(directory, "checkpoints"));
+    }
+
+    @After
+    public void tearDown() {
+        final File checkpoints = new File(directory, "checkpoints");
+        if (checkpoints.isDirectory()) {
+            for (final File file : checkpoints.listFiles()) {
+                file.delete();
+            }
+            checkpoints.delete();
+        }
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void transferTo_PreviousAttemptBroken_ResumesAtPartialLength()
+            throws Exception {
+        try {
+            newDownload(content.length, 20000).transferTo(destination, 8192);
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            assertFalse(destination.exists());
+        }
+
+        newDownload(content.length, -1).transferTo(destination, 8192);
+
+        assertEquals(20000L, offsets.get(1).longValue());
+        assertArrayEquals(content, readFile(destination));
+        assertEquals(0, store.resumeOffset(key, SOURCE, content.length,
+                MODIFIED, new File(destination.getPath() + ".part")));
+    }
+
+    @Test
+    public void transferTo_RemoteFileChanged_StartsFromScratch()
+            throws Exception {
+        try {
+            newDownload(content.length - 1, 20000).transferTo(destination,
+                    8192);
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            // interrupted
+        }
+
+        newDownload(content.length, -1).transferTo(destination, 8192);
+
+        assertEquals(0L, offsets.get(1).longValue());
+        assertArrayEquals(content, readFile(destination));
+    }
+
+    @Test
+    public void transferTo_RemoteFileReplacedWithSameSize_StartsFromScratch()
+            throws Exception {
+        try {
+            newDownload(content.length, MODIFIED, 20000).transferTo(
+                    destination, 8192);
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            // interrupted
+        }
+
+        newDownload(content.length, MODIFIED + 900000, -1).transferTo(
+                destination, 8192);
+
+        assertEquals(0L, offsets.get(1).longValue());
+        assertArrayEquals(content, readFile(destination));
+    }
+
+    @Test
+    public void transferTo_ModificationTimeUnknown_StartsFromScratch()
+            throws Exception {
+        try {
+            newDownload(content.length, -1, 20000).transferTo(destination,
+                    8192);
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            // interrupted
+        }
+
+        newDownload(content.length, -1, -1).transferTo(destination, 8192);
+
+        assertEquals(0L, offsets.get(1).longValue());
+        assertArrayEquals(content, readFile(destination));
+    }
+
+    @Test
+    public void transferTo_DestinationChanged_StartsFromScratch()
+            throws Exception {
+        try {
+            newDownload(content.length, 20000).transferTo(destination, 8192);
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            // interrupted
+        }
+        final File moved = new File(directory, "CTR_retry.bin");
+
+        newDownload(content.length, -1).transferTo(moved, 8192);
+
+        assertEquals(0L, offsets.get(1).longValue());
+        assertArrayEquals(content, readFile(moved));
+    }
+
+    @Test
+    public void transferTo_PartialFileDeleted_StartsFromScratch()
+            throws Exception {
+        try {
+            newDownload(content.length, 20000).transferTo(destination, 8192);
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            // interrupted
+        }
+        assertTrue(new File(destination.getPath() + ".part").delete());
+
+        newDownload(content.length, -1).transferTo(destination, 8192);
+
+        assertEquals(0L, offsets.get(1).longValue());
+        assertArrayEquals(content, readFile(destination));
+    }
+
+    /**
+     * @param size
+     *            the size reported for the remote file
+     * @param breakAt
+     *            the offset at which the connection breaks, -1 if it does not
+     */
+    private ResumableDownload newDownload(final long size, final int breakAt) {
+        return newDownload(size, MODIFIED, breakAt);
+    }
+
+    /**
+     * @param size
+     *            the size reported for the remote file
+     * @param modified
+     *            the modification time reported for the remote file
+     * @param breakAt
+     *            the offset at which the connection breaks, -1 if it does not
+     */
+    private ResumableDownload newDownload(final long size,
+            final long modified, final int breakAt) {
+        return new ResumableDownload(store, key, SOURCE) {
+            @Override
+            protected long remoteSize() {
+                return size;
+            }
+
+            @Override
+            protected long remoteModificationTime() {
+                return modified;
+            }
+
+            @Override
+            protected InputStream open(final long offset) {
+                offsets.add(offset);
+                final InputStream remaining = new ByteArrayInputStream(
+                        content, (int) offset, content.length - (int) offset);
+                if (breakAt < 0) {
+                    return remaining;
+                }
+                return new FilterInputStream(remaining) {
+                    private long position = offset;
+
+                    @Override
+                    public int read(final byte[] buffer, final int off,
+                            final int length) throws IOException {
+                        if (position >= breakAt) {
+                            throw new IOException("Connection reset");
+                        }
+                        final int count = super.read(buffer, off,
+                                (int) Math.min(length, breakAt - position));
+                        position += count;
+                        return count;
+                    }
+                };
+            }
+        };
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        final byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        return data;
+    }
+}
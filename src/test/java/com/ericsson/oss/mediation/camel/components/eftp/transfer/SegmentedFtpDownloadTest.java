@@ -0,0 +1,254 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.ericsson.oss.mediation.camel.components.eftp.connection.HostCircuitBreaker;
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.connection.KeyedConnectionPool;
+import com.ericsson.oss.mediation.camel.components.eftp.pool.ConnectionConfig;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SegmentedFtpDownloadTest {
+
+    private static final String SOURCE = "/pm_data/CTR.bin";
+
+    @Mock
+    private KeyedConnectionPool<FTPClient> pool;
+
+    private final ConnectionConfig key = new ConnectionConfig("localhost",
+            21, "user", "password", "false");
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final byte[] content = new byte[100003];
+    private File destination;
+    private FTPClient ftpClient;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(7).nextBytes(content);
+        destination = File.createTempFile("segmented", ".bin");
+        ftpClient = newClient();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        destination.delete();
+    }
+
+    @Test
+    public void transferTo_PoolLendsClients_SegmentsReassembledAndClientsReturned()
+            throws Exception {
+        final FTPClient extra = newClient();
+        when(pool.borrowObject(key)).thenReturn(newClient(), newClient(),
+                extra);
+
+        new SegmentedFtpDownload(pool, key, ftpClient, SOURCE, 4, executor,
+                1000).transferTo(destination, content.length);
+
+        assertArrayEquals(content, readFile(destination));
+        verify(ftpClient).setRestartOffset(75000L);
+        verify(pool, times(3)).returnObject(eq(key), any(FTPClient.class));
+        verify(pool).returnObject(key, extra);
+        verify(pool, never()).returnObject(key, ftpClient);
+        verify(extra).setFileType(FTP.BINARY_FILE_TYPE);
+        verify(extra).setFileType(FTP.ASCII_FILE_TYPE);
+        verify(ftpClient).setFileType(FTP.BINARY_FILE_TYPE);
+    }
+
+    @Test
+    public void transferTo_EarlyClosedSegmentsAborted_DownloadSucceedsAndClientsInvalidated()
+            throws Exception {
+        final FTPClient first = newClient();
+        final FTPClient second = newClient();
+        when(first.completePendingCommand()).thenReturn(false);
+        when(second.completePendingCommand()).thenReturn(false);
+        when(pool.borrowObject(key)).thenReturn(first, second);
+
+        new SegmentedFtpDownload(pool, key, ftpClient, SOURCE, 3, executor,
+                1000).transferTo(destination, content.length);
+
+        assertArrayEquals(content, readFile(destination));
+        verify(pool).invalidateObject(key, first);
+        verify(pool).invalidateObject(key, second);
+        verify(pool, never()).returnObject(eq(key), any(FTPClient.class));
+        verify(ftpClient).completePendingCommand();
+    }
+
+    @Test
+    public void transferTo_DirectoryNotCreated_NoClientBorrowed()
+            throws Exception {
+        final File notADirectory = File.createTempFile("segmented", ".dir");
+        try {
+            new SegmentedFtpDownload(pool, key, ftpClient, SOURCE, 4,
+                    executor, 1000).transferTo(new File(notADirectory,
+                    "CTR.bin"), content.length);
+            fail("Expected GenericEftpException");
+        } catch (final GenericEftpException e) {
+            verify(pool, never()).borrowObject(key);
+            verify(pool, never()).returnObject(eq(key), any(FTPClient.class));
+        } finally {
+            notADirectory.delete();
+        }
+    }
+
+    @Test
+    public void transferTo_PoolExhausted_FewerSegments() throws Exception {
+        when(pool.borrowObject(key)).thenThrow(
+                new IllegalStateException("Pool exhausted"));
+
+        new SegmentedFtpDownload(pool, key, ftpClient, SOURCE, 4, executor,
+                1000).transferTo(destination, content.length);
+
+        assertArrayEquals(content, readFile(destination));
+        verify(ftpClient).setRestartOffset(0L);
+    }
+
+    @Test
+    public void transferTo_CircuitOpen_NoExtraClientBorrowed()
+            throws Exception {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(1, 60000);
+        breaker.allow("localhost", 21);
+        breaker.onFailure("localhost", 21, new ConnectException(
+                "Connection refused"));
+        final SegmentedFtpDownload download = new SegmentedFtpDownload(pool,
+                key, ftpClient, SOURCE, 4, executor, 1000);
+        download.setCircuitBreaker(breaker);
+
+        download.transferTo(destination, content.length);
+
+        assertArrayEquals(content, readFile(destination));
+        verify(pool, never()).borrowObject(key);
+    }
+
+    @Test
+    public void transferTo_ExtraClientRefused_RecordedWithBreaker()
+            throws Exception {
+        final HostCircuitBreaker breaker = new HostCircuitBreaker(1, 60000);
+        when(pool.borrowObject(key)).thenThrow(
+                new IllegalStateException("Connection refused"));
+        final SegmentedFtpDownload download = new SegmentedFtpDownload(pool,
+                key, ftpClient, SOURCE, 4, executor, 1000);
+        download.setCircuitBreaker(breaker);
+
+        download.transferTo(destination, content.length);
+
+        assertArrayEquals(content, readFile(destination));
+        assertEquals(HostCircuitBreaker.State.OPEN,
+                breaker.getState("localhost", 21));
+    }
+
+    @Test
+    public void segmentableSize_RestNotSupported_ReturnsMinusOne()
+            throws Exception {
+        when(ftpClient.sendCommand("SIZE", SOURCE)).thenReturn(213);
+        when(ftpClient.getReplyString()).thenReturn("213 100003\r\n");
+        when(ftpClient.sendCommand("REST", "1")).thenReturn(502);
+        assertEquals(-1,
+                SegmentedFtpDownload.segmentableSize(ftpClient, SOURCE, 0));
+
+        when(ftpClient.sendCommand("REST", "1")).thenReturn(350);
+        assertEquals(100003,
+                SegmentedFtpDownload.segmentableSize(ftpClient, SOURCE, 0));
+    }
+
+    @Test
+    public void segmentableSize_BelowThreshold_RestNotSent() throws Exception {
+        when(ftpClient.sendCommand("SIZE", SOURCE)).thenReturn(213);
+        when(ftpClient.getReplyString()).thenReturn("213 100003\r\n");
+
+        assertEquals(-1, SegmentedFtpDownload.segmentableSize(ftpClient,
+                SOURCE, 1000000));
+
+        verify(ftpClient, never()).sendCommand(eq("REST"), anyString());
+    }
+
+    @Test
+    public void modificationTime_MdtmReply_ParsedAsUtc() throws Exception {
+        when(ftpClient.sendCommand("MDTM", SOURCE)).thenReturn(213);
+        when(ftpClient.getReplyString()).thenReturn("213 20130316230000\r\n");
+        assertEquals(1363474800000L,
+                SegmentedFtpDownload.modificationTime(ftpClient, SOURCE));
+
+        when(ftpClient.getReplyString()).thenReturn(
+                "213 20130316230000.25\r\n");
+        assertEquals(1363474800250L,
+                SegmentedFtpDownload.modificationTime(ftpClient, SOURCE));
+    }
+
+    @Test
+    public void modificationTime_MdtmNotSupported_ReturnsMinusOne()
+            throws Exception {
+        when(ftpClient.sendCommand("MDTM", SOURCE)).thenReturn(502);
+        assertEquals(-1,
+                SegmentedFtpDownload.modificationTime(ftpClient, SOURCE));
+
+        when(ftpClient.sendCommand("MDTM", SOURCE)).thenReturn(213);
+        when(ftpClient.getReplyString()).thenReturn("213 yesterday\r\n");
+        assertEquals(-1,
+                SegmentedFtpDownload.modificationTime(ftpClient, SOURCE));
+    }
+
+    /**
+     * @return a client serving the content from the last restart offset
+     */
+    private FTPClient newClient() throws IOException {
+        final FTPClient client = mock(FTPClient.class);
+        final AtomicLong restartOffset = new AtomicLong();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+                restartOffset.set((Long) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(client).setRestartOffset(anyLong());
+        when(client.retrieveFileStream(SOURCE)).thenAnswer(
+                new Answer<InputStream>() {
+                    @Override
+                    public InputStream answer(final InvocationOnMock invocation) {
+                        final int offset = (int) restartOffset.get();
+                        return new ByteArrayInputStream(content, offset,
+                                content.length - offset);
+                    }
+                });
+        when(client.completePendingCommand()).thenReturn(true);
+        when(client.setFileType(anyInt())).thenReturn(true);
+        return client;
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        final byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,167 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import com.ericsson.oss.mediation.camel.components.eftp.exceptions.GenericEftpException;
+import com.ericsson.oss.mediation.camel.components.eftp.utils.TarStreamBuilder;
+import com.jcraft.jsch.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SftpTarBatchTest {
+
+    private static final String SRC_DIR = "/pm_data";
+
+    @Mock
+    private ChannelSftp channel;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private ChannelExec exec;
+
+    private final byte[] a1 = "<measData>1</measData>".getBytes();
+    private final byte[] a3 = "<measData>3</measData>".getBytes();
+    private File destDir;
+
+    @Before
+    public void setUp() throws Exception {
+        destDir = File.createTempFile("tar", "");
+        destDir.delete();
+        when(channel.getSession()).thenReturn(session);
+        when(session.openChannel("exec")).thenReturn(exec);
+        when(exec.isClosed()).thenReturn(true);
+        // A2.xml was removed before the archiver got to it
+        archiver(new TarStreamBuilder().file("A1.xml", a1)
+                .file("A3.xml", a3).build(),
+                "tar: A2.xml: Cannot stat: No such file or directory\n", 2);
+    }
+
+    @After
+    public void tearDown() {
+        if (destDir.isDirectory()) {
+            for (final File file : destDir.listFiles()) {
+                file.delete();
+            }
+            destDir.delete();
+        }
+    }
+
+    @Test
+    public void next_FileMissingInTheMiddle_FollowingFileStillFound()
+            throws Exception {
+        final SftpTarBatch tar = open("A1.xml", "A2.xml", "A3.xml");
+
+        assertArrayEquals(a1, readAll(tar.next("A1.xml")));
+        try {
+            tar.next("A2.xml");
+            fail("A2.xml is not in the stream");
+        } catch (final GenericEftpException e) {
+            assertEquals(ChannelSftp.SSH_FX_NO_SUCH_FILE, e.getErrorCode());
+            assertTrue(e.getErrorDescription().contains("Cannot stat"));
+        }
+        assertArrayEquals(a3, readAll(tar.next("A3.xml")));
+        assertEquals(2, tar.finish());
+    }
+
+    @Test
+    public void transferTo_FileMissingInTheMiddle_OthersWrittenMissingReported()
+            throws Exception {
+        final SftpTarBatch tar = open("A1.xml", "A2.xml", "A3.xml");
+        final Map<String, GenericEftpException> failures =
+                new HashMap<String, GenericEftpException>();
+
+        final List<File> written = tar.transferTo(files("A1.xml", "A2.xml",
+                "A3.xml"), destDir, 4096, 0, failures);
+
+        assertEquals(Arrays.asList(new File(destDir, "A1.xml"), new File(
+                destDir, "A3.xml")), written);
+        assertArrayEquals(a3, readAll(new FileInputStream(written.get(1))));
+        assertEquals(Collections.singleton("A2.xml"), failures.keySet());
+        assertFalse(new File(destDir, "A2.xml").exists());
+    }
+
+    @Test
+    public void transferTo_FileChangedWhileRead_FileFailedByExitStatus()
+            throws Exception {
+        archiver(new TarStreamBuilder().file("A1.xml", a1)
+                .file("A3.xml", a3).build(),
+                "tar: A3.xml: file changed as we read it\n", 1);
+        final SftpTarBatch tar = open("A1.xml", "A3.xml");
+        final Map<String, GenericEftpException> failures =
+                new HashMap<String, GenericEftpException>();
+
+        final List<File> written = tar.transferTo(files("A1.xml", "A3.xml"),
+                destDir, 4096, 0, failures);
+
+        assertEquals(Collections.singletonList(new File(destDir, "A1.xml")),
+                written);
+        assertEquals(1, failures.get("A3.xml").getErrorCode());
+    }
+
+    private void archiver(final byte[] stream, final String errors,
+            final int status) throws Exception {
+        when(exec.getInputStream()).thenReturn(
+                new ByteArrayInputStream(stream));
+        when(exec.getExitStatus()).thenReturn(status);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation)
+                    throws IOException {
+                ((OutputStream) invocation.getArguments()[0]).write(errors
+                        .getBytes());
+                return null;
+            }
+        }).when(exec).setErrStream(any(OutputStream.class));
+    }
+
+    private SftpTarBatch open(final String... names) throws Exception {
+        final SftpTarBatch tar = new SftpTarBatch(channel, "tar -cf -",
+                SRC_DIR, Arrays.asList(names));
+        tar.open(1000);
+        return tar;
+    }
+
+    private static Map<String, String> files(final String... names) {
+        final Map<String, String> files = new LinkedHashMap<String, String>();
+        for (final String name : names) {
+            files.put(name, name);
+        }
+        return files;
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,110 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.transfer;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TransferExecutorsTest {
+
+    @Test
+    public void newVirtualThreadExecutor_VirtualThreadsSupported_RunsTasksOnVirtualThreads()
+            throws Exception {
+        assumeTrue(TransferExecutors.isVirtualThreadSupported());
+        final ExecutorService executor = TransferExecutors
+                .newVirtualThreadExecutor(2);
+        try {
+            final Thread thread = executor.submit(new Callable<Thread>() {
+                @Override
+                public Thread call() {
+                    return Thread.currentThread();
+                }
+            }).get(5, TimeUnit.SECONDS);
+            assertEquals(Boolean.TRUE,
+                    Thread.class.getMethod("isVirtual").invoke(thread));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void newVirtualThreadExecutor_VirtualThreadsNotSupported_ReturnsNull() {
+        assumeFalse(TransferExecutors.isVirtualThreadSupported());
+        assertNull(TransferExecutors.newVirtualThreadExecutor(2));
+    }
+
+    @Test
+    public void newExecutor_NoFactory_ReturnsNull() {
+        assertNull(TransferExecutors.newExecutor(null, 2));
+    }
+
+    @Test
+    public void newExecutor_FactoryFails_ReturnsNull() throws Exception {
+        assertNull(TransferExecutors.newExecutor(
+                TransferExecutorsTest.class.getMethod("failingExecutor"), 2));
+    }
+
+    @Test
+    public void newExecutor_MoreTasksThanLimit_RunsAtMostLimitAtOnce()
+            throws Exception {
+        final ExecutorService executor = TransferExecutors.newExecutor(
+                TransferExecutorsTest.class.getMethod("unboundedExecutor"), 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 6; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final int now = running.incrementAndGet();
+                    int max = maxRunning.get();
+                    while (now > max && !maxRunning.compareAndSet(max, now)) {
+                        max = maxRunning.get();
+                    }
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            });
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(2, running.get());
+        release.countDown();
+        executor.shutdown();
+
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+        assertEquals(6, completed.get());
+    }
+
+    public static ExecutorService unboundedExecutor() {
+        return Executors.newCachedThreadPool();
+    }
+
+    public static ExecutorService failingExecutor() {
+        throw new UnsupportedOperationException("no virtual threads");
+    }
+}
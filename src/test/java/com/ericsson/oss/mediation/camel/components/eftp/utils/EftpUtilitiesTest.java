@@ -12,6 +12,8 @@
 package com.ericsson.oss.mediation.camel.components.eftp.utils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 
@@ -82,4 +84,48 @@ public class EftpUtilitiesTest {
                 "/netsim/netsim_dbdir/simdir/netsim/netsimdir/LTED125-V2x160-ST-FDD-LTE04/LTE04ERBS00108/fs/c/pm_data/A20130316.2300-2315:1.xml.gz",
                 fileToGet);
     }
+
+    @Test
+    public void testGlobToRegex_WildcardsMatchFileNames() {
+        final String regex = EftpUtilities.globToRegex("A2013*.xml.?z");
+        assertTrue("A20130316.2300-2315:1.xml.gz".matches(regex));
+        assertFalse("A20130316.2300-2315:1.xml".matches(regex));
+        assertFalse("B20130316.xml.gz".matches(regex));
+    }
+
+    @Test
+    public void testGlobToRegex_RegexCharactersMatchedLiterally() {
+        final String regex = EftpUtilities.globToRegex("file(1)+.txt");
+        assertTrue("file(1)+.txt".matches(regex));
+        assertFalse("file11.txt".matches(regex));
+    }
+
+    @Test
+    public void testGlobToRegex_CharacterClass() {
+        final String regex = EftpUtilities.globToRegex("file[0-9].txt");
+        assertTrue("file7.txt".matches(regex));
+        assertFalse("fileA.txt".matches(regex));
+    }
+
+    @Test
+    public void testGlobToRegex_NegatedCharacterClass() {
+        final String regex = EftpUtilities.globToRegex("file[!0-9].txt");
+        assertTrue("fileA.txt".matches(regex));
+        assertFalse("file7.txt".matches(regex));
+        assertTrue("file].txt".matches(EftpUtilities
+                .globToRegex("file[]x].txt")));
+    }
+
+    @Test
+    public void testGlobToRegex_UnclosedBracketMatchedLiterally() {
+        final String regex = EftpUtilities.globToRegex("file[1.txt");
+        assertTrue("file[1.txt".matches(regex));
+        assertFalse("file1.txt".matches(regex));
+        assertTrue("a&&b".matches(EftpUtilities.globToRegex("a[&][&]b")));
+    }
+
+    @Test
+    public void testShellQuote_SingleQuote() {
+        assertEquals("'/ctr'\\''s dir'", EftpUtilities.shellQuote("/ctr's dir"));
+    }
 }
@@ -0,0 +1,156 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ftpserver.ConnectionConfigFactory;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.*;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+
+/**
+ * An in process FTP server accepting any user name and password, each user
+ * having the given directory as its home unless a subclass decides
+ * otherwise. Used by the benchmarks and load
+ * tests which need servers on arbitrary ports and many distinct users, one
+ * per simulated network element.
+ */
+public class EmbeddedFtpServer {
+
+    private final int port;
+    private final File homeDirectory;
+    private final int maxLogins;
+
+    private FtpServer server;
+
+    /**
+     * @param port
+     *            the port to listen on
+     * @param homeDirectory
+     *            the home directory of every user
+     * @param maxLogins
+     *            the maximum number of concurrent logins
+     */
+    public EmbeddedFtpServer(final int port, final File homeDirectory,
+            final int maxLogins) {
+        this.port = port;
+        this.homeDirectory = homeDirectory;
+        this.maxLogins = maxLogins;
+    }
+
+    public void start() throws FtpException {
+        final FtpServerFactory serverFactory = new FtpServerFactory();
+        final ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setPort(port);
+        serverFactory.addListener("default", listenerFactory.createListener());
+        final ConnectionConfigFactory connectionConfig = new ConnectionConfigFactory();
+        connectionConfig.setMaxLogins(maxLogins);
+        serverFactory.setConnectionConfig(connectionConfig
+                .createConnectionConfig());
+        serverFactory.setUserManager(new AcceptAllUserManager());
+        server = serverFactory.createServer();
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Creates the user logged in with the given name, subclasses may change
+     * its home directory and authorities
+     */
+    protected BaseUser newUser(final String name) {
+        final BaseUser user = new BaseUser();
+        user.setName(name);
+        user.setPassword(name);
+        user.setHomeDirectory(homeDirectory.getAbsolutePath());
+        final List<Authority> authorities = new ArrayList<Authority>();
+        authorities.add(new WritePermission());
+        user.setAuthorities(authorities);
+        return user;
+    }
+
+    /**
+     * @return whether the login of the user is accepted, always true unless
+     *         overridden
+     */
+    protected boolean accept(final String name) {
+        return true;
+    }
+
+    private final class AcceptAllUserManager implements UserManager {
+
+        @Override
+        public User authenticate(final Authentication authentication)
+                throws AuthenticationFailedException {
+            if (authentication instanceof UsernamePasswordAuthentication) {
+                final String name = ((UsernamePasswordAuthentication) authentication)
+                        .getUsername();
+                if (!accept(name)) {
+                    throw new AuthenticationFailedException(
+                            "Authentication failed");
+                }
+                return newUser(name);
+            }
+            throw new AuthenticationFailedException("Password required");
+        }
+
+        @Override
+        public User getUserByName(final String username) {
+            return newUser(username);
+        }
+
+        @Override
+        public String[] getAllUserNames() {
+            return new String[0];
+        }
+
+        @Override
+        public void delete(final String username) {
+            // users are not stored
+        }
+
+        @Override
+        public void save(final User user) {
+            // users are not stored
+        }
+
+        @Override
+        public boolean doesExist(final String username) {
+            return true;
+        }
+
+        @Override
+        public String getAdminName() {
+            return "admin";
+        }
+
+        @Override
+        public boolean isAdmin(final String username) {
+            return false;
+        }
+    }
+}
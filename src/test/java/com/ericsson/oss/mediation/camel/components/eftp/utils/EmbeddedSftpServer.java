@@ -0,0 +1,156 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.utils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.sshd.SshServer;
+import org.apache.sshd.common.Compression;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.compression.CompressionDelayedZlib;
+import org.apache.sshd.common.compression.CompressionNone;
+import org.apache.sshd.common.compression.CompressionZlib;
+import org.apache.sshd.server.*;
+import org.apache.sshd.server.auth.UserAuthPassword;
+import org.apache.sshd.server.command.ScpCommandFactory;
+import org.apache.sshd.server.filesystem.NativeFileSystemFactory;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.server.sftp.SftpSubsystem;
+import org.apache.sshd.server.shell.ProcessShellFactory;
+
+/**
+ * An in process SFTP server serving the local file system, configured the
+ * same way as the server started by {@link BaseCamelIntegrationTest}. Used by
+ * the benchmarks and load tests which need servers on arbitrary ports.
+ */
+public class EmbeddedSftpServer {
+
+    private static final PasswordAuthenticator ACCEPT_ALL = new PasswordAuthenticator() {
+        @Override
+        public boolean authenticate(final String username,
+                final String password, final ServerSession session) {
+            return true;
+        }
+    };
+
+    private final SshServer sshd;
+    private final int port;
+
+    /**
+     * Creates a server accepting any user name and password
+     *
+     * @param port
+     *            the port to listen on
+     */
+    public EmbeddedSftpServer(final int port) {
+        this(port, ACCEPT_ALL);
+    }
+
+    /**
+     * @param port
+     *            the port to listen on
+     * @param authenticator
+     *            the password authenticator of the server
+     */
+    public EmbeddedSftpServer(final int port,
+            final PasswordAuthenticator authenticator) {
+        this.port = port;
+        sshd = SshServer.setUpDefaultServer();
+        sshd.setPort(port);
+        sshd.setPasswordAuthenticator(authenticator);
+        sshd.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        sshd.setFileSystemFactory(new NativeFileSystemFactory());
+        sshd.setCommandFactory(new ScpCommandFactory());
+
+        final List<NamedFactory<UserAuth>> userAuthFactories = new ArrayList<NamedFactory<UserAuth>>(
+                1);
+        userAuthFactories.add(new UserAuthPassword.Factory());
+        sshd.setUserAuthFactories(userAuthFactories);
+
+        final List<NamedFactory<Command>> namedFactoryList = new ArrayList<NamedFactory<Command>>();
+        namedFactoryList.add(new SftpSubsystem.Factory());
+        sshd.setSubsystemFactories(namedFactoryList);
+    }
+
+    /**
+     * Runs the commands of exec channels other than scp with /bin/sh, as the
+     * shell of a network element would. Must be called before the server is
+     * started.
+     *
+     * @return this server
+     */
+    public EmbeddedSftpServer withCommandExecution() {
+        sshd.setCommandFactory(new ScpCommandFactory(new CommandFactory() {
+            @Override
+            public Command createCommand(final String command) {
+                return new ProcessShellFactory(new String[] { "/bin/sh",
+                        "-c", command }).create();
+            }
+        }));
+        return this;
+    }
+
+    /**
+     * Offers zlib compression of the transport, as well as none. Must be
+     * called before the server is started.
+     *
+     * @return this server
+     */
+    public EmbeddedSftpServer withCompression() {
+        final List<NamedFactory<Compression>> compressionFactories = new ArrayList<NamedFactory<Compression>>();
+        compressionFactories.add(new CompressionNone.Factory());
+        compressionFactories.add(new CompressionZlib.Factory());
+        compressionFactories.add(new CompressionDelayedZlib.Factory());
+        sshd.setCompressionFactories(compressionFactories);
+        return this;
+    }
+
+    public void start() throws IOException {
+        sshd.start();
+    }
+
+    public void stop() {
+        try {
+            sshd.stop(true);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the underlying server, for tests which need to customise it
+     *         before it is started
+     */
+    public SshServer getServer() {
+        return sshd;
+    }
+
+    /**
+     * @return a port which was free at the time of the call
+     */
+    public static int findFreePort() throws IOException {
+        final ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.utils;
+
+import java.io.*;
+import java.net.*;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * TCP proxy which delays every chunk of data by a fixed one way latency in
+ * each direction, emulating the round trip time of a WAN link to a remote
+ * network element without limiting its bandwidth.
+ */
+public class LatencyProxy {
+
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final int listenPort;
+    private final String targetHost;
+    private final int targetPort;
+    private final long oneWayDelayMillis;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private ServerSocket serverSocket;
+
+    /**
+     * @param listenPort
+     *            the local port clients connect to
+     * @param targetHost
+     *            the host of the real server
+     * @param targetPort
+     *            the port of the real server
+     * @param oneWayDelayMillis
+     *            the delay added to each direction, i.e. half the injected
+     *            round trip time
+     */
+    public LatencyProxy(final int listenPort, final String targetHost,
+            final int targetPort, final long oneWayDelayMillis) {
+        this.listenPort = listenPort;
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.oneWayDelayMillis = oneWayDelayMillis;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(listenPort);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket client = serverSocket.accept();
+                        final Socket server = new Socket(targetHost,
+                                targetPort);
+                        client.setTcpNoDelay(true);
+                        server.setTcpNoDelay(true);
+                        relay(client, server);
+                        relay(server, client);
+                    } catch (final IOException e) {
+                        // server socket closed
+                    }
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (final IOException e) {
+            // ignore
+        }
+        executor.shutdownNow();
+    }
+
+    public int getListenPort() {
+        return listenPort;
+    }
+
+    private void relay(final Socket from, final Socket to) {
+        final BlockingQueue<DelayedChunk> queue = new LinkedBlockingQueue<DelayedChunk>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] buffer = new byte[32 * 1024];
+                try {
+                    final InputStream in = from.getInputStream();
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        queue.put(new DelayedChunk(Arrays.copyOf(buffer, count),
+                                System.currentTimeMillis() + oneWayDelayMillis));
+                    }
+                } catch (final Exception e) {
+                    // connection closed
+                } finally {
+                    queue.offer(new DelayedChunk(END_OF_STREAM, 0));
+                }
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final OutputStream out = to.getOutputStream();
+                    while (true) {
+                        final DelayedChunk chunk = queue.take();
+                        if (chunk.data == END_OF_STREAM) {
+                            break;
+                        }
+                        final long wait = chunk.due - System.currentTimeMillis();
+                        if (wait > 0) {
+                            Thread.sleep(wait);
+                        }
+                        out.write(chunk.data);
+                        out.flush();
+                    }
+                } catch (final Exception e) {
+                    // connection closed
+                } finally {
+                    closeQuietly(from);
+                    closeQuietly(to);
+                }
+            }
+        });
+    }
+
+    private static void closeQuietly(final Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException e) {
+            // ignore
+        }
+    }
+
+    private static final class DelayedChunk {
+        private final byte[] data;
+        private final long due;
+
+        private DelayedChunk(final byte[] data, final long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+}
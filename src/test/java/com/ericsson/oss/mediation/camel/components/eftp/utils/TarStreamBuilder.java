@@ -0,0 +1,91 @@
+/*------------------------------------------------------------------------------
+ *******************************************************************************
+ * COPYRIGHT Ericsson 2012
+ *
+ * The copyright to the computer program(s) herein is the property of
+ * Ericsson Inc. The programs may be used and/or copied only with written
+ * permission from Ericsson Inc. or in accordance with the terms and
+ * conditions stipulated in the agreement/contract under which the
+ * program(s) have been supplied.
+ *******************************************************************************
+ *----------------------------------------------------------------------------*/
+package com.ericsson.oss.mediation.camel.components.eftp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Builds tar streams for tests, in the GNU format written by tar on most
+ * network elements
+ */
+public class TarStreamBuilder {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /**
+     * Adds a regular file, with a GNU long name header if its name does not
+     * fit the header
+     */
+    public TarStreamBuilder file(final String name, final byte[] content)
+            throws IOException {
+        final byte[] nameBytes = name.getBytes(UTF8);
+        if (nameBytes.length > 100) {
+            final byte[] longName = new byte[nameBytes.length + 1];
+            System.arraycopy(nameBytes, 0, longName, 0, nameBytes.length);
+            entry("././@LongLink", 'L', longName);
+        }
+        return entry(name, '0', content);
+    }
+
+    /**
+     * Adds a directory
+     */
+    public TarStreamBuilder directory(final String name) throws IOException {
+        return entry(name, '5', new byte[0]);
+    }
+
+    /**
+     * @return the tar stream, ended by its two zero blocks
+     */
+    public byte[] build() {
+        out.write(new byte[1024], 0, 1024);
+        return out.toByteArray();
+    }
+
+    private TarStreamBuilder entry(final String name, final char type,
+            final byte[] content) throws IOException {
+        final byte[] header = new byte[512];
+        final byte[] nameBytes = name.getBytes(UTF8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(100,
+                nameBytes.length));
+        put(header, 100, "0000644");
+        put(header, 108, "0000000");
+        put(header, 116, "0000000");
+        put(header, 124, String.format("%011o", content.length));
+        put(header, 136, "00000000000");
+        header[156] = (byte) type;
+        put(header, 257, "ustar  ");
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        int checksum = 0;
+        for (final byte value : header) {
+            checksum += value & 0xff;
+        }
+        put(header, 148, String.format("%06o", checksum));
+        out.write(header);
+        out.write(content);
+        out.write(new byte[(512 - content.length % 512) % 512]);
+        return this;
+    }
+
+    private static void put(final byte[] header, final int offset,
+            final String value) {
+        final byte[] bytes = value.getBytes(UTF8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+}